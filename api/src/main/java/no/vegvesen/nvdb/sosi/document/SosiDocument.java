@@ -53,4 +53,15 @@ public interface SosiDocument {
     Optional<SosiElement> findElement(Predicate<SosiElement> predicate);
 
     Optional<SosiElement> findElementRecursively(Predicate<SosiElement> predicate);
+
+    /**
+     * @return the union of the extents of the elements, in the units they are written in, or empty if there are no coordinates
+     */
+    default Optional<SosiExtent> getExtent() {
+        return elements()
+                .map(SosiElement::getExtent)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .reduce(SosiExtent::union);
+    }
 }
@@ -29,6 +29,7 @@ import no.vegvesen.nvdb.sosi.SosiLocation;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -64,4 +65,28 @@ public interface SosiElement {
     void rename(Function<String, String> transformer);
 
     void computeValues(Function<Stream<SosiValue>, Stream<SosiValue>> transformer);
+
+    /**
+     * Returns the extent of the coordinates (NØ, NØH and NØD) of this element, in the units
+     * they are written in. Readers may compute it while parsing, in which case it is not updated
+     * when values are computed afterwards.
+     *
+     * @return the extent, or empty if the element has no coordinates
+     */
+    default Optional<SosiExtent> getExtent() {
+        return SosiExtent.of(this);
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the content of this element, excluding its own serial number.
+     * It doesn't depend on whitespace, comments, line layout or quotation marks, so a feature whose
+     * fingerprint is unchanged since an earlier version of a file can be skipped without comparing
+     * its values. Readers compute it while parsing top-level elements if configured to, and it is
+     * not updated when values are computed afterwards.
+     *
+     * @return the fingerprint, or empty if not computed
+     */
+    default OptionalLong getFingerprint() {
+        return OptionalLong.empty();
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.document;
+
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * An immutable bounding box of coordinates, with the range of heights and the number of points.
+ * The values are in the units they are written in, i.e. not transformed by TRANSPAR, unless
+ * otherwise stated. Heights are NaN when no point has a height.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiExtent {
+    private final double minNorth;
+    private final double minEast;
+    private final double maxNorth;
+    private final double maxEast;
+    private final double minHeight;
+    private final double maxHeight;
+    private final long pointCount;
+
+    private SosiExtent(double minNorth, double minEast, double maxNorth, double maxEast, double minHeight, double maxHeight, long pointCount) {
+        if (!(minNorth <= maxNorth && minEast <= maxEast)) {
+            throw new IllegalArgumentException("Invalid extent: " + minNorth + " " + minEast + " " + maxNorth + " " + maxEast);
+        }
+        this.minNorth = minNorth;
+        this.minEast = minEast;
+        this.maxNorth = maxNorth;
+        this.maxEast = maxEast;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.pointCount = pointCount;
+    }
+
+    public static SosiExtent of(double minNorth, double minEast, double maxNorth, double maxEast) {
+        return new SosiExtent(minNorth, minEast, maxNorth, maxEast, Double.NaN, Double.NaN, 0);
+    }
+
+    public static SosiExtent of(double minNorth, double minEast, double maxNorth, double maxEast, double minHeight, double maxHeight, long pointCount) {
+        return new SosiExtent(minNorth, minEast, maxNorth, maxEast, minHeight, maxHeight, pointCount);
+    }
+
+    /**
+     * Computes the extent of the coordinates (NØ, NØH and NØD) of an element, by walking their values.
+     *
+     * @param element a top-level element
+     * @return the extent, or empty if the element has no coordinates
+     */
+    public static Optional<SosiExtent> of(SosiElement element) {
+        double minNorth = Double.POSITIVE_INFINITY, minEast = Double.POSITIVE_INFINITY;
+        double maxNorth = Double.NEGATIVE_INFINITY, maxEast = Double.NEGATIVE_INFINITY;
+        double minHeight = Double.NaN, maxHeight = Double.NaN;
+        long pointCount = 0;
+
+        Iterator<SosiElement> subElements = element.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            int dimension = coordinateDimensionOf(subElement.getName());
+            if (dimension == 0) {
+                continue;
+            }
+            boolean hasHeight = subElement.getName().equalsIgnoreCase("NØH");
+            double[] point = new double[dimension];
+            int ordinate = 0;
+            Iterator<SosiValue> values = subElement.values().iterator();
+            while (values.hasNext()) {
+                SosiValue value = values.next();
+                if (!(value instanceof SosiNumber)) {
+                    continue;
+                }
+                point[ordinate++] = ((SosiNumber)value).doubleValue();
+                if (ordinate == dimension) {
+                    minNorth = Math.min(minNorth, point[0]);
+                    maxNorth = Math.max(maxNorth, point[0]);
+                    minEast = Math.min(minEast, point[1]);
+                    maxEast = Math.max(maxEast, point[1]);
+                    if (hasHeight) {
+                        minHeight = Double.isNaN(minHeight) ? point[2] : Math.min(minHeight, point[2]);
+                        maxHeight = Double.isNaN(maxHeight) ? point[2] : Math.max(maxHeight, point[2]);
+                    }
+                    pointCount++;
+                    ordinate = 0;
+                }
+            }
+        }
+        return pointCount == 0 ? Optional.empty() : Optional.of(new SosiExtent(minNorth, minEast, maxNorth, maxEast, minHeight, maxHeight, pointCount));
+    }
+
+    /**
+     * @return the number of values of each point of a coordinate element, or 0 if not a coordinate element
+     */
+    public static int coordinateDimensionOf(String elementName) {
+        if (elementName.equalsIgnoreCase("NØ")) {
+            return 2;
+        }
+        return elementName.equalsIgnoreCase("NØH") || elementName.equalsIgnoreCase("NØD") ? 3 : 0;
+    }
+
+    public double getMinNorth() {
+        return minNorth;
+    }
+
+    public double getMinEast() {
+        return minEast;
+    }
+
+    public double getMaxNorth() {
+        return maxNorth;
+    }
+
+    public double getMaxEast() {
+        return maxEast;
+    }
+
+    public double getMinHeight() {
+        return minHeight;
+    }
+
+    public double getMaxHeight() {
+        return maxHeight;
+    }
+
+    public boolean hasHeight() {
+        return !Double.isNaN(minHeight);
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return the smallest extent containing both extents, with the sum of their points
+     */
+    public SosiExtent union(SosiExtent other) {
+        return new SosiExtent(
+                Math.min(minNorth, other.minNorth), Math.min(minEast, other.minEast),
+                Math.max(maxNorth, other.maxNorth), Math.max(maxEast, other.maxEast),
+                minOrNaN(minHeight, other.minHeight), maxOrNaN(maxHeight, other.maxHeight),
+                pointCount + other.pointCount);
+    }
+
+    /**
+     * @return true if the other extent is inside this, ignoring heights
+     */
+    public boolean contains(SosiExtent other) {
+        return other.minNorth >= minNorth && other.maxNorth <= maxNorth && other.minEast >= minEast && other.maxEast <= maxEast;
+    }
+
+    /**
+     * @return true if the extents overlap or touch, ignoring heights
+     */
+    public boolean intersects(SosiExtent other) {
+        return other.minNorth <= maxNorth && other.maxNorth >= minNorth && other.minEast <= maxEast && other.maxEast >= minEast;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SosiExtent)) {
+            return false;
+        }
+        SosiExtent other = (SosiExtent)obj;
+        return Double.compare(minNorth, other.minNorth) == 0 && Double.compare(minEast, other.minEast) == 0
+                && Double.compare(maxNorth, other.maxNorth) == 0 && Double.compare(maxEast, other.maxEast) == 0
+                && Double.compare(minHeight, other.minHeight) == 0 && Double.compare(maxHeight, other.maxHeight) == 0
+                && pointCount == other.pointCount;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(minNorth);
+        result = 31 * result + Double.hashCode(minEast);
+        result = 31 * result + Double.hashCode(maxNorth);
+        result = 31 * result + Double.hashCode(maxEast);
+        result = 31 * result + Double.hashCode(minHeight);
+        result = 31 * result + Double.hashCode(maxHeight);
+        return 31 * result + Long.hashCode(pointCount);
+    }
+
+    @Override
+    public String toString() {
+        return "SosiExtent(" + minNorth + " " + minEast + ", " + maxNorth + " " + maxEast
+                + (hasHeight() ? ", H " + minHeight + "-" + maxHeight : "") + ", " + pointCount + " point(s))";
+    }
+
+    private static double minOrNaN(double a, double b) {
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.min(a, b);
+    }
+
+    private static double maxOrNaN(double a, double b) {
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.max(a, b);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link SosiParser} that is fed input in chunks by the caller instead of reading from a
+ * blocking input source. This makes it possible to parse SOSI data arriving asynchronously,
+ * e.g. from a network connection, without dedicating a thread to each input source.
+ *
+ * <p>
+ * When all input fed so far has been consumed, {@code next()} returns {@link Event#NOT_AVAILABLE}.
+ * The caller should then feed more input (or signal end of input) and call {@code next()} again.
+ * Tokens split across chunks, including quoted strings and multibyte characters, are handled
+ * transparently.
+ *
+ * <p>
+ * The following example demonstrates the typical usage:
+ * <pre>
+ * <code>
+ * SosiNonBlockingParser parser = Sosi.createNonBlockingParser();
+ * parser.feedInput(chunk);
+ * while (parser.hasNext()) {
+ *     Event event = parser.next();
+ *     if (event == Event.NOT_AVAILABLE) {
+ *         break; // wait for next chunk
+ *     }
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ *
+ * Based on the NonBlockingJsonParser class of the Jackson JSON processor.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public interface SosiNonBlockingParser extends SosiParser {
+
+    /**
+     * Returns {@code true} if all input fed so far has been consumed, and the parser
+     * needs more input to advance to the next state.
+     *
+     * @return {@code true} if more input is needed
+     */
+    boolean needMoreInput();
+
+    /**
+     * Feeds a chunk of input to the parser. All remaining bytes of the buffer are
+     * consumed (the position of the buffer is advanced to its limit).
+     *
+     * @param input the next chunk of input
+     * @throws IllegalStateException if end of input has been signalled
+     */
+    void feedInput(ByteBuffer input);
+
+    /**
+     * Signals that no more input will be fed to the parser.
+     */
+    void endOfInput();
+}
@@ -30,6 +30,8 @@ import no.vegvesen.nvdb.sosi.SosiLocation;
 import java.io.Closeable;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Provides forward, read-only access to SOSI data in a streaming way. This
@@ -53,7 +55,8 @@ import java.util.Arrays;
  * processing each element. The parser can generate the following events:
  * {@code START_HEAD}, {@code END_HEAD}, {@code START_ELEMENT},
  * {@code END_ELEMENT}, {@code COMMENT}, {@code CONCATENATION}, {@code VALUE}, {@code VALUE_DEFAULT},
- * {@code VALUE_UNSPECIFIED}, {@code VALUE_SERNO}, {@code VALUE_REF} and {@code END}.
+ * {@code VALUE_UNSPECIFIED}, {@code VALUE_SERNO}, {@code VALUE_REF} and {@code END}. Non-blocking parsers
+ * may also generate {@code NOT_AVAILABLE}.
  *
  * <p>
  * <b>For example</b>, for a simple SOSI file (".HODE ..EIER Tore Torell .SLUTT"), the parser generates
@@ -157,7 +160,14 @@ public interface SosiParser extends AutoCloseable {
         /**
          * End of a SOSI file. The position of the parser is after ".SLUTT".
          */
-        END;
+        END,
+        /**
+         * More input is needed before the next event can be determined. Only returned by
+         * non-blocking parsers (see {@link SosiNonBlockingParser}), when all input fed so far
+         * has been consumed. Calling {@code next()} again after feeding more input continues
+         * where the parser left off.
+         */
+        NOT_AVAILABLE;
 
         public boolean isOneOf(Event... events) {
             return Arrays.stream(events).anyMatch(e -> e == this);
@@ -188,6 +198,52 @@ public interface SosiParser extends AutoCloseable {
      */
     Event next();
 
+    /**
+     * Skips the values and subelements of the current element, and returns the event ending it.
+     * This method should only be called when the parser state is {@link Event#START_HEAD} or
+     * {@link Event#START_ELEMENT}. The skipped input is scanned only for level markers, so
+     * values aren't classified or validated.
+     *
+     * <p>
+     * A non-blocking parser returns {@link Event#NOT_AVAILABLE} if it runs out of input while
+     * skipping; this method should then be called again when more input has been fed.
+     *
+     * @return {@link Event#END_HEAD} or {@link Event#END_ELEMENT}
+     * @throws IllegalStateException when the parser state is not {@code START_HEAD} or {@code START_ELEMENT}
+     * @throws no.vegvesen.nvdb.sosi.SosiException if an i/o error occurs (IOException
+     * would be cause of SosiException)
+     * @throws SosiParsingException if the input ends before the element
+     */
+    Event skipElement();
+
+    /**
+     * Reads the values of a coordinate element (e.g. NØ or NØH) as points of int values, passing
+     * each point to the consumer. Values are read up to the first point containing a token that isn't an
+     * integer within the range of int, such as a level marker, a comment or a decimal number. The values of
+     * that point are left to be read by {@link #next()}, together with the token.
+     * This method should only be called when the parser state is {@link Event#START_ELEMENT} or
+     * {@link Event#VALUE_NUMBER}. If any values are read, the parser state is then {@link Event#VALUE_NUMBER}
+     * for the last value read. Not supported by non-blocking parsers.
+     *
+     * @param dimension the number of values of each point
+     * @param consumer the consumer of points; the array passed is reused for all points
+     * @return the number of points read
+     * @throws IllegalStateException when the parser state is not {@code START_ELEMENT} or {@code VALUE_NUMBER}
+     */
+    int readCoordinates(int dimension, IntArrayConsumer consumer);
+
+    /**
+     * Reads the values of a coordinate element (e.g. NØ or NØH) into an array, as for
+     * {@link #readCoordinates(int, IntArrayConsumer)}. Reading stops when the array can't hold
+     * another point; this method may then be called again to read the next points.
+     *
+     * @param dimension the number of values of each point
+     * @param dest the array receiving the values, point by point from the start of the array
+     * @return the number of points read
+     * @throws IllegalStateException when the parser state is not {@code START_ELEMENT} or {@code VALUE_NUMBER}
+     */
+    int readCoordinates(int dimension, long[] dest);
+
     /**
      * Returns a {@code String} for the name of elements or the value of comments or values.
      * This method should only be called when the parser state is {@link Event#START_ELEMENT}, {@link Event#COMMENT},
@@ -306,6 +362,15 @@ public interface SosiParser extends AutoCloseable {
     @Override
     void close();
 
+    /**
+     * Returns the errors recovered from so far, if {@link Feature#RECOVER_FROM_ERRORS} is enabled.
+     *
+     * @return the errors, in the order found
+     */
+    default List<SosiParsingError> getErrors() {
+        return Collections.emptyList();
+    }
+
     /**
      * Enumeration that defines all on/off features for parser implementations.
      */
@@ -321,7 +386,25 @@ public interface SosiParser extends AutoCloseable {
          * Feature that determines whether parser will allow missing or
          * invalid TEGNSETT element/value.
          */
-        ALLOW_MISSING_OR_INVALID_CHARSET(true);
+        ALLOW_MISSING_OR_INVALID_CHARSET(true),
+
+        /**
+         * Feature that determines whether parser will allow elements
+         * without a preceding head element, e.g. when parsing a fragment
+         * of a SOSI file.
+         */
+        ALLOW_MISSING_HEAD(false),
+
+        /**
+         * Feature that determines whether parser will recover from parsing
+         * errors instead of throwing. The top-level element with the error is
+         * closed, the input is skipped to the next level 1 marker, and the
+         * error is collected, see {@link SosiParser#getErrors()}. If the input
+         * ends inside an element, the error is collected, the open elements are
+         * closed, and the parser ends as if the end element was found. Only
+         * supported by blocking parsers.
+         */
+        RECOVER_FROM_ERRORS(false);
 
         /**
          * Whether feature is enabled or disabled by default.
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.SosiLocation;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An error recovered from by a parser with {@link SosiParser.Feature#RECOVER_FROM_ERRORS} enabled.
+ * The top-level element where the error was found is skipped, from its level marker up to the
+ * next level 1 marker. Offsets are stream offsets as of {@link SosiLocation#getStreamOffset()},
+ * i.e. chars of the decoded input.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiParsingError {
+    private final String message;
+    private final SosiLocation location;
+    private final long startOffset;
+    private final long endOffset;
+
+    public SosiParsingError(String message, SosiLocation location, long startOffset, long endOffset) {
+        this.message = requireNonNull(message, "message can't be null");
+        this.location = requireNonNull(location, "location can't be null");
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the location of the error
+     */
+    public SosiLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the offset of the level marker of the skipped element
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return the offset of the level marker where parsing resumed, or the end of input
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    @Override
+    public String toString() {
+        return message + " (skipped " + startOffset + "-" + endOffset + ")";
+    }
+}
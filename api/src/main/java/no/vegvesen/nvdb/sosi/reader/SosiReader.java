@@ -26,8 +26,11 @@
 package no.vegvesen.nvdb.sosi.reader;
 
 import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
 import no.vegvesen.nvdb.sosi.parser.SosiParser;
 
+import java.util.Optional;
+
 /**
  * Reads a SOSI {@link SosiDocument object} from an input source.
  *
@@ -46,6 +49,18 @@ import no.vegvesen.nvdb.sosi.parser.SosiParser;
  * </code>
  * </pre>
  *
+ * <p>
+ * Large SOSI files may instead be read one top-level element at a time, without keeping
+ * the whole document in memory:
+ * <pre>
+ * <code>
+ * Optional&lt;SosiElement&gt; element;
+ * while ((element = sosiReader.readElement()).isPresent()) {
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ *
  * Based on an interface from the Glassfish JSON parser (author Jitendra Kotamraju)
  *
  * @author Tore Eide Andersen (Kantega AS)
@@ -66,6 +81,21 @@ public interface SosiReader extends  AutoCloseable {
      */
     SosiDocument read();
 
+    /**
+     * Returns the next top-level element (the head or a feature) that is
+     * represented in the input source, or empty when the end element (.SLUTT)
+     * has been read. Can not be combined with {@link #read()}.
+     *
+     * @return the next top-level element, or empty at the end of the document
+     * @throws no.vegvesen.nvdb.sosi.SosiException if an element cannot
+     *     be created due to i/o error (IOException would be
+     * cause of SosiException)
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if an element
+     *     cannot be created due to incorrect representation
+     * @throws IllegalStateException if read or close method is already called
+     */
+    Optional<SosiElement> readElement();
+
     /**
      * Gets the parser used when reading the SOSI file.
      * @return a SOSI parser
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.reader;
+
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes the top-level elements (the head and the features) read by a {@link SosiReader}
+ * to a single {@link Flow.Subscriber}, honouring the demand signalled by the subscriber.
+ *
+ * <p>
+ * Elements are only read when there is outstanding demand, so parsing is paused while
+ * the subscriber falls behind, without buffering elements or blocking any thread. Reading
+ * and signalling is done by tasks submitted to the given executor, one task at a time.
+ * The reader is closed when the document is completely read, when an error occurs, or when
+ * the subscription is cancelled.
+ *
+ * <p>
+ * The following example demonstrates how to publish the elements of a SOSI file:
+ * <pre>
+ * <code>
+ * SosiElementPublisher publisher = new SosiElementPublisher(Sosi.createReader(new FileInputStream(file)));
+ * publisher.subscribe(subscriber);
+ * </code>
+ * </pre>
+ *
+ * This class requires a Java 9 (or later) runtime, and is therefore in the sosi-reader-flow artifact.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiElementPublisher implements Flow.Publisher<SosiElement> {
+    private static final AtomicInteger THREAD_NO = new AtomicInteger();
+
+    private final SosiReader reader;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Creates a publisher that reads and signals elements using a thread of its own. The thread is
+     * started by the first request, and ends when the document is completely read, when an error
+     * occurs, or when the subscription is cancelled.
+     *
+     * @param reader the reader to read elements from
+     */
+    public SosiElementPublisher(SosiReader reader) {
+        this.reader = requireNonNull(reader, "reader");
+        this.ownExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "sosi-publisher-" + THREAD_NO.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = ownExecutor;
+    }
+
+    /**
+     * Creates a publisher that reads and signals elements using the given executor.
+     *
+     * @param reader the reader to read elements from
+     * @param executor the executor running the read tasks
+     */
+    public SosiElementPublisher(SosiReader reader, Executor executor) {
+        this.reader = requireNonNull(reader, "reader");
+        this.executor = requireNonNull(executor, "executor");
+        this.ownExecutor = null;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SosiElement> subscriber) {
+        requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("SosiElementPublisher only supports a single subscriber"));
+            return;
+        }
+        ElementSubscription subscription = new ElementSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class ElementSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super SosiElement> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private Throwable invalidRequest;
+
+        private ElementSubscription(Flow.Subscriber<? super SosiElement> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested number of elements must be positive, was " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // The own executor is shut down when done, and later signals have nothing to do
+                    if (!done) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        // Only run by one task at a time, guarded by pendingSignals
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    if (cancelled) {
+                        // No signals are sent after cancellation, so a failure to close the reader is dropped
+                        finish();
+                    } else if (nonNull(invalidRequest)) {
+                        terminate(invalidRequest);
+                    } else {
+                        emit();
+                    }
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            long requested = demand.get();
+            long emitted = 0;
+            boolean end = false;
+            RuntimeException error = null;
+            try {
+                while (emitted < requested && !cancelled) {
+                    Optional<SosiElement> element = reader.readElement();
+                    if (!element.isPresent()) {
+                        end = true;
+                        break;
+                    }
+                    subscriber.onNext(element.get());
+                    emitted++;
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            if (end || nonNull(error)) {
+                terminate(error);
+                return;
+            }
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-emitted);
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        // Finishes, and completes the subscriber, or passes it the error or the failure to close the reader
+        private void terminate(Throwable error) {
+            RuntimeException closeFailure = finish();
+            if (isNull(error) && isNull(closeFailure)) {
+                subscriber.onComplete();
+            } else if (isNull(error)) {
+                subscriber.onError(closeFailure);
+            } else {
+                if (nonNull(closeFailure)) {
+                    error.addSuppressed(closeFailure);
+                }
+                subscriber.onError(error);
+            }
+        }
+
+        // Closes the reader and shuts down the own executor, returning the failure to close the reader, if any
+        private RuntimeException finish() {
+            done = true;
+            try {
+                reader.close();
+                return null;
+            } catch (RuntimeException e) {
+                return e;
+            } finally {
+                if (nonNull(ownExecutor)) {
+                    // Lets the current task complete, so the signal to the subscriber is still delivered
+                    ownExecutor.shutdown();
+                }
+            }
+        }
+    }
+}
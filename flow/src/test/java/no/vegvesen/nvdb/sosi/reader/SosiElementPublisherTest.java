@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.reader;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiElementPublisher class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiElementPublisherTest {
+    private static final String SOSI = ".HODE ..TEGNSETT UTF-8\n" +
+            ".PUNKT 1: ..NØ 1 2\n" +
+            ".PUNKT 2: ..NØ 3 4\n" +
+            ".KURVE 3: ..NØ 5 6 7 8\n" +
+            ".SLUTT";
+
+    @Test
+    public void shouldPublishElementsOnDemand() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new SosiElementPublisher(Sosi.createReader(new StringReader(SOSI)), Runnable::run).subscribe(subscriber);
+
+        assertThat(subscriber.received, hasSize(0));
+        subscriber.subscription.request(2);
+        assertThat(subscriber.received, hasSize(2));
+        assertThat(subscriber.received.get(0).getName(), is("HODE"));
+        assertThat(subscriber.completed.getCount(), is(1L));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.received, hasSize(4));
+        assertThat(subscriber.completed.getCount(), is(0L));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void shouldPublishFromOwnThreadEndingOnCompletion() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new SosiElementPublisher(Sosi.createReader(new StringReader(SOSI))).subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.completed.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(subscriber.received, hasSize(4));
+        assertThat(subscriber.thread.getName(), startsWith("sosi-publisher-"));
+        subscriber.thread.join(10000);
+        assertThat(subscriber.thread.isAlive(), is(false));
+        assertThat(subscriber.error, is(nullValue()));
+
+        // Requests after completion are ignored
+        subscriber.subscription.request(1);
+    }
+
+    @Test
+    public void shouldSignalFailureToCloseReader() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new SosiElementPublisher(failingToClose(Sosi.createReader(new StringReader(SOSI))), Runnable::run).subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.received, hasSize(4));
+        assertThat(subscriber.completed.getCount(), is(1L));
+        assertThat(subscriber.error.getMessage(), is("Close failed"));
+    }
+
+    @Test
+    public void shouldSignalInvalidRequestWhenReaderFailsToClose() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new SosiElementPublisher(failingToClose(Sosi.createReader(new StringReader(SOSI))), Runnable::run).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertThat(subscriber.error instanceof IllegalArgumentException, is(true));
+        assertThat(subscriber.error.getSuppressed()[0].getMessage(), is("Close failed"));
+    }
+
+    private static SosiReader failingToClose(SosiReader reader) {
+        return new SosiReader() {
+            @Override
+            public SosiDocument read() {
+                return reader.read();
+            }
+
+            @Override
+            public Optional<SosiElement> readElement() {
+                return reader.readElement();
+            }
+
+            @Override
+            public SosiParser getParser() {
+                return reader.getParser();
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+                throw new SosiException("Close failed");
+            }
+        };
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<SosiElement> {
+        private final List<SosiElement> received = new ArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private volatile Thread thread;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(SosiElement item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            thread = Thread.currentThread();
+            completed.countDown();
+        }
+    }
+}
@@ -26,11 +26,15 @@
 package no.vegvesen.nvdb.sosi;
 
 import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.index.SosiScanStatistics;
 import no.vegvesen.nvdb.sosi.reader.SosiReader;
 import no.vegvesen.nvdb.sosi.reader.SosiReaderImpl;
 import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+import no.vegvesen.nvdb.sosi.parser.SosiNonBlockingParser;
+import no.vegvesen.nvdb.sosi.parser.SosiNonBlockingParserImpl;
 import no.vegvesen.nvdb.sosi.parser.SosiParserImpl;
 import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
 import no.vegvesen.nvdb.sosi.writer.SosiLayoutFormatter;
 import no.vegvesen.nvdb.sosi.writer.SosiValueFormatter;
 import no.vegvesen.nvdb.sosi.writer.SosiWriter;
@@ -85,6 +89,17 @@ public class Sosi {
         return new SosiParserImpl(reader, new BufferPoolImpl());
     }
 
+    /**
+     * Creates a SOSI parser from the specified character stream, using
+     * the specified configuration.
+     *
+     * @param reader i/o reader from which SOSI is to be read
+     * @param config the parser configuration
+     */
+    public static SosiParser createParser(Reader reader, SosiParserConfig config) {
+        return new SosiParserImpl(reader, config.getBufferPool(), config);
+    }
+
     /**
      * Creates a SOSI parser from the specified byte stream.
      * The character encoding of the stream is determined
@@ -98,6 +113,36 @@ public class Sosi {
         return new SosiParserImpl(in, new BufferPoolImpl());
     }
 
+    /**
+     * Creates a SOSI parser from the specified byte stream, using
+     * the specified configuration.
+     *
+     * @param in i/o stream from which SOSI is to be read
+     * @param config the parser configuration
+     * @throws SosiException if encoding cannot be determined
+     *         or i/o error (IOException would be cause of SosiException)
+     */
+    public static SosiParser createParser(InputStream in, SosiParserConfig config) {
+        return new SosiParserImpl(in, config.getBufferPool(), config);
+    }
+
+    /**
+     * Creates a non-blocking SOSI parser, to which input is fed in chunks.
+     * The character encoding is detected from the first part of the input.
+     */
+    public static SosiNonBlockingParser createNonBlockingParser() {
+        return new SosiNonBlockingParserImpl(new BufferPoolImpl());
+    }
+
+    /**
+     * Creates a non-blocking SOSI parser, to which input is fed in chunks.
+     *
+     * @param encoding the character encoding of the input
+     */
+    public static SosiNonBlockingParser createNonBlockingParser(Charset encoding) {
+        return new SosiNonBlockingParserImpl(encoding, new BufferPoolImpl());
+    }
+
     /**
      * Creates a SOSI reader which can be used to read SOSI text from the
      * specified character stream.
@@ -108,6 +153,17 @@ public class Sosi {
         return new SosiReaderImpl(reader, new BufferPoolImpl());
     }
 
+    /**
+     * Creates a SOSI reader which can be used to read SOSI text from the
+     * specified character stream, using the specified parser configuration.
+     *
+     * @param reader a i/o reader from which SOSI is read
+     * @param config the parser configuration
+     */
+    public static SosiReader createReader(Reader reader, SosiParserConfig config) {
+        return new SosiReaderImpl(reader, config.getBufferPool(), config);
+    }
+
     /**
      * Creates a SOSI reader which can be used to read SOSI text from the
      * specified byte stream.
@@ -118,6 +174,27 @@ public class Sosi {
         return new SosiReaderImpl(in, new BufferPoolImpl());
     }
 
+    /**
+     * Creates a SOSI reader which can be used to read SOSI text from the
+     * specified byte stream, using the specified parser configuration.
+     *
+     * @param in i/o stream from which SOSI is read
+     * @param config the parser configuration
+     */
+    public static SosiReader createReader(InputStream in, SosiParserConfig config) {
+        return new SosiReaderImpl(in, config.getBufferPool(), config);
+    }
+
+    /**
+     * Scans SOSI data from the specified byte stream, counting and classifying the features
+     * without parsing their values.
+     *
+     * @param in i/o stream from which SOSI is read
+     */
+    public static SosiScanStatistics scan(InputStream in) {
+        return SosiScanStatistics.scan(in);
+    }
+
     /**
      * Creates a SOSI writer which can be used to write SOSI document to the
      * specified character stream.
@@ -61,12 +61,24 @@ public final class SosiMessages {
         return localize("tokenizer.io.err");
     }
 
+    public static String TOKENIZER_CANCELLED() {
+        return localize("tokenizer.cancelled");
+    }
+
 
     // parser messages
     public static String PARSER_GETSTRING_ERR(SosiParser.Event event) {
         return localize("parser.getString.err", event);
     }
 
+    public static String PARSER_SKIPELEMENT_ERR(SosiParser.Event event) {
+        return localize("parser.skipElement.err", event);
+    }
+
+    public static String PARSER_READCOORDINATES_ERR(SosiParser.Event event) {
+        return localize("parser.readCoordinates.err", event);
+    }
+
     public static String PARSER_ISINTEGRALNUMBER_ERR(SosiParser.Event event) {
         return localize("parser.isIntegralNumber.err", event);
     }
@@ -123,6 +135,7 @@ public final class SosiMessages {
         return localize("parser.grammar.nestedParentheses");
     }
 
+
     // writer messages
     public static String WRITER_WRITE_ALREADY_CALLED() {
         return localize("writer.write.already.called");
@@ -134,6 +147,10 @@ public final class SosiMessages {
         return localize("reader.read.already.called");
     }
 
+    public static String READER_READELEMENT_ALREADY_CALLED() {
+        return localize("reader.readelement.already.called");
+    }
+
     // element builder messages
     public static String ELEMENTBUILDER_NAME_NULL() {
         return localize("elementbuilder.name.null");
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.batch;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+
+/**
+ * Reads all SOSI files in a directory, one parser per file, passing the top-level elements
+ * (head and features) of every file to a consumer.
+ *
+ * <p>
+ * Files are read on virtual threads when the runtime supports them (Java 21 or later), otherwise on a
+ * bounded pool of platform threads. The number of files open at the same time, and the total size of
+ * the files being read at the same time, are limited, so that a directory with many large files does not
+ * exhaust file handles or heap. A file that fails to be read does not stop the batch; the error is
+ * reported in the {@link SosiFileResult} of the file.
+ *
+ * <p>
+ * The consumer is called concurrently from several threads, and must be thread safe:
+ * <pre>
+ * <code>
+ * SosiBatchResult result = SosiBatch.readAll(dir, element -&gt; queue.add(element));
+ * result.getFailures().forEach(failure -&gt; ...);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiBatch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiBatch.class);
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L * 1024 * 1024;
+
+    private static final SosiBatch DEFAULTS = builder().build();
+    private static final AtomicInteger THREAD_NO = new AtomicInteger();
+
+    private final int parallelism;
+    private final int maxOpenFiles;
+    private final long maxBytesInFlight;
+    private final boolean virtualThreads;
+    private final Predicate<Path> fileFilter;
+    private final SosiParserConfig parserConfig;
+
+    private SosiBatch(Builder builder) {
+        this.parallelism = builder.parallelism;
+        this.maxOpenFiles = builder.maxOpenFiles;
+        this.maxBytesInFlight = builder.maxBytesInFlight;
+        this.virtualThreads = builder.virtualThreads;
+        this.fileFilter = builder.fileFilter;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * Reads all SOSI files (files with extension .sos) in the directory using the default batch configuration.
+     *
+     * @param dir the directory to read files from
+     * @param consumer the thread safe consumer of the elements read
+     * @return the result of the batch
+     * @throws SosiException if the directory can't be listed
+     */
+    public static SosiBatchResult readAll(Path dir, Consumer<SosiElement> consumer) {
+        return DEFAULTS.read(dir, consumer);
+    }
+
+    /**
+     * @return a builder initialized with the default batch configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads all files in the directory accepted by the file filter.
+     *
+     * @param dir the directory to read files from
+     * @param consumer the thread safe consumer of the elements read
+     * @return the result of the batch
+     * @throws SosiException if the directory can't be listed, if the calling thread is interrupted, or if the
+     * consumer throws an Error, in which case the files not yet read are skipped
+     */
+    public SosiBatchResult read(Path dir, Consumer<SosiElement> consumer) {
+        long start = System.nanoTime();
+        List<Path> files = listFiles(dir);
+
+        Semaphore openFiles = new Semaphore(maxOpenFiles);
+        Semaphore bytesInFlight = new Semaphore(toKiloBytes(maxBytesInFlight));
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        ExecutorService executor = createExecutor();
+        try {
+            List<Future<SosiFileResult>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> readFile(file, consumer, openFiles, bytesInFlight, stopped)));
+            }
+            List<SosiFileResult> results = new ArrayList<>(files.size());
+            for (Future<SosiFileResult> future : futures) {
+                results.add(future.get());
+            }
+            return new SosiBatchResult(results, Duration.ofNanos(System.nanoTime() - start));
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new SosiException("Interrupted while reading SOSI files in " + dir, e);
+        } catch (ExecutionException e) {
+            // readFile reports exceptions in the result of the file, so this is an Error, e.g. thrown by the consumer
+            stopped.set(true);
+            executor.shutdownNow();
+            awaitTermination(executor);
+            throw new SosiException("Unexpected error while reading SOSI files in " + dir, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<Path> listFiles(Path dir) {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(fileFilter)
+                    .sorted()
+                    .collect(toList());
+        } catch (IOException e) {
+            throw new SosiException("Unable to list SOSI files in " + dir, e);
+        }
+    }
+
+    // Waits for the files being read to stop, so the consumer isn't called after the batch has failed
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SosiFileResult readFile(Path file, Consumer<SosiElement> consumer, Semaphore openFiles, Semaphore bytesInFlight,
+                                    AtomicBoolean stopped) {
+        long size = 0;
+        long elementCount = 0;
+        long start = System.nanoTime();
+        int acquiredPermits = 0;
+        boolean fileOpened = false;
+        try {
+            size = Files.size(file);
+            int permits = Math.min(toKiloBytes(size), toKiloBytes(maxBytesInFlight));
+            bytesInFlight.acquire(permits);
+            acquiredPermits = permits;
+            openFiles.acquire();
+            fileOpened = true;
+
+            start = System.nanoTime();
+            try (InputStream in = Files.newInputStream(file);
+                 SosiReader reader = Sosi.createReader(in, parserConfig)) {
+                Optional<SosiElement> element;
+                while (!stopped.get() && (element = reader.readElement()).isPresent()) {
+                    consumer.accept(element.get());
+                    elementCount++;
+                }
+            }
+            return new SosiFileResult(file, size, elementCount, Duration.ofNanos(System.nanoTime() - start), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new SosiFileResult(file, size, elementCount, Duration.ofNanos(System.nanoTime() - start), e);
+        } catch (IOException | RuntimeException e) {
+            return new SosiFileResult(file, size, elementCount, Duration.ofNanos(System.nanoTime() - start), e);
+        } finally {
+            if (fileOpened) {
+                openFiles.release();
+            }
+            bytesInFlight.release(acquiredPermits);
+        }
+    }
+
+    private static int toKiloBytes(long bytes) {
+        return (int)Math.min(Integer.MAX_VALUE, Math.max(1, (bytes + 1023) / 1024));
+    }
+
+    private ExecutorService createExecutor() {
+        if (virtualThreads) {
+            Optional<ExecutorService> executor = virtualThreadExecutor();
+            if (executor.isPresent()) {
+                return executor.get();
+            }
+            LOGGER.debug("Virtual threads not supported by runtime, using {} platform threads", parallelism);
+        }
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "sosi-batch-" + THREAD_NO.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(parallelism, threadFactory);
+    }
+
+    // Looked up by reflection, as the library is built for Java 8
+    private static Optional<ExecutorService> virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService)factory.invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Builder for {@link SosiBatch} instances.
+     */
+    public static final class Builder {
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+        private long maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+        private boolean virtualThreads = true;
+        private Predicate<Path> fileFilter = file -> file.getFileName().toString().toLowerCase().endsWith(".sos");
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of platform threads used when virtual threads are not used.
+         */
+        public Builder parallelism(int parallelism) {
+            require(() -> parallelism > 0, "parallelism must be positive, was %d", parallelism);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of files open at the same time.
+         */
+        public Builder maxOpenFiles(int maxOpenFiles) {
+            require(() -> maxOpenFiles > 0, "maxOpenFiles must be positive, was %d", maxOpenFiles);
+            this.maxOpenFiles = maxOpenFiles;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total size (in bytes) of the files being read at the same time.
+         * A file larger than this is read alone.
+         */
+        public Builder maxBytesInFlight(long maxBytesInFlight) {
+            require(() -> maxBytesInFlight > 0, "maxBytesInFlight must be positive, was %d", maxBytesInFlight);
+            this.maxBytesInFlight = maxBytesInFlight;
+            return this;
+        }
+
+        /**
+         * Sets whether virtual threads should be used when supported by the runtime.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets the filter deciding which files in the directory to read.
+         */
+        public Builder fileFilter(Predicate<Path> fileFilter) {
+            this.fileFilter = fileFilter;
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser used for each file.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = parserConfig;
+            return this;
+        }
+
+        public SosiBatch build() {
+            return new SosiBatch(this);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.batch;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The result of reading a batch of SOSI files.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiBatchResult {
+    private final List<SosiFileResult> fileResults;
+    private final Duration duration;
+
+    SosiBatchResult(List<SosiFileResult> fileResults, Duration duration) {
+        this.fileResults = Collections.unmodifiableList(fileResults);
+        this.duration = duration;
+    }
+
+    /**
+     * @return the results of each file, in the order the files were listed
+     */
+    public List<SosiFileResult> getFileResults() {
+        return fileResults;
+    }
+
+    /**
+     * @return the results of the files that could not be read
+     */
+    public List<SosiFileResult> getFailures() {
+        return fileResults.stream().filter(r -> !r.isSuccess()).collect(toList());
+    }
+
+    /**
+     * @return true if all files were read without errors
+     */
+    public boolean isSuccess() {
+        return fileResults.stream().allMatch(SosiFileResult::isSuccess);
+    }
+
+    /**
+     * @return the total number of elements read from all files
+     */
+    public long getElementCount() {
+        return fileResults.stream().mapToLong(SosiFileResult::getElementCount).sum();
+    }
+
+    /**
+     * @return the wall clock time spent reading the batch
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiBatchResult(files=" + fileResults.size() + ", failures=" + getFailures().size()
+                + ", elements=" + getElementCount() + ", duration=" + duration + ")";
+    }
+}
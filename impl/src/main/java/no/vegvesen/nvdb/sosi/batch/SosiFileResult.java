@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.batch;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+
+/**
+ * The result of reading a single SOSI file in a batch.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiFileResult {
+    private final Path file;
+    private final long size;
+    private final long elementCount;
+    private final Duration duration;
+    private final Throwable error;
+
+    SosiFileResult(Path file, long size, long elementCount, Duration duration, Throwable error) {
+        this.file = file;
+        this.size = size;
+        this.elementCount = elementCount;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    /**
+     * @return the file that was read
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of top-level elements (head and features) passed to the consumer.
+     * If reading failed, this is the number of elements passed before the failure.
+     *
+     * @return the number of elements read
+     */
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Returns the time spent reading the file, excluding time spent waiting
+     * for open file and heap permits.
+     *
+     * @return the time spent reading the file
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the error that stopped the reading of the file, if any
+     */
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    /**
+     * @return true if the file was read without errors
+     */
+    public boolean isSuccess() {
+        return isNull(error);
+    }
+
+    @Override
+    public String toString() {
+        return "SosiFileResult(" + file + ", size=" + size + ", elements=" + elementCount + ", duration=" + duration
+                + (isNull(error) ? "" : ", error=" + error) + ")";
+    }
+}
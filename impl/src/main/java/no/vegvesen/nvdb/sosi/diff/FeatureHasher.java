@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.parser.SosiParser.Event;
+import no.vegvesen.nvdb.sosi.parser.SosiFingerprinter;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.parser.SosiParserImpl;
+import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Computes the key and the fingerprint of each feature of a SOSI file, directly from the parser
+ * events, without building elements or creating strings. The key is the serial number of the
+ * feature, or a hash of the first value of the key attribute if one is given. As two values may have the same
+ * hash, a second, independent hash of the value is given as the check of the key, which must also be equal for
+ * features to match. The check of serial numbers is always zero.
+ *
+ * <p>
+ * The fingerprint is the one of {@link SosiElement#getFingerprint()}, which doesn't cover the serial
+ * number of the feature, so renumbered features compare as unchanged when keyed by an attribute.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class FeatureHasher {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long CHECK_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    interface Sink {
+        void accept(long key, long check, long hash);
+    }
+
+    private final String[] keyPath;
+    private final SosiParserConfig parserConfig;
+    private final SosiFingerprinter fingerprinter = new SosiFingerprinter();
+    private long unkeyedCount;
+
+    /**
+     * @param keyPath the names of the key attribute below the feature, or null to key by serial number
+     */
+    FeatureHasher(String[] keyPath, SosiParserConfig parserConfig) {
+        this.keyPath = keyPath;
+        this.parserConfig = parserConfig;
+    }
+
+    long getUnkeyedCount() {
+        return unkeyedCount;
+    }
+
+    void hash(Path sosiFile, Sink sink) {
+        try (InputStream in = Files.newInputStream(sosiFile);
+             SosiParserImpl parser = new SosiParserImpl(in, new BufferPoolImpl(), parserConfig)) {
+            hash(parser, sink);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    private void hash(SosiParserImpl parser, Sink sink) {
+        int depth = 0;
+        boolean inHead = false;
+        long key = 0;
+        long check = 0;
+        boolean hasKey = false;
+        // The number of key path names matched by the current element and its ancestors below the feature
+        int matched = 0;
+
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (event == Event.END) {
+                break;
+            }
+            if (event == Event.START_HEAD) {
+                depth = 1;
+                inHead = true;
+                continue;
+            }
+            if (inHead) {
+                if (event == Event.START_ELEMENT) {
+                    depth++;
+                } else if (event == Event.END_ELEMENT || event == Event.END_HEAD) {
+                    inHead = --depth > 0;
+                }
+                continue;
+            }
+
+            switch (event) {
+                case START_ELEMENT:
+                    if (++depth == 1) {
+                        fingerprinter.reset();
+                        hasKey = false;
+                        matched = 0;
+                    } else if (nonNull(keyPath) && matched == depth - 2 && matched < keyPath.length
+                            && keyPath[matched].equals(parser.getString())) {
+                        matched++;
+                    }
+                    break;
+                case END_ELEMENT:
+                    if (depth >= 2 && matched == depth - 1) {
+                        matched--;
+                    }
+                    break;
+                case VALUE_SERNO:
+                    if (depth == 1) {
+                        // The serial number of the feature is its key or ignored, as in SosiElement.getFingerprint()
+                        if (isNull(keyPath) && !hasKey) {
+                            key = parser.getLong();
+                            check = 0;
+                            hasKey = true;
+                        }
+                        continue;
+                    }
+                    break;
+                case VALUE_STRING:
+                case VALUE_NUMBER:
+                case VALUE_REF:
+                    if (nonNull(keyPath) && !hasKey && matched == keyPath.length && depth - 1 == matched) {
+                        String keyValue = parser.getString();
+                        key = keyOf(keyValue);
+                        check = checkOf(keyValue);
+                        hasKey = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            fingerprinter.update(event, parser);
+
+            if (event == Event.END_ELEMENT && --depth == 0) {
+                if (hasKey) {
+                    sink.accept(key, check, fingerprinter.fingerprint());
+                } else {
+                    unkeyedCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the key of a feature, computed as by the parser events, or empty if the feature has none
+     */
+    OptionalLong keyOf(SosiElement feature) {
+        if (isNull(keyPath)) {
+            Optional<SosiSerialNumber> serialNumber = feature.values()
+                    .filter(SosiSerialNumber.class::isInstance)
+                    .map(SosiSerialNumber.class::cast)
+                    .findFirst();
+            return serialNumber.map(s -> OptionalLong.of(s.longValue())).orElse(OptionalLong.empty());
+        }
+        return firstValueOf(feature, 0)
+                .map(value -> OptionalLong.of(keyOf(value)))
+                .orElse(OptionalLong.empty());
+    }
+
+    // Finds the first value of the key attribute, depth-first in the order of the file
+    private Optional<String> firstValueOf(SosiElement element, int level) {
+        Iterator<SosiElement> subElements = element.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            if (!subElement.getName().equals(keyPath[level])) {
+                continue;
+            }
+            Optional<String> value = level == keyPath.length - 1
+                    ? subElement.values().findFirst().map(SosiValue::getString)
+                    : firstValueOf(subElement, level + 1);
+            if (value.isPresent()) {
+                return value;
+            }
+        }
+        return Optional.empty();
+    }
+
+    static long keyOf(String keyValue) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < keyValue.length(); i++) {
+            hash = (hash ^ keyValue.charAt(i)) * FNV_PRIME;
+        }
+        return finish(hash);
+    }
+
+    // A polynomial hash, independent of the FNV hash of the key
+    static long checkOf(String keyValue) {
+        long hash = keyValue.length();
+        for (int i = 0; i < keyValue.length(); i++) {
+            hash = (hash + keyValue.charAt(i)) * CHECK_MULTIPLIER;
+        }
+        return finish(hash);
+    }
+
+    // The finalizer of MurmurHash3, spreading the bits of the FNV hash
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.utils.LongArrayList;
+import no.vegvesen.nvdb.sosi.utils.LongHashSet;
+import no.vegvesen.nvdb.sosi.utils.LongLongMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * Finds the features added, removed and changed between two versions of a SOSI file.
+ *
+ * <p>
+ * Features are matched by their serial number, or by the first value of a key attribute such as
+ * IDENT.LOKALID when serial numbers are not stable between versions. Each file is first parsed into
+ * a key and the 64-bit fingerprint of the content of each feature, without building elements. The keys
+ * are then compared in primitive arrays, so memory use is about 24 bytes per feature. When the files are
+ * too large for this, the keys are partitioned into temporary files, and the partitions are
+ * compared one at a time.
+ *
+ * <p>
+ * Key attribute values are compared by two independent 64-bit hashes rather than as strings. Features
+ * with the same first hash but a different second hash are reported as removed and added. Features
+ * whose values differ but have both hashes equal would be matched. This is not expected to ever happen,
+ * but it is not detected.
+ *
+ * <p>
+ * If a listener is given, the files are read once more, and the features that differ are passed to
+ * the listener, with the changed subelements if element-level diff is enabled. Only the old versions
+ * of changed features are held in memory.
+ *
+ * <p>
+ * Content is compared by the fingerprint of {@link SosiElement#getFingerprint()}, so differences in
+ * whitespace, comments and quotation marks are not changes. Features without a key, or with the key of an earlier feature of the same file, are not compared.
+ *
+ * <pre>
+ * <code>
+ * SosiDiffResult result = SosiDiff.builder()
+ *     .keyAttribute("IDENT.LOKALID")
+ *     .build()
+ *     .diff(oldFile, newFile, listener);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiDiff {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiDiff.class);
+
+    private static final int OLD = 0;
+    private static final int NEW = 1;
+    private static final long NOT_FOUND = -1;
+
+    private final String[] keyPath;
+    private final boolean elementDiff;
+    private final int partitionCount;
+    private final Path tempDirectory;
+    private final SosiParserConfig parserConfig;
+
+    private SosiDiff(Builder builder) {
+        this.keyPath = isNull(builder.keyAttribute) ? null : builder.keyAttribute.split("\\.");
+        this.elementDiff = builder.elementDiff;
+        this.partitionCount = builder.partitionCount;
+        this.tempDirectory = builder.tempDirectory;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, matching features by serial number in memory
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Counts the features added, removed and changed from one file to another.
+     *
+     * @param oldFile the old version
+     * @param newFile the new version
+     * @return the number of features added, removed and changed
+     * @throws SosiException if the files can't be read, or temporary files can't be written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if a file is malformed
+     */
+    public SosiDiffResult diff(Path oldFile, Path newFile) {
+        return diff(oldFile, newFile, null);
+    }
+
+    /**
+     * Finds the features added, removed and changed from one file to another, and passes them to a listener.
+     *
+     * @param oldFile the old version
+     * @param newFile the new version
+     * @param listener receives the features added, removed and changed, or null
+     * @return the number of features added, removed and changed
+     * @throws SosiException if the files can't be read, or temporary files can't be written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if a file is malformed
+     */
+    public SosiDiffResult diff(Path oldFile, Path newFile, SosiDiffListener listener) {
+        requireNonNull(oldFile, "oldFile can't be null");
+        requireNonNull(newFile, "newFile can't be null");
+
+        FeatureHasher hasher = new FeatureHasher(keyPath, parserConfig);
+        Comparison comparison = new Comparison();
+        try (Partitions partitions = new Partitions(partitionCount, tempDirectory)) {
+            hasher.hash(oldFile, (key, check, hash) -> partitions.add(OLD, key, check, hash));
+            hasher.hash(newFile, (key, check, hash) -> partitions.add(NEW, key, check, hash));
+            partitions.finishWriting();
+            for (int partition = 0; partition < partitionCount; partition++) {
+                comparison.compare(partitions.load(OLD, partition), partitions.load(NEW, partition));
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to partition features", e);
+        }
+        comparison.added.sort();
+        comparison.removed.sort();
+        comparison.changed.sort();
+
+        if (nonNull(listener)) {
+            notify(oldFile, newFile, hasher, comparison, listener);
+        }
+
+        SosiDiffResult result = new SosiDiffResult(comparison.added.size(), comparison.removed.size(), comparison.changed.size(),
+                comparison.unchangedCount, hasher.getUnkeyedCount(), comparison.duplicateCount);
+        if (result.getUnkeyedCount() > 0 || result.getDuplicateCount() > 0) {
+            LOGGER.warn("{} feature(s) without a key and {} with a duplicate key were not compared", result.getUnkeyedCount(), result.getDuplicateCount());
+        }
+        LOGGER.debug("Compared {} with {}: {}", oldFile, newFile, result);
+        return result;
+    }
+
+    private void notify(Path oldFile, Path newFile, FeatureHasher hasher, Comparison comparison, SosiDiffListener listener) {
+        Map<Long, SosiElement> changedFeatures = new HashMap<>();
+        // Only the first feature of each key is compared, as in Comparison, so the later ones are skipped
+        LongHashSet oldKeys = new LongHashSet();
+        forEachFeature(oldFile, (key, feature) -> {
+            if (!oldKeys.add(key)) {
+                return;
+            }
+            if (comparison.removed.binarySearch(key) >= 0) {
+                listener.removed(feature);
+            } else if (comparison.changed.binarySearch(key) >= 0) {
+                changedFeatures.put(key, feature);
+            }
+        }, hasher);
+        LongHashSet newKeys = new LongHashSet();
+        forEachFeature(newFile, (key, feature) -> {
+            if (!newKeys.add(key)) {
+                return;
+            }
+            if (comparison.added.binarySearch(key) >= 0) {
+                listener.added(feature);
+            } else if (comparison.changed.binarySearch(key) >= 0) {
+                SosiElement oldFeature = changedFeatures.remove(key);
+                if (nonNull(oldFeature)) {
+                    List<SosiElementChange> changes = elementDiff
+                            ? SosiElementChange.between(oldFeature, feature)
+                            : Collections.emptyList();
+                    listener.changed(oldFeature, feature, changes);
+                }
+            }
+        }, hasher);
+    }
+
+    private interface KeyedFeatureConsumer {
+        void accept(long key, SosiElement feature);
+    }
+
+    private void forEachFeature(Path sosiFile, KeyedFeatureConsumer consumer, FeatureHasher hasher) {
+        try (InputStream in = Files.newInputStream(sosiFile);
+             SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                if (isHead().test(element.get())) {
+                    continue;
+                }
+                OptionalLong key = hasher.keyOf(element.get());
+                if (key.isPresent()) {
+                    consumer.accept(key.getAsLong(), element.get());
+                }
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    // Matches the keys of the old and new features of a partition
+    static final class Comparison {
+        final LongArrayList added = new LongArrayList();
+        final LongArrayList removed = new LongArrayList();
+        final LongArrayList changed = new LongArrayList();
+        long unchangedCount;
+        long duplicateCount;
+
+        void compare(KeyHashes oldFeatures, KeyHashes newFeatures) {
+            LongLongMap index = new LongLongMap(oldFeatures.size());
+            boolean[] matched = new boolean[oldFeatures.size()];
+            for (int i = 0; i < oldFeatures.size(); i++) {
+                if (index.containsKey(oldFeatures.keys.get(i))) {
+                    // Only the first feature of each key is compared
+                    matched[i] = true;
+                    duplicateCount++;
+                } else {
+                    index.put(oldFeatures.keys.get(i), i, NOT_FOUND);
+                }
+            }
+
+            LongLongMap seen = new LongLongMap(newFeatures.size());
+            for (int j = 0; j < newFeatures.size(); j++) {
+                long key = newFeatures.keys.get(j);
+                if (seen.put(key, j, NOT_FOUND) != NOT_FOUND) {
+                    duplicateCount++;
+                    continue;
+                }
+                int i = (int)index.get(key, NOT_FOUND);
+                if (i == NOT_FOUND) {
+                    added.add(key);
+                    continue;
+                }
+                matched[i] = true;
+                if (oldFeatures.checks.get(i) != newFeatures.checks.get(j)) {
+                    // Different key values with the same hash
+                    removed.add(key);
+                    added.add(key);
+                } else if (oldFeatures.hashes.get(i) == newFeatures.hashes.get(j)) {
+                    unchangedCount++;
+                } else {
+                    changed.add(key);
+                }
+            }
+
+            for (int i = 0; i < matched.length; i++) {
+                if (!matched[i]) {
+                    removed.add(oldFeatures.keys.get(i));
+                }
+            }
+        }
+    }
+
+    // The keys, key checks and content hashes of the features of a partition, in file order
+    static final class KeyHashes {
+        private final LongArrayList keys = new LongArrayList();
+        private final LongArrayList checks = new LongArrayList();
+        private final LongArrayList hashes = new LongArrayList();
+
+        void add(long key, long check, long hash) {
+            keys.add(key);
+            checks.add(check);
+            hashes.add(hash);
+        }
+
+        int size() {
+            return keys.size();
+        }
+    }
+
+    // The keys and hashes of the old and new file, held in memory or partitioned by key into temporary files
+    private static final class Partitions implements AutoCloseable {
+        private final int count;
+        private final KeyHashes[] inMemory;
+        private final Path[][] files;
+        private final DataOutputStream[][] outputs;
+
+        Partitions(int count, Path tempDirectory) throws IOException {
+            this.count = count;
+            if (count == 1) {
+                this.inMemory = new KeyHashes[] {new KeyHashes(), new KeyHashes()};
+                this.files = null;
+                this.outputs = null;
+                return;
+            }
+            this.inMemory = null;
+            this.files = new Path[2][count];
+            this.outputs = new DataOutputStream[2][count];
+            try {
+                for (int side = OLD; side <= NEW; side++) {
+                    for (int partition = 0; partition < count; partition++) {
+                        files[side][partition] = isNull(tempDirectory)
+                                ? Files.createTempFile("sosi-diff-", ".bin")
+                                : Files.createTempFile(tempDirectory, "sosi-diff-", ".bin");
+                        outputs[side][partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[side][partition])));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
+        }
+
+        void add(int side, long key, long check, long hash) {
+            if (count == 1) {
+                inMemory[side].add(key, check, hash);
+                return;
+            }
+            try {
+                DataOutputStream out = outputs[side][partitionOf(key)];
+                out.writeLong(key);
+                out.writeLong(check);
+                out.writeLong(hash);
+            } catch (IOException e) {
+                throw new SosiException("Unable to write temporary file", e);
+            }
+        }
+
+        void finishWriting() throws IOException {
+            if (nonNull(outputs)) {
+                for (DataOutputStream[] sideOutputs : outputs) {
+                    for (DataOutputStream out : sideOutputs) {
+                        if (nonNull(out)) {
+                            out.close();
+                        }
+                    }
+                }
+            }
+        }
+
+        KeyHashes load(int side, int partition) throws IOException {
+            if (count == 1) {
+                return inMemory[side];
+            }
+            KeyHashes keyHashes = new KeyHashes();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[side][partition])))) {
+                while (true) {
+                    long key;
+                    try {
+                        key = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    keyHashes.add(key, in.readLong(), in.readLong());
+                }
+            }
+            return keyHashes;
+        }
+
+        private int partitionOf(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)((h >>> 32) % count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isNull(files)) {
+                return;
+            }
+            // Closes and deletes as much as possible, throwing the first failure
+            IOException failure = null;
+            for (int side = OLD; side <= NEW; side++) {
+                for (int partition = 0; partition < count; partition++) {
+                    try {
+                        if (nonNull(outputs[side][partition])) {
+                            outputs[side][partition].close();
+                        }
+                    } catch (IOException e) {
+                        failure = suppressed(failure, e);
+                    }
+                    try {
+                        if (nonNull(files[side][partition])) {
+                            Files.deleteIfExists(files[side][partition]);
+                        }
+                    } catch (IOException e) {
+                        failure = suppressed(failure, e);
+                    }
+                }
+            }
+            if (nonNull(failure)) {
+                throw failure;
+            }
+        }
+
+        private static IOException suppressed(IOException failure, IOException e) {
+            if (isNull(failure)) {
+                return e;
+            }
+            failure.addSuppressed(e);
+            return failure;
+        }
+    }
+
+    public static final class Builder {
+        private String keyAttribute;
+        private boolean elementDiff = true;
+        private int partitionCount = 1;
+        private Path tempDirectory;
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the attribute matching features of the old and new file, as the names of its path below the feature
+         * separated by dots, e.g. IDENT.LOKALID. By default, features are matched by serial number.
+         */
+        public Builder keyAttribute(String keyAttribute) {
+            requireNonNull(keyAttribute, "keyAttribute can't be null");
+            require(() -> !keyAttribute.isEmpty() && !keyAttribute.startsWith(".") && !keyAttribute.endsWith(".") && !keyAttribute.contains(".."),
+                    "keyAttribute must be names separated by dots, was %s", keyAttribute);
+            this.keyAttribute = keyAttribute;
+            return this;
+        }
+
+        /**
+         * Sets whether the changed subelements of changed features are passed to the listener.
+         */
+        public Builder elementDiff(boolean elementDiff) {
+            this.elementDiff = elementDiff;
+            return this;
+        }
+
+        /**
+         * Sets the number of partitions the features are compared in. With more than one, the keys and hashes are
+         * written to two temporary files per partition, and only one partition is held in memory at a time.
+         */
+        public Builder partitions(int partitionCount) {
+            require(() -> partitionCount > 0, "partitionCount must be positive, was %d", partitionCount);
+            this.partitionCount = partitionCount;
+            return this;
+        }
+
+        /**
+         * Sets the directory of the temporary files. By default, the temporary directory of the system is used.
+         */
+        public Builder tempDirectory(Path tempDirectory) {
+            this.tempDirectory = requireNonNull(tempDirectory, "tempDirectory can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiDiff build() {
+            return new SosiDiff(this);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+
+import java.util.List;
+
+/**
+ * Receives the features that differ between two versions of a SOSI dataset, as found by {@link SosiDiff}.
+ * Removed features are reported in the order of the old file, then added and changed features in the
+ * order of the new file.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public interface SosiDiffListener {
+    /**
+     * Called for each feature of the new file without a match in the old file.
+     *
+     * @param newFeature the feature
+     */
+    default void added(SosiElement newFeature) {
+    }
+
+    /**
+     * Called for each feature of the old file without a match in the new file.
+     *
+     * @param oldFeature the feature
+     */
+    default void removed(SosiElement oldFeature) {
+    }
+
+    /**
+     * Called for each feature whose content differs between the files.
+     *
+     * @param oldFeature the feature of the old file
+     * @param newFeature the feature of the new file
+     * @param changes the changed subelements, or empty if element-level diff is disabled
+     */
+    default void changed(SosiElement oldFeature, SosiElement newFeature, List<SosiElementChange> changes) {
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+/**
+ * The number of features found to be added, removed, changed or unchanged by {@link SosiDiff}.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiDiffResult {
+    private final long addedCount;
+    private final long removedCount;
+    private final long changedCount;
+    private final long unchangedCount;
+    private final long unkeyedCount;
+    private final long duplicateCount;
+
+    SosiDiffResult(long addedCount, long removedCount, long changedCount, long unchangedCount, long unkeyedCount, long duplicateCount) {
+        this.addedCount = addedCount;
+        this.removedCount = removedCount;
+        this.changedCount = changedCount;
+        this.unchangedCount = unchangedCount;
+        this.unkeyedCount = unkeyedCount;
+        this.duplicateCount = duplicateCount;
+    }
+
+    public long getAddedCount() {
+        return addedCount;
+    }
+
+    public long getRemovedCount() {
+        return removedCount;
+    }
+
+    public long getChangedCount() {
+        return changedCount;
+    }
+
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * @return the number of features of both files without a key (serial number or key attribute), which are not compared
+     */
+    public long getUnkeyedCount() {
+        return unkeyedCount;
+    }
+
+    /**
+     * @return the number of features of both files with the same key as an earlier feature of the same file, which are not compared
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return true if no features are added, removed or changed
+     */
+    public boolean isUnchanged() {
+        return addedCount == 0 && removedCount == 0 && changedCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiDiffResult(" + addedCount + " added, " + removedCount + " removed, " + changedCount + " changed, "
+                + unchangedCount + " unchanged, " + unkeyedCount + " unkeyed, " + duplicateCount + " duplicate)";
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * A change of the values of a subelement of a feature. Subelements are identified by the path of
+ * their names below the feature, e.g. ADRESSE.GATE, with the occurrence appended when a name is
+ * repeated, e.g. NØ[2].
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiElementChange {
+
+    public enum Type {
+        ADDED, REMOVED, CHANGED
+    }
+
+    private final Type type;
+    private final String path;
+    private final String oldValues;
+    private final String newValues;
+
+    SosiElementChange(Type type, String path, String oldValues, String newValues) {
+        this.type = requireNonNull(type, "type can't be null");
+        this.path = requireNonNull(path, "path can't be null");
+        this.oldValues = oldValues;
+        this.newValues = newValues;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the values of the old subelement, separated by space, or empty if added
+     */
+    public Optional<String> getOldValues() {
+        return Optional.ofNullable(oldValues);
+    }
+
+    /**
+     * @return the values of the new subelement, separated by space, or empty if removed
+     */
+    public Optional<String> getNewValues() {
+        return Optional.ofNullable(newValues);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case ADDED:
+                return "+" + path + " " + newValues;
+            case REMOVED:
+                return "-" + path + " " + oldValues;
+            default:
+                return "~" + path + " " + oldValues + " -> " + newValues;
+        }
+    }
+
+    /**
+     * @return the changes of the subelements from the old to the new feature, in the order of the old feature, then the added subelements
+     */
+    static List<SosiElementChange> between(SosiElement oldFeature, SosiElement newFeature) {
+        Map<String, String> oldValues = flatten(oldFeature);
+        Map<String, String> newValues = flatten(newFeature);
+
+        List<SosiElementChange> changes = new ArrayList<>();
+        for (Map.Entry<String, String> oldEntry : oldValues.entrySet()) {
+            String newValue = newValues.get(oldEntry.getKey());
+            if (newValue == null) {
+                changes.add(new SosiElementChange(Type.REMOVED, oldEntry.getKey(), oldEntry.getValue(), null));
+            } else if (!newValue.equals(oldEntry.getValue())) {
+                changes.add(new SosiElementChange(Type.CHANGED, oldEntry.getKey(), oldEntry.getValue(), newValue));
+            }
+        }
+        for (Map.Entry<String, String> newEntry : newValues.entrySet()) {
+            if (!oldValues.containsKey(newEntry.getKey())) {
+                changes.add(new SosiElementChange(Type.ADDED, newEntry.getKey(), null, newEntry.getValue()));
+            }
+        }
+        return changes;
+    }
+
+    // Maps the path of each subelement with values to its values
+    private static Map<String, String> flatten(SosiElement feature) {
+        Map<String, String> values = new LinkedHashMap<>();
+        flatten(feature, "", values, new HashMap<>());
+        return values;
+    }
+
+    private static void flatten(SosiElement element, String prefix, Map<String, String> values, Map<String, Integer> occurrences) {
+        Iterator<SosiElement> subElements = element.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            String path = prefix + subElement.getName();
+            int occurrence = occurrences.merge(path, 1, Integer::sum);
+            if (occurrence > 1) {
+                path = path + "[" + occurrence + "]";
+            }
+            if (subElement.hasValues()) {
+                values.put(path, subElement.values().map(SosiValue::getString).collect(joining(" ")));
+            }
+            flatten(subElement, path + ".", values, occurrences);
+        }
+    }
+}
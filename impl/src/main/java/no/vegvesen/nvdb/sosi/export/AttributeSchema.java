@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The attribute schema of a SOSI file, with one table per OBJTYPE. The columns of a table are
+ * the attributes found in its features, named by their path (e.g. ADRESSE.GATE), and typed by
+ * the values found. The serial number is always the first column, named {@value #SERNO_COLUMN}.
+ *
+ * @see SosiAttributeExporter#discover(java.io.InputStream)
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class AttributeSchema {
+    public static final String SERNO_COLUMN = "SERNO";
+
+    public enum ColumnType {
+        /** Integral numbers within the range of long */
+        LONG,
+        /** Other numbers */
+        DOUBLE,
+        /** Any other value, and elements with more than one value, joined by a space */
+        STRING
+    }
+
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+
+    AttributeSchema() {
+    }
+
+    /**
+     * @return the tables, in the order their OBJTYPE was first found
+     */
+    public List<Table> getTables() {
+        return Collections.unmodifiableList(new ArrayList<>(tables.values()));
+    }
+
+    /**
+     * @param name an OBJTYPE
+     * @return the table of features with the OBJTYPE, if any
+     */
+    public Optional<Table> getTable(String name) {
+        return Optional.ofNullable(tables.get(name));
+    }
+
+    void add(FeatureAttributes attributes) {
+        Table table = tables.computeIfAbsent(attributes.getTableName(), Table::new);
+        table.rowCount++;
+        attributes.forEach((path, values) -> table.column(path).widen(FeatureAttributes.typeOf(values)));
+    }
+
+    /**
+     * The attributes of features with the same OBJTYPE.
+     */
+    public static final class Table {
+        private final String name;
+        private final List<Column> columns = new ArrayList<>();
+        private final Map<String, Integer> columnIndexes = new HashMap<>();
+        private long rowCount;
+
+        Table(String name) {
+            this.name = requireNonNull(name, "name can't be null");
+            column(SERNO_COLUMN).widen(ColumnType.LONG);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Column> getColumns() {
+            return Collections.unmodifiableList(columns);
+        }
+
+        /**
+         * @return the index of the column, or -1 if there is no such column
+         */
+        public int indexOf(String columnName) {
+            Integer index = columnIndexes.get(columnName);
+            return isNull(index) ? -1 : index;
+        }
+
+        /**
+         * @return the number of features found by schema discovery
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        Column column(String columnName) {
+            Integer index = columnIndexes.get(columnName);
+            if (isNull(index)) {
+                index = columns.size();
+                columns.add(new Column(columnName));
+                columnIndexes.put(columnName, index);
+            }
+            return columns.get(index);
+        }
+
+        @Override
+        public String toString() {
+            return name + columns;
+        }
+    }
+
+    /**
+     * An attribute column.
+     */
+    public static final class Column {
+        private final String name;
+        private ColumnType type;
+
+        Column(String name) {
+            this.name = requireNonNull(name, "name can't be null");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the type of the column, STRING if no values were found
+         */
+        public ColumnType getType() {
+            return isNull(type) ? ColumnType.STRING : type;
+        }
+
+        void widen(ColumnType valueType) {
+            if (isNull(valueType) || valueType == type) {
+                return;
+            }
+            if (isNull(type)) {
+                type = valueType;
+            } else if (type != ColumnType.STRING && valueType != ColumnType.STRING) {
+                type = ColumnType.DOUBLE;
+            } else {
+                type = ColumnType.STRING;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + getType();
+        }
+    }
+}
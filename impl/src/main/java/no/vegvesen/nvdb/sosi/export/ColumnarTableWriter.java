@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.export.AttributeSchema.ColumnType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static no.vegvesen.nvdb.sosi.export.SosiColumnarReader.ENCODING_DELTA;
+import static no.vegvesen.nvdb.sosi.export.SosiColumnarReader.ENCODING_DICTIONARY;
+import static no.vegvesen.nvdb.sosi.export.SosiColumnarReader.ENCODING_PLAIN;
+import static no.vegvesen.nvdb.sosi.export.SosiColumnarReader.MAGIC;
+
+/**
+ * Writes an attribute table in the columnar format read by {@link SosiColumnarReader}. Rows are
+ * buffered and written column by column in row groups.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class ColumnarTableWriter implements AttributeTableWriter {
+    private final DataOutputStream out;
+    private final ColumnBuffer[] columns;
+    private final int rowGroupSize;
+    private int rowCount;
+
+    ColumnarTableWriter(OutputStream out, AttributeSchema.Table table, int rowGroupSize) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.rowGroupSize = rowGroupSize;
+        List<AttributeSchema.Column> tableColumns = table.getColumns();
+        this.columns = new ColumnBuffer[tableColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuffer(tableColumns.get(i).getType(), rowGroupSize);
+        }
+
+        this.out.write(MAGIC);
+        writeString(table.getName());
+        writeVarLong(columns.length);
+        for (AttributeSchema.Column column : tableColumns) {
+            writeString(column.getName());
+            this.out.writeByte(column.getType().ordinal());
+        }
+    }
+
+    @Override
+    public void writeRow(Object[] row) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(rowCount, row[i]);
+        }
+        if (++rowCount == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (rowCount > 0) {
+            writeRowGroup();
+        }
+        writeVarLong(0);
+        out.flush();
+    }
+
+    private void writeRowGroup() throws IOException {
+        writeVarLong(rowCount);
+        for (ColumnBuffer column : columns) {
+            writePresence(column);
+            switch (column.type) {
+                case LONG:
+                    writeLongs(column);
+                    break;
+                case DOUBLE:
+                    writeDoubles(column);
+                    break;
+                default:
+                    writeStrings(column);
+            }
+        }
+        rowCount = 0;
+    }
+
+    private void writePresence(ColumnBuffer column) throws IOException {
+        for (int i = 0; i < rowCount; i += 8) {
+            int bits = 0;
+            for (int bit = 0; bit < 8 && i + bit < rowCount; bit++) {
+                if (column.present[i + bit]) {
+                    bits |= 1 << bit;
+                }
+            }
+            out.writeByte(bits);
+        }
+    }
+
+    // Zigzag encoded differences, so that increasing serial numbers take a byte each
+    private void writeLongs(ColumnBuffer column) throws IOException {
+        out.writeByte(ENCODING_DELTA);
+        long previous = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (column.present[i]) {
+                long delta = column.longs[i] - previous;
+                writeVarLong((delta << 1) ^ (delta >> 63));
+                previous = column.longs[i];
+            }
+        }
+    }
+
+    private void writeDoubles(ColumnBuffer column) throws IOException {
+        out.writeByte(ENCODING_PLAIN);
+        for (int i = 0; i < rowCount; i++) {
+            if (column.present[i]) {
+                out.writeDouble(column.doubles[i]);
+            }
+        }
+    }
+
+    // Dictionary encoded when values repeat, as most attributes of features of the same type do
+    private void writeStrings(ColumnBuffer column) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        int presentCount = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (column.present[i]) {
+                presentCount++;
+                dictionary.putIfAbsent(column.strings[i], dictionary.size());
+            }
+        }
+
+        if (dictionary.size() * 2 > presentCount) {
+            out.writeByte(ENCODING_PLAIN);
+            for (int i = 0; i < rowCount; i++) {
+                if (column.present[i]) {
+                    writeString(column.strings[i]);
+                }
+            }
+            return;
+        }
+
+        out.writeByte(ENCODING_DICTIONARY);
+        String[] entries = new String[dictionary.size()];
+        dictionary.forEach((value, index) -> entries[index] = value);
+        writeVarLong(entries.length);
+        for (String entry : entries) {
+            writeString(entry);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (column.present[i]) {
+                writeVarLong(dictionary.get(column.strings[i]));
+            }
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * The values of a column in the current row group.
+     */
+    private static final class ColumnBuffer {
+        private final ColumnType type;
+        private final boolean[] present;
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] strings;
+
+        private ColumnBuffer(ColumnType type, int size) {
+            this.type = type;
+            this.present = new boolean[size];
+            this.longs = type == ColumnType.LONG ? new long[size] : null;
+            this.doubles = type == ColumnType.DOUBLE ? new double[size] : null;
+            this.strings = type == ColumnType.STRING ? new String[size] : null;
+        }
+
+        private void set(int row, Object value) {
+            present[row] = !isNull(value);
+            if (isNull(value)) {
+                return;
+            }
+            switch (type) {
+                case LONG:
+                    longs[row] = (Long)value;
+                    break;
+                case DOUBLE:
+                    doubles[row] = ((Number)value).doubleValue();
+                    break;
+                default:
+                    strings[row] = value.toString();
+            }
+        }
+    }
+}
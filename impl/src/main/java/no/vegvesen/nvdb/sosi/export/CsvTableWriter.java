@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Writes an attribute table as UTF-8 CSV (RFC 4180), with a header row of column names.
+ * Missing values are written as empty fields.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class CsvTableWriter implements AttributeTableWriter {
+    private final Writer writer;
+    private final char separator;
+    private final StringBuilder line = new StringBuilder(256);
+
+    CsvTableWriter(OutputStream out, AttributeSchema.Table table, char separator) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.separator = separator;
+        List<AttributeSchema.Column> columns = table.getColumns();
+        Object[] header = new Object[columns.size()];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = columns.get(i).getName();
+        }
+        writeRow(header);
+    }
+
+    @Override
+    public void writeRow(Object[] row) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                line.append(separator);
+            }
+            Object value = row[i];
+            if (value instanceof String) {
+                appendString((String)value);
+            } else if (value instanceof Double) {
+                appendDouble((Double)value);
+            } else if (!isNull(value)) {
+                line.append(value);
+            }
+        }
+        line.append("\r\n");
+        writer.append(line);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    private void appendString(String value) {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char ch = value.charAt(i);
+            quoted = ch == separator || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quoted) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"') {
+                line.append('"');
+            }
+            line.append(ch);
+        }
+        line.append('"');
+    }
+
+    // Without exponents, which not every CSV consumer reads as numbers
+    private void appendDouble(double value) {
+        String formatted = Double.toString(value);
+        if (formatted.indexOf('E') >= 0 && !Double.isInfinite(value)) {
+            formatted = BigDecimal.valueOf(value).toPlainString();
+        }
+        line.append(formatted);
+    }
+}
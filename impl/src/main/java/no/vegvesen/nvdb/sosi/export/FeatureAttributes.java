@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.export.AttributeSchema.ColumnType;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.isNull;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.DEFAULT;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.UNSPECIFIED;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * The attributes of a feature, flattened to values by path. The geometry (NØ, NØH and REF) and
+ * OBJTYPE are left out, and repeated elements add to the values of the same path.
+ *
+ * Instances are reused for each feature, and are not thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class FeatureAttributes {
+    private final Map<String, List<SosiValue>> values = new LinkedHashMap<>();
+    private String tableName;
+    private Long serialNumber;
+
+    void collect(SosiElement feature) {
+        values.clear();
+        tableName = feature.getName();
+        serialNumber = null;
+        Iterator<SosiValue> serialNumbers = feature.values().filter(isType(SERNO)).iterator();
+        if (serialNumbers.hasNext()) {
+            serialNumber = ((SosiSerialNumber)serialNumbers.next()).longValue();
+        }
+        Iterator<SosiElement> subElements = feature.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            String name = subElement.getName();
+            if (name.equalsIgnoreCase("OBJTYPE") && subElement.hasValues()) {
+                tableName = subElement.getValueAs(SosiValue.class).getString();
+            } else if (!isGeometry(name)) {
+                collect(subElement, name);
+            }
+        }
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the value of the column, as a Long, Double or String, or null if missing
+     */
+    Object getValue(String column, ColumnType type) {
+        if (column.equals(AttributeSchema.SERNO_COLUMN)) {
+            return serialNumber;
+        }
+        List<SosiValue> columnValues = values.get(column);
+        if (isNull(columnValues) || columnValues.isEmpty()) {
+            return null;
+        }
+        if (type != ColumnType.STRING && (columnValues.size() > 1 || !(columnValues.get(0) instanceof SosiNumber))) {
+            throw new SosiException("Value of %s in %s is not a %s", column, tableName, type);
+        }
+        switch (type) {
+            case LONG:
+                return ((SosiNumber)columnValues.get(0)).longValue();
+            case DOUBLE:
+                return ((SosiNumber)columnValues.get(0)).doubleValue();
+            default:
+                if (columnValues.size() == 1) {
+                    return columnValues.get(0).getString();
+                }
+                StringBuilder joined = new StringBuilder();
+                for (SosiValue value : columnValues) {
+                    if (joined.length() > 0) {
+                        joined.append(' ');
+                    }
+                    joined.append(value.getString());
+                }
+                return joined.toString();
+        }
+    }
+
+    void forEach(BiConsumer<String, List<SosiValue>> consumer) {
+        values.forEach(consumer);
+    }
+
+    /**
+     * @return the narrowest type of the values, or null if there are none
+     */
+    static ColumnType typeOf(List<SosiValue> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        if (values.size() > 1 || values.get(0).getValueType() != SosiValue.ValueType.NUMBER) {
+            return ColumnType.STRING;
+        }
+        SosiNumber number = (SosiNumber)values.get(0);
+        if (!number.isIntegral()) {
+            return ColumnType.DOUBLE;
+        }
+        try {
+            number.longValueExact();
+            return ColumnType.LONG;
+        } catch (ArithmeticException e) {
+            return ColumnType.STRING;
+        }
+    }
+
+    private void collect(SosiElement element, String path) {
+        if (element.hasValues()) {
+            List<SosiValue> pathValues = values.computeIfAbsent(path, p -> new ArrayList<>(1));
+            Iterator<SosiValue> elementValues = element.values().iterator();
+            while (elementValues.hasNext()) {
+                SosiValue value = elementValues.next();
+                if (value.getValueType() != UNSPECIFIED && value.getValueType() != DEFAULT) {
+                    pathValues.add(value);
+                }
+            }
+        }
+        if (element.hasSubElements()) {
+            Iterator<SosiElement> subElements = element.subElements().iterator();
+            while (subElements.hasNext()) {
+                SosiElement subElement = subElements.next();
+                collect(subElement, path + "." + subElement.getName());
+            }
+        }
+    }
+
+    private static boolean isGeometry(String name) {
+        return name.equalsIgnoreCase("NØ") || name.equalsIgnoreCase("NØH") || name.equalsIgnoreCase("REF");
+    }
+}
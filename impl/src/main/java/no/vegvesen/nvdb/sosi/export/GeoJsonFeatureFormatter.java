@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiGeometryEncoder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * Formats SOSI features as GeoJSON features. Sub-elements become properties, with nested elements
+ * as objects, and repeated elements as arrays. The coordinate and reference elements (NØ, NØH and REF)
+ * make up the geometry instead, unless the geometry can't be written.
+ *
+ * Instances are not thread safe, as they reuse the geometry encoder and the output buffer.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class GeoJsonFeatureFormatter {
+    static final String VALUES_PROPERTY = "_values";
+
+    private final SosiGeometryEncoder encoder;
+    private final boolean resolveRefs;
+    private final StringBuilder json = new StringBuilder(1024);
+
+    GeoJsonFeatureFormatter(SosiGeometryEncoder encoder, boolean resolveRefs) {
+        this.encoder = encoder;
+        this.resolveRefs = resolveRefs;
+    }
+
+    /**
+     * Formats features, separated by the separator.
+     */
+    String format(List<SosiElement> features, String separator) {
+        json.setLength(0);
+        for (int i = 0; i < features.size(); i++) {
+            if (i > 0) {
+                json.append(separator);
+            }
+            appendFeature(features.get(i));
+        }
+        return json.toString();
+    }
+
+    private void appendFeature(SosiElement feature) {
+        json.append("{\"type\":\"Feature\"");
+        Iterator<SosiValue> serialNumbers = feature.values().filter(isType(SERNO)).iterator();
+        if (serialNumbers.hasNext()) {
+            json.append(",\"id\":").append(((SosiSerialNumber)serialNumbers.next()).longValue());
+        }
+        json.append(",\"geometry\":");
+        boolean hasGeometry = SosiGeometryEncoder.isSupported(feature) && (resolveRefs || !hasName("FLATE").test(feature));
+        if (hasGeometry) {
+            encoder.appendGeoJson(feature, json);
+        } else {
+            json.append("null");
+        }
+        json.append(",\"properties\":");
+        appendProperties(feature, true, hasGeometry);
+        json.append('}');
+    }
+
+    private void appendProperties(SosiElement element, boolean isFeature, boolean hasGeometry) {
+        Map<String, List<SosiElement>> properties = new LinkedHashMap<>();
+        Iterator<SosiElement> subElements = element.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            if (hasGeometry && hasGeometryName(subElement)) {
+                continue;
+            }
+            properties.computeIfAbsent(subElement.getName(), name -> new ArrayList<>(1)).add(subElement);
+        }
+
+        json.append('{');
+        boolean first = true;
+        if (!isFeature && element.hasValues()) {
+            appendString(VALUES_PROPERTY).append(':');
+            appendValues(element);
+            first = false;
+        }
+        for (Map.Entry<String, List<SosiElement>> property : properties.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(property.getKey()).append(':');
+            List<SosiElement> elements = property.getValue();
+            if (elements.size() == 1) {
+                appendElement(elements.get(0));
+            } else {
+                json.append('[');
+                for (int i = 0; i < elements.size(); i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    appendElement(elements.get(i));
+                }
+                json.append(']');
+            }
+        }
+        json.append('}');
+    }
+
+    private void appendElement(SosiElement element) {
+        if (element.hasSubElements()) {
+            appendProperties(element, false, false);
+        } else {
+            appendValues(element);
+        }
+    }
+
+    private void appendValues(SosiElement element) {
+        List<SosiValue> values = element.getValuesAs(SosiValue.class);
+        if (values.isEmpty()) {
+            json.append("null");
+        } else if (values.size() == 1) {
+            appendValue(values.get(0));
+        } else {
+            json.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendValue(values.get(i));
+            }
+            json.append(']');
+        }
+    }
+
+    private void appendValue(SosiValue value) {
+        switch (value.getValueType()) {
+            case NUMBER:
+                appendNumber((SosiNumber)value);
+                break;
+            case SERNO:
+                json.append(((SosiSerialNumber)value).longValue());
+                break;
+            case REF:
+                json.append(((SosiRefNumber)value).longValue() * (((SosiRefNumber)value).isReversedOrder() ? -1 : 1));
+                break;
+            case UNSPECIFIED:
+                json.append("null");
+                break;
+            default:
+                appendString(value.getString());
+        }
+    }
+
+    // Numbers are written from their primitive values, to avoid formatting BigDecimals
+    private void appendNumber(SosiNumber number) {
+        if (number.isIntegral()) {
+            try {
+                json.append(number.longValueExact());
+            } catch (ArithmeticException e) {
+                json.append(number.bigIntegerValue());
+            }
+        } else {
+            double value = number.doubleValue();
+            if (Double.isInfinite(value)) {
+                appendString(number.getString());
+            } else {
+                json.append(value);
+            }
+        }
+    }
+
+    private StringBuilder appendString(String value) {
+        return appendString(json, value);
+    }
+
+    static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        json.append(String.format("\\u%04x", (int)ch));
+                    } else {
+                        json.append(ch);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+
+    private static boolean hasGeometryName(SosiElement element) {
+        String name = element.getName();
+        return name.equalsIgnoreCase("NØ") || name.equalsIgnoreCase("NØH") || name.equalsIgnoreCase("REF");
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * Exports the attributes of SOSI features as tables, one per OBJTYPE, for analysis with tools
+ * that don't read SOSI. The attribute schema is discovered in a streaming pass over the file
+ * (see {@link AttributeSchema}), and the features are then written with a row per feature and
+ * a column per attribute. Geometry is left out.
+ *
+ * <p>
+ * Two formats are supported: CSV, and a compact, self-describing columnar format read by
+ * {@link SosiColumnarReader}, with typed columns and dictionary encoded strings:
+ * <pre>
+ * <code>
+ * SosiAttributeExporter.builder()
+ *     .format(Format.COLUMNAR)
+ *     .objTypes("Skiltplate")
+ *     .build()
+ *     .export(sosiFile, directory);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiAttributeExporter {
+    public static final int DEFAULT_ROW_GROUP_SIZE = 8192;
+
+    public enum Format {
+        CSV("csv"), COLUMNAR("sosc");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return the file name extension of exported tables
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Format format;
+    private final char csvSeparator;
+    private final int rowGroupSize;
+    private final Set<String> objTypes;
+    private final SosiParserConfig parserConfig;
+
+    private SosiAttributeExporter(Builder builder) {
+        this.format = builder.format;
+        this.csvSeparator = builder.csvSeparator;
+        this.rowGroupSize = builder.rowGroupSize;
+        this.objTypes = builder.objTypes;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, exporting all features as CSV
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Discovers the attribute schema of a SOSI file, without keeping the features in memory.
+     *
+     * @throws SosiException if the file can't be read
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the file is malformed
+     */
+    public AttributeSchema discover(Path sosiFile) {
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return discover(in);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Discovers the attribute schema of SOSI input, without keeping the features in memory. The input is closed.
+     *
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the input is malformed
+     */
+    public AttributeSchema discover(InputStream in) {
+        AttributeSchema schema = new AttributeSchema();
+        forEachFeature(in, schema::add);
+        return schema;
+    }
+
+    /**
+     * Exports the attributes of a SOSI file to a file per table in a directory, named by the
+     * OBJTYPE and the extension of the format. Characters other than letters, digits, '-' and '_'
+     * are replaced by '_'. If the names of two tables then match, ignoring case, a number is appended
+     * to the later one in the order of the schema, as in Veg_Bru-2.csv. The SOSI file is read twice,
+     * first to discover the schema and then to write the tables.
+     *
+     * @param sosiFile the SOSI file
+     * @param directory the directory of the tables, which must exist
+     * @return the schema of the tables written
+     * @throws SosiException if the files can't be read or written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the SOSI file is malformed
+     */
+    public AttributeSchema export(Path sosiFile, Path directory) {
+        requireNonNull(directory, "directory can't be null");
+        AttributeSchema schema = discover(sosiFile);
+        List<OutputStream> outputs = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            Map<String, TableExport> exports = new HashMap<>();
+            Set<String> fileNames = new HashSet<>();
+            for (AttributeSchema.Table table : schema.getTables()) {
+                OutputStream out = Files.newOutputStream(directory.resolve(toFileName(table.getName(), fileNames)));
+                outputs.add(out);
+                exports.put(table.getName(), new TableExport(table, createWriter(table, out)));
+            }
+            forEachFeature(in, attributes -> exports.get(attributes.getTableName()).write(attributes));
+            for (TableExport export : exports.values()) {
+                export.writer.finish();
+            }
+            return schema;
+        } catch (IOException e) {
+            throw new SosiException("Unable to export " + sosiFile + " to " + directory, e);
+        } finally {
+            closeAll(outputs);
+        }
+    }
+
+    /**
+     * Exports the attributes of features of one table, in a single pass. The input is closed, while the output
+     * is flushed but left open.
+     *
+     * @param in the SOSI input
+     * @param table the table, usually discovered from the same input
+     * @param out the table output
+     * @return the number of rows written
+     * @throws SosiException if the input can't be read, the output can't be written, or values don't match the table
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the input is malformed
+     */
+    public long export(InputStream in, AttributeSchema.Table table, OutputStream out) {
+        requireNonNull(table, "table can't be null");
+        requireNonNull(out, "out can't be null");
+        try {
+            TableExport export = new TableExport(table, createWriter(table, out));
+            forEachFeature(in, attributes -> {
+                if (attributes.getTableName().equals(table.getName())) {
+                    export.write(attributes);
+                }
+            });
+            export.writer.finish();
+            return export.rowCount;
+        } catch (IOException e) {
+            throw new SosiException("Unable to export " + table.getName(), e);
+        }
+    }
+
+    private void forEachFeature(InputStream in, Consumer<FeatureAttributes> consumer) {
+        requireNonNull(in, "in can't be null");
+        FeatureAttributes attributes = new FeatureAttributes();
+        try (SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                if (isHead().test(element.get())) {
+                    continue;
+                }
+                attributes.collect(element.get());
+                if (isNull(objTypes) || objTypes.contains(attributes.getTableName())) {
+                    consumer.accept(attributes);
+                }
+            }
+        }
+    }
+
+    private AttributeTableWriter createWriter(AttributeSchema.Table table, OutputStream out) throws IOException {
+        return format == Format.CSV
+                ? new CsvTableWriter(out, table, csvSeparator)
+                : new ColumnarTableWriter(out, table, rowGroupSize);
+    }
+
+    // Compared ignoring case with the names already used, as the file system may not be case sensitive
+    private String toFileName(String tableName, Set<String> usedNames) {
+        StringBuilder baseName = new StringBuilder(tableName.length());
+        for (int i = 0; i < tableName.length(); i++) {
+            char ch = tableName.charAt(i);
+            baseName.append(Character.isLetterOrDigit(ch) || ch == '-' || ch == '_' ? ch : '_');
+        }
+        String fileName = baseName + "." + format.getExtension();
+        for (int n = 2; !usedNames.add(fileName.toLowerCase(Locale.ROOT)); n++) {
+            fileName = baseName + "-" + n + "." + format.getExtension();
+        }
+        return fileName;
+    }
+
+    private static void closeAll(List<OutputStream> outputs) {
+        SosiException failure = null;
+        for (OutputStream out : outputs) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                failure = new SosiException("Unable to close exported table", e);
+            }
+        }
+        if (nonNull(failure)) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The rows written to one table.
+     */
+    private static final class TableExport {
+        private final List<AttributeSchema.Column> columns;
+        private final AttributeTableWriter writer;
+        private final Object[] row;
+        private long rowCount;
+
+        private TableExport(AttributeSchema.Table table, AttributeTableWriter writer) {
+            this.columns = table.getColumns();
+            this.writer = writer;
+            this.row = new Object[columns.size()];
+        }
+
+        private void write(FeatureAttributes attributes) {
+            for (int i = 0; i < row.length; i++) {
+                AttributeSchema.Column column = columns.get(i);
+                row[i] = attributes.getValue(column.getName(), column.getType());
+            }
+            try {
+                writer.writeRow(row);
+            } catch (IOException e) {
+                throw new SosiException("Unable to write row of " + attributes.getTableName(), e);
+            }
+            rowCount++;
+        }
+    }
+
+    /**
+     * Builder for {@link SosiAttributeExporter} instances.
+     */
+    public static final class Builder {
+        private Format format = Format.CSV;
+        private char csvSeparator = ',';
+        private int rowGroupSize = DEFAULT_ROW_GROUP_SIZE;
+        private Set<String> objTypes;
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        public Builder format(Format format) {
+            this.format = requireNonNull(format, "format can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the field separator of CSV.
+         */
+        public Builder csvSeparator(char csvSeparator) {
+            require(() -> csvSeparator != '"' && csvSeparator != '\r' && csvSeparator != '\n', "csvSeparator can't be a quote or line break");
+            this.csvSeparator = csvSeparator;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows buffered and written together by the columnar format.
+         */
+        public Builder rowGroupSize(int rowGroupSize) {
+            require(() -> rowGroupSize > 0, "rowGroupSize must be positive, was %d", rowGroupSize);
+            this.rowGroupSize = rowGroupSize;
+            return this;
+        }
+
+        /**
+         * Restricts the export to features of the given OBJTYPEs.
+         */
+        public Builder objTypes(String... objTypes) {
+            requireNonNull(objTypes, "objTypes can't be null");
+            this.objTypes = new HashSet<>(Arrays.asList(objTypes));
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiAttributeExporter build() {
+            return new SosiAttributeExporter(this);
+        }
+    }
+}
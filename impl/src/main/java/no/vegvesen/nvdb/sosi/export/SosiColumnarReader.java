@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.export.AttributeSchema.ColumnType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads an attribute table written in the columnar format of {@link SosiAttributeExporter}.
+ * The file describes itself, and is read one row group at a time:
+ * <pre>
+ * file      = "SOSICOL1" table-name column-count column* row-group* 0
+ * column    = name type                 ; type is the ordinal of the ColumnType
+ * row-group = row-count chunk*          ; one chunk per column
+ * chunk     = presence encoding value*  ; presence is a bit per row, values only for present rows
+ * </pre>
+ * Counts and lengths are unsigned LEB128 varints, and strings are length prefixed UTF-8. LONG
+ * values are zigzag encoded differences, DOUBLE values are 8 bytes big-endian, and STRING values
+ * are either plain or indexes to a dictionary written before them.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiColumnarReader implements Closeable {
+    static final byte[] MAGIC = "SOSICOL1".getBytes(StandardCharsets.US_ASCII);
+    static final int ENCODING_PLAIN = 0;
+    static final int ENCODING_DICTIONARY = 1;
+    static final int ENCODING_DELTA = 2;
+
+    private static final ColumnType[] COLUMN_TYPES = ColumnType.values();
+
+    private final DataInputStream in;
+    private final AttributeSchema.Table table;
+    private final ColumnType[] columnTypes;
+    private boolean done;
+
+    /**
+     * Reads the table description from the input.
+     *
+     * @param in the columnar input
+     * @throws SosiException if the input can't be read, or isn't in the columnar format
+     */
+    public SosiColumnarReader(InputStream in) {
+        requireNonNull(in, "in can't be null");
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new SosiException("Not a SOSI columnar file");
+            }
+            this.table = new AttributeSchema.Table(readString());
+            this.columnTypes = new ColumnType[readCount()];
+            for (int i = 0; i < columnTypes.length; i++) {
+                String name = readString();
+                int type = this.in.readUnsignedByte();
+                if (type >= COLUMN_TYPES.length) {
+                    throw new SosiException("Unknown type %d of column %s", type, name);
+                }
+                columnTypes[i] = COLUMN_TYPES[type];
+                table.column(name).widen(columnTypes[i]);
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to read SOSI columnar file", e);
+        }
+    }
+
+    /**
+     * @return the table, with the row count unknown (0)
+     */
+    public AttributeSchema.Table getTable() {
+        return table;
+    }
+
+    /**
+     * Reads the next row group.
+     *
+     * @return the row group, or empty when all rows are read
+     * @throws SosiException if the input can't be read, or is malformed
+     */
+    public Optional<RowGroup> readRowGroup() {
+        if (done) {
+            return Optional.empty();
+        }
+        try {
+            int rowCount = readCount();
+            if (rowCount == 0) {
+                done = true;
+                return Optional.empty();
+            }
+            Object[] columns = new Object[columnTypes.length];
+            boolean[][] present = new boolean[columnTypes.length][];
+            for (int i = 0; i < columnTypes.length; i++) {
+                present[i] = readPresence(rowCount);
+                columns[i] = readChunk(columnTypes[i], present[i]);
+            }
+            return Optional.of(new RowGroup(rowCount, columnTypes, columns, present));
+        } catch (EOFException e) {
+            throw new SosiException("Unexpected end of SOSI columnar file", e);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read SOSI columnar file", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new SosiException("Unable to close SOSI columnar file", e);
+        }
+    }
+
+    private boolean[] readPresence(int rowCount) throws IOException {
+        boolean[] present = new boolean[rowCount];
+        for (int i = 0; i < rowCount; i += 8) {
+            int bits = in.readUnsignedByte();
+            for (int bit = 0; bit < 8 && i + bit < rowCount; bit++) {
+                present[i + bit] = (bits & (1 << bit)) != 0;
+            }
+        }
+        return present;
+    }
+
+    private Object readChunk(ColumnType type, boolean[] present) throws IOException {
+        int encoding = in.readUnsignedByte();
+        switch (type) {
+            case LONG: {
+                requireEncoding(encoding, ENCODING_DELTA);
+                long[] values = new long[present.length];
+                long previous = 0;
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i]) {
+                        long zigzag = readVarLong();
+                        previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                        values[i] = previous;
+                    }
+                }
+                return values;
+            }
+            case DOUBLE: {
+                requireEncoding(encoding, ENCODING_PLAIN);
+                double[] values = new double[present.length];
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i]) {
+                        values[i] = in.readDouble();
+                    }
+                }
+                return values;
+            }
+            default: {
+                String[] dictionary = null;
+                if (encoding == ENCODING_DICTIONARY) {
+                    dictionary = new String[readCount()];
+                    for (int i = 0; i < dictionary.length; i++) {
+                        dictionary[i] = readString();
+                    }
+                } else {
+                    requireEncoding(encoding, ENCODING_PLAIN);
+                }
+                String[] values = new String[present.length];
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i]) {
+                        values[i] = encoding == ENCODING_DICTIONARY ? dictionary[readIndex(dictionary.length)] : readString();
+                    }
+                }
+                return values;
+            }
+        }
+    }
+
+    private static void requireEncoding(int encoding, int expected) {
+        if (encoding != expected) {
+            throw new SosiException("Unsupported encoding %d of column chunk", encoding);
+        }
+    }
+
+    private int readIndex(int size) throws IOException {
+        long index = readVarLong();
+        if (index >= size) {
+            throw new SosiException("Dictionary index %d out of range", index);
+        }
+        return (int)index;
+    }
+
+    private int readCount() throws IOException {
+        long count = readVarLong();
+        if (count > Integer.MAX_VALUE) {
+            throw new SosiException("Count %d out of range", count);
+        }
+        return (int)count;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readCount()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SosiException("Malformed varint in SOSI columnar file");
+    }
+
+    /**
+     * The rows of a row group, accessed by column and row index.
+     */
+    public static final class RowGroup {
+        private final int rowCount;
+        private final ColumnType[] columnTypes;
+        private final Object[] columns;
+        private final boolean[][] present;
+
+        private RowGroup(int rowCount, ColumnType[] columnTypes, Object[] columns, boolean[][] present) {
+            this.rowCount = rowCount;
+            this.columnTypes = columnTypes;
+            this.columns = columns;
+            this.present = present;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public boolean isNull(int column, int row) {
+            return !present[column][row];
+        }
+
+        /**
+         * @return the value of a LONG column, or 0 if missing
+         * @throws IllegalStateException if the column isn't LONG
+         */
+        public long getLong(int column, int row) {
+            requireType(column, ColumnType.LONG);
+            return ((long[])columns[column])[row];
+        }
+
+        /**
+         * @return the value of a LONG or DOUBLE column, or 0 if missing
+         * @throws IllegalStateException if the column is STRING
+         */
+        public double getDouble(int column, int row) {
+            if (columnTypes[column] == ColumnType.LONG) {
+                return getLong(column, row);
+            }
+            requireType(column, ColumnType.DOUBLE);
+            return ((double[])columns[column])[row];
+        }
+
+        /**
+         * @return the value of the column as a Long, Double or String, or null if missing
+         */
+        public Object getValue(int column, int row) {
+            if (isNull(column, row)) {
+                return null;
+            }
+            switch (columnTypes[column]) {
+                case LONG:
+                    return getLong(column, row);
+                case DOUBLE:
+                    return getDouble(column, row);
+                default:
+                    return ((String[])columns[column])[row];
+            }
+        }
+
+        /**
+         * @return the value of the column as a String, or null if missing
+         */
+        public String getString(int column, int row) {
+            return isNull(column, row) ? null : getValue(column, row).toString();
+        }
+
+        private void requireType(int column, ColumnType type) {
+            if (columnTypes[column] != type) {
+                throw new IllegalStateException("Column " + column + " is " + columnTypes[column] + ", not " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.geometry.SosiGeometryEncoder;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * Converts SOSI files to GeoJSON, either as a FeatureCollection or as newline-delimited GeoJSON
+ * (one feature per line). The SOSI file is read one feature at a time, so memory use doesn't grow
+ * with the size of the file.
+ *
+ * <p>
+ * Coordinates are transformed as given by TRANSPAR in the head, and the coordinate system (KOORDSYS)
+ * is written as a named CRS of the FeatureCollection. Sub-elements become properties, see
+ * {@link #builder()} for the options. FLATE features reference curves that may be anywhere in the
+ * file, so their geometry is only written when a reference resolver is given, e.g. backed by a
+ * {@link no.vegvesen.nvdb.sosi.index.SosiIndex}. Otherwise it is null, and REF is kept as a property.
+ *
+ * <p>
+ * With a parallelism above 1, features are read by the calling thread and formatted in batches
+ * by a pool of threads, while the output keeps the order of the input:
+ * <pre>
+ * <code>
+ * SosiGeoJsonConverter.builder()
+ *     .newlineDelimited(true)
+ *     .parallelism(4)
+ *     .build()
+ *     .convert(sosiFile, geoJsonFile);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiGeoJsonConverter {
+    public static final int DEFAULT_BATCH_SIZE = 512;
+
+    private static final AtomicInteger THREAD_NO = new AtomicInteger();
+
+    private final boolean newlineDelimited;
+    private final int parallelism;
+    private final int batchSize;
+    private final LongFunction<Optional<SosiElement>> refResolver;
+    private final SosiParserConfig parserConfig;
+
+    private SosiGeoJsonConverter(Builder builder) {
+        this.newlineDelimited = builder.newlineDelimited;
+        this.parallelism = builder.parallelism;
+        this.batchSize = builder.batchSize;
+        this.refResolver = builder.refResolver;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, writing a FeatureCollection on the calling thread
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Converts a SOSI file to a GeoJSON file.
+     *
+     * @param sosiFile the SOSI file
+     * @param geoJsonFile the GeoJSON file, replaced if it exists
+     * @return the number of features written
+     * @throws SosiException if the files can't be read or written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the SOSI file is malformed
+     */
+    public long convert(Path sosiFile, Path geoJsonFile) {
+        try (InputStream in = Files.newInputStream(sosiFile);
+             OutputStream out = Files.newOutputStream(geoJsonFile)) {
+            return convert(in, out);
+        } catch (IOException e) {
+            throw new SosiException("Unable to convert " + sosiFile + " to " + geoJsonFile, e);
+        }
+    }
+
+    /**
+     * Converts SOSI to GeoJSON, written as UTF-8. The input is closed, while the output is flushed but left open.
+     *
+     * @param in the SOSI input
+     * @param out the GeoJSON output
+     * @return the number of features written
+     * @throws SosiException if the input can't be read, or the output can't be written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the input is malformed
+     */
+    public long convert(InputStream in, OutputStream out) {
+        requireNonNull(in, "in can't be null");
+        requireNonNull(out, "out can't be null");
+        try (SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+
+            Optional<SosiElement> first = reader.readElement();
+            SosiTranspar transpar = first.filter(isHead()).map(SosiTranspar::of).orElse(SosiTranspar.identity());
+            SosiElement pending = first.filter(isHead().negate()).orElse(null);
+
+            if (!newlineDelimited) {
+                writeCollectionStart(writer, transpar);
+            }
+            long featureCount = parallelism > 1
+                    ? convertInParallel(reader, pending, transpar, writer)
+                    : convertSequentially(reader, pending, transpar, writer);
+            if (!newlineDelimited) {
+                writer.write("\n]}\n");
+            }
+            writer.flush();
+            return featureCount;
+        } catch (IOException e) {
+            throw new SosiException("Unable to write GeoJSON", e);
+        }
+    }
+
+    private long convertSequentially(SosiReader reader, SosiElement pending, SosiTranspar transpar, Writer writer) throws IOException {
+        GeoJsonFeatureFormatter formatter = createFormatter(transpar);
+        List<SosiElement> batch = new ArrayList<>(batchSize);
+        long featureCount = 0;
+        while (readBatch(reader, pending, batch)) {
+            pending = null;
+            writeBatch(writer, formatter.format(batch, separator()), featureCount);
+            featureCount += batch.size();
+        }
+        return featureCount;
+    }
+
+    private long convertInParallel(SosiReader reader, SosiElement pending, SosiTranspar transpar, Writer writer) throws IOException {
+        ThreadLocal<GeoJsonFeatureFormatter> formatters = ThreadLocal.withInitial(() -> createFormatter(transpar));
+        ExecutorService executor = createExecutor();
+        try {
+            // Bounded, so that reading doesn't run ahead of writing
+            ArrayDeque<Future<String>> formatted = new ArrayDeque<>();
+            ArrayDeque<Integer> batchSizes = new ArrayDeque<>();
+            long featureCount = 0;
+            List<SosiElement> batch = new ArrayList<>(batchSize);
+            while (readBatch(reader, pending, batch)) {
+                pending = null;
+                List<SosiElement> features = batch;
+                formatted.add(executor.submit(() -> formatters.get().format(features, separator())));
+                batchSizes.add(features.size());
+                batch = new ArrayList<>(batchSize);
+                if (formatted.size() >= 2 * parallelism) {
+                    writeBatch(writer, formatted.remove().get(), featureCount);
+                    featureCount += batchSizes.remove();
+                }
+            }
+            while (!formatted.isEmpty()) {
+                writeBatch(writer, formatted.remove().get(), featureCount);
+                featureCount += batchSizes.remove();
+            }
+            return featureCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SosiException("Interrupted while converting to GeoJSON", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException)cause : new SosiException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean readBatch(SosiReader reader, SosiElement pending, List<SosiElement> batch) {
+        batch.clear();
+        if (nonNull(pending)) {
+            batch.add(pending);
+        }
+        Optional<SosiElement> element;
+        while (batch.size() < batchSize && (element = reader.readElement()).isPresent()) {
+            batch.add(element.get());
+        }
+        return !batch.isEmpty();
+    }
+
+    private void writeBatch(Writer writer, String features, long featuresWritten) throws IOException {
+        if (!newlineDelimited && featuresWritten > 0) {
+            writer.write(separator());
+        }
+        writer.write(features);
+        if (newlineDelimited) {
+            writer.write(separator());
+        }
+    }
+
+    private String separator() {
+        return newlineDelimited ? "\n" : ",\n";
+    }
+
+    private GeoJsonFeatureFormatter createFormatter(SosiTranspar transpar) {
+        LongFunction<Optional<SosiElement>> resolver = isNull(refResolver) ? serialNumber -> Optional.empty() : refResolver;
+        return new GeoJsonFeatureFormatter(SosiGeometryEncoder.of(transpar, resolver), nonNull(refResolver));
+    }
+
+    private void writeCollectionStart(Writer writer, SosiTranspar transpar) throws IOException {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\"");
+        Optional<Integer> srid = transpar.getSrid();
+        if (srid.isPresent()) {
+            json.append(",\"crs\":{\"type\":\"name\",\"properties\":{\"name\":");
+            GeoJsonFeatureFormatter.appendString(json, "urn:ogc:def:crs:EPSG::" + srid.get()).append("}}");
+        }
+        json.append(",\"features\":[\n");
+        writer.write(json.toString());
+    }
+
+    private ExecutorService createExecutor() {
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "sosi-geojson-" + THREAD_NO.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(parallelism, threadFactory);
+    }
+
+    /**
+     * Builder for {@link SosiGeoJsonConverter} instances.
+     */
+    public static final class Builder {
+        private boolean newlineDelimited = false;
+        private int parallelism = 1;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private LongFunction<Optional<SosiElement>> refResolver;
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets whether to write one feature per line instead of a FeatureCollection.
+         */
+        public Builder newlineDelimited(boolean newlineDelimited) {
+            this.newlineDelimited = newlineDelimited;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads formatting features. With 1, features are formatted by the calling thread.
+         */
+        public Builder parallelism(int parallelism) {
+            require(() -> parallelism > 0, "parallelism must be positive, was %d", parallelism);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the number of features formatted together.
+         */
+        public Builder batchSize(int batchSize) {
+            require(() -> batchSize > 0, "batchSize must be positive, was %d", batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the resolver of serial numbers referenced by FLATE. Must be thread safe when parallelism is above 1.
+         */
+        public Builder refResolver(LongFunction<Optional<SosiElement>> refResolver) {
+            this.refResolver = requireNonNull(refResolver, "refResolver can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiGeoJsonConverter build() {
+            return new SosiGeoJsonConverter(this);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of xyz coordinates, divided into parts (e.g. the rings of a polygon).
+ * The z ordinate is NaN for coordinates without height. Reused between geometries to
+ * avoid allocating objects per point.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class CoordinateBuffer {
+    private double[] ordinates = new double[3 * 256];
+    private int[] partEnds = new int[8];
+    private int size;
+    private int partCount;
+    private int partBegin;
+    private boolean hasZ;
+
+    void clear() {
+        size = partCount = partBegin = 0;
+        hasZ = false;
+    }
+
+    void add(double x, double y, double z) {
+        if (3 * size == ordinates.length) {
+            ordinates = Arrays.copyOf(ordinates, 2 * ordinates.length);
+        }
+        int i = 3 * size++;
+        ordinates[i] = x;
+        ordinates[i + 1] = y;
+        ordinates[i + 2] = z;
+        hasZ |= !Double.isNaN(z);
+    }
+
+    /**
+     * Reverses the coordinates added since the given position.
+     */
+    void reverseFrom(int begin) {
+        for (int low = begin, high = size - 1; low < high; low++, high--) {
+            for (int j = 0; j < 3; j++) {
+                double tmp = ordinates[3 * low + j];
+                ordinates[3 * low + j] = ordinates[3 * high + j];
+                ordinates[3 * high + j] = tmp;
+            }
+        }
+    }
+
+    /**
+     * Removes a coordinate of the current part if equal to the one before it, as when joining curves.
+     */
+    void removeDuplicateAt(int pos) {
+        if (pos > partBegin && pos < size && samePoint(pos - 1, pos)) {
+            System.arraycopy(ordinates, 3 * (pos + 1), ordinates, 3 * pos, 3 * (size - pos - 1));
+            size--;
+        }
+    }
+
+    /**
+     * Ends the current part, closing it first if requested and not already closed.
+     */
+    void endPart(boolean close) {
+        if (close && size > partBegin && !samePoint(partBegin, size - 1)) {
+            add(getX(partBegin), getY(partBegin), getZ(partBegin));
+        }
+        if (partCount == partEnds.length) {
+            partEnds = Arrays.copyOf(partEnds, 2 * partEnds.length);
+        }
+        partEnds[partCount++] = size;
+        partBegin = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getPartCount() {
+        return partCount;
+    }
+
+    int getPartBegin(int part) {
+        return part == 0 ? 0 : partEnds[part - 1];
+    }
+
+    int getPartEnd(int part) {
+        return partEnds[part];
+    }
+
+    boolean hasZ() {
+        return hasZ;
+    }
+
+    double getX(int pos) {
+        return ordinates[3 * pos];
+    }
+
+    double getY(int pos) {
+        return ordinates[3 * pos + 1];
+    }
+
+    double getZ(int pos) {
+        return ordinates[3 * pos + 2];
+    }
+
+    private boolean samePoint(int pos1, int pos2) {
+        return getX(pos1) == getX(pos2) && getY(pos1) == getY(pos2)
+                && Double.compare(getZ(pos1), getZ(pos2)) == 0;
+    }
+}
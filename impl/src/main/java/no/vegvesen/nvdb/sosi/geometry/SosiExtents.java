@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+
+/**
+ * Utilities for the extents of SOSI documents, in the units of the coordinate system.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiExtents {
+
+    private SosiExtents() {
+    }
+
+    /**
+     * Reads the area declared by the OMRÅDE element of the head, i.e. MIN-NØ and MAX-NØ.
+     *
+     * @param head the head element
+     * @return the declared area, or empty if there is no OMRÅDE
+     * @throws SosiException if MIN-NØ or MAX-NØ is missing or malformed
+     */
+    public static Optional<SosiExtent> declaredAreaOf(SosiElement head) {
+        requireNonNull(head, "head can't be null");
+        Optional<SosiElement> area = head.findSubElement(hasName("OMRÅDE"));
+        if (!area.isPresent()) {
+            return Optional.empty();
+        }
+        List<SosiNumber> min = coordinateOf(area.get(), "MIN-NØ");
+        List<SosiNumber> max = coordinateOf(area.get(), "MAX-NØ");
+        return Optional.of(SosiExtent.of(min.get(0).doubleValue(), min.get(1).doubleValue(), max.get(0).doubleValue(), max.get(1).doubleValue()));
+    }
+
+    /**
+     * @param document a document
+     * @return the extent of the coordinates of the document, transformed by the TRANSPAR of the head, or empty if there are no coordinates
+     * @throws SosiException if TRANSPAR is malformed
+     */
+    public static Optional<SosiExtent> extentOf(SosiDocument document) {
+        requireNonNull(document, "document can't be null");
+        return document.getExtent().map(SosiTranspar.of(document.getHead())::transform);
+    }
+
+    /**
+     * @param document a document
+     * @return true if all coordinates of the document are within OMRÅDE, or if there is no OMRÅDE or no coordinates
+     * @throws SosiException if TRANSPAR or OMRÅDE is malformed
+     */
+    public static boolean isWithinDeclaredArea(SosiDocument document) {
+        requireNonNull(document, "document can't be null");
+        Optional<SosiExtent> declaredArea = declaredAreaOf(document.getHead());
+        if (!declaredArea.isPresent()) {
+            return true;
+        }
+        return extentOf(document).map(declaredArea.get()::contains).orElse(true);
+    }
+
+    private static List<SosiNumber> coordinateOf(SosiElement area, String name) {
+        List<SosiNumber> values = area.findSubElement(hasName(name))
+                .orElseThrow(() -> new SosiException("OMRÅDE has no %s", name))
+                .getValuesAs(SosiNumber.class);
+        if (values.size() != 2) {
+            throw new SosiException("%s must have 2 values, had %d", name, values.size());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongFunction;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * Encodes the geometry of SOSI features as WKB, EWKB (as used by PostGIS) or WKT, applying the
+ * transformation of the TRANSPAR element. PUNKT and TEKST are encoded as points, KURVE as
+ * line strings and FLATE as polygons, with the rings built from the curves referenced by REF.
+ * Geometries are three dimensional if any coordinate has a height (NØH).
+ *
+ * <p>
+ * The coordinates and the encoded geometry are kept in buffers reused from feature to feature,
+ * so {@link #encodeWkb(SosiElement)} and {@link #encodeEwkb(SosiElement)} allocate no objects per
+ * point. The buffer they return is only valid until the next call.
+ *
+ * <p>
+ * The following example demonstrates how to load the features of a document into PostGIS:
+ * <pre>
+ * <code>
+ * SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc);
+ * try (SosiPgCopyWriter writer = new SosiPgCopyWriter(copyIn, encoder)) {
+ *     doc.elements().filter(SosiGeometryEncoder::isSupported).forEach(writer::writeFeature);
+ * }
+ * </code>
+ * </pre>
+ *
+ * Instances are not thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiGeometryEncoder {
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+    private static final int ISO_Z_OFFSET = 1000;
+    private static final int EWKB_Z_FLAG = 0x80000000;
+    private static final int EWKB_SRID_FLAG = 0x20000000;
+
+    private final SosiTranspar transpar;
+    private final LongFunction<Optional<SosiElement>> refResolver;
+    private final CoordinateBuffer coordinates = new CoordinateBuffer();
+    private final StringBuilder wkt = new StringBuilder(256);
+    private ByteBuffer wkb = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    private SosiGeometryEncoder(SosiTranspar transpar, LongFunction<Optional<SosiElement>> refResolver) {
+        this.transpar = transpar;
+        this.refResolver = refResolver;
+    }
+
+    /**
+     * Creates an encoder for the features of a document. References are resolved to the
+     * features of the document, which are indexed by serial number on first use.
+     *
+     * @param document the document
+     * @return the encoder
+     */
+    public static SosiGeometryEncoder of(SosiDocument document) {
+        requireNonNull(document, "document can't be null");
+        return new SosiGeometryEncoder(SosiTranspar.of(document.getHead()), new DocumentRefResolver(document));
+    }
+
+    /**
+     * Creates an encoder for features read separately from their head, e.g. through an index.
+     *
+     * @param head the head element
+     * @param refResolver resolves serial numbers of referenced features, used for FLATE
+     * @return the encoder
+     */
+    public static SosiGeometryEncoder of(SosiElement head, LongFunction<Optional<SosiElement>> refResolver) {
+        requireNonNull(refResolver, "refResolver can't be null");
+        return new SosiGeometryEncoder(SosiTranspar.of(head), refResolver);
+    }
+
+    /**
+     * Creates an encoder with a given transformation.
+     *
+     * @param transpar the transformation of coordinates
+     * @param refResolver resolves serial numbers of referenced features, used for FLATE
+     * @return the encoder
+     */
+    public static SosiGeometryEncoder of(SosiTranspar transpar, LongFunction<Optional<SosiElement>> refResolver) {
+        requireNonNull(transpar, "transpar can't be null");
+        requireNonNull(refResolver, "refResolver can't be null");
+        return new SosiGeometryEncoder(transpar, refResolver);
+    }
+
+    /**
+     * @param feature a feature
+     * @return true if the geometry of the feature can be encoded
+     */
+    public static boolean isSupported(SosiElement feature) {
+        switch (feature.getName().toUpperCase()) {
+            case "PUNKT":
+            case "TEKST":
+            case "KURVE":
+            case "FLATE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public SosiTranspar getTranspar() {
+        return transpar;
+    }
+
+    /**
+     * Encodes the geometry of a feature as ISO WKB in little endian byte order.
+     *
+     * @param feature the feature
+     * @return a buffer holding the geometry, valid until the next call to this encoder
+     * @throws IllegalArgumentException if the feature type isn't supported
+     * @throws SosiException if the coordinates are malformed, or a reference can't be resolved
+     */
+    public ByteBuffer encodeWkb(SosiElement feature) {
+        return encodeBinary(feature, false);
+    }
+
+    /**
+     * Encodes the geometry of a feature as EWKB in little endian byte order, with the SRID of the
+     * coordinate system when known. This is the binary format of the PostGIS geometry type.
+     *
+     * @param feature the feature
+     * @return a buffer holding the geometry, valid until the next call to this encoder
+     * @throws IllegalArgumentException if the feature type isn't supported
+     * @throws SosiException if the coordinates are malformed, or a reference can't be resolved
+     */
+    public ByteBuffer encodeEwkb(SosiElement feature) {
+        return encodeBinary(feature, true);
+    }
+
+    /**
+     * @param feature the feature
+     * @return a copy of the geometry encoded as ISO WKB
+     */
+    public byte[] toWkb(SosiElement feature) {
+        return toBytes(encodeWkb(feature));
+    }
+
+    /**
+     * @param feature the feature
+     * @return a copy of the geometry encoded as EWKB
+     */
+    public byte[] toEwkb(SosiElement feature) {
+        return toBytes(encodeEwkb(feature));
+    }
+
+    /**
+     * Encodes the geometry of a feature as WKT, mainly for debugging.
+     *
+     * @param feature the feature
+     * @return the geometry as WKT, e.g. "POINT Z (569386.66 7034313.66 9.34)"
+     */
+    public String toWkt(SosiElement feature) {
+        int type = load(feature);
+        boolean hasZ = coordinates.hasZ();
+        wkt.setLength(0);
+        wkt.append(type == WKB_POINT ? "POINT" : type == WKB_LINESTRING ? "LINESTRING" : "POLYGON");
+        if (hasZ) {
+            wkt.append(" Z");
+        }
+        if (coordinates.size() == 0) {
+            return wkt.append(" EMPTY").toString();
+        }
+        wkt.append(" (");
+        for (int part = 0; part < coordinates.getPartCount(); part++) {
+            if (type == WKB_POLYGON) {
+                wkt.append(part > 0 ? ", (" : "(");
+            }
+            int end = type == WKB_POINT ? 1 : coordinates.getPartEnd(part);
+            for (int pos = coordinates.getPartBegin(part); pos < end; pos++) {
+                if (pos > coordinates.getPartBegin(part)) {
+                    wkt.append(", ");
+                }
+                appendOrdinate(coordinates.getX(pos)).append(' ');
+                appendOrdinate(coordinates.getY(pos));
+                if (hasZ) {
+                    wkt.append(' ');
+                    appendOrdinate(coordinates.getZ(pos));
+                }
+            }
+            if (type == WKB_POLYGON) {
+                wkt.append(')');
+            }
+        }
+        return wkt.append(')').toString();
+    }
+
+    /**
+     * Appends the geometry of a feature as a GeoJSON geometry object, with x as east and y as north.
+     *
+     * @param feature the feature
+     * @param json the builder to append to
+     * @return the builder
+     */
+    public StringBuilder appendGeoJson(SosiElement feature, StringBuilder json) {
+        int type = load(feature);
+        boolean hasZ = coordinates.hasZ();
+        json.append("{\"type\":\"");
+        json.append(type == WKB_POINT ? "Point" : type == WKB_LINESTRING ? "LineString" : "Polygon");
+        json.append("\",\"coordinates\":");
+        if (type == WKB_POINT) {
+            if (coordinates.size() == 0) {
+                json.append("[]");
+            } else {
+                appendGeoJsonPosition(json, 0, hasZ);
+            }
+        } else if (type == WKB_LINESTRING) {
+            appendGeoJsonPositions(json, 0, coordinates.size(), hasZ);
+        } else {
+            json.append('[');
+            for (int part = 0; part < coordinates.getPartCount(); part++) {
+                if (part > 0) {
+                    json.append(',');
+                }
+                appendGeoJsonPositions(json, coordinates.getPartBegin(part), coordinates.getPartEnd(part), hasZ);
+            }
+            json.append(']');
+        }
+        return json.append('}');
+    }
+
+    private void appendGeoJsonPositions(StringBuilder json, int begin, int end, boolean hasZ) {
+        json.append('[');
+        for (int pos = begin; pos < end; pos++) {
+            if (pos > begin) {
+                json.append(',');
+            }
+            appendGeoJsonPosition(json, pos, hasZ);
+        }
+        json.append(']');
+    }
+
+    private void appendGeoJsonPosition(StringBuilder json, int pos, boolean hasZ) {
+        json.append('[');
+        appendJsonNumber(json, coordinates.getX(pos)).append(',');
+        appendJsonNumber(json, coordinates.getY(pos));
+        if (hasZ && !Double.isNaN(coordinates.getZ(pos))) {
+            appendJsonNumber(json.append(','), coordinates.getZ(pos));
+        }
+        json.append(']');
+    }
+
+    // Whole numbers are written without a fraction, other numbers as the shortest decimal that reads back exactly
+    private static StringBuilder appendJsonNumber(StringBuilder json, double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return json.append((long)value);
+        }
+        return json.append(value);
+    }
+
+    private ByteBuffer encodeBinary(SosiElement feature, boolean extended) {
+        int type = load(feature);
+        boolean hasZ = coordinates.hasZ();
+        Optional<Integer> srid = extended ? transpar.getSrid() : Optional.empty();
+        int dimension = hasZ ? 3 : 2;
+
+        int size = 1 + 4 + (srid.isPresent() ? 4 : 0);
+        if (type == WKB_POINT) {
+            size += 8 * dimension;
+        } else if (type == WKB_LINESTRING) {
+            size += 4 + 8 * dimension * coordinates.size();
+        } else {
+            size += 4 + 4 * coordinates.getPartCount() + 8 * dimension * coordinates.size();
+        }
+        if (wkb.capacity() < size) {
+            wkb = ByteBuffer.allocate(Math.max(size, 2 * wkb.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        wkb.clear();
+
+        wkb.put((byte)1); // little endian
+        if (extended) {
+            wkb.putInt(type | (hasZ ? EWKB_Z_FLAG : 0) | (srid.isPresent() ? EWKB_SRID_FLAG : 0));
+            if (srid.isPresent()) {
+                wkb.putInt(srid.get());
+            }
+        } else {
+            wkb.putInt(type + (hasZ ? ISO_Z_OFFSET : 0));
+        }
+
+        if (type == WKB_POINT) {
+            if (coordinates.size() == 0) {
+                for (int i = 0; i < dimension; i++) {
+                    wkb.putDouble(Double.NaN);
+                }
+            } else {
+                putCoordinate(0, hasZ);
+            }
+        } else if (type == WKB_LINESTRING) {
+            putPoints(0, coordinates.size(), hasZ);
+        } else {
+            wkb.putInt(coordinates.getPartCount());
+            for (int part = 0; part < coordinates.getPartCount(); part++) {
+                putPoints(coordinates.getPartBegin(part), coordinates.getPartEnd(part), hasZ);
+            }
+        }
+        wkb.flip();
+        return wkb;
+    }
+
+    private void putPoints(int begin, int end, boolean hasZ) {
+        wkb.putInt(end - begin);
+        for (int pos = begin; pos < end; pos++) {
+            putCoordinate(pos, hasZ);
+        }
+    }
+
+    private void putCoordinate(int pos, boolean hasZ) {
+        wkb.putDouble(coordinates.getX(pos));
+        wkb.putDouble(coordinates.getY(pos));
+        if (hasZ) {
+            wkb.putDouble(coordinates.getZ(pos));
+        }
+    }
+
+    /**
+     * Loads the coordinates of a feature into the coordinate buffer.
+     * @return the WKB geometry type
+     */
+    private int load(SosiElement feature) {
+        requireNonNull(feature, "feature can't be null");
+        require(() -> isSupported(feature), "Geometry of %s is not supported", feature.getName());
+        coordinates.clear();
+        if (hasName("FLATE").test(feature)) {
+            loadRings(feature);
+            return WKB_POLYGON;
+        }
+        addCoordinates(feature);
+        coordinates.endPart(false);
+        return hasName("KURVE").test(feature) ? WKB_LINESTRING : WKB_POINT;
+    }
+
+    private void loadRings(SosiElement surface) {
+        // The outer ring consists of the references outside parentheses, and each island is an inner ring
+        Iterator<SosiElement> refElements = surface.findSubElements(hasName("REF")).iterator();
+        boolean hasRefs = false;
+        while (refElements.hasNext()) {
+            Iterator<SosiValue> values = refElements.next().values().iterator();
+            while (values.hasNext()) {
+                SosiValue value = values.next();
+                if (value instanceof SosiRefNumber) {
+                    addRef((SosiRefNumber)value);
+                    hasRefs = true;
+                }
+            }
+        }
+        if (!hasRefs) {
+            return;
+        }
+        coordinates.endPart(true);
+
+        refElements = surface.findSubElements(hasName("REF")).iterator();
+        while (refElements.hasNext()) {
+            Iterator<SosiValue> values = refElements.next().values().iterator();
+            while (values.hasNext()) {
+                SosiValue value = values.next();
+                if (value instanceof SosiRefIsland) {
+                    Iterator<SosiRefNumber> islandRefs = ((SosiRefIsland)value).refNumbers().iterator();
+                    while (islandRefs.hasNext()) {
+                        addRef(islandRefs.next());
+                    }
+                    coordinates.endPart(true);
+                }
+            }
+        }
+    }
+
+    private void addRef(SosiRefNumber ref) {
+        SosiElement referenced = refResolver.apply(ref.longValue())
+                .orElseThrow(() -> new SosiException("Unable to resolve reference %s at %s", ref, ref.getLocation()));
+        int begin = coordinates.size();
+        addCoordinates(referenced);
+        if (ref.isReversedOrder()) {
+            coordinates.reverseFrom(begin);
+        }
+        coordinates.removeDuplicateAt(begin);
+    }
+
+    private void addCoordinates(SosiElement feature) {
+        Iterator<SosiElement> subElements = feature.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            String name = subElement.getName();
+            boolean hasHeight = name.equalsIgnoreCase("NØH");
+            if (!hasHeight && !name.equalsIgnoreCase("NØ")) {
+                continue;
+            }
+
+            Iterator<SosiValue> values = subElement.values().iterator();
+            while (values.hasNext()) {
+                double north = ordinate(values.next());
+                if (!values.hasNext()) {
+                    throw incompleteCoordinate(subElement);
+                }
+                double east = ordinate(values.next());
+                double height = Double.NaN;
+                if (hasHeight) {
+                    if (!values.hasNext()) {
+                        throw incompleteCoordinate(subElement);
+                    }
+                    height = transpar.height(ordinate(values.next()));
+                }
+                coordinates.add(transpar.east(east), transpar.north(north), height);
+            }
+        }
+    }
+
+    private static double ordinate(SosiValue value) {
+        if (!(value instanceof SosiNumber)) {
+            throw new SosiException("Coordinate value %s at %s is not a number", value.getString(), value.getLocation());
+        }
+        return ((SosiNumber)value).doubleValue();
+    }
+
+    private static SosiException incompleteCoordinate(SosiElement element) {
+        return new SosiException("Incomplete coordinate in %s at %s", element.getName(), element.getLocation());
+    }
+
+    private StringBuilder appendOrdinate(double value) {
+        if (Double.isNaN(value)) {
+            return wkt.append("NaN");
+        }
+        return wkt.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), 0, buffer.limit());
+    }
+
+    /**
+     * Resolves references to the features of a document, indexed by serial number on first use.
+     */
+    private static final class DocumentRefResolver implements LongFunction<Optional<SosiElement>> {
+        private final SosiDocument document;
+        private Map<Long, SosiElement> features;
+
+        private DocumentRefResolver(SosiDocument document) {
+            this.document = document;
+        }
+
+        @Override
+        public Optional<SosiElement> apply(long serialNumber) {
+            if (isNull(features)) {
+                features = new HashMap<>();
+                document.elements().forEach(e -> e.values()
+                        .filter(isType(SERNO))
+                        .findFirst()
+                        .ifPresent(s -> features.put(((SosiSerialNumber)s).longValue(), e)));
+            }
+            return Optional.ofNullable(features.get(serialNumber));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * Writes SOSI features as rows in the binary format of PostgreSQL's COPY command, for bulk
+ * loading with {@code COPY table (serno, objtype, geom) FROM STDIN (FORMAT BINARY)}. Each row
+ * has three columns:
+ * <ul>
+ *     <li>the serial number of the feature ({@code bigint})</li>
+ *     <li>the OBJTYPE of the feature ({@code text})</li>
+ *     <li>the geometry as EWKB ({@code geometry})</li>
+ * </ul>
+ * Missing values and unsupported geometries are written as null. The text is encoded as UTF-8,
+ * so the database encoding must be UTF-8.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiPgCopyWriter implements Closeable {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xff, '\r', '\n', 0};
+    private static final int COLUMN_COUNT = 3;
+
+    private final DataOutputStream out;
+    private final SosiGeometryEncoder encoder;
+    private boolean headerWritten = false;
+    private long rowCount = 0;
+
+    /**
+     * @param out the output, typically the input of a COPY command
+     * @param encoder the encoder of geometries
+     */
+    public SosiPgCopyWriter(OutputStream out, SosiGeometryEncoder encoder) {
+        requireNonNull(out, "out can't be null");
+        this.encoder = requireNonNull(encoder, "encoder can't be null");
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    /**
+     * Writes a feature as a row.
+     *
+     * @param feature the feature
+     * @throws SosiException if the geometry is malformed, or the row can't be written
+     */
+    public void writeFeature(SosiElement feature) {
+        requireNonNull(feature, "feature can't be null");
+        // The columns are found before the row is written, so a failure doesn't leave a partly written row
+        Optional<SosiValue> serialNumber = feature.values().filter(isType(SERNO)).findFirst();
+        Optional<String> objType = feature.findSubElement(hasName("OBJTYPE"))
+                .map(e -> e.getValueAs(SosiValue.class).getString());
+        ByteBuffer geometry = SosiGeometryEncoder.isSupported(feature) ? encoder.encodeEwkb(feature) : null;
+        try {
+            writeHeader();
+            out.writeShort(COLUMN_COUNT);
+
+            if (serialNumber.isPresent()) {
+                out.writeInt(8);
+                out.writeLong(((SosiSerialNumber)serialNumber.get()).longValue());
+            } else {
+                out.writeInt(-1);
+            }
+
+            if (objType.isPresent()) {
+                byte[] bytes = objType.get().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else {
+                out.writeInt(-1);
+            }
+
+            if (nonNull(geometry)) {
+                out.writeInt(geometry.remaining());
+                out.write(geometry.array(), geometry.position(), geometry.remaining());
+            } else {
+                out.writeInt(-1);
+            }
+            rowCount++;
+        } catch (IOException e) {
+            throw new SosiException("Unable to write row", e);
+        }
+    }
+
+    /**
+     * @return the number of rows written
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes the trailer and closes the output.
+     */
+    @Override
+    public void close() {
+        try {
+            writeHeader();
+            out.writeShort(-1);
+            out.close();
+        } catch (IOException e) {
+            throw new SosiException("Unable to close output", e);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            out.write(SIGNATURE);
+            out.writeInt(0); // flags
+            out.writeInt(0); // header extension length
+            headerWritten = true;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import no.vegvesen.nvdb.sosi.CoordSys;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+
+/**
+ * The transformation of a SOSI file, as given by the TRANSPAR element of the head. Coordinates
+ * in SOSI files are integers in units of ENHET (and ENHET-H for heights), relative to ORIGO-NØ.
+ *
+ * <p>
+ * When the unit is a whole fraction of a meter (e.g. 0.01), coordinates are computed by division,
+ * so that they are the nearest doubles to the decimal values written in the file.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiTranspar {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiTranspar.class);
+    private static final double MAX_EXACT_DOUBLE = 9007199254740992.0; // 2^53
+
+    private static final SosiTranspar IDENTITY = new SosiTranspar(null, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ONE, BigDecimal.ONE);
+
+    private final CoordSys coordSys;
+    private final BigDecimal originNorth;
+    private final BigDecimal originEast;
+    private final BigDecimal unit;
+    private final BigDecimal heightUnit;
+    private final Axis north;
+    private final Axis east;
+    private final Axis height;
+
+    private SosiTranspar(CoordSys coordSys, BigDecimal originNorth, BigDecimal originEast, BigDecimal unit, BigDecimal heightUnit) {
+        this.coordSys = coordSys;
+        this.originNorth = originNorth;
+        this.originEast = originEast;
+        this.unit = unit;
+        this.heightUnit = heightUnit;
+        this.north = new Axis(originNorth, unit);
+        this.east = new Axis(originEast, unit);
+        this.height = new Axis(BigDecimal.ZERO, heightUnit);
+    }
+
+    /**
+     * @return a transformation with origin 0 and unit 1, and no coordinate system
+     */
+    public static SosiTranspar identity() {
+        return IDENTITY;
+    }
+
+    /**
+     * Reads the transformation from the head of a SOSI file. Both the TRANSPAR element and
+     * the older form with KOORDSYS, ORIGO-NØ and ENHET directly in the head are supported.
+     * Missing parts default to origin 0 and unit 1. An unknown coordinate system is ignored.
+     *
+     * @param head the head element
+     * @return the transformation
+     * @throws SosiException if ORIGO-NØ or ENHET is malformed
+     */
+    public static SosiTranspar of(SosiElement head) {
+        requireNonNull(head, "head can't be null");
+        SosiElement transpar = head.findSubElement(hasName("TRANSPAR")).orElse(head);
+
+        CoordSys coordSys = transpar.findSubElement(hasName("KOORDSYS"))
+                .map(e -> e.getValueAs(SosiNumber.class).intValue())
+                .flatMap(SosiTranspar::toCoordSys)
+                .orElse(null);
+
+        BigDecimal originNorth = BigDecimal.ZERO;
+        BigDecimal originEast = BigDecimal.ZERO;
+        Optional<SosiElement> origin = transpar.findSubElement(hasName("ORIGO-NØ"));
+        if (origin.isPresent()) {
+            List<SosiNumber> values = origin.get().getValuesAs(SosiNumber.class);
+            if (values.size() != 2) {
+                throw new SosiException("ORIGO-NØ must have 2 values, had %d", values.size());
+            }
+            originNorth = values.get(0).bigDecimalValue();
+            originEast = values.get(1).bigDecimalValue();
+        }
+
+        BigDecimal unit = transpar.findSubElement(hasName("ENHET"))
+                .map(e -> e.getValueAs(SosiNumber.class).bigDecimalValue())
+                .orElse(BigDecimal.ONE);
+        BigDecimal heightUnit = transpar.findSubElement(hasName("ENHET-H"))
+                .map(e -> e.getValueAs(SosiNumber.class).bigDecimalValue())
+                .orElse(unit);
+        return of(coordSys, originNorth, originEast, unit, heightUnit);
+    }
+
+    /**
+     * @param coordSys the coordinate system, or null if unknown
+     * @param originNorth ORIGO-NØ north
+     * @param originEast ORIGO-NØ east
+     * @param unit ENHET
+     * @param heightUnit ENHET-H
+     * @return the transformation
+     * @throws SosiException if a unit isn't positive
+     */
+    public static SosiTranspar of(CoordSys coordSys, BigDecimal originNorth, BigDecimal originEast, BigDecimal unit, BigDecimal heightUnit) {
+        requireNonNull(originNorth, "originNorth can't be null");
+        requireNonNull(originEast, "originEast can't be null");
+        requireNonNull(unit, "unit can't be null");
+        requireNonNull(heightUnit, "heightUnit can't be null");
+        if (unit.signum() <= 0 || heightUnit.signum() <= 0) {
+            throw new SosiException("ENHET must be positive");
+        }
+        return new SosiTranspar(coordSys, originNorth, originEast, unit, heightUnit);
+    }
+
+    /**
+     * @return the coordinate system, if known
+     */
+    public Optional<CoordSys> getCoordSys() {
+        return Optional.ofNullable(coordSys);
+    }
+
+    /**
+     * @return the SRID of the coordinate system, if known
+     */
+    public Optional<Integer> getSrid() {
+        return getCoordSys().flatMap(CoordSys::getSrid);
+    }
+
+    public BigDecimal getOriginNorth() {
+        return originNorth;
+    }
+
+    public BigDecimal getOriginEast() {
+        return originEast;
+    }
+
+    public BigDecimal getUnit() {
+        return unit;
+    }
+
+    public BigDecimal getHeightUnit() {
+        return heightUnit;
+    }
+
+    /**
+     * @param value a north value as written in the file
+     * @return the northing, in the units of the coordinate system
+     */
+    public double north(double value) {
+        return north.apply(value);
+    }
+
+    /**
+     * @param value an east value as written in the file
+     * @return the easting, in the units of the coordinate system
+     */
+    public double east(double value) {
+        return east.apply(value);
+    }
+
+    /**
+     * @param value a height value as written in the file
+     * @return the height, in the units of the coordinate system
+     */
+    public double height(double value) {
+        return height.apply(value);
+    }
+
+    /**
+     * @param extent an extent as written in the file
+     * @return the extent, in the units of the coordinate system
+     */
+    public SosiExtent transform(SosiExtent extent) {
+        requireNonNull(extent, "extent can't be null");
+        return SosiExtent.of(north(extent.getMinNorth()), east(extent.getMinEast()), north(extent.getMaxNorth()), east(extent.getMaxEast()),
+                height(extent.getMinHeight()), height(extent.getMaxHeight()), extent.getPointCount());
+    }
+
+    @Override
+    public String toString() {
+        return "TRANSPAR (KOORDSYS " + (nonNull(coordSys) ? coordSys.getSosiValue() : "-") +
+                ", ORIGO-NØ " + originNorth.toPlainString() + " " + originEast.toPlainString() +
+                ", ENHET " + unit.toPlainString() + ", ENHET-H " + heightUnit.toPlainString() + ")";
+    }
+
+    private static Optional<CoordSys> toCoordSys(int sosiValue) {
+        try {
+            return Optional.of(CoordSys.fromSosiValue(sosiValue));
+        } catch (SosiException e) {
+            LOGGER.warn("Unknown KOORDSYS {} is ignored", sosiValue);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Computes origin + value * unit for one axis.
+     */
+    private static final class Axis {
+        private final double origin;
+        private final double unit;
+        private final double scaledOrigin;
+        private final double divisor;
+
+        private Axis(BigDecimal origin, BigDecimal unit) {
+            this.origin = origin.doubleValue();
+            this.unit = unit.doubleValue();
+            BigDecimal divisor = reciprocalIfWhole(unit);
+            BigDecimal scaledOrigin = isNull(divisor) ? null : origin.multiply(divisor);
+            if (nonNull(scaledOrigin) && isWhole(scaledOrigin) && Math.abs(scaledOrigin.doubleValue()) < MAX_EXACT_DOUBLE) {
+                this.divisor = divisor.doubleValue();
+                this.scaledOrigin = scaledOrigin.doubleValue();
+            } else {
+                this.divisor = 0;
+                this.scaledOrigin = 0;
+            }
+        }
+
+        private double apply(double value) {
+            if (divisor > 0 && Math.abs(value) < MAX_EXACT_DOUBLE) {
+                return (scaledOrigin + value) / divisor;
+            }
+            return origin + value * unit;
+        }
+
+        private static BigDecimal reciprocalIfWhole(BigDecimal unit) {
+            BigDecimal reciprocal = BigDecimal.ONE.divide(unit, MathContext.DECIMAL64);
+            return isWhole(reciprocal) && reciprocal.multiply(unit).compareTo(BigDecimal.ONE) == 0 ? reciprocal : null;
+        }
+
+        private static boolean isWhole(BigDecimal value) {
+            return value.signum() == 0 || value.stripTrailingZeros().scale() <= 0;
+        }
+    }
+}
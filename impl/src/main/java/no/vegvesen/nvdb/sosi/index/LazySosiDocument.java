@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiString;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.encoding.charset.SosiCharset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.reader.SosiElementFactory.element;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isEnd;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * A SOSI document whose top-level elements are parsed on demand. The file is first scanned by a
+ * {@link SosiStructureScanner}, recording the byte range, name, serial number and OBJTYPE of each
+ * top-level element. The body of an element is read and parsed the first time its values or
+ * subelements are accessed, and is cached with a soft reference, so that it may be evicted when
+ * memory runs low and parsed again on the next access.
+ *
+ * <p>
+ * The locations of elements and values are relative to the start of each top-level element.
+ * Elements that are modified (renamed or having their values computed) are kept in memory
+ * until the document is discarded.
+ *
+ * <p>
+ * The following example demonstrates how to count the features of each OBJTYPE without parsing them:
+ * <pre>
+ * <code>
+ * try (LazySosiDocument doc = LazySosiDocument.read(sosiFile)) {
+ *     Map&lt;Optional&lt;String&gt;, Long&gt; counts = doc.lazyElements()
+ *             .collect(groupingBy(LazySosiElement::getObjType, counting()));
+ * }
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class LazySosiDocument implements SosiDocument, Closeable {
+    private static final String ELEMENT_CHARSET = "TEGNSETT";
+
+    private final SosiFragmentReader fragmentReader;
+    private final List<LazySosiElement> lazyElements;
+    private final List<SosiElement> elements;
+
+    private LazySosiDocument(SosiFragmentReader fragmentReader, List<SosiElementSpan> spans) {
+        this.fragmentReader = fragmentReader;
+        this.lazyElements = new ArrayList<>(spans.size());
+        this.elements = new ArrayList<>(spans.size());
+        for (SosiElementSpan span : spans) {
+            if (ELEMENT_END.equalsIgnoreCase(span.getName())) {
+                elements.add(element(span.getName()));
+            } else {
+                LazySosiElement element = new LazySosiElement(this, span);
+                lazyElements.add(element);
+                elements.add(element);
+            }
+        }
+    }
+
+    /**
+     * Scans a SOSI file, detecting its charset.
+     *
+     * @param sosiFile the SOSI file
+     * @return the document
+     * @throws SosiException if the file can't be read
+     */
+    public static LazySosiDocument read(Path sosiFile) {
+        try {
+            return read(sosiFile, SosiIndexWriter.detectCharset(sosiFile));
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Scans a SOSI file.
+     *
+     * @param sosiFile the SOSI file
+     * @param charset the charset of the file
+     * @return the document
+     * @throws SosiException if the file can't be read
+     */
+    public static LazySosiDocument read(Path sosiFile, Charset charset) {
+        requireNonNull(sosiFile, "sosiFile can't be null");
+        requireNonNull(charset, "charset can't be null");
+        List<SosiElementSpan> spans = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            new SosiStructureScanner(charset).scan(in, spans::add);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+        return new LazySosiDocument(new SosiFragmentReader(sosiFile, charset), spans);
+    }
+
+    /**
+     * @return the top-level elements, except the end element, as lazy elements
+     */
+    public Stream<LazySosiElement> lazyElements() {
+        return lazyElements.stream();
+    }
+
+    @Override
+    public Charset getEncoding() {
+        String sosiCharset = findElementRecursively(hasName(ELEMENT_CHARSET)).map(e -> e.getValueAs(SosiString.class).getString()).orElse("");
+        return SosiEncoding.charsetNameFromSosiValue(sosiCharset)
+                .map(SosiCharset::forName)
+                .orElse(SosiEncoding.defaultCharset());
+    }
+
+    @Override
+    public SosiElement getHead() {
+        return elements()
+                .filter(isHead())
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("Head element not found"));
+    }
+
+    @Override
+    public Collection<SosiElement> getElements() {
+        return Collections.unmodifiableCollection(elements);
+    }
+
+    @Override
+    public SosiElement getEnd() {
+        return elements()
+                .filter(isEnd())
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("End element not found"));
+    }
+
+    @Override
+    public Stream<SosiElement> elements() {
+        return elements.stream();
+    }
+
+    @Override
+    public Optional<SosiElement> findElement(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        return elements().filter(predicate).findFirst();
+    }
+
+    @Override
+    public Optional<SosiElement> findElementRecursively(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        Optional<SosiElement> maybeMatch = findElement(predicate);
+        if (maybeMatch.isPresent()) {
+            return maybeMatch;
+        } else {
+            for (SosiElement element : elements) {
+                maybeMatch = element.findSubElementRecursively(predicate);
+                if (maybeMatch.isPresent()) {
+                    return maybeMatch;
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void close() {
+        fragmentReader.close();
+    }
+
+    SosiElement parse(SosiElementSpan span) {
+        if (span.getLength() > Integer.MAX_VALUE) {
+            throw new SosiException("Element too large to be parsed: " + span);
+        }
+        return fragmentReader.read(span.getOffset(), (int)span.getLength(), !ELEMENT_HEAD.equalsIgnoreCase(span.getName()));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * A top-level element of a {@link LazySosiDocument}. The name, serial number and OBJTYPE are
+ * known from the structural scan; anything else parses the element on first access.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class LazySosiElement implements SosiElement {
+    private final LazySosiDocument document;
+    private final SosiElementSpan span;
+
+    private volatile SoftReference<SosiElement> cached;
+    private volatile SosiElement modified;
+
+    LazySosiElement(LazySosiDocument document, SosiElementSpan span) {
+        this.document = document;
+        this.span = span;
+    }
+
+    /**
+     * @return the byte range of the element in the SOSI file
+     */
+    public SosiElementSpan getSpan() {
+        return span;
+    }
+
+    /**
+     * @return the serial number of the element, if any
+     */
+    public OptionalLong getSerialNumber() {
+        return span.getSerialNumber();
+    }
+
+    /**
+     * @return the value of the OBJTYPE subelement, if any
+     */
+    public Optional<String> getObjType() {
+        return span.getObjType();
+    }
+
+    /**
+     * @return true if the element has been parsed, and not evicted since
+     */
+    public boolean isMaterialized() {
+        SoftReference<SosiElement> ref = cached;
+        return nonNull(modified) || (nonNull(ref) && nonNull(ref.get()));
+    }
+
+    @Override
+    public String getName() {
+        SosiElement element = modified;
+        return isNull(element) ? span.getName() : element.getName();
+    }
+
+    @Override
+    public SosiLocation getLocation() {
+        return materialize().getLocation();
+    }
+
+    @Override
+    public Optional<SosiElement> findSubElement(Predicate<SosiElement> predicate) {
+        return materialize().findSubElement(predicate);
+    }
+
+    @Override
+    public Optional<SosiElement> findSubElementRecursively(Predicate<SosiElement> predicate) {
+        return materialize().findSubElementRecursively(predicate);
+    }
+
+    @Override
+    public Stream<SosiElement> findSubElements(Predicate<SosiElement> predicate) {
+        return materialize().findSubElements(predicate);
+    }
+
+    @Override
+    public boolean hasSubElements() {
+        return materialize().hasSubElements();
+    }
+
+    @Override
+    public Stream<SosiElement> subElements() {
+        return materialize().subElements();
+    }
+
+    @Override
+    public boolean hasValues() {
+        return materialize().hasValues();
+    }
+
+    @Override
+    public Stream<SosiValue> values() {
+        return materialize().values();
+    }
+
+    @Override
+    public <T> T getValueAs(Class<T> valueClass) {
+        return materialize().getValueAs(valueClass);
+    }
+
+    @Override
+    public <T> List<T> getValuesAs(Class<T> valueClass) {
+        return materialize().getValuesAs(valueClass);
+    }
+
+    @Override
+    public Optional<SosiExtent> getExtent() {
+        return materialize().getExtent();
+    }
+
+    @Override
+    public OptionalLong getFingerprint() {
+        // The fragment reader doesn't compute fingerprints, so there's no need to parse the element
+        return OptionalLong.empty();
+    }
+
+    @Override
+    public void rename(Function<String, String> transformer) {
+        pin().rename(transformer);
+    }
+
+    @Override
+    public void computeValues(Function<Stream<SosiValue>, Stream<SosiValue>> transformer) {
+        pin().computeValues(transformer);
+    }
+
+    @Override
+    public String toString() {
+        return "LazySosiElement(" + span + ")";
+    }
+
+    private SosiElement materialize() {
+        SosiElement element = modified;
+        if (nonNull(element)) {
+            return element;
+        }
+        SoftReference<SosiElement> ref = cached;
+        element = isNull(ref) ? null : ref.get();
+        if (isNull(element)) {
+            element = document.parse(span);
+            cached = new SoftReference<>(element);
+        }
+        return element;
+    }
+
+    // Keeps a modified element from being evicted, which would discard the modification
+    private synchronized SosiElement pin() {
+        SosiElement element = materialize();
+        modified = element;
+        return element;
+    }
+}
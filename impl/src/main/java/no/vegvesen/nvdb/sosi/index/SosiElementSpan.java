@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.util.Objects.isNull;
+
+/**
+ * The position of a top-level element in a SOSI file, as found by {@link SosiStructureScanner}.
+ * Offsets and lengths are in bytes, from the level marker of the element up to the level
+ * marker of the next top-level element.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiElementSpan {
+    private static final long NO_SERIAL_NUMBER = Long.MIN_VALUE;
+
+    private final String name;
+    private final long serialNumber;
+    private final String objType;
+    private final long offset;
+    private final long length;
+
+    SosiElementSpan(String name, long serialNumber, String objType, long offset, long length) {
+        this.name = name;
+        this.serialNumber = serialNumber;
+        this.objType = objType;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    static long noSerialNumber() {
+        return NO_SERIAL_NUMBER;
+    }
+
+    /**
+     * @return the element name, e.g. "HODE" or "KURVE"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the serial number of the element, if any
+     */
+    public OptionalLong getSerialNumber() {
+        return serialNumber == NO_SERIAL_NUMBER ? OptionalLong.empty() : OptionalLong.of(serialNumber);
+    }
+
+    /**
+     * @return the value of the OBJTYPE subelement, if any
+     */
+    public Optional<String> getObjType() {
+        return Optional.ofNullable(objType);
+    }
+
+    /**
+     * @return the byte offset of the element in the SOSI file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the length of the element in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    boolean hasSerialNumber() {
+        return serialNumber != NO_SERIAL_NUMBER;
+    }
+
+    long serialNumber() {
+        return serialNumber;
+    }
+
+    String objTypeOrNull() {
+        return objType;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiElementSpan(" + name + (hasSerialNumber() ? " " + serialNumber + ":" : "")
+                + (isNull(objType) ? "" : ", OBJTYPE=" + objType) + ", offset=" + offset + ", length=" + length + ")";
+    }
+}
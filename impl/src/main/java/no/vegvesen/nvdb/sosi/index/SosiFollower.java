@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.reader.SosiReaderImpl;
+import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+
+/**
+ * Follows a SOSI file that is being appended to, reading each top-level element once it is
+ * completely written. Only the bytes after the last complete element are scanned and parsed
+ * on each poll, so following a file costs about as much as reading it once.
+ *
+ * <p>
+ * An element is known to be complete when the next top-level element has begun, so the last
+ * element is held back until more is written or the end element (SLUTT) is read. Partially
+ * written elements are thus never parsed. The locations of the elements read are relative to
+ * the first element parsed by the same poll.
+ *
+ * <p>
+ * The following example reads the features of a file as they are written, until SLUTT:
+ * <pre>
+ * <code>
+ * try (SosiFollower follower = new SosiFollower(sosiFile, element -&gt; ...)) {
+ *     follower.follow(1000);
+ * }
+ * </code>
+ * </pre>
+ *
+ * Instances are not thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiFollower implements Closeable {
+    private static final byte[] UTF8_BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+    private static final byte[] END_OF_FRAGMENT = "\n.SLUTT\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String ELEMENT_HEAD = "HODE";
+    private static final String ELEMENT_END = "SLUTT";
+    private static final int MAX_CHUNK_LENGTH = 4 * 1024 * 1024;
+
+    private final Path sosiFile;
+    private final FileChannel sosiChannel;
+    private final SosiFollowListener listener;
+    private final List<SosiElementSpan> chunk = new ArrayList<>();
+    private Charset charset;
+    private long offset;
+    private boolean endReached;
+
+    /**
+     * Opens a file for following. Nothing is read until polled.
+     *
+     * @param sosiFile the SOSI file, which must exist
+     * @param listener the listener of the elements read
+     * @throws SosiException if the file can't be opened
+     */
+    public SosiFollower(Path sosiFile, SosiFollowListener listener) {
+        this.sosiFile = requireNonNull(sosiFile, "sosiFile can't be null");
+        this.listener = requireNonNull(listener, "listener can't be null");
+        try {
+            this.sosiChannel = FileChannel.open(sosiFile, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new SosiException("Unable to open " + sosiFile, e);
+        }
+    }
+
+    /**
+     * @return the byte offset after the last complete element read
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true if the end element (SLUTT) is read
+     */
+    public boolean isEndReached() {
+        return endReached;
+    }
+
+    /**
+     * Reads the elements completed since the last poll, passing them to the listener.
+     *
+     * @return the number of elements read
+     * @throws SosiException if the file can't be read, or has been truncated
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if an element is malformed
+     */
+    public int poll() {
+        if (endReached) {
+            return 0;
+        }
+        try {
+            long size = sosiChannel.size();
+            if (size < offset) {
+                throw new SosiException("%s was truncated from %d to %d bytes", sosiFile, offset, size);
+            }
+            if (size == offset) {
+                return 0;
+            }
+            if (offset == 0 && startsWithBom()) {
+                offset = UTF8_BOM.length;
+            }
+
+            long scanOffset = offset;
+            int[] elementCount = {0};
+            SosiElementSpan[] pending = {null};
+            InputStream in = Channels.newInputStream(sosiChannel.position(scanOffset));
+            new SosiStructureScanner(StandardCharsets.ISO_8859_1).scan(in, relativeSpan -> {
+                if (endReached) {
+                    return;
+                }
+                // A lone level marker at the end may be the start of a subelement of the pending element
+                if (relativeSpan.getLength() <= 1) {
+                    pending[0] = null;
+                    return;
+                }
+                if (nonNull(pending[0])) {
+                    elementCount[0] += complete(pending[0]);
+                }
+                pending[0] = new SosiElementSpan(relativeSpan.getName(), relativeSpan.serialNumber(), relativeSpan.objTypeOrNull(),
+                        scanOffset + relativeSpan.getOffset(), relativeSpan.getLength());
+                if (ELEMENT_END.equalsIgnoreCase(relativeSpan.getName())) {
+                    elementCount[0] += complete(pending[0]);
+                    pending[0] = null;
+                }
+            });
+            elementCount[0] += readChunk();
+            return elementCount[0];
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Polls the file whenever it is modified, until the end element (SLUTT) is read.
+     * Modifications are found by watching the directory of the file, and in case these
+     * aren't reported (as on some file systems), by polling at the given interval.
+     *
+     * @param pollIntervalMillis the longest time between polls
+     * @throws InterruptedException if interrupted while waiting for modifications
+     * @throws SosiException if the file can't be read or watched
+     */
+    public void follow(long pollIntervalMillis) throws InterruptedException {
+        require(() -> pollIntervalMillis > 0, "pollIntervalMillis must be positive, was %d", pollIntervalMillis);
+        try (WatchService watcher = sosiFile.getFileSystem().newWatchService()) {
+            sosiFile.toAbsolutePath().getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            poll();
+            while (!endReached) {
+                WatchKey key = watcher.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                if (nonNull(key)) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                poll();
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to watch " + sosiFile, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            sosiChannel.close();
+        } catch (IOException e) {
+            throw new SosiException("Unable to close " + sosiFile, e);
+        }
+    }
+
+    // Adds a complete element to the chunk, returns the number of elements read
+    private int complete(SosiElementSpan span) {
+        if (ELEMENT_END.equalsIgnoreCase(span.getName())) {
+            int elementCount = readChunk();
+            offset = span.getOffset() + span.getLength();
+            endReached = true;
+            listener.endReached();
+            return elementCount;
+        }
+        if (isNull(charset)) {
+            charset = ELEMENT_HEAD.equalsIgnoreCase(span.getName())
+                    ? SosiEncoding.charsetOf(read(span.getOffset(), toInt(span.getLength()), 0)).orElseGet(SosiEncoding::defaultCharset)
+                    : SosiEncoding.defaultCharset();
+        }
+        chunk.add(span);
+        long chunkLength = span.getOffset() + span.getLength() - chunk.get(0).getOffset();
+        return chunkLength >= MAX_CHUNK_LENGTH ? readChunk() : 0;
+    }
+
+    // Parses the complete elements of the chunk in one go, returns the number of elements read
+    private int readChunk() {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        SosiElementSpan first = chunk.get(0);
+        SosiElementSpan last = chunk.get(chunk.size() - 1);
+        long chunkOffset = first.getOffset();
+        int length = toInt(last.getOffset() + last.getLength() - chunkOffset);
+        byte[] bytes = read(chunkOffset, length, END_OF_FRAGMENT.length);
+        System.arraycopy(END_OF_FRAGMENT, 0, bytes, length, END_OF_FRAGMENT.length);
+        chunk.clear();
+
+        int elementCount = 0;
+        try (SosiReader reader = new SosiReaderImpl(new ByteArrayInputStream(bytes), charset, new BufferPoolImpl())) {
+            if (!ELEMENT_HEAD.equalsIgnoreCase(first.getName())) {
+                reader.getParser().enable(SosiParser.Feature.ALLOW_MISSING_HEAD);
+            }
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                listener.elementRead(element.get());
+                elementCount++;
+            }
+        }
+        offset = chunkOffset + length;
+        return elementCount;
+    }
+
+    private byte[] read(long position, int length, int extraLength) {
+        byte[] bytes = new byte[length + extraLength];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (sosiChannel.read(buffer, position + buffer.position()) == -1) {
+                    throw new EOFException("Unexpected end of " + sosiFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+        return bytes;
+    }
+
+    private boolean startsWithBom() throws IOException {
+        if (sosiChannel.size() < UTF8_BOM.length) {
+            return false;
+        }
+        byte[] bytes = read(0, UTF8_BOM.length, 0);
+        return bytes[0] == UTF8_BOM[0] && bytes[1] == UTF8_BOM[1] && bytes[2] == UTF8_BOM[2];
+    }
+
+    private int toInt(long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new SosiException("Element too large to follow: " + length + " bytes");
+        }
+        return (int)length;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.reader.SosiReaderImpl;
+import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and parses single top-level elements at known byte ranges of a SOSI file.
+ * The locations of the elements read are relative to the start of each element.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SosiFragmentReader implements Closeable {
+    private static final byte[] END_OF_FRAGMENT = "\n.SLUTT\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path sosiFile;
+    private final FileChannel sosiChannel;
+    private final Charset charset;
+
+    SosiFragmentReader(Path sosiFile, Charset charset) {
+        this.sosiFile = sosiFile;
+        this.charset = charset;
+        try {
+            this.sosiChannel = FileChannel.open(sosiFile, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new SosiException("Unable to open " + sosiFile, e);
+        }
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Reads and parses an element.
+     *
+     * @param offset the byte offset of the element
+     * @param length the length of the element in bytes
+     * @param fragment whether the element is a feature (and not the head element)
+     * @return the element
+     */
+    SosiElement read(long offset, int length, boolean fragment) {
+        byte[] bytes = new byte[length + END_OF_FRAGMENT.length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (sosiChannel.read(buffer, offset + buffer.position()) == -1) {
+                    throw new EOFException("Unexpected end of " + sosiFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+        System.arraycopy(END_OF_FRAGMENT, 0, bytes, length, END_OF_FRAGMENT.length);
+
+        try (SosiReader reader = new SosiReaderImpl(new ByteArrayInputStream(bytes), charset, new BufferPoolImpl())) {
+            if (fragment) {
+                reader.getParser().enable(SosiParser.Feature.ALLOW_MISSING_HEAD);
+            }
+            return reader.readElement().orElseThrow(() -> new SosiException("No element found at offset " + offset + " in " + sosiFile));
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            sosiChannel.close();
+        } catch (IOException e) {
+            throw new SosiException("Unable to close " + sosiFile, e);
+        }
+    }
+}
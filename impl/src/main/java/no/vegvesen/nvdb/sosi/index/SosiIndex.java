@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+import static no.vegvesen.nvdb.sosi.index.SosiIndexWriter.ENTRY_SIZE;
+import static no.vegvesen.nvdb.sosi.index.SosiIndexWriter.MAGIC;
+import static no.vegvesen.nvdb.sosi.index.SosiIndexWriter.VERSION;
+import static no.vegvesen.nvdb.sosi.reader.SosiDocumentFactory.document;
+import static no.vegvesen.nvdb.sosi.reader.SosiElementFactory.element;
+
+/**
+ * Random access to the features of a SOSI file by serial number, using a sidecar index written
+ * by {@link SosiIndexWriter}. The index is memory mapped, and only the bytes of the requested
+ * features are read from the SOSI file and parsed. The head element is parsed once and cached.
+ *
+ * <p>
+ * The locations of elements read through the index are relative to the start of each feature.
+ *
+ * <p>
+ * The following example demonstrates how to fetch a few features from a large SOSI file:
+ * <pre>
+ * <code>
+ * try (SosiIndex index = SosiIndex.open(sosiFile)) {
+ *     SosiDocument doc = index.readDocument(Arrays.asList(17L, 4711L));
+ * }
+ * </code>
+ * </pre>
+ *
+ * Instances are thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiIndex implements Closeable {
+    private static final String ELEMENT_END = "SLUTT";
+
+    private final SosiFragmentReader fragmentReader;
+    private final ByteBuffer entries;
+    private final int entryCount;
+    private final String[] strings;
+    private final long headOffset;
+    private final int headLength;
+
+    private volatile SosiElement head;
+
+    private SosiIndex(Path sosiFile, ByteBuffer index) {
+        Charset charset = Charset.forName(readString(index));
+        this.headOffset = index.getLong();
+        this.headLength = index.getInt();
+        this.strings = new String[index.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(index);
+        }
+        this.entryCount = index.getInt();
+        if (index.remaining() < (long)entryCount * ENTRY_SIZE) {
+            throw new SosiException("Index of " + sosiFile + " is truncated");
+        }
+        this.entries = index.slice();
+        this.fragmentReader = new SosiFragmentReader(sosiFile, charset);
+    }
+
+    /**
+     * Opens the index of the SOSI file at the default location.
+     *
+     * @param sosiFile the SOSI file
+     * @return the index
+     * @throws SosiException if the index can't be read, or is out of date
+     */
+    public static SosiIndex open(Path sosiFile) {
+        return open(sosiFile, SosiIndexWriter.indexFileOf(sosiFile));
+    }
+
+    /**
+     * Opens the index of the SOSI file.
+     *
+     * @param sosiFile the SOSI file
+     * @param indexFile the index file
+     * @return the index
+     * @throws SosiException if the index can't be read, or is out of date
+     */
+    public static SosiIndex open(Path sosiFile, Path indexFile) {
+        try {
+            MappedByteBuffer index;
+            try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            }
+            if (index.remaining() < 4 + 2 + 8 + 8 || index.getInt() != MAGIC) {
+                throw new SosiException(indexFile + " is not a SOSI index");
+            }
+            short version = index.getShort();
+            if (version != VERSION) {
+                throw new SosiException("Unsupported SOSI index version " + version + " in " + indexFile);
+            }
+            long sourceSize = index.getLong();
+            long sourceModified = index.getLong();
+            if (sourceSize != Files.size(sosiFile) || sourceModified != Files.getLastModifiedTime(sosiFile).toMillis()) {
+                throw new SosiException("Index " + indexFile + " is out of date for " + sosiFile);
+            }
+            return new SosiIndex(sosiFile, index);
+        } catch (IOException e) {
+            throw new SosiException("Unable to open index of " + sosiFile, e);
+        }
+    }
+
+    /**
+     * @return the number of features in the index
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return the charset of the SOSI file
+     */
+    public Charset getCharset() {
+        return fragmentReader.getCharset();
+    }
+
+    /**
+     * @return the spans of all indexed features, sorted by serial number
+     */
+    public Stream<SosiElementSpan> spans() {
+        return IntStream.range(0, entryCount).mapToObj(this::spanAt);
+    }
+
+    /**
+     * Finds the span of a feature in the SOSI file.
+     *
+     * @param serialNumber the serial number of the feature
+     * @return the span of the feature, or empty if not found
+     */
+    public Optional<SosiElementSpan> find(long serialNumber) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midSerialNumber = entries.getLong(mid * ENTRY_SIZE);
+            if (midSerialNumber < serialNumber) {
+                low = mid + 1;
+            } else if (midSerialNumber > serialNumber) {
+                high = mid - 1;
+            } else {
+                return Optional.of(spanAt(mid));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the head element of the SOSI file
+     */
+    public SosiElement getHead() {
+        SosiElement cachedHead = head;
+        if (isNull(cachedHead)) {
+            cachedHead = head = fragmentReader.read(headOffset, headLength, false);
+        }
+        return cachedHead;
+    }
+
+    /**
+     * Reads a feature from the SOSI file.
+     *
+     * @param serialNumber the serial number of the feature
+     * @return the feature, or empty if not found
+     */
+    public Optional<SosiElement> readFeature(long serialNumber) {
+        return find(serialNumber).map(span -> fragmentReader.read(span.getOffset(), (int)span.getLength(), true));
+    }
+
+    /**
+     * Reads features from the SOSI file. Serial numbers not found are ignored.
+     *
+     * @param serialNumbers the serial numbers of the features
+     * @return the features, in the order of the given serial numbers
+     */
+    public List<SosiElement> readFeatures(Collection<Long> serialNumbers) {
+        List<SosiElement> features = new ArrayList<>(serialNumbers.size());
+        for (Long serialNumber : serialNumbers) {
+            readFeature(serialNumber).ifPresent(features::add);
+        }
+        return features;
+    }
+
+    /**
+     * Reads features from the SOSI file into a document, together with the cached head element.
+     *
+     * @param serialNumbers the serial numbers of the features
+     * @return a document with the head and the features found
+     */
+    public SosiDocument readDocument(Collection<Long> serialNumbers) {
+        List<SosiElement> elements = new ArrayList<>(serialNumbers.size() + 2);
+        elements.add(getHead());
+        elements.addAll(readFeatures(serialNumbers));
+        elements.add(element(ELEMENT_END));
+        return document(elements);
+    }
+
+    @Override
+    public void close() {
+        fragmentReader.close();
+    }
+
+    private SosiElementSpan spanAt(int entryNo) {
+        int pos = entryNo * ENTRY_SIZE;
+        int objTypeIndex = entries.getInt(pos + 24);
+        return new SosiElementSpan(
+                strings[entries.getInt(pos + 20)],
+                entries.getLong(pos),
+                objTypeIndex >= 0 ? strings[objTypeIndex] : null,
+                entries.getLong(pos + 8),
+                entries.getInt(pos + 16));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
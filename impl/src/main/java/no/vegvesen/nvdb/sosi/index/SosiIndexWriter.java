@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.encoding.CharsetDetectingInputStream;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Writes a sidecar index for a SOSI file, mapping serial numbers of the features to their byte
+ * offset and length in the file. The index is read by {@link SosiIndex}.
+ *
+ * <p>
+ * The index file has the following layout (big endian):
+ * <pre>
+ * magic            int     "SOSX"
+ * version          short
+ * source size      long    size of the SOSI file when indexed
+ * source modified  long    last modified time (millis) of the SOSI file when indexed
+ * charset          string
+ * head offset      long
+ * head length      int
+ * string count     int     element names and OBJTYPE values
+ * strings          string[string count]
+ * entry count      int
+ * entries          (serial number long, offset long, length int, name int, OBJTYPE int)[entry count]
+ * </pre>
+ * where strings are written as a short length followed by UTF-8 bytes, entries are sorted by serial
+ * number, and name and OBJTYPE are indexes in the string table (-1 if no OBJTYPE).
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public abstract class SosiIndexWriter {
+    static final int MAGIC = 0x534f5358; // "SOSX"
+    static final short VERSION = 1;
+    static final int ENTRY_SIZE = 8 + 8 + 4 + 4 + 4;
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final String ELEMENT_HEAD = "HODE";
+
+    /**
+     * Returns the default location of the index of a SOSI file, i.e. the
+     * path of the SOSI file with ".idx" appended.
+     *
+     * @param sosiFile the SOSI file
+     * @return the path of the index file
+     */
+    public static Path indexFileOf(Path sosiFile) {
+        return sosiFile.resolveSibling(sosiFile.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Indexes the SOSI file, writing the index to the default location.
+     *
+     * @param sosiFile the SOSI file
+     * @return the path of the index file
+     * @throws SosiException if the SOSI file can't be read, or the index can't be written
+     */
+    public static Path write(Path sosiFile) {
+        Path indexFile = indexFileOf(sosiFile);
+        write(sosiFile, indexFile);
+        return indexFile;
+    }
+
+    /**
+     * Indexes the SOSI file in a single pass, writing the index to the given location.
+     * Only features with serial numbers are included in the index.
+     *
+     * @param sosiFile the SOSI file
+     * @param indexFile the index file
+     * @throws SosiException if the SOSI file can't be read, or the index can't be written
+     */
+    public static void write(Path sosiFile, Path indexFile) {
+        try {
+            long sourceSize = Files.size(sosiFile);
+            long sourceModified = Files.getLastModifiedTime(sosiFile).toMillis();
+            Charset charset = detectCharset(sosiFile);
+
+            List<SosiElementSpan> entries = new ArrayList<>();
+            SosiElementSpan[] head = new SosiElementSpan[1];
+            try (InputStream in = Files.newInputStream(sosiFile)) {
+                new SosiStructureScanner(charset).scan(in, span -> {
+                    if (isNull(head[0]) && span.getName().equalsIgnoreCase(ELEMENT_HEAD)) {
+                        head[0] = span;
+                    } else if (span.hasSerialNumber()) {
+                        entries.add(span);
+                    }
+                });
+            }
+            if (isNull(head[0])) {
+                throw new SosiException("No head element found in " + sosiFile);
+            }
+            entries.sort(Comparator.comparingLong(SosiElementSpan::serialNumber));
+
+            Map<String, Integer> stringIndexes = new HashMap<>();
+            List<String> strings = new ArrayList<>();
+            for (SosiElementSpan entry : entries) {
+                addString(entry.getName(), stringIndexes, strings);
+                if (nonNull(entry.objTypeOrNull())) {
+                    addString(entry.objTypeOrNull(), stringIndexes, strings);
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeLong(sourceSize);
+                out.writeLong(sourceModified);
+                writeString(out, charset.name());
+                out.writeLong(head[0].getOffset());
+                out.writeInt(toInt(head[0].getLength()));
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    writeString(out, string);
+                }
+                out.writeInt(entries.size());
+                for (SosiElementSpan entry : entries) {
+                    out.writeLong(entry.serialNumber());
+                    out.writeLong(entry.getOffset());
+                    out.writeInt(toInt(entry.getLength()));
+                    out.writeInt(stringIndexes.get(entry.getName()));
+                    out.writeInt(nonNull(entry.objTypeOrNull()) ? stringIndexes.get(entry.objTypeOrNull()) : -1);
+                }
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to index " + sosiFile, e);
+        }
+    }
+
+    static Charset detectCharset(Path sosiFile) throws IOException {
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return new CharsetDetectingInputStream(in).getCharset().orElse(SosiEncoding.defaultCharset());
+        }
+    }
+
+    private static void addString(String string, Map<String, Integer> stringIndexes, List<String> strings) {
+        if (!stringIndexes.containsKey(string)) {
+            stringIndexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new SosiException("String too long for index: " + string.substring(0, 50) + "...");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int toInt(long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new SosiException("Element too large for index: " + length + " bytes");
+        }
+        return (int)length;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.encoding.CharsetDetectingInputStream;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Statistics of the features of a SOSI file, collected by a structural scan with
+ * {@link SosiStructureScanner}. No values are parsed, so the scan runs at close to i/o speed.
+ *
+ * <p>
+ * The following example demonstrates how to count the curves of a SOSI file:
+ * <pre>
+ * <code>
+ * SosiScanStatistics stats = SosiScanStatistics.scan(sosiFile);
+ * long curveCount = stats.getFeatureCount("KURVE");
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiScanStatistics {
+    private final Map<String, Long> featureCounts = new TreeMap<>();
+    private final Map<String, Long> objTypeCounts = new TreeMap<>();
+    private long featureCount;
+    private long minSerialNumber = Long.MAX_VALUE;
+    private long maxSerialNumber = Long.MIN_VALUE;
+    private long coordinateCount;
+
+    private SosiScanStatistics() {
+    }
+
+    /**
+     * Scans a SOSI file, detecting its charset.
+     *
+     * @param sosiFile the SOSI file
+     * @return the statistics
+     * @throws SosiException if the file can't be read
+     */
+    public static SosiScanStatistics scan(Path sosiFile) {
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return scan(in);
+        } catch (IOException e) {
+            throw new SosiException("Unable to scan " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Scans a SOSI input stream, detecting its charset. The stream is not closed.
+     *
+     * @param in the SOSI input
+     * @return the statistics
+     * @throws SosiException if the input can't be read
+     */
+    public static SosiScanStatistics scan(InputStream in) {
+        CharsetDetectingInputStream detectingIn = new CharsetDetectingInputStream(in);
+        return scan(detectingIn, detectingIn.getCharset().orElse(SosiEncoding.defaultCharset()));
+    }
+
+    /**
+     * Scans a SOSI input stream. The stream is not closed.
+     *
+     * @param in the SOSI input
+     * @param charset the charset of the input
+     * @return the statistics
+     * @throws SosiException if the input can't be read
+     */
+    public static SosiScanStatistics scan(InputStream in, Charset charset) {
+        SosiScanStatistics stats = new SosiScanStatistics();
+        SosiStructureScanner scanner = new SosiStructureScanner(charset);
+        try {
+            scanner.scan(in, stats::add);
+        } catch (IOException e) {
+            throw new SosiException("Unable to scan SOSI input", e);
+        }
+        stats.coordinateCount = scanner.getCoordinateCount();
+        return stats;
+    }
+
+    private void add(SosiElementSpan span) {
+        String name = span.getName();
+        if (SosiDocument.ELEMENT_HEAD.equalsIgnoreCase(name) || SosiDocument.ELEMENT_END.equalsIgnoreCase(name)) {
+            return;
+        }
+        featureCount++;
+        featureCounts.merge(name, 1L, Long::sum);
+        if (nonNull(span.objTypeOrNull())) {
+            objTypeCounts.merge(span.objTypeOrNull(), 1L, Long::sum);
+        }
+        if (span.hasSerialNumber()) {
+            minSerialNumber = Math.min(minSerialNumber, span.serialNumber());
+            maxSerialNumber = Math.max(maxSerialNumber, span.serialNumber());
+        }
+    }
+
+    /**
+     * @return the number of features, i.e. top-level elements other than the head and end elements
+     */
+    public long getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @param name the feature type, e.g. KURVE
+     * @return the number of features of the given type
+     */
+    public long getFeatureCount(String name) {
+        return featureCounts.getOrDefault(name, 0L);
+    }
+
+    /**
+     * @return the number of features per feature type (PUNKT, KURVE, FLATE, ...), sorted by type
+     */
+    public Map<String, Long> getFeatureCounts() {
+        return Collections.unmodifiableMap(featureCounts);
+    }
+
+    /**
+     * @return the number of features per OBJTYPE value, sorted by value
+     */
+    public Map<String, Long> getObjTypeCounts() {
+        return Collections.unmodifiableMap(objTypeCounts);
+    }
+
+    /**
+     * @return the lowest serial number, or empty if no features have serial numbers
+     */
+    public OptionalLong getMinSerialNumber() {
+        return minSerialNumber <= maxSerialNumber ? OptionalLong.of(minSerialNumber) : OptionalLong.empty();
+    }
+
+    /**
+     * @return the highest serial number, or empty if no features have serial numbers
+     */
+    public OptionalLong getMaxSerialNumber() {
+        return minSerialNumber <= maxSerialNumber ? OptionalLong.of(maxSerialNumber) : OptionalLong.empty();
+    }
+
+    /**
+     * @return the total number of coordinates of all features
+     */
+    public long getCoordinateCount() {
+        return coordinateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiScanStatistics(features=" + featureCounts + ", objTypes=" + objTypeCounts
+                + ", serialNumbers=" + (getMinSerialNumber().isPresent() ? minSerialNumber + ".." + maxSerialNumber : "none")
+                + ", coordinates=" + coordinateCount + ")";
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * A static R-tree of feature bounding boxes, bulk-loaded with Sort-Tile-Recursive (STR) packing
+ * and stored in primitive arrays. Window queries visit only the nodes that intersect the window,
+ * instead of every coordinate of every feature.
+ *
+ * <p>
+ * Features are identified by int handles given when adding their bounding boxes. An index of
+ * a document uses the position of each feature among the elements of the document:
+ * <pre>
+ * <code>
+ * SosiSpatialIndex index = SosiSpatialIndex.of(doc);
+ * List&lt;SosiElement&gt; elements = new ArrayList&lt;&gt;(doc.getElements());
+ * for (int handle : index.query(minN, minE, maxN, maxE)) {
+ *     SosiElement feature = elements.get(handle);
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiSpatialIndex {
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private static final int MIN_N = 0;
+    private static final int MIN_E = 1;
+    private static final int MAX_N = 2;
+    private static final int MAX_E = 3;
+
+    private final int nodeCapacity;
+    private final int size;
+    // Bounding boxes of all nodes, level by level from the items up to the root, 4 values per node
+    private final double[] boxes;
+    // The handles of items, and the node index of the first child of other nodes
+    private final int[] indices;
+    // The end node index of each level
+    private final int[] levelEnds;
+
+    private SosiSpatialIndex(int nodeCapacity, int size, double[] boxes, int[] indices, int[] levelEnds) {
+        this.nodeCapacity = nodeCapacity;
+        this.size = size;
+        this.boxes = boxes;
+        this.indices = indices;
+        this.levelEnds = levelEnds;
+    }
+
+    /**
+     * @param expectedSize the expected number of features
+     * @return a builder for adding feature bounding boxes
+     */
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Indexes the features of a document by the bounding boxes of their coordinates (NØ and NØH),
+     * transformed as given by TRANSPAR of the head. The box of a surface (FLATE) includes the curves
+     * it references. Features without coordinates are not indexed.
+     *
+     * @param doc the document
+     * @return the index, with the position of each feature among the elements of the document as handle
+     */
+    public static SosiSpatialIndex of(SosiDocument doc) {
+        requireNonNull(doc, "doc can't be null");
+        SosiTranspar transpar = SosiTranspar.of(doc.getHead());
+        int elementCount = doc.getElements().size();
+        double[] elementBoxes = new double[4 * elementCount];
+        Map<Long, Integer> handles = new HashMap<>();
+
+        int handle = 0;
+        for (SosiElement element : doc.getElements()) {
+            setEmpty(elementBoxes, handle);
+            addCoordinates(element, transpar, elementBoxes, handle);
+            Iterator<SosiValue> serialNumbers = element.values().filter(isType(SERNO)).iterator();
+            if (serialNumbers.hasNext()) {
+                handles.put(((SosiSerialNumber)serialNumbers.next()).longValue(), handle);
+            }
+            handle++;
+        }
+
+        Builder builder = new Builder(elementCount);
+        handle = 0;
+        for (SosiElement element : doc.getElements()) {
+            if (hasName("FLATE").test(element)) {
+                addReferences(element, handles, elementBoxes, handle);
+            }
+            int pos = 4 * handle;
+            if (elementBoxes[pos + MIN_N] <= elementBoxes[pos + MAX_N]) {
+                builder.add(handle, elementBoxes[pos + MIN_N], elementBoxes[pos + MIN_E], elementBoxes[pos + MAX_N], elementBoxes[pos + MAX_E]);
+            }
+            handle++;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of features indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the features with bounding boxes intersecting a window. Boxes touching the window intersect it.
+     *
+     * @return the handles of the features, in ascending order
+     */
+    public int[] query(double minNorth, double minEast, double maxNorth, double maxEast) {
+        if (size == 0) {
+            return new int[0];
+        }
+        int[] result = new int[16];
+        int resultSize = 0;
+        // Pairs of node index and level
+        int[] stack = new int[2 * (levelEnds.length * nodeCapacity + 1)];
+        int stackSize = 0;
+        stack[stackSize++] = boxes.length / 4 - 1;
+        stack[stackSize++] = levelEnds.length - 1;
+
+        while (stackSize > 0) {
+            int level = stack[--stackSize];
+            int node = stack[--stackSize];
+            int pos = 4 * node;
+            if (boxes[pos + MIN_N] > maxNorth || boxes[pos + MAX_N] < minNorth || boxes[pos + MIN_E] > maxEast || boxes[pos + MAX_E] < minEast) {
+                continue;
+            }
+            if (level == 0) {
+                if (resultSize == result.length) {
+                    result = Arrays.copyOf(result, resultSize * 2);
+                }
+                result[resultSize++] = indices[node];
+            } else {
+                int firstChild = indices[node];
+                int lastChild = Math.min(firstChild + nodeCapacity, levelEnds[level - 1]);
+                for (int child = firstChild; child < lastChild; child++) {
+                    stack[stackSize++] = child;
+                    stack[stackSize++] = level - 1;
+                }
+            }
+        }
+        int[] handles = Arrays.copyOf(result, resultSize);
+        Arrays.sort(handles);
+        return handles;
+    }
+
+    public double getMinNorth() {
+        return rootValue(MIN_N);
+    }
+
+    public double getMinEast() {
+        return rootValue(MIN_E);
+    }
+
+    public double getMaxNorth() {
+        return rootValue(MAX_N);
+    }
+
+    public double getMaxEast() {
+        return rootValue(MAX_E);
+    }
+
+    @Override
+    public String toString() {
+        return "SosiSpatialIndex(size=" + size + ", levels=" + levelEnds.length + ")";
+    }
+
+    private double rootValue(int offset) {
+        return size == 0 ? Double.NaN : boxes[boxes.length - 4 + offset];
+    }
+
+    private static void setEmpty(double[] boxes, int index) {
+        int pos = 4 * index;
+        boxes[pos + MIN_N] = Double.POSITIVE_INFINITY;
+        boxes[pos + MIN_E] = Double.POSITIVE_INFINITY;
+        boxes[pos + MAX_N] = Double.NEGATIVE_INFINITY;
+        boxes[pos + MAX_E] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void expand(double[] boxes, int index, double north, double east) {
+        int pos = 4 * index;
+        boxes[pos + MIN_N] = Math.min(boxes[pos + MIN_N], north);
+        boxes[pos + MIN_E] = Math.min(boxes[pos + MIN_E], east);
+        boxes[pos + MAX_N] = Math.max(boxes[pos + MAX_N], north);
+        boxes[pos + MAX_E] = Math.max(boxes[pos + MAX_E], east);
+    }
+
+    private static void addCoordinates(SosiElement element, SosiTranspar transpar, double[] boxes, int index) {
+        Iterator<SosiElement> subElements = element.subElements().iterator();
+        while (subElements.hasNext()) {
+            SosiElement subElement = subElements.next();
+            String name = subElement.getName();
+            int dimension = name.equalsIgnoreCase("NØ") ? 2 : name.equalsIgnoreCase("NØH") ? 3 : 0;
+            if (dimension == 0) {
+                continue;
+            }
+            Iterator<SosiValue> values = subElement.values().iterator();
+            int ordinate = 0;
+            double north = 0;
+            while (values.hasNext()) {
+                SosiValue value = values.next();
+                if (!(value instanceof SosiNumber)) {
+                    ordinate = 0;
+                    continue;
+                }
+                if (ordinate == 0) {
+                    north = transpar.north(((SosiNumber)value).doubleValue());
+                } else if (ordinate == 1) {
+                    expand(boxes, index, north, transpar.east(((SosiNumber)value).doubleValue()));
+                }
+                ordinate = (ordinate + 1) % dimension;
+            }
+        }
+    }
+
+    private static void addReferences(SosiElement surface, Map<Long, Integer> handles, double[] boxes, int index) {
+        Iterator<SosiElement> refElements = surface.findSubElements(hasName("REF")).iterator();
+        while (refElements.hasNext()) {
+            Iterator<SosiValue> values = refElements.next().values().iterator();
+            while (values.hasNext()) {
+                SosiValue value = values.next();
+                if (value instanceof SosiRefNumber) {
+                    addReference((SosiRefNumber)value, handles, boxes, index);
+                } else if (value instanceof SosiRefIsland) {
+                    Iterator<SosiRefNumber> islandRefs = ((SosiRefIsland)value).refNumbers().iterator();
+                    while (islandRefs.hasNext()) {
+                        addReference(islandRefs.next(), handles, boxes, index);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addReference(SosiRefNumber ref, Map<Long, Integer> handles, double[] boxes, int index) {
+        Integer referenced = handles.get(ref.longValue());
+        if (isNull(referenced)) {
+            return;
+        }
+        int pos = 4 * referenced;
+        if (boxes[pos + MIN_N] <= boxes[pos + MAX_N]) {
+            expand(boxes, index, boxes[pos + MIN_N], boxes[pos + MIN_E]);
+            expand(boxes, index, boxes[pos + MAX_N], boxes[pos + MAX_E]);
+        }
+    }
+
+    /**
+     * Collects feature bounding boxes and bulk-loads the index.
+     */
+    public static final class Builder {
+        private int nodeCapacity = DEFAULT_NODE_CAPACITY;
+        private double[] boxes;
+        private int[] handles;
+        private int size;
+
+        private Builder(int expectedSize) {
+            require(() -> expectedSize >= 0, "expectedSize can't be negative, was %d", expectedSize);
+            this.boxes = new double[4 * Math.max(expectedSize, 1)];
+            this.handles = new int[Math.max(expectedSize, 1)];
+        }
+
+        /**
+         * Sets the maximum number of children of each node.
+         */
+        public Builder nodeCapacity(int nodeCapacity) {
+            require(() -> nodeCapacity >= 2, "nodeCapacity must be at least 2, was %d", nodeCapacity);
+            this.nodeCapacity = nodeCapacity;
+            return this;
+        }
+
+        /**
+         * Adds the bounding box of a feature.
+         *
+         * @param handle the handle returned by queries matching the feature
+         */
+        public Builder add(int handle, double minNorth, double minEast, double maxNorth, double maxEast) {
+            require(() -> minNorth <= maxNorth && minEast <= maxEast, "Invalid bounding box of %d", handle);
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+                boxes = Arrays.copyOf(boxes, 8 * size);
+            }
+            int pos = 4 * size;
+            boxes[pos + MIN_N] = minNorth;
+            boxes[pos + MIN_E] = minEast;
+            boxes[pos + MAX_N] = maxNorth;
+            boxes[pos + MAX_E] = maxEast;
+            handles[size++] = handle;
+            return this;
+        }
+
+        /**
+         * Builds the index, sorting the boxes of each level in parallel.
+         */
+        public SosiSpatialIndex build() {
+            int nodeCount = size;
+            for (int levelSize = size; levelSize > 1; ) {
+                levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity;
+                nodeCount += levelSize;
+            }
+            double[] treeBoxes = new double[4 * nodeCount];
+            int[] treeIndices = new int[nodeCount];
+            int[] levelEnds = new int[0];
+
+            double[] levelBoxes = Arrays.copyOf(boxes, 4 * size);
+            int[] levelIndices = Arrays.copyOf(handles, size);
+            int levelBegin = 0;
+            int levelSize = size;
+            while (levelSize > 0) {
+                long[] order = strOrder(levelBoxes, levelSize, nodeCapacity);
+                for (int i = 0; i < levelSize; i++) {
+                    int from = (int)order[i];
+                    System.arraycopy(levelBoxes, 4 * from, treeBoxes, 4 * (levelBegin + i), 4);
+                    treeIndices[levelBegin + i] = levelIndices[from];
+                }
+                levelEnds = Arrays.copyOf(levelEnds, levelEnds.length + 1);
+                levelEnds[levelEnds.length - 1] = levelBegin + levelSize;
+                if (levelSize == 1) {
+                    break;
+                }
+
+                int parentCount = (levelSize + nodeCapacity - 1) / nodeCapacity;
+                levelBoxes = new double[4 * parentCount];
+                levelIndices = new int[parentCount];
+                for (int parent = 0; parent < parentCount; parent++) {
+                    int firstChild = levelBegin + parent * nodeCapacity;
+                    int lastChild = Math.min(firstChild + nodeCapacity, levelBegin + levelSize);
+                    setEmpty(levelBoxes, parent);
+                    for (int child = firstChild; child < lastChild; child++) {
+                        expand(levelBoxes, parent, treeBoxes[4 * child + MIN_N], treeBoxes[4 * child + MIN_E]);
+                        expand(levelBoxes, parent, treeBoxes[4 * child + MAX_N], treeBoxes[4 * child + MAX_E]);
+                    }
+                    levelIndices[parent] = firstChild;
+                }
+                levelBegin += levelSize;
+                levelSize = parentCount;
+            }
+            return new SosiSpatialIndex(nodeCapacity, size, treeBoxes, treeIndices, levelEnds);
+        }
+
+        // Sorts by east into vertical slices, then each slice by north, as STR does. The low 32 bits of each key is the node.
+        private static long[] strOrder(double[] boxes, int count, int nodeCapacity) {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = sortKey(boxes[4 * i + MIN_E] + boxes[4 * i + MAX_E], i);
+            }
+            Arrays.parallelSort(keys);
+
+            int pageCount = (count + nodeCapacity - 1) / nodeCapacity;
+            int sliceSize = (int)Math.ceil(Math.sqrt(pageCount)) * nodeCapacity;
+            for (int i = 0; i < count; i++) {
+                int node = (int)keys[i];
+                keys[i] = sortKey(boxes[4 * node + MIN_N] + boxes[4 * node + MAX_N], node);
+            }
+            for (int sliceBegin = 0; sliceBegin < count; sliceBegin += sliceSize) {
+                Arrays.parallelSort(keys, sliceBegin, Math.min(sliceBegin + sliceSize, count));
+            }
+            for (int i = 0; i < count; i++) {
+                keys[i] = (int)keys[i];
+            }
+            return keys;
+        }
+
+        // Orders by the value as a float, which is precise enough for packing
+        private static long sortKey(double value, int node) {
+            int bits = Float.floatToIntBits((float)value);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            return ((long)bits << 32) | (node & 0xFFFFFFFFL);
+        }
+    }
+}
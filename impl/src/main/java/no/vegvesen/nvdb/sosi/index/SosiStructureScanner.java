@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Finds the top-level elements of a SOSI file by scanning its bytes, without decoding or parsing values.
+ * Level markers inside quoted strings and comments are ignored, following the rules of the tokenizer.
+ * The element name, the serial number and the value of the OBJTYPE subelement are extracted for each
+ * top-level element, and the coordinates of NØ, NØH and NØD elements are counted. Other values are
+ * skipped without being buffered.
+ *
+ * <p>
+ * All charsets used for SOSI files are ASCII compatible, so the structural chars can be found
+ * without decoding; only the extracted names and values are decoded with the given charset.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiStructureScanner {
+    private static final int BUF_SIZE = 64 * 1024;
+    private static final String OBJTYPE = "OBJTYPE";
+
+    private static final String COORDINATE_PREFIX = "NØ";
+
+    // What the next token is expected to be
+    private enum Expect { NOTHING, NAME, SERIAL_NUMBER, SUBELEMENT_NAME, OBJTYPE_VALUE, COORDINATES }
+
+    private final Charset charset;
+    private final byte[] coordinatePrefix;
+    private final byte[] buf = new byte[BUF_SIZE];
+    private byte[] token = new byte[64];
+    private int tokenLen;
+
+    private InputStream in;
+    private int bufPos;
+    private int bufLen;
+    private long bufOffset;
+    private long coordinateCount;
+
+    public SosiStructureScanner(Charset charset) {
+        this.charset = charset;
+        this.coordinatePrefix = COORDINATE_PREFIX.getBytes(charset);
+    }
+
+    /**
+     * Returns the number of coordinates found by the last scan, i.e. the number of values of the
+     * NØ, NØH and NØD elements divided by their dimension.
+     *
+     * @return the number of coordinates
+     */
+    public long getCoordinateCount() {
+        return coordinateCount;
+    }
+
+    /**
+     * Scans the input stream, passing the span of each top-level element to the consumer.
+     * Offsets are relative to the current position of the input stream.
+     *
+     * @param in the SOSI input
+     * @param consumer the consumer of element spans
+     * @throws IOException if reading from the input stream fails
+     */
+    public void scan(InputStream in, Consumer<SosiElementSpan> consumer) throws IOException {
+        this.in = in;
+        bufPos = bufLen = 0;
+        bufOffset = 0;
+        coordinateCount = 0;
+
+        Expect expect = Expect.NOTHING;
+        int level = 0;
+        int coordinateDimension = 0;
+        long coordinateValues = 0;
+        long elementOffset = -1;
+        String name = null;
+        long serialNumber = SosiElementSpan.noSerialNumber();
+        String objType = null;
+
+        int b = read();
+        while (true) {
+            while (isWhitespace(b)) {
+                b = read();
+            }
+            if (b == -1) {
+                break;
+            }
+            long tokenOffset = position() - 1;
+
+            if (expect == Expect.NAME || expect == Expect.SUBELEMENT_NAME) {
+                b = readWord(b);
+                if (expect == Expect.NAME) {
+                    name = tokenString();
+                    expect = Expect.SERIAL_NUMBER;
+                } else if (level == 2 && isNull(objType) && tokenString().equalsIgnoreCase(OBJTYPE)) {
+                    expect = Expect.OBJTYPE_VALUE;
+                } else if (tokenLen <= coordinatePrefix.length + 1 && tokenStartsWith(coordinatePrefix)) {
+                    coordinateDimension = 2 + tokenLen - coordinatePrefix.length;
+                    expect = Expect.COORDINATES;
+                } else {
+                    expect = Expect.NOTHING;
+                }
+            } else if (b == '.') {
+                coordinateCount += coordinateValues / Math.max(coordinateDimension, 1);
+                coordinateValues = 0;
+                level = 0;
+                do {
+                    level++;
+                    b = read();
+                } while (b == '.');
+
+                if (level == 1) {
+                    if (elementOffset >= 0) {
+                        consumer.accept(new SosiElementSpan(name, serialNumber, objType, elementOffset, tokenOffset - elementOffset));
+                    }
+                    elementOffset = tokenOffset;
+                    name = objType = null;
+                    serialNumber = SosiElementSpan.noSerialNumber();
+                    expect = Expect.NAME;
+                } else {
+                    expect = elementOffset >= 0 ? Expect.SUBELEMENT_NAME : Expect.NOTHING;
+                }
+            } else if (b == '"' || b == '\'') {
+                b = readQuotedString(b);
+                if (expect == Expect.OBJTYPE_VALUE) {
+                    objType = tokenString();
+                }
+                expect = Expect.NOTHING;
+            } else if (b == '!') {
+                do {
+                    b = read();
+                } while (b != '\n' && b != '\r' && b != -1);
+            } else if (expect == Expect.COORDINATES) {
+                b = skipWord();
+                coordinateValues++;
+            } else if (expect == Expect.SERIAL_NUMBER || expect == Expect.OBJTYPE_VALUE) {
+                b = readWord(b);
+                if (expect == Expect.SERIAL_NUMBER) {
+                    serialNumber = serialNumberOf(token, tokenLen, serialNumber);
+                } else {
+                    objType = tokenString();
+                }
+                expect = Expect.NOTHING;
+            } else {
+                b = skipWord();
+            }
+        }
+        coordinateCount += coordinateValues / Math.max(coordinateDimension, 1);
+        if (elementOffset >= 0) {
+            consumer.accept(new SosiElementSpan(name, serialNumber, objType, elementOffset, position() - elementOffset));
+        }
+    }
+
+    // Reads to next whitespace, returns the char after the word
+    private int readWord(int first) throws IOException {
+        tokenLen = 0;
+        int b = first;
+        do {
+            appendToken(b);
+            b = read();
+        } while (!isWhitespace(b) && b != -1);
+        return b;
+    }
+
+    // Skips to next whitespace without keeping the word, returns the char after the word
+    private int skipWord() throws IOException {
+        int b;
+        do {
+            b = read();
+        } while (!isWhitespace(b) && b != -1);
+        return b;
+    }
+
+    // Reads to the ending quotation mark or line break, returns the char after the string
+    private int readQuotedString(int quotationMark) throws IOException {
+        tokenLen = 0;
+        int b = read();
+        while (b != -1 && b != '\n' && b != '\r') {
+            if (b == quotationMark) {
+                b = read();
+                if (b != quotationMark) {
+                    return b;
+                }
+            }
+            appendToken(b);
+            b = read();
+        }
+        return b;
+    }
+
+    private void appendToken(int b) {
+        if (tokenLen == token.length) {
+            token = Arrays.copyOf(token, token.length * 2);
+        }
+        token[tokenLen++] = (byte)b;
+    }
+
+    private String tokenString() {
+        return new String(token, 0, tokenLen, charset);
+    }
+
+    private boolean tokenStartsWith(byte[] prefix) {
+        if (tokenLen < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (token[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long serialNumberOf(byte[] word, int len, long orElse) {
+        if (len < 2 || word[len-1] != ':') {
+            return orElse;
+        }
+        long value = 0;
+        for (int i = 0; i < len-1; i++) {
+            if (word[i] < '0' || word[i] > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                return orElse;
+            }
+            value = value * 10 + (word[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == 0x20 || b == 0x09 || b == 0x0a || b == 0x0d;
+    }
+
+    // Offset of the next byte to be read
+    private long position() {
+        return bufOffset + bufPos;
+    }
+
+    private int read() throws IOException {
+        if (bufPos == bufLen) {
+            bufOffset += bufLen;
+            bufPos = 0;
+            bufLen = 0;
+            int len;
+            while ((len = in.read(buf)) == 0) {
+                // read until data or end of stream
+            }
+            if (len == -1) {
+                return -1;
+            }
+            bufLen = len;
+        }
+        return buf[bufPos++] & 0xff;
+    }
+}
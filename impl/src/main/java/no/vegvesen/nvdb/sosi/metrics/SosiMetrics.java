@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.metrics;
+
+/**
+ * Receives measurements from SOSI parsers and readers, see
+ * {@link no.vegvesen.nvdb.sosi.parser.SosiParserConfig.Builder#metrics}.
+ *
+ * <p>
+ * Measurements are accumulated by each parser, and handed over once per buffer refill and once
+ * per top-level element, so an implementation is called far less often than once per token.
+ * Implementations shared by parsers on several threads must be thread safe.
+ * {@link SosiMetricsCounters} keeps running totals, and may be read by an adapter publishing them
+ * to a monitoring system. An adapter may also implement this interface directly.
+ *
+ * <p>
+ * When no metrics are configured, nothing is measured.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public interface SosiMetrics {
+
+    /**
+     * Called after each refill of a tokenizer buffer from the input source.
+     *
+     * @param chars the number of chars read, zero or negative at the end of the input
+     * @param nanos the time spent waiting for the input source
+     */
+    void bufferFilled(long chars, long nanos);
+
+    /**
+     * Called when a parser has finished a top-level element, and at the end of the input.
+     *
+     * @param tokens the number of tokens read since the previous call
+     * @param events the number of events produced since the previous call
+     * @param features the number of top-level elements finished since the previous call, not counting the head
+     * @param nanos the time spent tokenizing and parsing since the previous call, not counting buffer refills
+     */
+    void parsed(long tokens, long events, long features, long nanos);
+
+    /**
+     * Called when a reader has built a top-level element.
+     *
+     * @param nanos the time spent building the element, not counting parsing and buffer refills
+     * @param allocatedBytes the bytes allocated by the reading thread while reading the element,
+     *                       or -1 if the JVM can't measure allocations
+     */
+    void elementBuilt(long nanos, long allocatedBytes);
+
+    /**
+     * Called when a buffer is taken from a buffer pool.
+     *
+     * @param pooled true if the buffer was reused from the pool, false if it was created
+     */
+    void bufferTaken(boolean pooled);
+}
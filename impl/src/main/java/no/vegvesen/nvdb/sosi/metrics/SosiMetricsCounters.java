@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SosiMetrics} keeping running totals of all measurements. An instance may be shared by
+ * any number of parsers and readers, on any number of threads.
+ *
+ * <p>
+ * The rates are calculated from the time spent on the work itself, and not from wall clock time.
+ * Monitoring systems calculating rates from sampled totals should use the totals instead.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiMetricsCounters implements SosiMetrics {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LongAdder charsRead = new LongAdder();
+    private final LongAdder bufferFills = new LongAdder();
+    private final LongAdder bufferFillNanos = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder features = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder elementsBuilt = new LongAdder();
+    private final LongAdder elementBuildNanos = new LongAdder();
+    private final LongAdder allocationsMeasured = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder bufferPoolHits = new LongAdder();
+    private final LongAdder bufferPoolMisses = new LongAdder();
+
+    @Override
+    public void bufferFilled(long chars, long nanos) {
+        if (chars > 0) {
+            charsRead.add(chars);
+        }
+        bufferFills.increment();
+        bufferFillNanos.add(nanos);
+    }
+
+    @Override
+    public void parsed(long tokens, long events, long features, long nanos) {
+        this.tokens.add(tokens);
+        this.events.add(events);
+        this.features.add(features);
+        parseNanos.add(nanos);
+    }
+
+    @Override
+    public void elementBuilt(long nanos, long allocatedBytes) {
+        elementsBuilt.increment();
+        elementBuildNanos.add(nanos);
+        if (allocatedBytes >= 0) {
+            allocationsMeasured.increment();
+            this.allocatedBytes.add(allocatedBytes);
+        }
+    }
+
+    @Override
+    public void bufferTaken(boolean pooled) {
+        (pooled ? bufferPoolHits : bufferPoolMisses).increment();
+    }
+
+    /**
+     * @return the number of chars read from input sources
+     */
+    public long getCharsRead() {
+        return charsRead.sum();
+    }
+
+    public long getBufferFills() {
+        return bufferFills.sum();
+    }
+
+    public long getBufferFillNanos() {
+        return bufferFillNanos.sum();
+    }
+
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    public long getEvents() {
+        return events.sum();
+    }
+
+    /**
+     * @return the number of top-level elements parsed, not counting heads
+     */
+    public long getFeatures() {
+        return features.sum();
+    }
+
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    public long getElementsBuilt() {
+        return elementsBuilt.sum();
+    }
+
+    public long getElementBuildNanos() {
+        return elementBuildNanos.sum();
+    }
+
+    /**
+     * @return the bytes allocated while reading elements, for the elements where it could be measured
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long getBufferPoolHits() {
+        return bufferPoolHits.sum();
+    }
+
+    public long getBufferPoolMisses() {
+        return bufferPoolMisses.sum();
+    }
+
+    /**
+     * @return the total time spent filling buffers, parsing and building elements
+     */
+    public long getTotalNanos() {
+        return getBufferFillNanos() + getParseNanos() + getElementBuildNanos();
+    }
+
+    public double getCharsPerSecond() {
+        return perSecond(getCharsRead());
+    }
+
+    public double getTokensPerSecond() {
+        return perSecond(getTokens());
+    }
+
+    public double getEventsPerSecond() {
+        return perSecond(getEvents());
+    }
+
+    public double getFeaturesPerSecond() {
+        return perSecond(getFeatures());
+    }
+
+    /**
+     * @return the average bytes allocated per element read, or 0 if not measured
+     */
+    public double getAllocatedBytesPerElement() {
+        long measured = allocationsMeasured.sum();
+        return measured == 0 ? 0 : (double)getAllocatedBytes() / measured;
+    }
+
+    /**
+     * @return the share of buffers reused from buffer pools, or 0 if no buffers were taken
+     */
+    public double getBufferPoolHitRate() {
+        long hits = getBufferPoolHits();
+        long taken = hits + getBufferPoolMisses();
+        return taken == 0 ? 0 : (double)hits / taken;
+    }
+
+    private double perSecond(long count) {
+        long nanos = getTotalNanos();
+        return nanos == 0 ? 0 : count * NANOS_PER_SECOND / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiMetricsCounters(charsRead=" + getCharsRead() + ", tokens=" + getTokens() + ", events=" + getEvents() +
+                ", features=" + getFeatures() + ", bufferFillNanos=" + getBufferFillNanos() + ", parseNanos=" + getParseNanos() +
+                ", elementBuildNanos=" + getElementBuildNanos() + ", allocatedBytes=" + getAllocatedBytes() +
+                ", bufferPoolHits=" + getBufferPoolHits() + ", bufferPoolMisses=" + getBufferPoolMisses() + ")";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * A reader that decodes chunks of bytes fed by the caller. Unlike ordinary readers, it never blocks:
+ * {@code read} returns 0 when all input fed so far has been consumed, and -1 once end of input has
+ * been signalled and all input has been consumed.
+ *
+ * <p>
+ * If no charset is given, the charset is detected from the first 1024 bytes of input, like
+ * {@link no.vegvesen.nvdb.sosi.encoding.CharsetDetectingInputStream} does. No chars are
+ * available until detection is done.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class FeedingReader extends Reader {
+    private static final int DETECTION_SIZE = 1024;
+    private static final byte[] UTF8_BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+
+    private CharsetDecoder decoder;
+    private Optional<Charset> detectedCharset = Optional.empty();
+
+    // Bytes fed, but not yet decoded (read mode)
+    private ByteBuffer pendingBytes = ByteBuffer.allocate(DETECTION_SIZE);
+    // Chars decoded, but not yet read (read mode)
+    private CharBuffer decodedChars = CharBuffer.allocate(DETECTION_SIZE);
+
+    private boolean endOfInput;
+    private boolean flushed;
+
+    FeedingReader() {
+        flip(pendingBytes);
+        flip(decodedChars);
+    }
+
+    FeedingReader(Charset charset) {
+        this();
+        decoder = decoderOf(charset);
+        detectedCharset = Optional.of(charset);
+    }
+
+    private static CharsetDecoder decoderOf(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * @return true if the charset is known, either given or detected
+     */
+    boolean isCharsetKnown() {
+        return nonNull(decoder);
+    }
+
+    /**
+     * @return the given or detected charset, empty if not (yet) known or if detection failed
+     */
+    Optional<Charset> getCharset() {
+        return detectedCharset;
+    }
+
+    void feed(ByteBuffer input) {
+        if (endOfInput) {
+            throw new IllegalStateException("Input can't be fed after end of input");
+        }
+        pendingBytes.compact();
+        if (pendingBytes.remaining() < input.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(pendingBytes.position() + input.remaining());
+            flip(pendingBytes);
+            larger.put(pendingBytes);
+            pendingBytes = larger;
+        }
+        pendingBytes.put(input);
+        flip(pendingBytes);
+
+        if (isNull(decoder) && pendingBytes.remaining() >= DETECTION_SIZE) {
+            detectCharset();
+        }
+        decode();
+    }
+
+    void endOfInput() {
+        endOfInput = true;
+        if (isNull(decoder)) {
+            detectCharset();
+        }
+        decode();
+    }
+
+    private void detectCharset() {
+        int len = Math.min(pendingBytes.remaining(), DETECTION_SIZE);
+        byte[] head = new byte[DETECTION_SIZE];
+        pendingBytes.duplicate().get(head, 0, len);
+
+        Optional<Charset> charset;
+        if (len > UTF8_BOM.length && Arrays.equals(Arrays.copyOf(head, UTF8_BOM.length), UTF8_BOM)) {
+            ((Buffer)pendingBytes).position(pendingBytes.position() + UTF8_BOM.length);
+            charset = Optional.of(Charset.forName("UTF-8"));
+        } else {
+            charset = SosiEncoding.charsetOf(head);
+        }
+        detectedCharset = charset;
+        decoder = decoderOf(charset.orElse(SosiEncoding.defaultCharset()));
+    }
+
+    private void decode() {
+        if (isNull(decoder)) {
+            return;
+        }
+        decodedChars.compact();
+        int required = (int)(pendingBytes.remaining() * decoder.maxCharsPerByte()) + 1;
+        if (decodedChars.remaining() < required) {
+            CharBuffer larger = CharBuffer.allocate(decodedChars.position() + required);
+            flip(decodedChars);
+            larger.put(decodedChars);
+            decodedChars = larger;
+        }
+        // Incomplete multibyte sequences are left in pendingBytes until more input is fed
+        CoderResult result = decoder.decode(pendingBytes, decodedChars, endOfInput);
+        if (result.isUnderflow() && endOfInput && !flushed) {
+            decoder.flush(decodedChars);
+            flushed = true;
+        }
+        flip(decodedChars);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (decodedChars.hasRemaining()) {
+            int count = Math.min(len, decodedChars.remaining());
+            decodedChars.get(cbuf, off, count);
+            return count;
+        }
+        return endOfInput ? -1 : 0;
+    }
+
+    @Override
+    public void close() {
+        endOfInput = true;
+        pendingBytes = ByteBuffer.allocate(0);
+        decodedChars = CharBuffer.allocate(0);
+    }
+
+    // Called through Buffer, so that the code also runs on Java 8 when compiled with a later JDK
+    private static void flip(Buffer buffer) {
+        buffer.flip();
+    }
+}
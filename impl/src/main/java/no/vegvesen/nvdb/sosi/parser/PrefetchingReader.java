@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * A reader that fills blocks of chars from the underlying reader in a background thread,
+ * so that i/o latency is hidden while the tokenizer works on the current block (double buffering).
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class PrefetchingReader extends Reader {
+    private static final int BLOCK_COUNT = 2;
+    private static final AtomicInteger THREAD_NO = new AtomicInteger();
+
+    private final Reader source;
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private final Thread prefetcher;
+
+    private Block current;
+    private volatile boolean closed;
+
+    PrefetchingReader(Reader source, int blockSize) {
+        this.source = source;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            free.add(new Block(blockSize));
+        }
+        prefetcher = new Thread(this::prefetch, "sosi-prefetch-" + THREAD_NO.incrementAndGet());
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+    }
+
+    private void prefetch() {
+        try {
+            boolean endOfStream = false;
+            while (!endOfStream && !closed) {
+                Block block = free.take();
+                block.fill(source);
+                endOfStream = block.len == -1;
+                filled.put(block);
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for a free block
+        } catch (Throwable t) {
+            // Blocks catch the errors of the source, so this is a failure of the prefetcher itself.
+            // Post it in a block of its own, so that read() doesn't wait forever for the next block.
+            Block failed = new Block(0);
+            failed.fail(t);
+            filled.offer(failed);
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Reader is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (isNull(current) || current.pos == current.len) {
+            if (nonNull(current)) {
+                free.add(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for prefetched input");
+            }
+        }
+        if (nonNull(current.error)) {
+            throw rethrown(current.error);
+        }
+        if (current.len == -1) {
+            // Keep the end-of-stream block, so that subsequent reads also return -1
+            return -1;
+        }
+        int count = Math.min(len, current.len - current.pos);
+        System.arraycopy(current.chars, current.pos, cbuf, off, count);
+        current.pos += count;
+        return count;
+    }
+
+    // Unchecked errors of the source are rethrown as is, as if the source was read by this thread
+    private static IOException rethrown(Throwable error) {
+        if (error instanceof IOException) {
+            return (IOException)error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+        } else if (error instanceof Error) {
+            throw (Error)error;
+        }
+        return new IOException(error);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        prefetcher.interrupt();
+        source.close();
+    }
+
+    private static final class Block {
+        private final char[] chars;
+        private int len;
+        private int pos;
+        private Throwable error;
+
+        private Block(int size) {
+            chars = new char[size];
+        }
+
+        private void fill(Reader source) {
+            pos = 0;
+            len = 0;
+            try {
+                int count;
+                while (len < chars.length && (count = source.read(chars, len, chars.length - len)) != -1) {
+                    len += count;
+                }
+                if (len == 0) {
+                    len = -1;
+                }
+            } catch (Throwable t) {
+                // Also unchecked errors, which would otherwise end the prefetch thread without a block for read()
+                fail(t);
+            }
+        }
+
+        private void fail(Throwable t) {
+            error = t;
+            len = -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.SosiMessages;
+
+import java.util.Optional;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Checks for cancellation and reports progress on behalf of a parser and its tokenizer.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class ProgressMonitor {
+    private final SosiProgressListener listener;
+    private final SosiCancellationToken cancellationToken;
+    private final long intervalNanos;
+    private final long startNanos;
+    private long lastReportNanos;
+    private long featuresRead;
+
+    private ProgressMonitor(SosiParserConfig config) {
+        this.listener = config.getProgressListener().orElse(null);
+        this.cancellationToken = config.getCancellationToken().orElse(null);
+        this.intervalNanos = config.getProgressIntervalMillis() * 1_000_000L;
+        this.startNanos = this.lastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * @return a monitor, or empty if the configuration has neither a listener nor a cancellation token
+     */
+    static Optional<ProgressMonitor> of(SosiParserConfig config) {
+        if (config.getProgressListener().isPresent() || config.getCancellationToken().isPresent()) {
+            return Optional.of(new ProgressMonitor(config));
+        }
+        return Optional.empty();
+    }
+
+    void featureRead() {
+        featuresRead++;
+    }
+
+    // Called by the tokenizer before each buffer refill
+    void refill(long charsConsumed) {
+        if (nonNull(cancellationToken) && cancellationToken.isCancelled()) {
+            throw new SosiCancelledException(SosiMessages.TOKENIZER_CANCELLED());
+        }
+        if (nonNull(listener)) {
+            long now = System.nanoTime();
+            if (now - lastReportNanos >= intervalNanos) {
+                lastReportNanos = now;
+                listener.progress(charsConsumed, featuresRead, (now - startNanos) / 1_000_000L);
+            }
+        }
+    }
+
+    void finish(long charsConsumed) {
+        if (nonNull(listener)) {
+            listener.progress(charsConsumed, featuresRead, (System.nanoTime() - startNanos) / 1_000_000L);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.parser.SosiParser.Event;
+
+/**
+ * Computes a 64-bit fingerprint of an element from the parser events, without creating
+ * strings. The fingerprint covers the names, values and structure of the element, but not
+ * whitespace, comments, line layout, quotation marks or concatenation of strings over several
+ * lines, so equal fingerprints mean equal content with high probability.
+ *
+ * <p>
+ * One instance is reused for all elements: call {@link #reset()} at the start of each element,
+ * pass its events to {@link #update(Event, SosiParserImpl)}, and read the
+ * {@link #fingerprint()} at its end. Events the caller leaves out, such as the serial number
+ * of a feature, are not covered.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiFingerprinter {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private long hash;
+    private boolean concatenate;
+
+    public SosiFingerprinter() {
+        reset();
+    }
+
+    /**
+     * Starts the fingerprint of a new element.
+     */
+    public void reset() {
+        hash = FNV_OFFSET_BASIS;
+        concatenate = false;
+    }
+
+    /**
+     * Adds the current event of a parser to the fingerprint.
+     *
+     * @param event the current event
+     * @param parser the parser
+     */
+    public void update(Event event, SosiParserImpl parser) {
+        switch (event) {
+            case COMMENT:
+                break;
+            case CONCATENATION:
+                concatenate = true;
+                break;
+            case VALUE_STRING:
+                if (concatenate) {
+                    // Continues the previous string, as if written on one line
+                    concatenate = false;
+                    hash = parser.hashString(hash);
+                    break;
+                }
+                hash = parser.hashString(mix(hash, event));
+                break;
+            case START_HEAD:
+            case START_ELEMENT:
+            case VALUE_NUMBER:
+            case VALUE_SERNO:
+            case VALUE_REF:
+                hash = parser.hashString(mix(hash, event));
+                break;
+            default:
+                hash = mix(hash, event);
+        }
+    }
+
+    /**
+     * @return the fingerprint of the events since the last reset
+     */
+    public long fingerprint() {
+        // The finalizer of MurmurHash3, spreading the bits of the FNV-1a hash
+        long h = hash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long hash, Event event) {
+        return (hash ^ (event.ordinal() + 1)) * FNV_PRIME;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.utils.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Non-blocking SOSI parser implementation. Input fed by the caller is decoded by a {@link FeedingReader},
+ * and the tokenizer rewinds to the start of any token that is incomplete when the fed input runs out.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiNonBlockingParserImpl extends SosiParserImpl implements SosiNonBlockingParser {
+    private final FeedingReader input;
+    private boolean needMoreInput = true;
+    private int levelsToSkip;
+
+    /**
+     * Creates a parser that detects the charset from the first part of the input.
+     */
+    public SosiNonBlockingParserImpl(BufferPool bufferPool) {
+        this(new FeedingReader(), bufferPool);
+    }
+
+    public SosiNonBlockingParserImpl(Charset encoding, BufferPool bufferPool) {
+        this(new FeedingReader(encoding), bufferPool);
+    }
+
+    private SosiNonBlockingParserImpl(FeedingReader input, BufferPool bufferPool) {
+        super(input, bufferPool);
+        this.input = input;
+    }
+
+    @Override
+    public boolean needMoreInput() {
+        return needMoreInput;
+    }
+
+    @Override
+    public void feedInput(ByteBuffer bytes) {
+        input.feed(bytes);
+        inputChanged();
+    }
+
+    @Override
+    public void endOfInput() {
+        input.endOfInput();
+        inputChanged();
+    }
+
+    private void inputChanged() {
+        if (input.isCharsetKnown()) {
+            setMissingOrInvalidCharset(!input.getCharset().isPresent());
+        }
+        needMoreInput = false;
+    }
+
+    @Override
+    public Event next() {
+        Event event = super.next();
+        needMoreInput = event == Event.NOT_AVAILABLE;
+        return event;
+    }
+
+    /**
+     * Recovering from errors is not supported, as the tokenizer can't scan ahead in input that may run out.
+     */
+    @Override
+    public SosiParser enable(Feature feature) {
+        if (feature == Feature.RECOVER_FROM_ERRORS) {
+            throw new UnsupportedOperationException("RECOVER_FROM_ERRORS is not supported by non-blocking parsers");
+        }
+        return super.enable(feature);
+    }
+
+    /**
+     * Not supported, as the coordinates may be split by input that runs out.
+     */
+    @Override
+    public int readCoordinates(int dimension, IntArrayConsumer consumer) {
+        throw new UnsupportedOperationException("readCoordinates is not supported by non-blocking parsers");
+    }
+
+    /**
+     * Not supported, as the coordinates may be split by input that runs out.
+     */
+    @Override
+    public int readCoordinates(int dimension, long[] dest) {
+        throw new UnsupportedOperationException("readCoordinates is not supported by non-blocking parsers");
+    }
+
+    /**
+     * Skips event by event, as the tokenizer can't scan ahead in input that may run out.
+     * The skip is resumed by the next call when the input runs out.
+     */
+    @Override
+    public Event skipElement() {
+        if (levelsToSkip == 0) {
+            if (!getCurrentEvent().isOneOf(Event.START_HEAD, Event.START_ELEMENT)) {
+                return super.skipElement(); // fails with the usual message
+            }
+            levelsToSkip = 1;
+        }
+        while (true) {
+            Event event = next();
+            if (event == Event.NOT_AVAILABLE) {
+                return event;
+            } else if (event.isOneOf(Event.START_HEAD, Event.START_ELEMENT)) {
+                levelsToSkip++;
+            } else if (event.isOneOf(Event.END_HEAD, Event.END_ELEMENT) && --levelsToSkip == 0) {
+                return event;
+            }
+        }
+    }
+}
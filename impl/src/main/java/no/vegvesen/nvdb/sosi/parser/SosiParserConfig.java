@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.parser;
+
+import no.vegvesen.nvdb.sosi.metrics.SosiMetrics;
+import no.vegvesen.nvdb.sosi.utils.BufferPool;
+import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+
+/**
+ * Configuration of the input handling of SOSI parsers and readers.
+ *
+ * <p>
+ * The configuration decides the initial size of the tokenizer buffer, how much data is read ahead
+ * from the underlying input source in each i/o call and whether input should be prefetched by a
+ * background thread while the current buffer is being tokenized. It may also give a listener to
+ * report progress to, a token for cancelling the parse, and metrics receiving throughput measurements.
+ * The default configuration
+ * corresponds to the behaviour of parsers created without a configuration.
+ *
+ * <p>
+ * For example, a parser for a large file on network mounted storage could be created as follows:
+ * <pre>
+ * <code>
+ * SosiParserConfig config = SosiParserConfig.builder()
+ *         .bufferSize(64 * 1024)
+ *         .readAheadSize(1024 * 1024)
+ *         .prefetch(true)
+ *         .build();
+ * SosiParser parser = Sosi.createParser(new FileInputStream(file), config);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiParserConfig {
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    public static final int DEFAULT_READ_AHEAD_SIZE = 0;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 1000;
+
+    private static final SosiParserConfig DEFAULTS = builder().build();
+
+    private final int bufferSize;
+    private final int readAheadSize;
+    private final boolean prefetch;
+    private final boolean fingerprint;
+    private final SosiProgressListener progressListener;
+    private final long progressIntervalMillis;
+    private final SosiCancellationToken cancellationToken;
+    private final SosiMetrics metrics;
+    private final BufferPool bufferPool;
+
+    private SosiParserConfig(Builder builder) {
+        this.bufferSize = builder.bufferSize;
+        this.readAheadSize = builder.readAheadSize;
+        this.prefetch = builder.prefetch;
+        this.fingerprint = builder.fingerprint;
+        this.progressListener = builder.progressListener;
+        this.progressIntervalMillis = builder.progressIntervalMillis;
+        this.cancellationToken = builder.cancellationToken;
+        this.metrics = builder.metrics;
+        this.bufferPool = new BufferPoolImpl(bufferSize, metrics);
+    }
+
+    /**
+     * @return the default configuration
+     */
+    public static SosiParserConfig defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the initial size (in chars) of the tokenizer buffer. The buffer is still
+     * doubled whenever a single token is larger than the buffer.
+     *
+     * @return the initial buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of bytes (or chars, for character input sources) read from the
+     * underlying input source in each i/o call. Zero means that the input source is read
+     * as is, without any additional buffering.
+     *
+     * @return the read-ahead size
+     */
+    public int getReadAheadSize() {
+        return readAheadSize;
+    }
+
+    /**
+     * Returns whether input is prefetched by a background thread, filling the next
+     * buffer while the current one is being tokenized.
+     *
+     * @return true if prefetching is enabled
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Returns whether readers compute the fingerprint of each top-level element while parsing,
+     * see {@link no.vegvesen.nvdb.sosi.document.SosiElement#getFingerprint()}.
+     *
+     * @return true if fingerprinting is enabled
+     */
+    public boolean isFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the listener receiving progress reports while parsing.
+     *
+     * @return the progress listener, or empty if none
+     */
+    public Optional<SosiProgressListener> getProgressListener() {
+        return Optional.ofNullable(progressListener);
+    }
+
+    /**
+     * Returns the minimum time between progress reports. Zero means that progress is
+     * reported on every refill of the tokenizer buffer.
+     *
+     * @return the progress interval, in milliseconds
+     */
+    public long getProgressIntervalMillis() {
+        return progressIntervalMillis;
+    }
+
+    /**
+     * Returns the token that stops parsing when cancelled.
+     *
+     * @return the cancellation token, or empty if none
+     */
+    public Optional<SosiCancellationToken> getCancellationToken() {
+        return Optional.ofNullable(cancellationToken);
+    }
+
+    /**
+     * Returns the metrics receiving throughput measurements. Nothing is measured without metrics.
+     *
+     * @return the metrics, or empty if none
+     */
+    public Optional<SosiMetrics> getMetrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    /**
+     * Returns the pool of tokenizer buffers shared by the parsers and readers created with this
+     * configuration. Buffers are returned to the pool when a parser is closed, and reused by the
+     * next parser.
+     *
+     * @return the buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the size of the blocks handed over from the prefetch thread.
+     *
+     * @return the prefetch block size
+     */
+    int getPrefetchBlockSize() {
+        return Math.max(bufferSize, readAheadSize);
+    }
+
+    @Override
+    public String toString() {
+        return "SosiParserConfig(bufferSize=" + bufferSize + ", readAheadSize=" + readAheadSize + ", prefetch=" + prefetch + ", fingerprint=" + fingerprint + ", progressIntervalMillis=" + progressIntervalMillis + ")";
+    }
+
+    /**
+     * Builder for {@link SosiParserConfig} instances.
+     */
+    public static final class Builder {
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private int readAheadSize = DEFAULT_READ_AHEAD_SIZE;
+        private boolean prefetch = false;
+        private boolean fingerprint = false;
+        private SosiProgressListener progressListener;
+        private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+        private SosiCancellationToken cancellationToken;
+        private SosiMetrics metrics;
+
+        private Builder() {
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            require(() -> bufferSize > 0, "bufferSize must be positive, was %d", bufferSize);
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder readAheadSize(int readAheadSize) {
+            require(() -> readAheadSize >= 0, "readAheadSize can't be negative, was %d", readAheadSize);
+            this.readAheadSize = readAheadSize;
+            return this;
+        }
+
+        public Builder prefetch(boolean prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        public Builder fingerprint(boolean fingerprint) {
+            this.fingerprint = fingerprint;
+            return this;
+        }
+
+        public Builder progressListener(SosiProgressListener progressListener) {
+            this.progressListener = requireNonNull(progressListener, "progressListener can't be null");
+            return this;
+        }
+
+        public Builder progressIntervalMillis(long progressIntervalMillis) {
+            require(() -> progressIntervalMillis >= 0, "progressIntervalMillis can't be negative, was %d", progressIntervalMillis);
+            this.progressIntervalMillis = progressIntervalMillis;
+            return this;
+        }
+
+        public Builder cancellationToken(SosiCancellationToken cancellationToken) {
+            this.cancellationToken = requireNonNull(cancellationToken, "cancellationToken can't be null");
+            return this;
+        }
+
+        public Builder metrics(SosiMetrics metrics) {
+            this.metrics = requireNonNull(metrics, "metrics can't be null");
+            return this;
+        }
+
+        public SosiParserConfig build() {
+            return new SosiParserConfig(this);
+        }
+    }
+}
@@ -29,20 +29,30 @@ import no.vegvesen.nvdb.sosi.SosiException;
 import no.vegvesen.nvdb.sosi.SosiMessages;
 import no.vegvesen.nvdb.sosi.SosiLocation;
 import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.metrics.SosiMetrics;
 import no.vegvesen.nvdb.sosi.utils.BufferPool;
 import no.vegvesen.nvdb.sosi.encoding.CharsetDetectingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
 import static no.vegvesen.nvdb.sosi.parser.SosiTokenizer.SosiToken;
 
 /**
@@ -53,9 +63,11 @@ import static no.vegvesen.nvdb.sosi.parser.SosiTokenizer.SosiToken;
  * @author Tore Eide Andersen (Kantega AS)
  */
 public class SosiParserImpl implements SosiParser {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiParserImpl.class);
 
     private static final String ELEMENT_HEAD = "HODE";
     private static final String ELEMENT_END = "SLUTT";
+    private static final int COORDINATE_CHUNK_POINTS = 256;
 
     private Context currentContext = new NoneContext();
     private Event previousEvent;
@@ -66,38 +78,109 @@ public class SosiParserImpl implements SosiParser {
     private boolean headFound = false;
     private boolean endFound = false;
     private boolean openParenthesisFound = false;
+    private long[] coordinateChunk;
+
+    // Recovery from errors: the open elements to close, and the start of the current top-level element
+    private int openElements = 0;
+    private boolean headOpen = false;
+    private int recoveryClosesPending = 0;
+    private boolean recoveryEndPending = false;
+    private boolean atLevelToken = false;
+    private long elementOffset = 0;
+    private final List<SosiParsingError> errors = new ArrayList<>();
+    private final List<SosiParsingError> unmodifiableErrors = Collections.unmodifiableList(errors);
 
     private final Stack stack = new Stack();
     private final StateIterator stateIterator;
     private final SosiTokenizer tokenizer;
+    private ProgressMonitor progressMonitor;
+
+    // Measurements accumulated since the last report to the metrics, if configured
+    private SosiMetrics metrics;
+    private long parseNanos;
+    private long reportedParseNanos;
+    private long reportedFillNanos;
+    private long reportedTokens;
+    private long pendingEvents;
 
     private int features;
 
     public SosiParserImpl(Reader reader, BufferPool bufferPool) {
-        tokenizer = new SosiTokenizer(reader, bufferPool);
+        this(reader, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiParserImpl(Reader reader, BufferPool bufferPool, SosiParserConfig config) {
+        tokenizer = new SosiTokenizer(withPrefetch(withReadAhead(reader, config), config), bufferPool);
+        monitorProgress(config);
+        measure(config);
         stateIterator = new StateIterator();
         features = Feature.collectDefaults();
     }
 
     public SosiParserImpl(InputStream in, BufferPool bufferPool) {
-        CharsetDetectingInputStream cdin = new CharsetDetectingInputStream(in);
+        this(in, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiParserImpl(InputStream in, BufferPool bufferPool, SosiParserConfig config) {
+        CharsetDetectingInputStream cdin = new CharsetDetectingInputStream(withReadAhead(in, config));
         Optional<Charset> maybeEncoding = cdin.getCharset();
         this.missingOrInvalidCharset = !maybeEncoding.isPresent();
-        tokenizer = new SosiTokenizer(
-                new InputStreamReader(cdin, maybeEncoding.orElse(SosiEncoding.defaultCharset())), bufferPool);
+        tokenizer = new SosiTokenizer(withPrefetch(
+                new InputStreamReader(cdin, maybeEncoding.orElse(SosiEncoding.defaultCharset())), config), bufferPool);
+        monitorProgress(config);
+        measure(config);
         stateIterator = new StateIterator();
         features = Feature.collectDefaults();
     }
 
     public SosiParserImpl(InputStream in, Charset encoding, BufferPool bufferPool) {
-        tokenizer = new SosiTokenizer(
-                new InputStreamReader(in, encoding), bufferPool);
+        this(in, encoding, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiParserImpl(InputStream in, Charset encoding, BufferPool bufferPool, SosiParserConfig config) {
+        tokenizer = new SosiTokenizer(withPrefetch(
+                new InputStreamReader(withReadAhead(in, config), encoding), config), bufferPool);
+        monitorProgress(config);
+        measure(config);
         stateIterator = new StateIterator();
         features = Feature.collectDefaults();
     }
 
+    /**
+     * Used by parsers that detect the charset after construction.
+     */
+    void setMissingOrInvalidCharset(boolean missingOrInvalidCharset) {
+        this.missingOrInvalidCharset = missingOrInvalidCharset;
+    }
+
+    private static InputStream withReadAhead(InputStream in, SosiParserConfig config) {
+        return config.getReadAheadSize() > 0 ? new BufferedInputStream(in, config.getReadAheadSize()) : in;
+    }
+
+    private static Reader withReadAhead(Reader reader, SosiParserConfig config) {
+        return config.getReadAheadSize() > 0 ? new BufferedReader(reader, config.getReadAheadSize()) : reader;
+    }
+
+    private void monitorProgress(SosiParserConfig config) {
+        progressMonitor = ProgressMonitor.of(config).orElse(null);
+        tokenizer.setProgressMonitor(progressMonitor);
+    }
+
+    private void measure(SosiParserConfig config) {
+        metrics = config.getMetrics().orElse(null);
+        tokenizer.setMetrics(metrics);
+    }
+
+    private static Reader withPrefetch(Reader reader, SosiParserConfig config) {
+        return config.isPrefetch() ? new PrefetchingReader(reader, config.getPrefetchBlockSize()) : reader;
+    }
+
     @Override
     public String getString() {
+        if (currentEvent == Event.END && recoveryEndPending) {
+            // The input ended without the end element
+            return ELEMENT_END;
+        }
         if (currentEvent.isOneOf(Event.START_HEAD, Event.START_ELEMENT, Event.VALUE_STRING, Event.VALUE_NUMBER, Event.VALUE_SERNO, Event.VALUE_REF, Event.COMMENT, Event.END)) {
             String value = tokenizer.getValue();
 
@@ -111,6 +194,85 @@ public class SosiParserImpl implements SosiParser {
                 SosiMessages.PARSER_GETSTRING_ERR(currentEvent));
     }
 
+    /**
+     * Continues a 64-bit FNV-1a hash with the characters of the current element name or value,
+     * without creating a String. Strings hash as their {@link #getString()}, and decimal numbers
+     * without trailing fraction zeros. Numbers that are integers within the range of a long, such as
+     * 007, +7, 7 and 7.0, hash as the 8 bytes of their value, whether read by {@link #next()} or as
+     * coordinates. So the hash doesn't depend on the quotation marks or number formatting of the file.
+     *
+     * @param hash the hash so far
+     * @return the continued hash
+     */
+    public long hashString(long hash) {
+        if (currentEvent.isOneOf(Event.START_HEAD, Event.START_ELEMENT, Event.VALUE_STRING, Event.VALUE_NUMBER, Event.VALUE_SERNO, Event.VALUE_REF, Event.COMMENT, Event.END)) {
+            return tokenizer.hashValue(hash);
+        }
+        throw new IllegalStateException(
+                SosiMessages.PARSER_GETSTRING_ERR(currentEvent));
+    }
+
+    @Override
+    public Event skipElement() {
+        if (!currentEvent.isOneOf(Event.START_HEAD, Event.START_ELEMENT)) {
+            throw new IllegalStateException(
+                    SosiMessages.PARSER_SKIPELEMENT_ERR(currentEvent));
+        }
+        previousEvent = currentEvent;
+        return currentEvent = track(((ElementContext)currentContext).skip());
+    }
+
+    @Override
+    public int readCoordinates(int dimension, IntArrayConsumer consumer) {
+        require(() -> dimension > 0, "dimension must be positive, was %d", dimension);
+        require(() -> consumer != null, "consumer can't be null");
+        int chunkSize = COORDINATE_CHUNK_POINTS * dimension;
+        if (isNull(coordinateChunk) || coordinateChunk.length < chunkSize) {
+            coordinateChunk = new long[chunkSize];
+        }
+        int[] point = new int[dimension];
+        int pointCount = 0;
+        int pointsRead;
+        do {
+            pointsRead = readCoordinates(dimension, coordinateChunk, chunkSize, true);
+            for (int i = 0; i < pointsRead; i++) {
+                for (int j = 0; j < dimension; j++) {
+                    point[j] = (int)coordinateChunk[i * dimension + j];
+                }
+                consumer.accept(point);
+            }
+            pointCount += pointsRead;
+        } while (pointsRead == COORDINATE_CHUNK_POINTS);
+        return pointCount;
+    }
+
+    @Override
+    public int readCoordinates(int dimension, long[] dest) {
+        require(() -> dimension > 0, "dimension must be positive, was %d", dimension);
+        require(() -> dest != null, "dest can't be null");
+        return readCoordinates(dimension, dest, dest.length / dimension * dimension, false);
+    }
+
+    private int readCoordinates(int dimension, long[] dest, int maxCount, boolean intRange) {
+        if (!currentEvent.isOneOf(Event.START_ELEMENT, Event.VALUE_NUMBER) || levelsToClose > 0) {
+            throw new IllegalStateException(
+                    SosiMessages.PARSER_READCOORDINATES_ERR(currentEvent));
+        }
+        int count = tokenizer.readIntegers(dest, 0, maxCount, dimension, intRange);
+        if (count > 0) {
+            previousEvent = currentEvent;
+            currentEvent = Event.VALUE_NUMBER;
+        }
+        return count / dimension;
+    }
+
+    /**
+     * Used by parsers that skip elements event by event.
+     */
+    Event getCurrentEvent() {
+        return currentEvent;
+    }
+
     @Override
     public boolean isIntegralNumber() {
         if (!currentEvent.isOneOf(Event.VALUE_NUMBER, Event.VALUE_SERNO, Event.VALUE_REF)) {
@@ -167,7 +329,38 @@ public class SosiParserImpl implements SosiParser {
 
     @Override
     public Event next() {
-        return stateIterator.next();
+        if (isNull(metrics)) {
+            return stateIterator.next();
+        }
+        long start = System.nanoTime();
+        Event event = stateIterator.next();
+        parseNanos += System.nanoTime() - start;
+        pendingEvents++;
+        if (event == Event.END || (openElements == 0 && event.isOneOf(Event.END_HEAD, Event.END_ELEMENT))) {
+            reportParsed(event == Event.END_ELEMENT ? 1 : 0);
+        }
+        return event;
+    }
+
+    /**
+     * Returns the time spent in {@link #next()}, including buffer refills. Only measured
+     * when metrics are configured, and used by readers for telling parsing from building elements.
+     *
+     * @return the time spent parsing, in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    private void reportParsed(long features) {
+        long fillNanos = tokenizer.getFillNanos();
+        long tokens = tokenizer.getTokenCount();
+        metrics.parsed(tokens - reportedTokens, pendingEvents, features,
+                (parseNanos - reportedParseNanos) - (fillNanos - reportedFillNanos));
+        reportedParseNanos = parseNanos;
+        reportedFillNanos = fillNanos;
+        reportedTokens = tokens;
+        pendingEvents = 0;
     }
 
     @Override
@@ -201,8 +394,25 @@ public class SosiParserImpl implements SosiParser {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            previousEvent = currentEvent;
-            return currentEvent = currentContext.getNextEvent();
+            if (currentEvent != Event.NOT_AVAILABLE) {
+                // Grammar checks need the last event actually produced, also when retried after more input
+                previousEvent = currentEvent;
+            }
+            if (recoveryClosesPending > 0 || recoveryEndPending) {
+                return currentEvent = track(nextRecoveryEvent());
+            }
+            while (true) {
+                try {
+                    return currentEvent = track(currentContext.getNextEvent());
+                } catch (SosiParsingException e) {
+                    if (!isEnabled(Feature.RECOVER_FROM_ERRORS) || endFound) {
+                        throw e;
+                    }
+                    if (recover(e)) {
+                        return currentEvent = track(nextRecoveryEvent());
+                    }
+                }
+            }
         }
 
         @Override
@@ -211,6 +421,84 @@ public class SosiParserImpl implements SosiParser {
         }
     }
 
+    @Override
+    public List<SosiParsingError> getErrors() {
+        return unmodifiableErrors;
+    }
+
+    // Keeps track of the open elements, for closing them when recovering from an error
+    private Event track(Event event) {
+        switch (event) {
+            case START_HEAD:
+            case START_ELEMENT:
+                if (openElements++ == 0) {
+                    headOpen = event == Event.START_HEAD;
+                    if (!headOpen && nonNull(progressMonitor)) {
+                        progressMonitor.featureRead();
+                    }
+                }
+                break;
+            case END_HEAD:
+            case END_ELEMENT:
+                openElements--;
+                break;
+            case END:
+                if (nonNull(progressMonitor)) {
+                    progressMonitor.finish(tokenizer.getLocation().getStreamOffset());
+                }
+                if (!errors.isEmpty()) {
+                    LOGGER.warn("Recovered from {} parsing error(s), skipping the elements where they were found", errors.size());
+                }
+                break;
+            default:
+                break;
+        }
+        return event;
+    }
+
+    /**
+     * Records an error, and skips to the next level 1 marker, where a new context reads the next
+     * top-level element. The open elements are then closed by the next events. If the input ends
+     * before a level 1 marker, the open elements are closed and followed by the end of the file.
+     *
+     * @return true if there are open elements to close, or the end of the file to report
+     */
+    private boolean recover(SosiParsingException e) {
+        long startOffset = elementOffset;
+        // An error found at a level 1 marker belongs to the element before it
+        if (!(atLevelToken && tokenizer.unreadLevel(1))) {
+            tokenizer.skipToLevel(1);
+        }
+        SosiToken token = tokenizer.nextToken();
+        if (token != SosiToken.LEVEL) {
+            errors.add(new SosiParsingError(e.getMessage(), e.getLocation(), startOffset, getLocation().getStreamOffset()));
+            recoveryClosesPending = openElements;
+            recoveryEndPending = true;
+            return true;
+        }
+        elementOffset = tokenizer.getTokenOffset();
+        errors.add(new SosiParsingError(e.getMessage(), e.getLocation(), startOffset, elementOffset));
+
+        stack.clear();
+        stack.push(new NoneContext());
+        currentContext = new ElementContext();
+        currentLevel = 0;
+        levelsToClose = 0;
+        openParenthesisFound = false;
+        atLevelToken = false;
+        recoveryClosesPending = openElements;
+        return recoveryClosesPending > 0;
+    }
+
+    private Event nextRecoveryEvent() {
+        if (recoveryClosesPending == 0) {
+            endFound = true;
+            return Event.END;
+        }
+        recoveryClosesPending--;
+        return recoveryClosesPending == 0 && headOpen ? Event.END_HEAD : Event.END_ELEMENT;
+    }
+
     public void close() {
         try {
             tokenizer.close();
@@ -241,6 +529,10 @@ public class SosiParserImpl implements SosiParser {
         private boolean isEmpty() {
             return isNull(head);
         }
+
+        private void clear() {
+            head = null;
+        }
     }
 
     private abstract class Context {
@@ -252,9 +544,12 @@ public class SosiParserImpl implements SosiParser {
         @Override
         public Event getNextEvent() {
             SosiToken token = tokenizer.nextToken();
-            if (token == SosiToken.LEVEL) {
+            if (token == SosiToken.NOT_AVAILABLE) {
+                return Event.NOT_AVAILABLE;
+            } else if (token == SosiToken.LEVEL) {
                 int level = tokenizer.getValue().length();
                 if (level == 1) {
+                    elementOffset = tokenizer.getTokenOffset();
                     stack.push(currentContext);
                     currentContext = new ElementContext();
                     return currentContext.getNextEvent();
@@ -285,7 +580,12 @@ public class SosiParserImpl implements SosiParser {
                 return getClosingEvent();
             }
 
+            atLevelToken = false;
             SosiToken token = tokenizer.nextToken();
+            if (token == SosiToken.NOT_AVAILABLE) {
+                return Event.NOT_AVAILABLE;
+            }
+            atLevelToken = token == SosiToken.LEVEL;
             String tokenValue = tokenizer.getValue();
             if (firstValue) {
                 currentLevel++;
@@ -308,7 +608,7 @@ public class SosiParserImpl implements SosiParser {
                     headFound = true;
                     return Event.START_HEAD;
                 } else {
-                    if (!headFound) {
+                    if (!headFound && !isEnabled(Feature.ALLOW_MISSING_HEAD)) {
                         throw parsingException(SosiMessages.PARSER_HEAD_MUST_BE_FIRST());
                     }
                     return Event.START_ELEMENT;
@@ -334,6 +634,9 @@ public class SosiParserImpl implements SosiParser {
                             throw parsingException(SosiMessages.PARSER_EMPTY_ELEMENT());
                         }
                     }
+                    if (nextLevel == 1) {
+                        elementOffset = tokenizer.getTokenOffset();
+                    }
                     levelsToClose = currentLevel - nextLevel + 1;
                     return getClosingEvent();
                 }
@@ -367,6 +670,20 @@ public class SosiParserImpl implements SosiParser {
             throw parsingException(token, "[ELEMENT_NAME|LEVEL|EXCLAMATION_MARK|AT_MARK|ASTERISK|AMPERSAND|OPEN_PARENTHESIS|CLOSE_PARENTHESIS|VALUE_STRING|VALUE_NUMBER|COLON_VALUE|VALUE_COLON|COMMENT]");
         }
 
+        private Event skip() {
+            tokenizer.skipToLevel(currentLevel);
+            SosiToken token = tokenizer.nextToken();
+            if (token != SosiToken.LEVEL) {
+                throw parsingException(token, "[LEVEL]");
+            }
+            int nextLevel = tokenizer.getValue().length();
+            if (nextLevel == 1) {
+                elementOffset = tokenizer.getTokenOffset();
+            }
+            levelsToClose = currentLevel - nextLevel + 1;
+            return getClosingEvent();
+        }
+
         private Event getClosingEvent() {
             if (levelsToClose > 0) {
                 levelsToClose--;
@@ -28,6 +28,7 @@ package no.vegvesen.nvdb.sosi.parser;
 import no.vegvesen.nvdb.sosi.SosiException;
 import no.vegvesen.nvdb.sosi.SosiMessages;
 import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.metrics.SosiMetrics;
 import no.vegvesen.nvdb.sosi.utils.BufferPool;
 
 import java.io.Closeable;
@@ -37,6 +38,7 @@ import java.math.BigDecimal;
 import java.util.Arrays;
 
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event;
 
 /**
@@ -48,6 +50,11 @@ import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event;
  */
 public final class SosiTokenizer implements Closeable {
 
+    // Returned by read() when a non-blocking input source has no more data for now
+    private static final int NOT_AVAILABLE = -2;
+    private static final int MAX_INTEGER_DIGITS = 18;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
     private final BufferPool bufferPool;
     private final Reader reader;
 
@@ -85,8 +92,27 @@ public final class SosiTokenizer implements Closeable {
     private boolean fracOrExp;
     private BigDecimal bd;
 
+    // Value of the last integer read by readIntegers(), valid until the next token is read. The text of
+    // the value is kept in the store, so this only saves parsing it again
+    private long lastInteger;
+    private boolean lastIntegerCurrent;
+
     private SosiToken lastToken;
 
+    // Whether whitespace was skipped before the current token
+    private boolean precededByWhitespace = true;
+
+    // Whether the last available char was a carriage return, which may be followed by a line feed
+    private boolean pendingCarriageReturn;
+
+    // Checks for cancellation and reports progress before each buffer refill, if configured
+    private ProgressMonitor progressMonitor;
+
+    // Receives the time spent refilling the buffer, if configured
+    private SosiMetrics metrics;
+    private long fillNanos;
+    private long tokenCount;
+
     public enum SosiToken {
         LEVEL(null, true),
         ELEMENT_NAME(null, true),
@@ -100,6 +126,7 @@ public final class SosiTokenizer implements Closeable {
         CLOSE_PARENTHESIS(Event.END_REF_ISLAND, false),  // )
         COLON_VALUE(Event.VALUE_REF, true),              // :123
         VALUE_COLON(Event.VALUE_SERNO, true),            // 123:
+        NOT_AVAILABLE(Event.NOT_AVAILABLE, false),       // more input needed (non-blocking input only)
         EOF(null, false);
 
         private final SosiParser.Event event;
@@ -129,45 +156,77 @@ public final class SosiTokenizer implements Closeable {
         buf = bufferPool.take();
     }
 
-    private void readString() {
+    void setProgressMonitor(ProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor;
+    }
+
+    void setMetrics(SosiMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // The time spent refilling the buffer, if metrics are configured
+    long getFillNanos() {
+        return fillNanos;
+    }
+
+    long getTokenCount() {
+        return tokenCount;
+    }
+
+    // The read methods below return false if the input source ran out of data before the
+    // end of the token could be determined. The token start is then kept in the store.
+    private boolean readString() {
         storeBegin = storeEnd = readBegin-1;
 
         int ch;
         do {
             ch = readChar();
-        } while (!isWhitespace(ch) && ch != -1);
+        } while (!isWhitespace(ch) && ch >= 0);
 
+        if (ch == NOT_AVAILABLE) {
+            return false;
+        }
         if (ch != -1) {
             storeEnd = readBegin;
             storeEnd--;
             readBegin--;
         }
+        return true;
     }
 
-    private void readComment() {
-        storeBegin = storeEnd = readBegin;
+    private boolean readComment() {
+        // The exclamation mark is stored while reading, so that reading can be resumed
+        storeBegin = storeEnd = readBegin-1;
 
         int ch;
         do {
             ch = readChar();
-        } while (ch != 0x0a && ch != 0x0d && ch != -1);
+        } while (ch != 0x0a && ch != 0x0d && ch >= 0);
 
+        if (ch == NOT_AVAILABLE) {
+            return false;
+        }
         if (ch != -1) {
             storeEnd = readBegin;
             storeEnd--;
             readBegin--;
         }
+        storeBegin++;
+        return true;
     }
 
-    private void readQuotedString(int quotationMark) {
-        storeBegin = storeEnd = readBegin;
+    private boolean readQuotedString(int quotationMark) {
+        // The quotation mark is stored while reading, so that reading can be resumed
+        storeBegin = storeEnd = readBegin-1;
 
         int ch = -1, prevCh = -1;
         boolean endOfString = false;
         do {
             prevCh = ch;
             ch = readChar();
-            if (ch == -1) {
+            if (ch == NOT_AVAILABLE) {
+                return false;
+            } else if (ch == -1) {
                 throw expectedChar(-1, (char)quotationMark);
             } else if (ch == 0x0a || ch == 0x0d) {
                 // Line break always terminates a quoted string
@@ -182,7 +241,9 @@ public final class SosiTokenizer implements Closeable {
             }
         } while (!endOfString);
 
+        storeBegin++;
         storeEnd = readBegin-1;
+        return true;
     }
 
     // Reads a number char. If the char is within the buffer, directly
@@ -203,7 +264,9 @@ public final class SosiTokenizer implements Closeable {
      */
     private SosiToken readStringOrNumber() {
         SosiToken token = SosiToken.VALUE_STRING;
-        readString();
+        if (!readString()) {
+            return SosiToken.NOT_AVAILABLE;
+        }
 
         if (buf[storeBegin] == '(' && buf[storeBegin+1] == ':') {
             token = SosiToken.OPEN_PARENTHESIS;
@@ -214,7 +277,7 @@ public final class SosiTokenizer implements Closeable {
             storeBegin++;
             storeEnd--;
             readBegin--;
-        } else if (buf[storeBegin] == ')' && !isWhitespace(buf[storeBegin-1])) {
+        } else if (buf[storeBegin] == ')' && !precededByWhitespace) {
             token = SosiToken.CLOSE_PARENTHESIS;
         } else if (buf[storeBegin] == ':' && interpretableAsSignedInteger(storeBegin + 1, storeEnd)) {
             token = SosiToken.COLON_VALUE;
@@ -342,7 +405,7 @@ public final class SosiTokenizer implements Closeable {
         return ch == 0x20 || ch == 0x09 || ch == 0x0a || ch == 0x0d;
     }
 
-    private void readLevel()  {
+    private boolean readLevel()  {
         storeBegin = storeEnd = readBegin-1;
 
         int ch;
@@ -350,21 +413,159 @@ public final class SosiTokenizer implements Closeable {
             ch = readChar();
         } while (ch == '.');
 
+        if (ch == NOT_AVAILABLE) {
+            return false;
+        }
         readBegin--;
         storeEnd = readBegin;
+        return true;
     }
 
-    SosiToken nextToken() {
+    /**
+     * Skips input up to the next level marker of at most the given level, without reading or
+     * classifying the values. Level markers in quoted strings and comments are ignored, and
+     * lines are counted as when reading tokens. The level marker is left to be read by the
+     * next call to {@link #nextToken()}. Only used with blocking input sources.
+     *
+     * @param maxLevel the highest level ending the skip
+     */
+    void skipToLevel(int maxLevel) {
         reset();
+        lastToken = null;
+        boolean tokenStart = false;
+        boolean nameExpected = false;
         int ch = read();
+        while (ch >= 0) {
+            if (ch == '\r' || ch == '\n') {
+                ++lineNo;
+                if (ch == '\r') {
+                    ch = read();
+                    if (ch == '\n') {
+                        lastLineOffset = bufferOffset+readBegin;
+                        ch = read();
+                    } else {
+                        lastLineOffset = bufferOffset+readBegin-1;
+                    }
+                } else {
+                    lastLineOffset = bufferOffset+readBegin;
+                    ch = read();
+                }
+                tokenStart = true;
+            } else if (ch == 0x20 || ch == 0x09) {
+                tokenStart = true;
+                ch = read();
+            } else if (!tokenStart || nameExpected) {
+                // Rest of a word, or the name of a skipped subelement
+                do {
+                    ch = read();
+                } while (!isWhitespace(ch) && ch >= 0);
+                nameExpected = false;
+                tokenStart = false;
+            } else if (ch == '.') {
+                // The level marker is stored while reading, so that it can be read again as a token
+                storeBegin = storeEnd = readBegin-1;
+                int level = 0;
+                do {
+                    level++;
+                    ch = readChar();
+                } while (ch == '.');
+                if (level <= maxLevel && ch != NOT_AVAILABLE) {
+                    readBegin = storeBegin;
+                    storeBegin = storeEnd = 0;
+                    precededByWhitespace = true;
+                    return;
+                }
+                storeBegin = storeEnd = 0;
+                nameExpected = true;
+                tokenStart = false;
+            } else if (ch == '"' || ch == '\'') {
+                // Line break always terminates a quoted string, and is then part of the string token
+                int quotationMark = ch;
+                boolean endOfString = false;
+                ch = read();
+                while (!endOfString && ch >= 0) {
+                    if (ch == 0x0a || ch == 0x0d) {
+                        endOfString = true;
+                    } else if (ch == quotationMark) {
+                        ch = read();
+                        endOfString = ch != quotationMark;
+                        if (endOfString) {
+                            break;
+                        }
+                    }
+                    ch = read();
+                }
+            } else if (ch == '!') {
+                do {
+                    ch = read();
+                } while (ch != 0x0a && ch != 0x0d && ch >= 0);
+            } else if (ch == '*' || ch == '@' || ch == '&') {
+                ch = read();
+            } else {
+                do {
+                    ch = read();
+                } while (!isWhitespace(ch) && ch >= 0);
+                tokenStart = false;
+            }
+        }
+    }
+
+    SosiToken nextToken() {
+        reset();
+        lastIntegerCurrent = false;
+        int ch = skipWhitespace(read());
+
+        if (ch == NOT_AVAILABLE) {
+            return SosiToken.NOT_AVAILABLE;
+        }
+
+        if (lastToken == SosiToken.LEVEL) {
+            return tokenRead(readString() ? SosiToken.ELEMENT_NAME : SosiToken.NOT_AVAILABLE);
+        } else {
+            switch (ch) {
+                case '.':
+                    return tokenRead(readLevel() ? SosiToken.LEVEL : SosiToken.NOT_AVAILABLE);
+                case '"':
+                case '\'':
+                    return tokenRead(readQuotedString((char) ch) ? SosiToken.VALUE_STRING : SosiToken.NOT_AVAILABLE);
+                case '*':
+                    return tokenRead(SosiToken.ASTERISK);
+                case '@':
+                    return tokenRead(SosiToken.AT_MARK);
+                case '&':
+                    return tokenRead(SosiToken.AMPERSAND);
+                case '!':
+                    return tokenRead(readComment() ? SosiToken.EXCLAMATION_MARK : SosiToken.NOT_AVAILABLE);
+                case -1:
+                    return tokenRead(SosiToken.EOF);
+                default:
+                    return tokenRead(readStringOrNumber());
+            }
+        }
+    }
+
+    // Skips whitespace starting with the given char, counting lines. Returns the first char that isn't whitespace
+    private int skipWhitespace(int ch) {
+        if (pendingCarriageReturn && ch != NOT_AVAILABLE) {
+            pendingCarriageReturn = false;
+            if (ch == '\n') {
+                lastLineOffset = bufferOffset+readBegin;
+                ch = read();
+            }
+        }
 
         // whitespace
         while (isWhitespace(ch)) {
+            precededByWhitespace = true;
             if (ch == '\r') {
                 ++lineNo;
                 ch = read();
                 if (ch == '\n') {
                     lastLineOffset = bufferOffset+readBegin;
+                } else if (ch == NOT_AVAILABLE) {
+                    lastLineOffset = bufferOffset+readBegin;
+                    pendingCarriageReturn = true;
+                    break;
                 } else {
                     lastLineOffset = bufferOffset+readBegin-1;
                     continue;
@@ -375,36 +576,147 @@ public final class SosiTokenizer implements Closeable {
             }
             ch = read();
         }
+        return ch;
+    }
 
-        if (lastToken == SosiToken.LEVEL) {
-            readString();
-            return lastToken = SosiToken.ELEMENT_NAME;
-        } else {
-            switch (ch) {
-                case '.':
-                    readLevel();
-                    return lastToken = SosiToken.LEVEL;
-                case '"':
-                case '\'':
-                    readQuotedString((char) ch);
-                    return lastToken = SosiToken.VALUE_STRING;
-                case '*':
-                    return lastToken = SosiToken.ASTERISK;
-                case '@':
-                    return lastToken = SosiToken.AT_MARK;
-                case '&':
-                    return lastToken = SosiToken.AMPERSAND;
-                case '!':
-                    readComment();
-                    return lastToken = SosiToken.EXCLAMATION_MARK;
-                case -1:
-                    return lastToken = SosiToken.EOF;
-                default:
-                    return lastToken = readStringOrNumber();
+    /**
+     * Reads consecutive plain integer values (an optional sign followed by digits) directly from the buffer.
+     * Values are read in groups of groupSize, such as the values of a point. Reading stops before the first
+     * group containing a token that isn't such an integer, or that is outside the range of int when requested,
+     * leaving the whole group to be read by {@link #nextToken()}. The text of the last value read is kept in the
+     * store, as for tokens read by {@link #nextToken()}.
+     * @param dest the array receiving the values
+     * @param offset the position in dest of the first value
+     * @param maxCount the maximum number of values to read, a multiple of groupSize
+     * @param groupSize the number of values of each group
+     * @param intRange whether the values must be within the range of int
+     * @return the number of values read, a multiple of groupSize
+     */
+    int readIntegers(long[] dest, int offset, int maxCount, int groupSize, boolean intRange) {
+        // The store is kept from the start of the last value read, or of the current token, so that a
+        // partial group can be left unread even if the buffer is refilled. Positions are relative to storeBegin.
+        if (storeEnd == 0) {
+            storeBegin = storeEnd = readBegin;
+        }
+        int lastBegin = 0;
+        int lastEnd = storeEnd - storeBegin;
+        int groupBegin = readBegin - storeBegin;
+
+        // The state at the start of the current group, restored when the group is left unread
+        long groupLineNo = lineNo;
+        long groupLastLineOffset = lastLineOffset;
+        long groupLastInteger = lastInteger;
+        boolean groupLastIntegerCurrent = lastIntegerCurrent;
+        boolean groupPrecededByWhitespace = precededByWhitespace;
+        SosiToken groupLastToken = lastToken;
+        long groupTokenCount = tokenCount;
+        int groupLastBegin = lastBegin;
+        int groupLastEnd = lastEnd;
+
+        int count = 0;
+        while (count < maxCount) {
+            int whitespaceBegin = readBegin - storeBegin;
+            int ch = readChar();
+            while (isWhitespace(ch)) {
+                ch = readChar();
+            }
+            int tokenBegin = readBegin - 1 - storeBegin;
+
+            boolean negative = ch == '-';
+            if (isSign(ch)) {
+                ch = readChar();
+            }
+            long value = 0;
+            int digits = 0;
+            while (isDigit(ch) && digits <= MAX_INTEGER_DIGITS) {
+                value = value * 10 + (ch - '0');
+                digits++;
+                ch = readChar();
+            }
+            if (negative) {
+                value = -value;
+            }
+            boolean valid = digits > 0 && digits <= MAX_INTEGER_DIGITS && (isWhitespace(ch) || ch == -1)
+                    && (!intRange || (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE));
+            if (!valid) {
+                break;
+            }
+            if (ch != -1) {
+                readBegin--;
+            }
+            countLines(storeBegin + whitespaceBegin, storeBegin + tokenBegin);
+            lastBegin = tokenBegin;
+            lastEnd = readBegin - storeBegin;
+            dest[offset + count++] = lastInteger = value;
+            tokenCount++;
+            lastIntegerCurrent = true;
+            precededByWhitespace = false;
+            lastToken = SosiToken.VALUE_NUMBER;
+
+            if (count % groupSize == 0) {
+                // Drop what precedes the last value from the store
+                storeBegin += lastBegin;
+                lastEnd -= lastBegin;
+                lastBegin = 0;
+                groupBegin = readBegin - storeBegin;
+                groupLineNo = lineNo;
+                groupLastLineOffset = lastLineOffset;
+                groupLastInteger = lastInteger;
+                groupLastIntegerCurrent = lastIntegerCurrent;
+                groupPrecededByWhitespace = precededByWhitespace;
+                groupLastToken = lastToken;
+                groupTokenCount = tokenCount;
+                groupLastBegin = lastBegin;
+                groupLastEnd = lastEnd;
+            }
+        }
+        if (count % groupSize != 0 || count < maxCount) {
+            // Leave the partial group, or the token that stopped reading, to be read by nextToken()
+            count -= count % groupSize;
+            readBegin = storeBegin + groupBegin;
+            lineNo = groupLineNo;
+            lastLineOffset = groupLastLineOffset;
+            lastInteger = groupLastInteger;
+            lastIntegerCurrent = groupLastIntegerCurrent;
+            precededByWhitespace = groupPrecededByWhitespace;
+            lastToken = groupLastToken;
+            tokenCount = groupTokenCount;
+            lastBegin = groupLastBegin;
+            lastEnd = groupLastEnd;
+        }
+        storeEnd = storeBegin + lastEnd;
+        storeBegin += lastBegin;
+        return count;
+    }
+
+    // Counts the line breaks of whitespace in the buffer (within given positions), as when skipping whitespace
+    private void countLines(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\r') {
+                ++lineNo;
+                if (i + 1 < to && buf[i + 1] == '\n') {
+                    i++;
+                }
+                lastLineOffset = bufferOffset+i+1;
+            } else if (buf[i] == '\n') {
+                ++lineNo;
+                lastLineOffset = bufferOffset+i+1;
             }
         }
     }
 
+    private SosiToken tokenRead(SosiToken token) {
+        if (token == SosiToken.NOT_AVAILABLE) {
+            // Rewind to the start of the incomplete token, so that it is read again when more input is available
+            readBegin = storeBegin;
+            storeBegin = storeEnd = 0;
+            return token;
+        }
+        precededByWhitespace = false;
+        tokenCount++;
+        return lastToken = token;
+    }
+
     // Gives the location of the last char. Used for
     // SosiParsingException.getLocation
     SosiLocation getLastCharLocation() {
@@ -412,6 +724,29 @@ public final class SosiTokenizer implements Closeable {
         return SosiLocation.of(lineNo, bufferOffset +readBegin-lastLineOffset, bufferOffset +readBegin-1);
     }
 
+    // Gives the stream offset of the first char of the current token
+    long getTokenOffset() {
+        return bufferOffset + storeBegin;
+    }
+
+    /**
+     * Unreads the current token if it is a level marker of at most the given level, so that it
+     * is read again by the next call to {@link #nextToken()}.
+     *
+     * @param maxLevel the highest level to unread
+     * @return true if unread
+     */
+    boolean unreadLevel(int maxLevel) {
+        if (lastToken != SosiToken.LEVEL || storeEnd - storeBegin > maxLevel) {
+            return false;
+        }
+        readBegin = storeBegin;
+        storeBegin = storeEnd = 0;
+        precededByWhitespace = true;
+        lastToken = null;
+        return true;
+    }
+
     // Gives the parser location. Used for SosiParser.getLocation
     SosiLocation getLocation() {
         return SosiLocation.of(lineNo, bufferOffset +readBegin-lastLineOffset+1, bufferOffset +readBegin);
@@ -421,10 +756,11 @@ public final class SosiTokenizer implements Closeable {
         try {
             if (readBegin == readEnd) {     // need to fill the buffer
                 int len = fillBuf();
-                if (len == -1) {
-                    return -1;
+                if (len <= 0) {
+                    // Nothing read, but the buffer content may have been shifted
+                    readBegin = readEnd = storeEnd;
+                    return len == -1 ? -1 : NOT_AVAILABLE;
                 }
-                assert len != 0;
                 readBegin = storeEnd;
                 readEnd = readBegin+len;
             }
@@ -458,8 +794,19 @@ public final class SosiTokenizer implements Closeable {
         } else {
             bufferOffset += readBegin;
         }
+        if (nonNull(progressMonitor)) {
+            progressMonitor.refill(bufferOffset + storeEnd);
+        }
         // Fill the rest of the buf
-        return reader.read(buf, storeEnd, buf.length-storeEnd);
+        if (isNull(metrics)) {
+            return reader.read(buf, storeEnd, buf.length-storeEnd);
+        }
+        long start = System.nanoTime();
+        int len = reader.read(buf, storeEnd, buf.length-storeEnd);
+        long nanos = System.nanoTime() - start;
+        fillNanos += nanos;
+        metrics.bufferFilled(len, nanos);
+        return len;
     }
 
     // state associated with the current token is no more valid
@@ -477,7 +824,71 @@ public final class SosiTokenizer implements Closeable {
         return new String(buf, storeBegin, storeEnd - storeBegin);
     }
 
+    // Continues a 64-bit FNV-1a hash with the current value, without creating a String.
+    // Doubled quotation marks of strings count once, as in getString() of the parser, and
+    // trailing fraction zeros of decimal numbers are ignored. Integers in the range of a long
+    // hash as the 8 bytes of their value, whether read as tokens or by readIntegers, so that
+    // e.g. 007, +7 and 7 hash alike.
+    long hashValue(long hash) {
+        if (lastIntegerCurrent) {
+            return hashLong(hash, lastInteger);
+        }
+        int end = storeEnd;
+        if (lastToken == SosiToken.VALUE_NUMBER) {
+            end = withoutTrailingFractionZeros(storeBegin, storeEnd);
+            // Accumulated as a negative number, as the range of negative longs is the larger
+            int i = storeBegin < end && isSign(buf[storeBegin]) ? storeBegin + 1 : storeBegin;
+            long value = 0;
+            boolean integer = i < end;
+            for (; integer && i < end; i++) {
+                int digit = buf[i] - '0';
+                integer = digit >= 0 && digit <= 9 && value >= (Long.MIN_VALUE + digit) / 10;
+                value = value * 10 - digit;
+            }
+            if (integer && (minus || value != Long.MIN_VALUE)) {
+                return hashLong(hash, minus ? value : -value);
+            }
+        }
+        boolean string = lastToken == SosiToken.VALUE_STRING;
+        for (int i = storeBegin; i < end; i++) {
+            char ch = buf[i];
+            hash = (hash ^ ch) * FNV_PRIME;
+            if (string && (ch == '"' || ch == '\'') && i + 1 < end && buf[i + 1] == ch) {
+                i++;
+            }
+        }
+        return hash;
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private int withoutTrailingFractionZeros(int begin, int end) {
+        int point = -1;
+        for (int i = begin; i < end; i++) {
+            if (buf[i] == '.') {
+                point = i;
+            } else if (buf[i] == 'e' || buf[i] == 'E') {
+                return end;
+            }
+        }
+        if (point < 0) {
+            return end;
+        }
+        while (end > point + 1 && buf[end - 1] == '0') {
+            end--;
+        }
+        return end == point + 1 ? point : end;
+    }
+
     BigDecimal getBigDecimal() {
+        if (lastIntegerCurrent) {
+            return BigDecimal.valueOf(lastInteger);
+        }
         if (isNull(bd)) {
             String valueAsString = new String(buf, storeBegin, storeEnd - storeBegin);
             valueAsString = valueAsString.replace('d', 'e').replace('D', 'E');
@@ -487,6 +898,9 @@ public final class SosiTokenizer implements Closeable {
     }
 
     int getInt() {
+        if (lastIntegerCurrent) {
+            return (int)lastInteger;
+        }
         // no need to create BigDecimal for common integer values (1-9 digits)
         int storeLen = storeEnd-storeBegin;
         if (!fracOrExp && (storeLen <= 9 || (minus && storeLen == 10))) {
@@ -504,12 +918,15 @@ public final class SosiTokenizer implements Closeable {
     // returns true for common integer values (1-9 digits).
     // So there are cases it will return false even though the number is int
     boolean isDefinitelyInt() {
+        if (lastIntegerCurrent) {
+            return lastInteger >= Integer.MIN_VALUE && lastInteger <= Integer.MAX_VALUE;
+        }
         int storeLen = storeEnd-storeBegin;
         return !fracOrExp && (storeLen <= 9 || (minus && storeLen == 10));
     }
 
     boolean isIntegral() {
-        return !fracOrExp || getBigDecimal().scale() == 0;
+        return lastIntegerCurrent || !fracOrExp || getBigDecimal().scale() == 0;
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.reader;
+
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+
+/**
+ * Accumulates the extent of the coordinates of a top-level element as its values are read,
+ * without keeping the points. One instance is reused for all elements read.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class ExtentAccumulator {
+    private int dimension;
+    private boolean hasHeight;
+    private int ordinate;
+    private double north;
+    private double east;
+
+    private double minNorth;
+    private double minEast;
+    private double maxNorth;
+    private double maxEast;
+    private double minHeight;
+    private double maxHeight;
+    private long pointCount;
+
+    /**
+     * Starts accumulating a new top-level element.
+     */
+    void reset() {
+        minNorth = Double.POSITIVE_INFINITY;
+        minEast = Double.POSITIVE_INFINITY;
+        maxNorth = Double.NEGATIVE_INFINITY;
+        maxEast = Double.NEGATIVE_INFINITY;
+        minHeight = Double.NaN;
+        maxHeight = Double.NaN;
+        pointCount = 0;
+    }
+
+    /**
+     * Starts the values of a subelement, if it is a coordinate element.
+     *
+     * @param name the name of the subelement
+     * @return true if the values of the subelement are coordinates
+     */
+    boolean startCoordinates(String name) {
+        int dimension = SosiExtent.coordinateDimensionOf(name);
+        if (dimension == 0) {
+            return false;
+        }
+        this.dimension = dimension;
+        this.hasHeight = name.equalsIgnoreCase("NØH");
+        this.ordinate = 0;
+        return true;
+    }
+
+    /**
+     * Adds the next value of the current coordinate element.
+     */
+    void add(double value) {
+        switch (ordinate++) {
+            case 0:
+                north = value;
+                break;
+            case 1:
+                east = value;
+                break;
+            default:
+                if (hasHeight) {
+                    minHeight = Double.isNaN(minHeight) ? value : Math.min(minHeight, value);
+                    maxHeight = Double.isNaN(maxHeight) ? value : Math.max(maxHeight, value);
+                }
+                break;
+        }
+        if (ordinate == dimension) {
+            minNorth = Math.min(minNorth, north);
+            maxNorth = Math.max(maxNorth, north);
+            minEast = Math.min(minEast, east);
+            maxEast = Math.max(maxEast, east);
+            pointCount++;
+            ordinate = 0;
+        }
+    }
+
+    /**
+     * @return the extent accumulated since the last reset, or null if there are no points
+     */
+    SosiExtent toExtent() {
+        return pointCount == 0 ? null : SosiExtent.of(minNorth, minEast, maxNorth, maxEast, minHeight, maxHeight, pointCount);
+    }
+}
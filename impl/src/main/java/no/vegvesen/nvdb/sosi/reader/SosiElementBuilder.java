@@ -26,6 +26,7 @@
 package no.vegvesen.nvdb.sosi.reader;
 
 import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
 import no.vegvesen.nvdb.sosi.document.SosiValue;
 import no.vegvesen.nvdb.sosi.SosiLocation;
 
@@ -55,5 +56,9 @@ public interface SosiElementBuilder {
 
     SosiElementBuilder addSubElement(String name, SosiElement subElement);
 
+    SosiElementBuilder extent(SosiExtent extent);
+
+    SosiElementBuilder fingerprint(long fingerprint);
+
     SosiElement build();
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ package no.vegvesen.nvdb.sosi.reader;
 
 import no.vegvesen.nvdb.sosi.SosiMessages;
 import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
 import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
 import no.vegvesen.nvdb.sosi.document.SosiValue;
 import no.vegvesen.nvdb.sosi.SosiLocation;
@@ -49,6 +50,10 @@ public class SosiElementBuilderImpl implements SosiElementBuilder {
     private final SosiLocation location;
     private List<SosiElement> subElements;
     private List<SosiValue> values;
+    private SosiExtent extent;
+    private boolean extentComputed;
+    private long fingerprint;
+    private boolean fingerprintComputed;
 
     public SosiElementBuilderImpl(String name, SosiLocation location) {
         this.name = name;
@@ -125,6 +130,30 @@ public class SosiElementBuilderImpl implements SosiElementBuilder {
         return this;
     }
 
+    /**
+     * Sets the extent computed while parsing.
+     *
+     * @param extent the extent, or null if the element has no coordinates
+     */
+    @Override
+    public SosiElementBuilder extent(SosiExtent extent) {
+        this.extent = extent;
+        this.extentComputed = true;
+        return this;
+    }
+
+    /**
+     * Sets the fingerprint computed while parsing.
+     *
+     * @param fingerprint the fingerprint
+     */
+    @Override
+    public SosiElementBuilder fingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+        this.fingerprintComputed = true;
+        return this;
+    }
+
     @Override
     public SosiElement build() {
         List<SosiElement> snapshotSubElements = (isNull(subElements))
@@ -135,7 +164,16 @@ public class SosiElementBuilderImpl implements SosiElementBuilder {
                 ? Collections.<SosiValue>emptyList()
                 : Collections.unmodifiableList(values);
         values = null;
-        return new SosiElementImpl(name, location, snapshotValues, snapshotSubElements);
+        if (!extentComputed && !fingerprintComputed) {
+            return new SosiElementImpl(name, location, snapshotValues, snapshotSubElements);
+        }
+        SosiElementImpl element = extentComputed
+                ? new SosiElementImpl(name, location, snapshotValues, snapshotSubElements, extent)
+                : new SosiElementImpl(name, location, snapshotValues, snapshotSubElements);
+        if (fingerprintComputed) {
+            element.setFingerprint(fingerprint);
+        }
+        return element;
     }
 
     private void putValue(SosiValue value) {
@@ -27,11 +27,13 @@ package no.vegvesen.nvdb.sosi.reader;
 
 import no.vegvesen.nvdb.sosi.SosiLocation;
 import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
 import no.vegvesen.nvdb.sosi.document.SosiValue;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -52,12 +54,26 @@ class SosiElementImpl implements SosiElement {
     private final SosiLocation location;
     private final List<SosiElement> subElements;
     private List<SosiValue> values;
+    private final SosiExtent extent;
+    private final boolean extentComputed;
+    private long fingerprint;
+    private boolean fingerprintComputed;
 
     SosiElementImpl(String name, SosiLocation location, List<SosiValue> values, List<SosiElement> subElements) {
+        this(name, location, values, subElements, null, false);
+    }
+
+    SosiElementImpl(String name, SosiLocation location, List<SosiValue> values, List<SosiElement> subElements, SosiExtent extent) {
+        this(name, location, values, subElements, extent, true);
+    }
+
+    private SosiElementImpl(String name, SosiLocation location, List<SosiValue> values, List<SosiElement> subElements, SosiExtent extent, boolean extentComputed) {
         this.name = requireNonNull(name, "name can't be null");
         this.location = requireNonNull(location, "location can't be null");
         this.values = requireNonNull(values, "values can't be null");
         this.subElements = requireNonNull(subElements, "subElements can't be null");
+        this.extent = extent;
+        this.extentComputed = extentComputed;
     }
 
     @Override
@@ -147,6 +163,21 @@ class SosiElementImpl implements SosiElement {
         this.values = transformer.apply(values()).collect(toList());
     }
 
+    @Override
+    public Optional<SosiExtent> getExtent() {
+        return extentComputed ? Optional.ofNullable(extent) : SosiElement.super.getExtent();
+    }
+
+    @Override
+    public OptionalLong getFingerprint() {
+        return fingerprintComputed ? OptionalLong.of(fingerprint) : OptionalLong.empty();
+    }
+
+    void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+        this.fingerprintComputed = true;
+    }
+
     @Override
     public String toString() {
         return getName() + " (" + values().count() + " value(s) and " + subElements().count() + " subelement(s))";
@@ -29,20 +29,34 @@ import no.vegvesen.nvdb.sosi.SosiException;
 import no.vegvesen.nvdb.sosi.SosiMessages;
 import no.vegvesen.nvdb.sosi.document.SosiDocument;
 import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
 import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import no.vegvesen.nvdb.sosi.metrics.SosiMetrics;
+import no.vegvesen.nvdb.sosi.metrics.ThreadAllocations;
 import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.parser.SosiFingerprinter;
 import no.vegvesen.nvdb.sosi.utils.BufferPool;
 import no.vegvesen.nvdb.sosi.parser.SosiParserImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.math.BigDecimal;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event.END;
 import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event.START_ELEMENT;
 import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event.START_HEAD;
+import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event.VALUE_SERNO;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
 
 /**
  * SosiReader impl using parser and builders.
@@ -52,23 +66,47 @@ import static no.vegvesen.nvdb.sosi.parser.SosiParser.Event.START_HEAD;
  * @author Tore Eide Andersen (Kantega AS)
  */
 public class SosiReaderImpl implements SosiReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiReaderImpl.class);
+
     private final SosiParserImpl parser;
     private boolean readDone;
+    private boolean readElementCalled;
     private final BufferPool bufferPool;
+    private final ExtentAccumulator extent = new ExtentAccumulator();
+    private final SosiFingerprinter fingerprinter;
+    private final SosiMetrics metrics;
 
     public SosiReaderImpl(Reader reader, BufferPool bufferPool) {
-        parser = new SosiParserImpl(reader, bufferPool);
+        this(reader, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiReaderImpl(Reader reader, BufferPool bufferPool, SosiParserConfig config) {
+        parser = new SosiParserImpl(reader, bufferPool, config);
         this.bufferPool = bufferPool;
+        this.fingerprinter = config.isFingerprint() ? new SosiFingerprinter() : null;
+        this.metrics = config.getMetrics().orElse(null);
     }
 
     public SosiReaderImpl(InputStream in, BufferPool bufferPool) {
-        parser = new SosiParserImpl(in, bufferPool);
+        this(in, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiReaderImpl(InputStream in, BufferPool bufferPool, SosiParserConfig config) {
+        parser = new SosiParserImpl(in, bufferPool, config);
         this.bufferPool = bufferPool;
+        this.fingerprinter = config.isFingerprint() ? new SosiFingerprinter() : null;
+        this.metrics = config.getMetrics().orElse(null);
     }
 
     public SosiReaderImpl(InputStream in, Charset charset, BufferPool bufferPool) {
-        parser = new SosiParserImpl(in, charset, bufferPool);
+        this(in, charset, bufferPool, SosiParserConfig.defaults());
+    }
+
+    public SosiReaderImpl(InputStream in, Charset charset, BufferPool bufferPool, SosiParserConfig config) {
+        parser = new SosiParserImpl(in, charset, bufferPool, config);
         this.bufferPool = bufferPool;
+        this.fingerprinter = config.isFingerprint() ? new SosiFingerprinter() : null;
+        this.metrics = config.getMetrics().orElse(null);
     }
 
     @Override
@@ -76,23 +114,53 @@ public class SosiReaderImpl implements SosiReader {
         if (readDone) {
             throw new IllegalStateException(SosiMessages.READER_READ_ALREADY_CALLED());
         }
+        if (readElementCalled) {
+            throw new IllegalStateException(SosiMessages.READER_READELEMENT_ALREADY_CALLED());
+        }
         readDone = true;
 
         List<SosiElement> elements = new ArrayList<>();
         while (parser.hasNext()) {
             SosiParser.Event e = parser.next();
             if (e == START_HEAD || e == START_ELEMENT) {
-                SosiElement element = readElement(new SosiElementBuilderImpl(parser.getString(), parser.getLocation()));
-                elements.add(element);
+                int errorCount = parser.getErrors().size();
+                SosiElement element = readTopLevelElement(e);
+                if (parser.getErrors().size() == errorCount) {
+                    elements.add(element);
+                }
             } else if (e == END) {
                 SosiElement endElement = new SosiElementBuilderImpl(parser.getString(), parser.getLocation()).build();
                 elements.add(endElement);
-                return SosiDocumentImpl.of(elements);
+                SosiDocument document = SosiDocumentImpl.of(elements);
+                checkDeclaredArea(document);
+                return document;
             }
         }
         throw new SosiException("Internal Error");
     }
 
+    @Override
+    public Optional<SosiElement> readElement() {
+        if (readDone) {
+            throw new IllegalStateException(SosiMessages.READER_READ_ALREADY_CALLED());
+        }
+        readElementCalled = true;
+
+        while (parser.hasNext()) {
+            SosiParser.Event e = parser.next();
+            if (e == START_HEAD || e == START_ELEMENT) {
+                int errorCount = parser.getErrors().size();
+                SosiElement element = readTopLevelElement(e);
+                if (parser.getErrors().size() == errorCount) {
+                    return Optional.of(element);
+                }
+            } else if (e == END) {
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+
     @Override
     public SosiParser getParser() {
         return parser;
@@ -104,16 +172,59 @@ public class SosiReaderImpl implements SosiReader {
         parser.close();
     }
 
-    private SosiElement readElement(SosiElementBuilder builder) {
+    private SosiElement readTopLevelElement(SosiParser.Event start) {
+        if (isNull(metrics)) {
+            return buildTopLevelElement(start);
+        }
+        long allocatedBefore = ThreadAllocations.current();
+        long parseNanosBefore = parser.getParseNanos();
+        long startNanos = System.nanoTime();
+        SosiElement element = buildTopLevelElement(start);
+        long nanos = System.nanoTime() - startNanos;
+        long allocatedAfter = ThreadAllocations.current();
+        metrics.elementBuilt(nanos - (parser.getParseNanos() - parseNanosBefore),
+                allocatedBefore >= 0 && allocatedAfter >= 0 ? allocatedAfter - allocatedBefore : -1);
+        return element;
+    }
+
+    private SosiElement buildTopLevelElement(SosiParser.Event start) {
+        extent.reset();
+        if (nonNull(fingerprinter)) {
+            fingerprinter.reset();
+            fingerprinter.update(start, parser);
+        }
+        return readElement(new SosiElementBuilderImpl(parser.getString(), parser.getLocation()), true, false);
+    }
+
+    private void checkDeclaredArea(SosiDocument document) {
+        // The head may be missing, if allowed or skipped when recovering from an error in it
+        if (!document.findElement(isHead()).isPresent()) {
+            return;
+        }
+        try {
+            Optional<SosiExtent> declaredArea = SosiExtents.declaredAreaOf(document.getHead());
+            Optional<SosiExtent> documentExtent = SosiExtents.extentOf(document);
+            if (declaredArea.isPresent() && documentExtent.isPresent() && !declaredArea.get().contains(documentExtent.get())) {
+                LOGGER.warn("Coordinates {} are outside OMRÅDE {}", documentExtent.get(), declaredArea.get());
+            }
+        } catch (SosiException | ClassCastException | IllegalArgumentException e) {
+            LOGGER.debug("Unable to check coordinates against OMRÅDE", e);
+        }
+    }
+
+    private SosiElement readElement(SosiElementBuilder builder, boolean topLevel, boolean coordinates) {
         boolean concatenate = false;
         boolean insideRefIsland = false;
 
         while(parser.hasNext()) {
             SosiParser.Event e = parser.next();
+            if (nonNull(fingerprinter) && !(topLevel && e == VALUE_SERNO)) {
+                fingerprinter.update(e, parser);
+            }
             switch (e) {
                 case START_ELEMENT:
                     String name = parser.getString();
-                    SosiElement subElement = readElement(new SosiElementBuilderImpl(name, parser.getLocation()));
+                    SosiElement subElement = readElement(new SosiElementBuilderImpl(name, parser.getLocation()), false, topLevel && extent.startCoordinates(name));
                     builder.addSubElement(name, subElement);
                     break;
                 case START_REF_ISLAND:
@@ -133,9 +244,17 @@ public class SosiReaderImpl implements SosiReader {
                     break;
                 case VALUE_NUMBER:
                     if (parser.isDefinitelyInt()) {
-                        builder.addValue(parser.getInt(), parser.getLocation());
+                        int value = parser.getInt();
+                        builder.addValue(value, parser.getLocation());
+                        if (coordinates) {
+                            extent.add(value);
+                        }
                     } else {
-                        builder.addValue(parser.getBigDecimal(), parser.getLocation());
+                        BigDecimal value = parser.getBigDecimal();
+                        builder.addValue(value, parser.getLocation());
+                        if (coordinates) {
+                            extent.add(value.doubleValue());
+                        }
                     }
                     break;
                 case VALUE_DEFAULT:
@@ -156,6 +275,12 @@ public class SosiReaderImpl implements SosiReader {
                     break;
                 case END_HEAD:
                 case END_ELEMENT:
+                    if (topLevel) {
+                        builder.extent(extent.toExtent());
+                        if (nonNull(fingerprinter)) {
+                            builder.fingerprint(fingerprinter.fingerprint());
+                        }
+                    }
                     return builder.build();
                 case CONCATENATION:
                     concatenate = true;
@@ -38,7 +38,7 @@ import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.joining;
 
 /**
- * Implements a SOSI string value.
+ * Implements a SOSI reference island.
  *
  * @author Tore Eide Andersen (Kantega AS)
  */
@@ -80,7 +80,11 @@ class SosiRefIslandImpl implements SosiRefIsland {
 
     @Override
     public int hashCode() {
-        return getString().hashCode();
+        int hash = 1;
+        for (SosiRefNumber refNumber : refNumbers) {
+            hash = 31 * hash + refNumber.hashCode();
+        }
+        return hash;
     }
 
     @Override
@@ -89,7 +93,7 @@ class SosiRefIslandImpl implements SosiRefIsland {
             return false;
         }
         SosiRefIslandImpl other = (SosiRefIslandImpl)obj;
-        return getString().equals(other.getString());
+        return refNumbers.equals(other.refNumbers);
     }
 
     @Override
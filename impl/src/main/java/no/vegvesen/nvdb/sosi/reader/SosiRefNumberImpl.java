@@ -28,7 +28,6 @@ package no.vegvesen.nvdb.sosi.reader;
 import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
 import no.vegvesen.nvdb.sosi.SosiLocation;
 
-import java.util.Objects;
 
 /**
  * Implements a SOSI reference number.
@@ -105,6 +104,8 @@ class SosiRefNumberImpl implements SosiRefNumber {
 
     @Override
     public int hashCode() {
-        return Objects.hash(num, insideIsland, reversedOrder);
+        int hash = Long.hashCode(num);
+        hash = 31 * hash + Boolean.hashCode(insideIsland);
+        return 31 * hash + Boolean.hashCode(reversedOrder);
     }
 }
@@ -28,8 +28,10 @@ package no.vegvesen.nvdb.sosi.reader;
 import no.vegvesen.nvdb.sosi.SosiLocation;
 import no.vegvesen.nvdb.sosi.document.*;
 
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Factory for SosiValue instances
@@ -94,6 +96,25 @@ public class SosiValueFactory {
         return number(value, SosiLocation.unknown());
     }
 
+    /**
+     * Creates a SosiValue holding a number.
+     * @param value the number value
+     * @param location the location of the value inside the SOSI file
+     * @return a SosiValue instance
+     */
+    public static SosiNumber number(BigDecimal value, SosiLocation location) {
+        return SosiNumberImpl.of(value, location);
+    }
+
+    /**
+     * Creates a SosiValue holding a number.
+     * @param value the number value
+     * @return a SosiValue instance
+     */
+    public static SosiNumber number(BigDecimal value) {
+        return number(value, SosiLocation.unknown());
+    }
+
     /**
      * Creates a SosiValue holding a string.
      * @param value the string value
@@ -201,4 +222,20 @@ public class SosiValueFactory {
     public static SosiRefIsland refIsland(long refNo) {
         return refIsland(refNo, SosiLocation.unknown());
     }
+
+    /**
+     * Creates a SosiValue holding a reference island containing the given reference numbers.
+     * A negative reference number refers to a curve in reversed order.
+     * @param refNos the reference numbers, with locations inside the SOSI file
+     * @param location the location of the value inside the SOSI file
+     * @return a SosiValue instance
+     */
+    public static SosiRefIsland refIsland(List<SosiRefNumber> refNos, SosiLocation location) {
+        SosiRefIslandImpl value = new SosiRefIslandImpl(location);
+        for (SosiRefNumber refNo : refNos) {
+            long num = refNo.isReversedOrder() ? -refNo.longValue() : refNo.longValue();
+            value.addRefNumber(refNo.isInsideIsland() ? refNo : SosiRefNumberImpl.of(num, true, refNo.getLocation()));
+        }
+        return value;
+    }
 }
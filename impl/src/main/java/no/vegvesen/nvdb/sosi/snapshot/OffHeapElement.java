@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A view of an element stored in an {@link OffHeapSosiDocument}. The element is decoded each time
+ * it's accessed, so the view itself only holds its position.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class OffHeapElement implements SosiElement {
+    private final OffHeapSosiDocument document;
+    private final ByteBuffer segment;
+    private final int pos;
+
+    OffHeapElement(OffHeapSosiDocument document, ByteBuffer segment, int pos) {
+        this.document = document;
+        this.segment = segment;
+        this.pos = pos;
+    }
+
+    /**
+     * Skips an element.
+     *
+     * @param in the input, positioned at the start of the element
+     * @return the position after the element
+     */
+    static int skip(SnapshotInput in) {
+        in.readVarInt();
+        in.skip(in.readVarInt());
+        return in.position();
+    }
+
+    @Override
+    public String getName() {
+        document.checkOpen();
+        return document.getDecoder().readName(new SnapshotInput(segment, pos));
+    }
+
+    @Override
+    public SosiLocation getLocation() {
+        document.checkOpen();
+        return document.getDecoder().readLocation(body());
+    }
+
+    @Override
+    public Optional<SosiElement> findSubElement(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        return subElements().filter(predicate).findFirst();
+    }
+
+    @Override
+    public Optional<SosiElement> findSubElementRecursively(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        Optional<SosiElement> maybeMatch = findSubElement(predicate);
+        if (maybeMatch.isPresent()) {
+            return maybeMatch;
+        } else {
+            Iterator<SosiElement> subElements = subElementIterator();
+            while (subElements.hasNext()) {
+                maybeMatch = subElements.next().findSubElementRecursively(predicate);
+                if (maybeMatch.isPresent()) {
+                    return maybeMatch;
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Stream<SosiElement> findSubElements(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        return subElements().filter(predicate);
+    }
+
+    @Override
+    public boolean hasSubElements() {
+        return subElementIterator().hasNext();
+    }
+
+    @Override
+    public Stream<SosiElement> subElements() {
+        SubElementIterator iterator = subElementIterator();
+        Spliterator<SosiElement> spliterator = Spliterators.spliterator(iterator, iterator.count,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public boolean hasValues() {
+        document.checkOpen();
+        SnapshotInput in = body();
+        document.getDecoder().skipLocation(in);
+        return in.readVarInt() > 0;
+    }
+
+    @Override
+    public Stream<SosiValue> values() {
+        return decodeValues().stream();
+    }
+
+    @Override
+    public <T> T getValueAs(Class<T> valueClass) {
+        requireNonNull(valueClass, "valueClass can't be null");
+        List<SosiValue> values = decodeValues();
+        if (values.isEmpty()) {
+            throw new IllegalStateException("No values for this element");
+        }
+        return valueClass.cast(values.get(0));
+    }
+
+    @Override
+    public <T> List<T> getValuesAs(Class<T> valueClass) {
+        requireNonNull(valueClass, "valueClass can't be null");
+        return values().map(valueClass::cast).collect(toList());
+    }
+
+    @Override
+    public void rename(Function<String, String> transformer) {
+        throw new UnsupportedOperationException("Off-heap documents are read-only");
+    }
+
+    @Override
+    public void computeValues(Function<Stream<SosiValue>, Stream<SosiValue>> transformer) {
+        throw new UnsupportedOperationException("Off-heap documents are read-only");
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " (" + values().count() + " value(s) and " + subElements().count() + " subelement(s))";
+    }
+
+    private SnapshotInput body() {
+        SnapshotInput in = new SnapshotInput(segment, pos);
+        in.readVarInt(); // name
+        in.readVarInt(); // body length
+        return in;
+    }
+
+    private List<SosiValue> decodeValues() {
+        document.checkOpen();
+        SnapshotDecoder decoder = document.getDecoder();
+        SnapshotInput in = body();
+        decoder.skipLocation(in);
+        int valueCount = in.readVarInt();
+        List<SosiValue> values = new ArrayList<>(valueCount);
+        for (int i = 0; i < valueCount; ) {
+            i += decoder.readValues(in, values::add);
+        }
+        return values;
+    }
+
+    private SubElementIterator subElementIterator() {
+        document.checkOpen();
+        SnapshotDecoder decoder = document.getDecoder();
+        SnapshotInput in = body();
+        decoder.skipLocation(in);
+        int valueCount = in.readVarInt();
+        for (int i = 0; i < valueCount; ) {
+            i += decoder.skipValues(in);
+        }
+        return new SubElementIterator(in);
+    }
+
+    private final class SubElementIterator implements Iterator<SosiElement> {
+        private final SnapshotInput in;
+        private final int count;
+        private int index;
+
+        private SubElementIterator(SnapshotInput in) {
+            this.count = in.readVarInt();
+            this.in = in;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        @Override
+        public SosiElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            document.checkOpen();
+            OffHeapElement element = new OffHeapElement(document, segment, in.position());
+            skip(in);
+            index++;
+            return element;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiString;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.encoding.charset.SosiCharset;
+import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.reader.SosiElementBuilderImpl;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isEnd;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * A SOSI document stored outside of the Java heap, either in direct byte buffers or in a memory mapped
+ * scratch file. Elements are stored in the snapshot format, and the elements and values returned are
+ * views that are decoded on access. Only the element names and a few counters are kept on the heap,
+ * so even very large documents can be held without increasing GC pressure.
+ *
+ * <p>
+ * The document is read-only; {@link SosiElement#rename} and {@link SosiElement#computeValues} are not
+ * supported. The memory is released when the document is closed, after which the document and all
+ * elements obtained from it throw {@link IllegalStateException} on access. Closing must not happen
+ * concurrently with other use of the document.
+ *
+ * <p>
+ * The following example demonstrates the typical usage:
+ * <pre>
+ * <code>
+ * try (SosiReader reader = Sosi.createReader(new FileInputStream(file));
+ *      OffHeapSosiDocument doc = OffHeapSosiDocument.read(reader, scratchFile)) {
+ *     doc.findElementRecursively(hasName("TEGNSETT"));
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class OffHeapSosiDocument implements SosiDocument, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapSosiDocument.class);
+    private static final String ELEMENT_CHARSET = "TEGNSETT";
+    private static final int INITIAL_SEGMENT_SIZE = 64 * 1024;
+    static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Storage storage;
+    private final int maxSegmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<Integer> segmentLimits = new ArrayList<>();
+    private final SnapshotEncoder encoder = new SnapshotEncoder(true, true);
+    private final SnapshotDecoder decoder;
+    private int elementCount;
+    private volatile boolean closed;
+
+    OffHeapSosiDocument(Storage storage, int maxSegmentSize) {
+        this.storage = storage;
+        this.maxSegmentSize = maxSegmentSize;
+        List<String> names = encoder.getStrings();
+        this.decoder = new SnapshotDecoder(true, true, names::get);
+    }
+
+    /**
+     * Reads a document into direct byte buffers. The reader is not closed.
+     *
+     * @param reader the reader
+     * @return the document
+     * @throws SosiException if the document can't be read
+     */
+    public static OffHeapSosiDocument read(SosiReader reader) {
+        return read(reader, new DirectStorage(), MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Reads a document into a memory mapped scratch file. The file is created (or truncated), and is
+     * deleted when the document is closed. The reader is not closed.
+     *
+     * @param reader the reader
+     * @param scratchFile the scratch file
+     * @return the document
+     * @throws SosiException if the document can't be read, or the scratch file can't be created
+     */
+    public static OffHeapSosiDocument read(SosiReader reader, Path scratchFile) {
+        return read(reader, new MappedStorage(scratchFile), MAX_SEGMENT_SIZE);
+    }
+
+    static OffHeapSosiDocument read(SosiReader reader, Storage storage, int maxSegmentSize) {
+        requireNonNull(reader, "reader can't be null");
+        OffHeapSosiDocument document = new OffHeapSosiDocument(storage, maxSegmentSize);
+        try {
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                document.add(element.get());
+            }
+            SosiParser parser = reader.getParser();
+            document.add(new SosiElementBuilderImpl(parser.getString(), parser.getLocation()).build());
+        } catch (RuntimeException e) {
+            document.close();
+            throw e;
+        }
+        return document;
+    }
+
+    private void add(SosiElement element) {
+        SnapshotOutput out = new SnapshotOutput();
+        encoder.writeElement(out, element);
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segments.isEmpty() || segment.remaining() < out.size()) {
+            int size = Math.min(segments.isEmpty() ? INITIAL_SEGMENT_SIZE : segment.capacity() * 2, maxSegmentSize);
+            segment = storage.allocate(Math.max(size, out.size()));
+            segments.add(segment);
+            segmentLimits.add(0);
+        }
+        out.writeTo(segment);
+        segmentLimits.set(segments.size() - 1, segment.position());
+        elementCount++;
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory holding the elements
+     */
+    public long getStoredSize() {
+        checkOpen();
+        return segmentLimits.stream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Override
+    public Charset getEncoding() {
+        String sosiCharset = findElementRecursively(hasName(ELEMENT_CHARSET)).map(e -> e.getValueAs(SosiString.class).getString()).orElse("");
+        return SosiEncoding.charsetNameFromSosiValue(sosiCharset)
+                .map(SosiCharset::forName)
+                .orElse(SosiEncoding.defaultCharset());
+    }
+
+    @Override
+    public SosiElement getHead() {
+        return elements()
+                .filter(isHead())
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("Head element not found"));
+    }
+
+    @Override
+    public Collection<SosiElement> getElements() {
+        checkOpen();
+        return new AbstractCollection<SosiElement>() {
+            @Override
+            public Iterator<SosiElement> iterator() {
+                return new ElementIterator();
+            }
+
+            @Override
+            public int size() {
+                return elementCount;
+            }
+        };
+    }
+
+    @Override
+    public SosiElement getEnd() {
+        return elements()
+                .filter(isEnd())
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("End element not found"));
+    }
+
+    @Override
+    public Stream<SosiElement> elements() {
+        checkOpen();
+        Spliterator<SosiElement> spliterator = Spliterators.spliterator(new ElementIterator(), elementCount,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public Optional<SosiElement> findElement(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        return elements().filter(predicate).findFirst();
+    }
+
+    @Override
+    public Optional<SosiElement> findElementRecursively(Predicate<SosiElement> predicate) {
+        requireNonNull(predicate, "predicate can't be null");
+        Optional<SosiElement> maybeMatch = findElement(predicate);
+        if (maybeMatch.isPresent()) {
+            return maybeMatch;
+        } else {
+            Iterator<SosiElement> elements = new ElementIterator();
+            while (elements.hasNext()) {
+                maybeMatch = elements.next().findSubElementRecursively(predicate);
+                if (maybeMatch.isPresent()) {
+                    return maybeMatch;
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Releases the memory holding the document. Closing an already closed document has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.forEach(OffHeapSosiDocument::release);
+        segments.clear();
+        segmentLimits.clear();
+        storage.close();
+    }
+
+    SnapshotDecoder getDecoder() {
+        return decoder;
+    }
+
+    void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Document is closed");
+        }
+    }
+
+    // Releases the memory of a direct or mapped buffer at once, instead of when it's garbage collected
+    private static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            releaseBeforeJava9(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Unable to release buffer, leaving it to the garbage collector", e);
+        }
+    }
+
+    private static void releaseBeforeJava9(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (nonNull(cleaner)) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Unable to release buffer, leaving it to the garbage collector", e);
+        }
+    }
+
+    private final class ElementIterator implements Iterator<SosiElement> {
+        private int segmentNo;
+        private int pos;
+
+        @Override
+        public boolean hasNext() {
+            checkOpen();
+            while (segmentNo < segments.size() && pos >= segmentLimits.get(segmentNo)) {
+                segmentNo++;
+                pos = 0;
+            }
+            return segmentNo < segments.size();
+        }
+
+        @Override
+        public SosiElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ByteBuffer segment = segments.get(segmentNo);
+            OffHeapElement element = new OffHeapElement(OffHeapSosiDocument.this, segment, pos);
+            pos = OffHeapElement.skip(new SnapshotInput(segment, pos));
+            return element;
+        }
+    }
+
+    /**
+     * Allocates the segments holding the elements.
+     */
+    interface Storage {
+        ByteBuffer allocate(int size);
+
+        void close();
+    }
+
+    static final class DirectStorage implements Storage {
+        @Override
+        public ByteBuffer allocate(int size) {
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static final class MappedStorage implements Storage {
+        private final Path scratchFile;
+        private final FileChannel channel;
+        private long size;
+
+        MappedStorage(Path scratchFile) {
+            this.scratchFile = requireNonNull(scratchFile, "scratchFile can't be null");
+            try {
+                this.channel = FileChannel.open(scratchFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new SosiException("Unable to create scratch file " + scratchFile, e);
+            }
+        }
+
+        @Override
+        public ByteBuffer allocate(int segmentSize) {
+            try {
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, size, segmentSize);
+                size += segmentSize;
+                return segment;
+            } catch (IOException e) {
+                throw new SosiException("Unable to extend scratch file " + scratchFile, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(scratchFile);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete scratch file {}", scratchFile, e);
+            }
+        }
+    }
+}
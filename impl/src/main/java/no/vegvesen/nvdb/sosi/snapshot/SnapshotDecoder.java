@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.date;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.datetime;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.number;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.refIsland;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.refNo;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.serialNo;
+import static no.vegvesen.nvdb.sosi.reader.SosiValueFactory.string;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.*;
+
+/**
+ * Decodes values and locations encoded by {@link SnapshotEncoder}.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SnapshotDecoder {
+    private static final DateTimeFormatter SOSI_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter SOSI_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final boolean withLocations;
+    private final boolean inlineValueStrings;
+    private final IntFunction<String> strings;
+
+    SnapshotDecoder(boolean withLocations, boolean inlineValueStrings, IntFunction<String> strings) {
+        this.withLocations = withLocations;
+        this.inlineValueStrings = inlineValueStrings;
+        this.strings = strings;
+    }
+
+    String readName(SnapshotInput in) {
+        return strings.apply(in.readVarInt());
+    }
+
+    // Reads a value, or a run of integral numbers. Returns the number of values read.
+    int readValues(SnapshotInput in, Consumer<SosiValue> consumer) {
+        int tag = in.readByte();
+        SosiValue value;
+        switch (tag) {
+            case TAG_INTEGRAL_RUN:
+                int count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    long num = in.readZigZag();
+                    SosiLocation location = readLocation(in);
+                    consumer.accept(num == (int)num ? number((int)num, location) : number(BigDecimal.valueOf(num), location));
+                }
+                return count;
+            case TAG_DECIMAL:
+                long unscaled = in.readZigZag();
+                value = number(BigDecimal.valueOf(unscaled, (int)in.readZigZag()), readLocation(in));
+                break;
+            case TAG_BIG_DECIMAL:
+                value = number(new BigDecimal(readValueString(in)), readLocation(in));
+                break;
+            case TAG_STRING:
+                value = string(readValueString(in), readLocation(in));
+                break;
+            case TAG_SERNO:
+                value = serialNo(in.readVarLong(), readLocation(in));
+                break;
+            case TAG_REF:
+                value = refNo(in.readZigZag(), readLocation(in));
+                break;
+            case TAG_REF_ISLAND:
+                int refCount = in.readVarInt();
+                List<SosiRefNumber> refNumbers = new ArrayList<>(refCount);
+                for (int i = 0; i < refCount; i++) {
+                    long refNo = in.readZigZag();
+                    refNumbers.add(refNo(refNo, readLocation(in)));
+                }
+                value = refIsland(refNumbers, readLocation(in));
+                break;
+            case TAG_UNSPECIFIED:
+                value = SosiValue.UNSPECIFIED(readLocation(in));
+                break;
+            case TAG_DEFAULT:
+                value = SosiValue.DEFAULT(readLocation(in));
+                break;
+            case TAG_DATE:
+                String dateString = readValueString(in);
+                value = date(LocalDate.parse(dateString, SOSI_DATE_FORMATTER), readLocation(in));
+                break;
+            case TAG_DATETIME:
+                String dateTimeString = readValueString(in);
+                value = datetime(LocalDateTime.parse(dateTimeString, SOSI_DATETIME_FORMATTER), readLocation(in));
+                break;
+            default:
+                throw new SosiException("Malformed snapshot: unknown value tag " + tag + " at " + (in.position() - 1));
+        }
+        consumer.accept(value);
+        return 1;
+    }
+
+    // Skips a value, or a run of integral numbers. Returns the number of values skipped.
+    int skipValues(SnapshotInput in) {
+        int tag = in.readByte();
+        int count = 1;
+        switch (tag) {
+            case TAG_INTEGRAL_RUN:
+                count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    in.readVarLong();
+                    skipLocation(in);
+                }
+                return count;
+            case TAG_DECIMAL:
+                in.readVarLong();
+                in.readVarLong();
+                break;
+            case TAG_BIG_DECIMAL:
+            case TAG_STRING:
+            case TAG_DATE:
+            case TAG_DATETIME:
+                if (inlineValueStrings) {
+                    in.skip(in.readVarInt());
+                } else {
+                    in.readVarLong();
+                }
+                break;
+            case TAG_SERNO:
+            case TAG_REF:
+                in.readVarLong();
+                break;
+            case TAG_REF_ISLAND:
+                int refCount = in.readVarInt();
+                for (int i = 0; i < refCount; i++) {
+                    in.readVarLong();
+                    skipLocation(in);
+                }
+                break;
+            case TAG_UNSPECIFIED:
+            case TAG_DEFAULT:
+                break;
+            default:
+                throw new SosiException("Malformed snapshot: unknown value tag " + tag + " at " + (in.position() - 1));
+        }
+        skipLocation(in);
+        return count;
+    }
+
+    void skipLocation(SnapshotInput in) {
+        if (withLocations) {
+            in.readVarLong();
+            in.readVarLong();
+            in.readVarLong();
+        }
+    }
+
+    SosiLocation readLocation(SnapshotInput in) {
+        if (!withLocations) {
+            return SosiLocation.unknown();
+        }
+        long lineNo = in.readVarLong() - 1;
+        long columnNo = in.readVarLong() - 1;
+        long offset = in.readVarLong() - 1;
+        return SosiLocation.of(lineNo, columnNo, offset);
+    }
+
+    private String readValueString(SnapshotInput in) {
+        return inlineValueStrings ? in.readString() : strings.apply(in.readVarInt());
+    }
+}
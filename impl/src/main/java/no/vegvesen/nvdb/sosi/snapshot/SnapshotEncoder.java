@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.*;
+
+/**
+ * Encodes elements in the snapshot format. Element names are always written as indexes in the
+ * string table. String values are either written the same way, or inline, which avoids an
+ * unbounded string table when the set of distinct values is large.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SnapshotEncoder {
+    private final boolean withLocations;
+    private final boolean inlineValueStrings;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    SnapshotEncoder(boolean withLocations, boolean inlineValueStrings) {
+        this.withLocations = withLocations;
+        this.inlineValueStrings = inlineValueStrings;
+    }
+
+    List<String> getStrings() {
+        return strings;
+    }
+
+    void writeElement(SnapshotOutput out, SosiElement element) {
+        out.writeVarLong(indexOf(element.getName()));
+
+        SnapshotOutput body = new SnapshotOutput();
+        writeLocation(body, element.getLocation());
+        List<SosiValue> values = element.values().collect(toList());
+        body.writeVarLong(values.size());
+        for (int i = 0; i < values.size(); ) {
+            i = writeValues(body, values, i);
+        }
+        List<SosiElement> subElements = element.subElements().collect(toList());
+        body.writeVarLong(subElements.size());
+        for (SosiElement subElement : subElements) {
+            writeElement(body, subElement);
+        }
+        out.writeBlock(body);
+    }
+
+    // Writes the value at index i, or a run of integral numbers starting at i. Returns the index of the next value.
+    private int writeValues(SnapshotOutput out, List<SosiValue> values, int i) {
+        SosiValue value = values.get(i);
+        switch (value.getValueType()) {
+            case NUMBER:
+                if (isIntegral(value)) {
+                    int end = i + 1;
+                    while (end < values.size() && isIntegral(values.get(end))) {
+                        end++;
+                    }
+                    out.write(TAG_INTEGRAL_RUN);
+                    out.writeVarLong(end - i);
+                    for (int j = i; j < end; j++) {
+                        out.writeZigZag(((SosiNumber)values.get(j)).longValue());
+                        writeLocation(out, values.get(j).getLocation());
+                    }
+                    return end;
+                }
+                BigDecimal decimal = ((SosiNumber)value).bigDecimalValue();
+                if (decimal.unscaledValue().bitLength() < 64) {
+                    out.write(TAG_DECIMAL);
+                    out.writeZigZag(decimal.unscaledValue().longValue());
+                    out.writeZigZag(decimal.scale());
+                } else {
+                    out.write(TAG_BIG_DECIMAL);
+                    writeValueString(out, decimal.toString());
+                }
+                break;
+            case STRING:
+                out.write(TAG_STRING);
+                writeValueString(out, value.getString());
+                break;
+            case SERNO:
+                out.write(TAG_SERNO);
+                out.writeVarLong(((SosiSerialNumber)value).longValue());
+                break;
+            case REF:
+                out.write(TAG_REF);
+                out.writeZigZag(signedRefNo((SosiRefNumber)value));
+                break;
+            case REF_ISLAND:
+                out.write(TAG_REF_ISLAND);
+                List<SosiRefNumber> refNumbers = ((SosiRefIsland)value).refNumbers().collect(toList());
+                out.writeVarLong(refNumbers.size());
+                for (SosiRefNumber refNumber : refNumbers) {
+                    out.writeZigZag(signedRefNo(refNumber));
+                    writeLocation(out, refNumber.getLocation());
+                }
+                break;
+            case UNSPECIFIED:
+                out.write(TAG_UNSPECIFIED);
+                break;
+            case DEFAULT:
+                out.write(TAG_DEFAULT);
+                break;
+            case DATE:
+                out.write(TAG_DATE);
+                writeValueString(out, value.getString());
+                break;
+            case DATETIME:
+                out.write(TAG_DATETIME);
+                writeValueString(out, value.getString());
+                break;
+            default:
+                throw new SosiException("Unsupported value type in snapshot: " + value.getValueType());
+        }
+        writeLocation(out, value.getLocation());
+        return i + 1;
+    }
+
+    private static boolean isIntegral(SosiValue value) {
+        if (value.getValueType() != SosiValue.ValueType.NUMBER) {
+            return false;
+        }
+        BigDecimal decimal = ((SosiNumber)value).bigDecimalValue();
+        return decimal.scale() == 0 && decimal.unscaledValue().bitLength() < 64;
+    }
+
+    private static long signedRefNo(SosiRefNumber refNumber) {
+        return refNumber.isReversedOrder() ? -refNumber.longValue() : refNumber.longValue();
+    }
+
+    private void writeLocation(SnapshotOutput out, SosiLocation location) {
+        if (withLocations) {
+            out.writeVarLong(location.getLineNumber() + 1);
+            out.writeVarLong(location.getColumnNumber() + 1);
+            out.writeVarLong(location.getStreamOffset() + 1);
+        }
+    }
+
+    private void writeValueString(SnapshotOutput out, String string) {
+        if (inlineValueStrings) {
+            out.writeString(string);
+        } else {
+            out.writeVarLong(indexOf(string));
+        }
+    }
+
+    private int indexOf(String string) {
+        Integer index = stringIndexes.get(string);
+        if (isNull(index)) {
+            index = strings.size();
+            stringIndexes.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.FLAG_LOCATIONS;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.MAGIC;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.VERSION;
+
+/**
+ * The fixed size header of a snapshot.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SnapshotHeader {
+    private final int flags;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final long sourceChecksum;
+
+    private SnapshotHeader(int flags, long sourceSize, long sourceModified, long sourceChecksum) {
+        this.flags = flags;
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.sourceChecksum = sourceChecksum;
+    }
+
+    static SnapshotHeader read(SnapshotInput in) {
+        int magic = (in.readByte() << 24) | (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+        if (magic != MAGIC) {
+            throw new SosiException("Not a SOSI snapshot");
+        }
+        int version = (in.readByte() << 8) | in.readByte();
+        if (version != VERSION) {
+            throw new SosiException("Unsupported SOSI snapshot version " + version);
+        }
+        int flags = in.readByte();
+        return new SnapshotHeader(flags, in.readLong(), in.readLong(), in.readLong());
+    }
+
+    boolean hasLocations() {
+        return (flags & FLAG_LOCATIONS) != 0;
+    }
+
+    long getSourceSize() {
+        return sourceSize;
+    }
+
+    long getSourceModified() {
+        return sourceModified;
+    }
+
+    long getSourceChecksum() {
+        return sourceChecksum;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the primitive encodings of the snapshot format from a byte buffer,
+ * using absolute positions so that several inputs can share a buffer.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SnapshotInput {
+    private final ByteBuffer buffer;
+    private int pos;
+
+    SnapshotInput(ByteBuffer buffer, int pos) {
+        this.buffer = buffer;
+        this.pos = pos;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    void position(int pos) {
+        this.pos = pos;
+    }
+
+    int readByte() {
+        checkAvailable(1);
+        return buffer.get(pos++) & 0xff;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SosiException("Malformed snapshot: variable length number too long at " + pos);
+    }
+
+    int readVarInt() {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new SosiException("Malformed snapshot: count out of range at " + pos);
+        }
+        return (int)value;
+    }
+
+    long readZigZag() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readLong() {
+        checkAvailable(8);
+        long value = buffer.getLong(pos);
+        pos += 8;
+        return value;
+    }
+
+    String readString() {
+        int len = readVarInt();
+        checkAvailable(len);
+        byte[] bytes = new byte[len];
+        ByteBuffer source = buffer.duplicate();
+        ((Buffer)source).position(pos);
+        source.get(bytes);
+        pos += len;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void skip(int len) {
+        checkAvailable(len);
+        pos += len;
+    }
+
+    private void checkAvailable(int len) {
+        if (pos + len > buffer.limit() || pos + len < 0) {
+            throw new SosiException("Malformed snapshot: unexpected end at " + pos, new BufferUnderflowException());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiElementBuilder;
+import no.vegvesen.nvdb.sosi.reader.SosiElementBuilderImpl;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import static no.vegvesen.nvdb.sosi.reader.SosiDocumentFactory.document;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.HEADER_SIZE;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.checksumOf;
+import static no.vegvesen.nvdb.sosi.snapshot.SosiSnapshotWriter.snapshotFileOf;
+
+/**
+ * Loads SOSI documents from binary snapshots written by {@link SosiSnapshotWriter}, and uses
+ * snapshots as a cache of parsed SOSI files.
+ *
+ * <p>
+ * The following example demonstrates how to read a SOSI file, using a snapshot next to the
+ * file when it is up to date, and writing a new snapshot when it is not:
+ * <pre>
+ * <code>
+ * SosiDocument doc = SosiSnapshot.readCached(sosiFile);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiSnapshot.class);
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final SnapshotDecoder decoder;
+    private final int elementsPos;
+
+    private SosiSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        SnapshotInput in = new SnapshotInput(buffer, 0);
+        SnapshotHeader header = SnapshotHeader.read(in);
+        this.strings = new String[in.readVarInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+        this.elementsPos = in.position();
+        this.decoder = new SnapshotDecoder(header.hasLocations(), false, i -> strings[i]);
+    }
+
+    /**
+     * Reads a document from a snapshot, without checking that the snapshot is up to date.
+     *
+     * @param snapshotFile the snapshot file
+     * @return the document
+     * @throws SosiException if the snapshot can't be read
+     */
+    public static SosiDocument read(Path snapshotFile) {
+        return new SosiSnapshot(map(snapshotFile)).readDocument();
+    }
+
+    /**
+     * Checks whether a snapshot was written for the current contents of a SOSI file. The size and
+     * modification time of the SOSI file are always compared; the checksum is only compared if requested,
+     * as it requires reading the whole SOSI file.
+     *
+     * @param snapshotFile the snapshot file
+     * @param sosiFile the SOSI file
+     * @param verifyChecksum whether the checksum of the SOSI file should be compared
+     * @return true if the snapshot exists and is up to date
+     */
+    public static boolean isUpToDate(Path snapshotFile, Path sosiFile, boolean verifyChecksum) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return false;
+        }
+        try {
+            SnapshotHeader header;
+            try (InputStream in = Files.newInputStream(snapshotFile)) {
+                byte[] bytes = new byte[HEADER_SIZE];
+                int len = 0;
+                int count;
+                while (len < bytes.length && (count = in.read(bytes, len, bytes.length - len)) != -1) {
+                    len += count;
+                }
+                if (len < bytes.length) {
+                    return false;
+                }
+                header = SnapshotHeader.read(new SnapshotInput(ByteBuffer.wrap(bytes), 0));
+            }
+            return header.getSourceSize() == Files.size(sosiFile)
+                    && header.getSourceModified() == Files.getLastModifiedTime(sosiFile).toMillis()
+                    && (!verifyChecksum || header.getSourceChecksum() == checksumOf(sosiFile));
+        } catch (IOException | SosiException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a SOSI file, using the snapshot at the default location when it is up to date (comparing size
+     * and modification time). Otherwise, or if the snapshot can't be read, the SOSI file is parsed, and a new
+     * snapshot (with locations) is written.
+     *
+     * @param sosiFile the SOSI file
+     * @return the document
+     * @throws SosiException if the SOSI file can't be read or parsed, or the snapshot can't be written
+     */
+    public static SosiDocument readCached(Path sosiFile) {
+        return readCached(sosiFile, SosiParserConfig.defaults());
+    }
+
+    /**
+     * Reads a SOSI file as for {@link #readCached(Path)}, parsing it with the specified configuration
+     * when the snapshot isn't up to date. If the SOSI file changes while it is parsed, the document
+     * is still returned, but no snapshot is written.
+     *
+     * @param sosiFile the SOSI file
+     * @param config the parser configuration
+     * @return the document
+     * @throws SosiException if the SOSI file can't be read or parsed, or the snapshot can't be written
+     */
+    public static SosiDocument readCached(Path sosiFile, SosiParserConfig config) {
+        Path snapshotFile = snapshotFileOf(sosiFile);
+        if (isUpToDate(snapshotFile, sosiFile, false)) {
+            try {
+                return read(snapshotFile);
+            } catch (SosiException e) {
+                LOGGER.warn("Unable to read snapshot {}, parsing {} again", snapshotFile, sosiFile, e);
+            }
+        }
+        SosiDocument document;
+        long sourceSize;
+        long sourceModified;
+        long sourceChecksum;
+        boolean changed;
+        try {
+            // The snapshot is stamped with the state of the file before parsing, and checksummed while parsing
+            sourceSize = Files.size(sosiFile);
+            sourceModified = Files.getLastModifiedTime(sosiFile).toMillis();
+            try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(sosiFile), new CRC32());
+                 SosiReader reader = Sosi.createReader(in, config)) {
+                document = reader.read();
+                drain(in);
+                sourceChecksum = in.getChecksum().getValue();
+            }
+            changed = Files.size(sosiFile) != sourceSize
+                    || Files.getLastModifiedTime(sosiFile).toMillis() != sourceModified;
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+        if (!changed) {
+            SosiSnapshotWriter.write(document, sosiFile, snapshotFile, true, sourceSize, sourceModified, sourceChecksum);
+        }
+        return document;
+    }
+
+    // Reads the rest of the input, such as anything after the end element, so that it is included in the checksum
+    private static void drain(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        while (in.read(buf) != -1) {
+            // keep reading
+        }
+    }
+
+    static ByteBuffer map(Path snapshotFile) {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new SosiException("Snapshot " + snapshotFile + " is too large to be mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new SosiException("Unable to read snapshot " + snapshotFile, e);
+        }
+    }
+
+    private SosiDocument readDocument() {
+        SnapshotInput in = new SnapshotInput(buffer, elementsPos);
+        int count = in.readVarInt();
+        List<SosiElement> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            elements.add(readElement(in));
+        }
+        return document(elements);
+    }
+
+    private SosiElement readElement(SnapshotInput in) {
+        String name = decoder.readName(in);
+        in.readVarInt(); // body length, only used when skipping elements
+        SosiElementBuilder builder = new SosiElementBuilderImpl(name, decoder.readLocation(in));
+
+        int valueCount = in.readVarInt();
+        for (int i = 0; i < valueCount; ) {
+            i += decoder.readValues(in, builder::addValue);
+        }
+        int subElementCount = in.readVarInt();
+        for (int i = 0; i < subElementCount; i++) {
+            SosiElement subElement = readElement(in);
+            builder.addSubElement(subElement.getName(), subElement);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Writes a parsed {@link SosiDocument} to a compact binary snapshot, which is loaded back by
+ * {@link SosiSnapshot} much faster than the SOSI file can be parsed.
+ *
+ * <p>
+ * The snapshot file has the following layout:
+ * <pre>
+ * magic            int     "SOSB"
+ * version          short
+ * flags            byte    1 = locations included
+ * source size      long    size of the SOSI file
+ * source modified  long    last modified time (millis) of the SOSI file
+ * source CRC-32    long    checksum of the contents of the SOSI file
+ * string count     varint
+ * strings          string[string count]     element names and string values
+ * element count    varint
+ * elements         element[element count]   top-level elements
+ * </pre>
+ * where an element is written as its name (varint index in the string table) followed by the
+ * length (varint) and contents of its body, so that elements can be skipped without decoding:
+ * <pre>
+ * location         (line, column, offset as varints, + 1)   if locations are included
+ * value count      varint
+ * values           tag byte followed by the value
+ * subelement count varint
+ * subelements      element[subelement count]
+ * </pre>
+ * Consecutive integral numbers (typically coordinates) are packed as a single run of zigzag encoded
+ * varints. Fixed size fields are big endian, strings are a varint length followed by UTF-8 bytes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public abstract class SosiSnapshotWriter {
+    static final int MAGIC = 0x534f5342; // "SOSB"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 1 + 8 + 8 + 8;
+    static final int FLAG_LOCATIONS = 1;
+    static final String SNAPSHOT_SUFFIX = ".snap";
+
+    // Value tags
+    static final int TAG_STRING = 0;
+    static final int TAG_INTEGRAL_RUN = 1;
+    static final int TAG_DECIMAL = 2;
+    static final int TAG_BIG_DECIMAL = 3;
+    static final int TAG_SERNO = 4;
+    static final int TAG_REF = 5;
+    static final int TAG_REF_ISLAND = 6;
+    static final int TAG_UNSPECIFIED = 7;
+    static final int TAG_DEFAULT = 8;
+    static final int TAG_DATE = 9;
+    static final int TAG_DATETIME = 10;
+
+    /**
+     * Returns the default location of the snapshot of a SOSI file, i.e. the
+     * path of the SOSI file with ".snap" appended.
+     *
+     * @param sosiFile the SOSI file
+     * @return the path of the snapshot file
+     */
+    public static Path snapshotFileOf(Path sosiFile) {
+        return sosiFile.resolveSibling(sosiFile.getFileName() + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Writes a snapshot of a document parsed from a SOSI file. The snapshot is stamped with the size,
+     * modification time and checksum the SOSI file has when this method is called, so the file must
+     * not have changed since the document was parsed.
+     *
+     * @param document the parsed document
+     * @param sosiFile the SOSI file the document was parsed from
+     * @param snapshotFile the snapshot file
+     * @param withLocations whether the locations of elements and values should be included
+     * @throws SosiException if the SOSI file can't be read, or the snapshot can't be written
+     */
+    public static void write(SosiDocument document, Path sosiFile, Path snapshotFile, boolean withLocations) {
+        long sourceSize;
+        long sourceModified;
+        long sourceChecksum;
+        try {
+            sourceSize = Files.size(sosiFile);
+            sourceModified = Files.getLastModifiedTime(sosiFile).toMillis();
+            sourceChecksum = checksumOf(sosiFile);
+        } catch (IOException e) {
+            throw new SosiException("Unable to write snapshot of " + sosiFile, e);
+        }
+        write(document, sosiFile, snapshotFile, withLocations, sourceSize, sourceModified, sourceChecksum);
+    }
+
+    /**
+     * Writes a snapshot stamped with the given size, modification time and checksum of the SOSI file,
+     * as they were when the document was parsed.
+     */
+    static void write(SosiDocument document, Path sosiFile, Path snapshotFile, boolean withLocations,
+                      long sourceSize, long sourceModified, long sourceChecksum) {
+        try {
+            SnapshotOutput header = new SnapshotOutput();
+            writeHeader(header, withLocations, sourceSize, sourceModified, sourceChecksum);
+
+            SnapshotEncoder encoder = new SnapshotEncoder(withLocations, false);
+            List<SosiElement> elements = document.elements().collect(toList());
+            SnapshotOutput body = new SnapshotOutput();
+            body.writeVarLong(elements.size());
+            for (SosiElement element : elements) {
+                encoder.writeElement(body, element);
+            }
+
+            SnapshotOutput strings = new SnapshotOutput();
+            strings.writeVarLong(encoder.getStrings().size());
+            for (String string : encoder.getStrings()) {
+                strings.writeString(string);
+            }
+
+            // Written to a temporary file next to the snapshot and moved in place, so a partly written snapshot is never read
+            Path directory = snapshotFile.toAbsolutePath().getParent();
+            Path tempFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tempFile)) {
+                    header.writeTo(out);
+                    strings.writeTo(out);
+                    body.writeTo(out);
+                }
+                move(tempFile, snapshotFile);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            throw new SosiException("Unable to write snapshot of " + sosiFile, e);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeHeader(SnapshotOutput header, boolean withLocations,
+                                    long sourceSize, long sourceModified, long sourceChecksum) throws IOException {
+        header.write(MAGIC >>> 24);
+        header.write(MAGIC >>> 16);
+        header.write(MAGIC >>> 8);
+        header.write(MAGIC);
+        header.write(VERSION >>> 8);
+        header.write(VERSION);
+        header.write(withLocations ? FLAG_LOCATIONS : 0);
+        header.writeLong(sourceSize);
+        header.writeLong(sourceModified);
+        header.writeLong(sourceChecksum);
+    }
+
+    static long checksumOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                crc.update(buf, 0, len);
+            }
+        }
+        return crc.getValue();
+    }
+}
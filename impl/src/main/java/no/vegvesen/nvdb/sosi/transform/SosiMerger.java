@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.transform;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.encoding.charset.SosiCharset;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+import no.vegvesen.nvdb.sosi.index.SosiStructureScanner;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.reader.SosiValueFactory;
+import no.vegvesen.nvdb.sosi.utils.LongLongMap;
+import no.vegvesen.nvdb.sosi.writer.DefaultSosiLayoutFormatter;
+import no.vegvesen.nvdb.sosi.writer.DefaultSosiValueFormatter;
+import no.vegvesen.nvdb.sosi.writer.LineEnding;
+import no.vegvesen.nvdb.sosi.writer.SosiWriter;
+import no.vegvesen.nvdb.sosi.writer.SosiWriterImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.reader.SosiElementFactory.element;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * Merges SOSI files into one, renumbering the features so that their serial numbers don't collide.
+ *
+ * <p>
+ * Each file is first scanned for its serial numbers (without parsing), which are mapped to the next
+ * free serial numbers of the merged file in a primitive long to long map. The file is then read one
+ * feature at a time, and its serial numbers and references (REF, including islands) are rewritten
+ * through the map before the feature is written. Memory use is thus proportional to the number of
+ * features of the largest file, not to the size of the data.
+ *
+ * <p>
+ * The head of the merged file is the head of the first file, with OMRÅDE covering the OMRÅDE of all
+ * files. The files must have the same coordinate system (KOORDSYS). When their origin (ORIGO-NØ) or
+ * units (ENHET, ENHET-H) differ, coordinates are rescaled to the origin of the first file and the
+ * finest unit of all files, unless rescaling is disabled, in which case the merge fails.
+ *
+ * <pre>
+ * <code>
+ * long featureCount = SosiMerger.builder().build().merge(Arrays.asList(first, second), merged);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiMerger {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiMerger.class);
+
+    private static final long NO_SERIAL_NUMBER = -1;
+
+    private final long firstSerialNumber;
+    private final boolean rescale;
+    private final LineEnding lineEnding;
+    private final SosiParserConfig parserConfig;
+
+    private SosiMerger(Builder builder) {
+        this.firstSerialNumber = builder.firstSerialNumber;
+        this.rescale = builder.rescale;
+        this.lineEnding = builder.lineEnding;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, numbering features from 1 and rescaling coordinates when needed
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Merges SOSI files into a file.
+     *
+     * @param sosiFiles the files to merge, in the order their features are written
+     * @param target the merged file, replaced if it exists
+     * @return the number of features written
+     * @throws SosiException if the files can't be read or written, or their heads can't be reconciled
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if a file is malformed
+     */
+    public long merge(List<Path> sosiFiles, Path target) {
+        requireNonNull(target, "target can't be null");
+        try (OutputStream out = Files.newOutputStream(target)) {
+            return merge(sosiFiles, out);
+        } catch (IOException e) {
+            throw new SosiException("Unable to write " + target, e);
+        }
+    }
+
+    /**
+     * Merges SOSI files into a stream, which is flushed but not closed.
+     *
+     * @param sosiFiles the files to merge, in the order their features are written
+     * @param out the stream of the merged SOSI data
+     * @return the number of features written
+     * @throws SosiException if the files can't be read, the stream can't be written, or the heads can't be reconciled
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if a file is malformed
+     */
+    public long merge(List<Path> sosiFiles, OutputStream out) {
+        requireNonNull(sosiFiles, "sosiFiles can't be null");
+        requireNonNull(out, "out can't be null");
+        require(() -> !sosiFiles.isEmpty(), "sosiFiles can't be empty");
+
+        List<SosiElement> heads = sosiFiles.stream().map(this::readHead).collect(toList());
+        List<SosiTranspar> transpars = heads.stream().map(SosiTranspar::of).collect(toList());
+        SosiTranspar target = reconcile(sosiFiles, transpars);
+        SosiElement head = mergeHeads(heads, transpars.get(0), target);
+
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, charsetOf(head)), 64 * 1024);
+            SosiWriter sosiWriter = new SosiWriterImpl(writer, new DefaultSosiValueFormatter(), new DefaultSosiLayoutFormatter(lineEnding));
+            sosiWriter.write(head);
+
+            long nextSerialNumber = firstSerialNumber;
+            long featureCount = 0;
+            for (int i = 0; i < sosiFiles.size(); i++) {
+                Path sosiFile = sosiFiles.get(i);
+                LongLongMap serialNumbers = scanSerialNumbers(sosiFile, nextSerialNumber);
+                nextSerialNumber += serialNumbers.size();
+                Rescaling rescaling = Rescaling.of(transpars.get(i), target);
+                featureCount += copyFeatures(sosiFile, new Rewriter(sosiFile, serialNumbers, rescaling), sosiWriter);
+            }
+            sosiWriter.write(element(SosiDocument.ELEMENT_END));
+            writer.flush();
+            LOGGER.debug("Merged {} feature(s) of {} file(s)", featureCount, sosiFiles.size());
+            return featureCount;
+        } catch (IOException e) {
+            throw new SosiException("Unable to write merged SOSI data", e);
+        }
+    }
+
+    private SosiElement readHead(Path sosiFile) {
+        try (InputStream in = Files.newInputStream(sosiFile);
+             SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            return reader.readElement()
+                    .filter(isHead())
+                    .orElseThrow(() -> new SosiException("%s has no head", sosiFile));
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    // Maps the serial numbers of a file to consecutive serial numbers, in file order
+    private LongLongMap scanSerialNumbers(Path sosiFile, long firstSerialNumber) {
+        LongLongMap serialNumbers = new LongLongMap();
+        long[] duplicateCount = {0};
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            new SosiStructureScanner(StandardCharsets.ISO_8859_1).scan(in, span -> span.getSerialNumber().ifPresent(serialNumber -> {
+                if (serialNumbers.containsKey(serialNumber)) {
+                    duplicateCount[0]++;
+                } else {
+                    serialNumbers.put(serialNumber, firstSerialNumber + serialNumbers.size(), NO_SERIAL_NUMBER);
+                }
+            }));
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+        if (duplicateCount[0] > 0) {
+            LOGGER.warn("{} has {} duplicate serial number(s), references go to the first feature of each", sosiFile, duplicateCount[0]);
+        }
+        return serialNumbers;
+    }
+
+    private long copyFeatures(Path sosiFile, Rewriter rewriter, SosiWriter sosiWriter) throws IOException {
+        long featureCount = 0;
+        try (InputStream in = Files.newInputStream(sosiFile);
+             SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                if (isHead().test(element.get())) {
+                    continue;
+                }
+                rewriter.rewrite(element.get());
+                sosiWriter.write(element.get());
+                featureCount++;
+            }
+        }
+        if (rewriter.roundedCount > 0) {
+            LOGGER.warn("{} coordinate value(s) of {} were rounded when rescaled", rewriter.roundedCount, sosiFile);
+        }
+        return featureCount;
+    }
+
+    // Returns the transformation of the merged file
+    private SosiTranspar reconcile(List<Path> sosiFiles, List<SosiTranspar> transpars) {
+        SosiTranspar first = transpars.get(0);
+        BigDecimal unit = first.getUnit();
+        BigDecimal heightUnit = first.getHeightUnit();
+        boolean rescaled = false;
+        for (int i = 1; i < transpars.size(); i++) {
+            SosiTranspar transpar = transpars.get(i);
+            if (!transpar.getCoordSys().equals(first.getCoordSys())) {
+                throw new SosiException("KOORDSYS of %s differs from %s", sosiFiles.get(i), sosiFiles.get(0));
+            }
+            if (!isSameScale(transpar, first)) {
+                if (!rescale) {
+                    throw new SosiException("ORIGO-NØ or ENHET of %s differs from %s, and rescaling is disabled", sosiFiles.get(i), sosiFiles.get(0));
+                }
+                unit = unit.min(transpar.getUnit());
+                heightUnit = heightUnit.min(transpar.getHeightUnit());
+                rescaled = true;
+            }
+        }
+        return rescaled ? SosiTranspar.of(first.getCoordSys().orElse(null), first.getOriginNorth(), first.getOriginEast(), unit, heightUnit) : first;
+    }
+
+    private SosiElement mergeHeads(List<SosiElement> heads, SosiTranspar firstTranspar, SosiTranspar target) {
+        SosiElement head = heads.get(0);
+        if (target != firstTranspar) {
+            Optional<SosiElement> transparElement = head.findSubElement(hasName("TRANSPAR"));
+            SosiElement transpar = transparElement.orElse(head);
+            transpar = withSubElement(transpar, element("ORIGO-NØ", number(target.getOriginNorth()), number(target.getOriginEast())));
+            transpar = withSubElement(transpar, element("ENHET", number(target.getUnit())));
+            if (target.getHeightUnit().compareTo(target.getUnit()) != 0 || transpar.findSubElement(hasName("ENHET-H")).isPresent()) {
+                transpar = withSubElement(transpar, element("ENHET-H", number(target.getHeightUnit())));
+            }
+            head = transparElement.isPresent() ? withSubElement(head, transpar) : transpar;
+        }
+
+        SosiExtent area = null;
+        for (SosiElement fileHead : heads) {
+            Optional<SosiExtent> fileArea = SosiExtents.declaredAreaOf(fileHead);
+            if (fileArea.isPresent()) {
+                area = isNull(area) ? fileArea.get() : area.union(fileArea.get());
+            }
+        }
+        if (heads.size() > 1 && !isNull(area)) {
+            head = withSubElement(head, element("OMRÅDE", Arrays.asList(
+                    element("MIN-NØ", number(area.getMinNorth()), number(area.getMinEast())),
+                    element("MAX-NØ", number(area.getMaxNorth()), number(area.getMaxEast())))));
+        }
+        return head;
+    }
+
+    // Returns a copy of the parent where the subelement of the same name is replaced, or added if missing
+    private static SosiElement withSubElement(SosiElement parent, SosiElement subElement) {
+        List<SosiElement> subElements = parent.subElements().collect(toList());
+        boolean replaced = false;
+        for (int i = 0; i < subElements.size() && !replaced; i++) {
+            if (hasName(subElement.getName()).test(subElements.get(i))) {
+                subElements.set(i, subElement);
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            subElements.add(subElement);
+        }
+        return element(parent.getName(), parent.getLocation(), subElements, parent.values().collect(toList()));
+    }
+
+    private static boolean isSameScale(SosiTranspar a, SosiTranspar b) {
+        return a.getOriginNorth().compareTo(b.getOriginNorth()) == 0 && a.getOriginEast().compareTo(b.getOriginEast()) == 0
+                && a.getUnit().compareTo(b.getUnit()) == 0 && a.getHeightUnit().compareTo(b.getHeightUnit()) == 0;
+    }
+
+    private static Charset charsetOf(SosiElement head) {
+        return head.findSubElement(hasName("TEGNSETT"))
+                .map(e -> e.getValueAs(SosiValue.class).getString())
+                .flatMap(SosiEncoding::charsetNameFromSosiValue)
+                .map(SosiCharset::forName)
+                .orElseGet(SosiEncoding::defaultCharset);
+    }
+
+    private static SosiNumber number(double value) {
+        return number(BigDecimal.valueOf(value));
+    }
+
+    private static SosiNumber number(BigDecimal value) {
+        BigDecimal stripped = value.stripTrailingZeros();
+        return stripped.scale() <= 0 && stripped.precision() - stripped.scale() <= 18
+                ? SosiValueFactory.number(stripped.longValueExact())
+                : SosiValueFactory.number(new BigDecimal(stripped.toPlainString()));
+    }
+
+    /**
+     * The conversion of coordinates of a file to the units of the merged file.
+     */
+    private static final class Rescaling {
+        private final BigDecimal northOffset;
+        private final BigDecimal eastOffset;
+        private final BigDecimal scale;
+        private final BigDecimal heightScale;
+
+        private Rescaling(BigDecimal northOffset, BigDecimal eastOffset, BigDecimal scale, BigDecimal heightScale) {
+            this.northOffset = northOffset;
+            this.eastOffset = eastOffset;
+            this.scale = scale;
+            this.heightScale = heightScale;
+        }
+
+        // Returns null if no rescaling is needed
+        private static Rescaling of(SosiTranspar source, SosiTranspar target) {
+            if (isSameScale(source, target)) {
+                return null;
+            }
+            return new Rescaling(
+                    source.getOriginNorth().subtract(target.getOriginNorth()).divide(target.getUnit(), MathContext.DECIMAL128),
+                    source.getOriginEast().subtract(target.getOriginEast()).divide(target.getUnit(), MathContext.DECIMAL128),
+                    source.getUnit().divide(target.getUnit(), MathContext.DECIMAL128),
+                    source.getHeightUnit().divide(target.getHeightUnit(), MathContext.DECIMAL128));
+        }
+
+        private BigDecimal apply(int ordinate, BigDecimal value) {
+            switch (ordinate) {
+                case 0:
+                    return northOffset.add(value.multiply(scale));
+                case 1:
+                    return eastOffset.add(value.multiply(scale));
+                default:
+                    return value.multiply(heightScale);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the features of a file in place.
+     */
+    private static final class Rewriter {
+        private final Path sosiFile;
+        private final LongLongMap serialNumbers;
+        private final Rescaling rescaling;
+        private long roundedCount;
+
+        private Rewriter(Path sosiFile, LongLongMap serialNumbers, Rescaling rescaling) {
+            this.sosiFile = sosiFile;
+            this.serialNumbers = serialNumbers;
+            this.rescaling = rescaling;
+        }
+
+        private void rewrite(SosiElement feature) {
+            feature.computeValues(values -> values.map(this::renumber));
+            rewriteSubElements(feature);
+        }
+
+        private void rewriteSubElements(SosiElement element) {
+            Iterator<SosiElement> subElements = element.subElements().iterator();
+            while (subElements.hasNext()) {
+                SosiElement subElement = subElements.next();
+                int dimension = SosiExtent.coordinateDimensionOf(subElement.getName());
+                if (dimension > 0 && !isNull(rescaling)) {
+                    int[] ordinate = {0};
+                    subElement.computeValues(values -> values.map(value -> {
+                        if (!(value instanceof SosiNumber)) {
+                            return value;
+                        }
+                        SosiValue rescaled = rescale(ordinate[0], (SosiNumber)value);
+                        ordinate[0] = (ordinate[0] + 1) % dimension;
+                        return rescaled;
+                    }));
+                } else if (subElement.values().anyMatch(value -> value instanceof SosiRefNumber || value instanceof SosiRefIsland)) {
+                    subElement.computeValues(values -> values.map(this::renumber));
+                }
+                rewriteSubElements(subElement);
+            }
+        }
+
+        private SosiValue rescale(int ordinate, SosiNumber value) {
+            BigDecimal rescaled = rescaling.apply(ordinate, value.bigDecimalValue());
+            BigDecimal rounded = rescaled.setScale(0, RoundingMode.HALF_EVEN);
+            if (rounded.compareTo(rescaled) != 0) {
+                roundedCount++;
+            }
+            return SosiValueFactory.number(rounded.longValueExact(), value.getLocation());
+        }
+
+        private SosiValue renumber(SosiValue value) {
+            if (value instanceof SosiSerialNumber) {
+                return SosiValueFactory.serialNo(serialNumberOf(((SosiSerialNumber)value).longValue()), value.getLocation());
+            } else if (value instanceof SosiRefNumber) {
+                return renumber((SosiRefNumber)value);
+            } else if (value instanceof SosiRefIsland) {
+                List<SosiRefNumber> refNumbers = new ArrayList<>();
+                Iterator<SosiRefNumber> islandRefs = ((SosiRefIsland)value).refNumbers().iterator();
+                while (islandRefs.hasNext()) {
+                    refNumbers.add(renumber(islandRefs.next()));
+                }
+                return SosiValueFactory.refIsland(refNumbers, value.getLocation());
+            }
+            return value;
+        }
+
+        private SosiRefNumber renumber(SosiRefNumber ref) {
+            long serialNumber = serialNumberOf(ref.longValue());
+            return SosiValueFactory.refNo(ref.isReversedOrder() ? -serialNumber : serialNumber, ref.getLocation());
+        }
+
+        private long serialNumberOf(long serialNumber) {
+            long renumbered = serialNumbers.get(serialNumber, NO_SERIAL_NUMBER);
+            if (renumbered == NO_SERIAL_NUMBER) {
+                throw new SosiException("%s refers to serial number %d, which is not in the file", sosiFile, serialNumber);
+            }
+            return renumbered;
+        }
+    }
+
+    /**
+     * Builds mergers.
+     */
+    public static final class Builder {
+        private long firstSerialNumber = 1;
+        private boolean rescale = true;
+        private LineEnding lineEnding = LineEnding.WINDOWS;
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the serial number of the first feature of the merged file.
+         */
+        public Builder firstSerialNumber(long firstSerialNumber) {
+            require(() -> firstSerialNumber > 0, "firstSerialNumber must be positive, was %d", firstSerialNumber);
+            this.firstSerialNumber = firstSerialNumber;
+            return this;
+        }
+
+        /**
+         * Sets whether coordinates are rescaled when the files have different ORIGO-NØ or ENHET. If not, such files can't be merged.
+         */
+        public Builder rescale(boolean rescale) {
+            this.rescale = rescale;
+            return this;
+        }
+
+        /**
+         * Sets the line ending of the merged file.
+         */
+        public Builder lineEnding(LineEnding lineEnding) {
+            this.lineEnding = requireNonNull(lineEnding, "lineEnding can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiMerger build() {
+            return new SosiMerger(this);
+        }
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.transform;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.encoding.charset.SosiCharset;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.reader.SosiValueFactory;
+import no.vegvesen.nvdb.sosi.utils.LongArrayList;
+import no.vegvesen.nvdb.sosi.utils.LongLongMap;
+import no.vegvesen.nvdb.sosi.writer.DefaultSosiLayoutFormatter;
+import no.vegvesen.nvdb.sosi.writer.DefaultSosiValueFormatter;
+import no.vegvesen.nvdb.sosi.writer.LineEnding;
+import no.vegvesen.nvdb.sosi.writer.SosiWriter;
+import no.vegvesen.nvdb.sosi.writer.SosiWriterImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.document.SosiValue.ValueType.SERNO;
+import static no.vegvesen.nvdb.sosi.reader.SosiElementFactory.element;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+
+/**
+ * Splits a SOSI file into square tiles of a grid in the coordinate system of the file, in one pass.
+ * Each tile is written to its own SOSI file, with a copy of the head where OMRÅDE is the area of the tile.
+ * The grid has its origin at northing and easting 0, after the coordinates are transformed by TRANSPAR.
+ *
+ * <p>
+ * The file is read one feature at a time, and each feature is written to the tiles given by the
+ * {@link Policy}. Tile files are written through buffers, and only a bounded number of them are open
+ * at the same time; the least recently written is closed and later reopened for appending when needed.
+ * A feature without coordinates of its own (e.g. a FLATE with REF only) is placed in the tiles of the
+ * curves it references, when these are read before it. References are otherwise kept as they are, so
+ * a tile may reference curves that are written to other tiles only.
+ *
+ * <p>
+ * Memory use is bounded by the open tiles, except for the tiles of each line feature, which are kept
+ * for placing the features referencing it. These are kept in primitive arrays, taking up to about 72 bytes
+ * per line feature plus 8 bytes per tile it is placed in.
+ *
+ * <p>
+ * The following example splits a file into 10×10 km tiles:
+ * <pre>
+ * <code>
+ * SosiTilingResult result = SosiTiler.builder()
+ *     .tileSize(10000)
+ *     .policy(SosiTiler.Policy.ALL_TOUCHED)
+ *     .build()
+ *     .split(sosiFile, tileDirectory);
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiTiler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiTiler.class);
+
+    public static final double DEFAULT_TILE_SIZE = 10000;
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final double MAX_EXACT_DOUBLE = 9007199254740992.0; // 2^53
+    private static final Set<String> LINE_ELEMENTS = new HashSet<>(Arrays.asList("KURVE", "LINJE", "BUE", "BUEP", "SIRKEL", "SIRKELP", "KLOTOIDE", "BEZIER"));
+
+    /**
+     * How features are placed in tiles.
+     */
+    public enum Policy {
+        /** A feature is written to every tile it touches, and is thus duplicated in tiles along its path. */
+        ALL_TOUCHED,
+        /** A feature is written to the tile of its first point only. */
+        FIRST_POINT
+    }
+
+    private final double tileSize;
+    private final Policy policy;
+    private final int maxOpenFiles;
+    private final int bufferSize;
+    private final LineEnding lineEnding;
+    private final String fileNamePrefix;
+    private final SosiParserConfig parserConfig;
+
+    private SosiTiler(Builder builder) {
+        this.tileSize = builder.tileSize;
+        this.policy = builder.policy;
+        this.maxOpenFiles = builder.maxOpenFiles;
+        this.bufferSize = builder.bufferSize;
+        this.lineEnding = builder.lineEnding;
+        this.fileNamePrefix = builder.fileNamePrefix;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, i.e. 10000×10000 tiles with features written to all tiles they touch
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Splits a SOSI file into tiles.
+     *
+     * @param sosiFile the SOSI file
+     * @param directory the directory of the tile files, created if missing. Existing tile files are replaced.
+     * @return the tiles written
+     * @throws SosiException if the files can't be read or written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the SOSI file is malformed
+     */
+    public SosiTilingResult split(Path sosiFile, Path directory) {
+        requireNonNull(sosiFile, "sosiFile can't be null");
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return split(in, directory);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Splits SOSI data into tiles.
+     *
+     * @param in the SOSI data, starting with the head
+     * @param directory the directory of the tile files, created if missing. Existing tile files are replaced.
+     * @return the tiles written
+     * @throws SosiException if there is no head, or the tile files can't be written
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the SOSI data is malformed
+     */
+    public SosiTilingResult split(InputStream in, Path directory) {
+        requireNonNull(in, "in can't be null");
+        requireNonNull(directory, "directory can't be null");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new SosiException("Unable to create " + directory, e);
+        }
+
+        try (SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            SosiElement head = reader.readElement()
+                    .filter(isHead())
+                    .orElseThrow(() -> new SosiException("SOSI data to split must start with a head"));
+            try (Split split = new Split(head, directory)) {
+                Optional<SosiElement> feature;
+                while ((feature = reader.readElement()).isPresent()) {
+                    split.place(feature.get());
+                }
+                return split.finish();
+            }
+        }
+    }
+
+    /**
+     * The state of splitting one file.
+     */
+    private final class Split implements AutoCloseable {
+        private static final long NO_TILES = -1;
+
+        private final SosiElement head;
+        private final Path directory;
+        private final SosiTranspar transpar;
+        private final Charset charset;
+        private final Map<Long, TileOutput> tiles = new HashMap<>();
+        private final LinkedHashMap<Long, TileOutput> openTiles = new LinkedHashMap<>(16, 0.75f, true);
+        // The tiles of each line, by serial number: an index into lineTiles, holding the tile count followed by the tiles
+        private final LongLongMap tilesOfLines = new LongLongMap();
+        private final LongArrayList lineTiles = new LongArrayList();
+        private long[] keys = new long[16];
+        private int keyCount;
+        private long featureCount;
+        private long unplacedCount;
+
+        private Split(SosiElement head, Path directory) {
+            this.head = head;
+            this.directory = directory;
+            this.transpar = SosiTranspar.of(head);
+            this.charset = head.findSubElement(hasName("TEGNSETT"))
+                    .map(e -> e.getValueAs(SosiValue.class).getString())
+                    .flatMap(SosiEncoding::charsetNameFromSosiValue)
+                    .map(SosiCharset::forName)
+                    .orElseGet(SosiEncoding::defaultCharset);
+        }
+
+        private void place(SosiElement feature) {
+            featureCount++;
+            keyCount = 0;
+            addCoordinateTiles(feature);
+            if (keyCount == 0 || policy == Policy.ALL_TOUCHED) {
+                addReferencedTiles(feature);
+                if (policy == Policy.FIRST_POINT) {
+                    keyCount = Math.min(keyCount, 1);
+                }
+            }
+            if (keyCount == 0) {
+                unplacedCount++;
+                return;
+            }
+
+            Arrays.sort(keys, 0, keyCount);
+            int distinctCount = 1;
+            for (int i = 1; i < keyCount; i++) {
+                if (keys[i] != keys[distinctCount - 1]) {
+                    keys[distinctCount++] = keys[i];
+                }
+            }
+            keyCount = distinctCount;
+
+            if (isLine(feature)) {
+                Iterator<SosiValue> serialNumbers = feature.values().filter(isType(SERNO)).iterator();
+                if (serialNumbers.hasNext()) {
+                    tilesOfLines.put(((SosiSerialNumber)serialNumbers.next()).longValue(), lineTiles.size(), NO_TILES);
+                    lineTiles.add(keyCount);
+                    for (int i = 0; i < keyCount; i++) {
+                        lineTiles.add(keys[i]);
+                    }
+                }
+            }
+            for (int i = 0; i < keyCount; i++) {
+                tileOf(keys[i]).write(feature);
+            }
+        }
+
+        private SosiTilingResult finish() {
+            List<SosiTilingResult.Tile> result = new ArrayList<>(tiles.size());
+            List<TileOutput> outputs = new ArrayList<>(tiles.values());
+            outputs.sort(Comparator.comparingInt((TileOutput t) -> t.row).thenComparingInt(t -> t.column));
+            for (TileOutput output : outputs) {
+                output.write(element(SosiDocument.ELEMENT_END));
+                output.close();
+                result.add(new SosiTilingResult.Tile(output.row, output.column, output.path, areaOf(output.row, output.column), output.featureCount));
+            }
+            if (unplacedCount > 0) {
+                LOGGER.warn("{} feature(s) without coordinates were not written to any tile", unplacedCount);
+            }
+            LOGGER.debug("Split {} feature(s) into {} tile(s)", featureCount, result.size());
+            return new SosiTilingResult(result, featureCount, unplacedCount);
+        }
+
+        @Override
+        public void close() {
+            for (TileOutput output : new ArrayList<>(openTiles.values())) {
+                output.close();
+            }
+        }
+
+        private void addCoordinateTiles(SosiElement feature) {
+            boolean connected = policy == Policy.ALL_TOUCHED && isLine(feature);
+            boolean first = true;
+            double previousNorth = 0;
+            double previousEast = 0;
+
+            Iterator<SosiElement> subElements = feature.subElements().iterator();
+            while (subElements.hasNext()) {
+                SosiElement subElement = subElements.next();
+                int dimension = SosiExtent.coordinateDimensionOf(subElement.getName());
+                if (dimension == 0) {
+                    continue;
+                }
+                Iterator<SosiValue> values = subElement.values().iterator();
+                int ordinate = 0;
+                double north = 0;
+                while (values.hasNext()) {
+                    SosiValue value = values.next();
+                    if (!(value instanceof SosiNumber)) {
+                        continue;
+                    }
+                    if (ordinate == 0) {
+                        north = transpar.north(((SosiNumber)value).doubleValue());
+                    } else if (ordinate == 1) {
+                        double east = transpar.east(((SosiNumber)value).doubleValue());
+                        if (policy == Policy.FIRST_POINT) {
+                            addTile(tileIndexOf(north), tileIndexOf(east));
+                            return;
+                        }
+                        if (connected && !first) {
+                            addSegmentTiles(previousNorth, previousEast, north, east);
+                        } else {
+                            addTile(tileIndexOf(north), tileIndexOf(east));
+                        }
+                        previousNorth = north;
+                        previousEast = east;
+                        first = false;
+                    }
+                    ordinate = (ordinate + 1) % dimension;
+                }
+            }
+        }
+
+        // Adds the tiles crossed by a segment, by stepping from tile to tile along it
+        private void addSegmentTiles(double fromNorth, double fromEast, double toNorth, double toEast) {
+            int row = tileIndexOf(fromNorth);
+            int column = tileIndexOf(fromEast);
+            int toRow = tileIndexOf(toNorth);
+            int toColumn = tileIndexOf(toEast);
+            addTile(row, column);
+
+            double deltaNorth = toNorth - fromNorth;
+            double deltaEast = toEast - fromEast;
+            int rowStep = deltaNorth > 0 ? 1 : -1;
+            int columnStep = deltaEast > 0 ? 1 : -1;
+            double nextRowAt = deltaNorth == 0 ? Double.POSITIVE_INFINITY : ((row + (deltaNorth > 0 ? 1 : 0)) * tileSize - fromNorth) / deltaNorth;
+            double nextColumnAt = deltaEast == 0 ? Double.POSITIVE_INFINITY : ((column + (deltaEast > 0 ? 1 : 0)) * tileSize - fromEast) / deltaEast;
+            double rowDistance = tileSize / Math.abs(deltaNorth);
+            double columnDistance = tileSize / Math.abs(deltaEast);
+
+            long steps = Math.abs((long)toRow - row) + Math.abs((long)toColumn - column);
+            for (long step = 0; step < steps && (row != toRow || column != toColumn); step++) {
+                if (nextRowAt < nextColumnAt) {
+                    row += rowStep;
+                    nextRowAt += rowDistance;
+                } else {
+                    column += columnStep;
+                    nextColumnAt += columnDistance;
+                }
+                addTile(row, column);
+            }
+            addTile(toRow, toColumn);
+        }
+
+        private void addReferencedTiles(SosiElement feature) {
+            Iterator<SosiElement> refElements = feature.findSubElements(hasName("REF")).iterator();
+            while (refElements.hasNext()) {
+                Iterator<SosiValue> values = refElements.next().values().iterator();
+                while (values.hasNext()) {
+                    SosiValue value = values.next();
+                    if (value instanceof SosiRefNumber) {
+                        addReferencedTiles((SosiRefNumber)value);
+                    } else if (value instanceof SosiRefIsland) {
+                        Iterator<SosiRefNumber> islandRefs = ((SosiRefIsland)value).refNumbers().iterator();
+                        while (islandRefs.hasNext()) {
+                            addReferencedTiles(islandRefs.next());
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addReferencedTiles(SosiRefNumber ref) {
+            long index = tilesOfLines.get(ref.longValue(), NO_TILES);
+            if (index != NO_TILES) {
+                int count = (int)lineTiles.get((int)index);
+                for (int i = 1; i <= count; i++) {
+                    addKey(lineTiles.get((int)index + i));
+                }
+            }
+        }
+
+        private void addTile(int row, int column) {
+            addKey(((long)row << 32) | (column & 0xFFFFFFFFL));
+        }
+
+        private void addKey(long key) {
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+            }
+            keys[keyCount++] = key;
+        }
+
+        private TileOutput tileOf(long key) {
+            TileOutput output = tiles.get(key);
+            if (isNull(output)) {
+                int row = (int)(key >> 32);
+                int column = (int)key;
+                output = new TileOutput(key, row, column, directory.resolve(fileNamePrefix + row + "_" + column + ".sos"));
+                tiles.put(key, output);
+            }
+            return output;
+        }
+
+        private SosiElement headOf(int row, int column) {
+            SosiExtent area = areaOf(row, column);
+            SosiElement areaElement = element("OMRÅDE", Arrays.asList(
+                    element("MIN-NØ", number(area.getMinNorth()), number(area.getMinEast())),
+                    element("MAX-NØ", number(area.getMaxNorth()), number(area.getMaxEast()))));
+
+            List<SosiElement> subElements = head.subElements().collect(toList());
+            int areaIndex = subElements.indexOf(head.findSubElement(hasName("OMRÅDE")).orElse(null));
+            if (areaIndex >= 0) {
+                subElements.set(areaIndex, areaElement);
+            } else {
+                subElements.add(areaElement);
+            }
+            return element(head.getName(), SosiLocation.unknown(), subElements, head.values().collect(toList()));
+        }
+
+        /**
+         * A tile file. Its writer is null while the file is closed.
+         */
+        private final class TileOutput {
+            private final long key;
+            private final int row;
+            private final int column;
+            private final Path path;
+            private long featureCount;
+            private boolean created;
+            private SosiWriter writer;
+
+            private TileOutput(long key, int row, int column, Path path) {
+                this.key = key;
+                this.row = row;
+                this.column = column;
+                this.path = path;
+            }
+
+            private void write(SosiElement feature) {
+                if (isNull(writer)) {
+                    open();
+                } else {
+                    openTiles.get(key);
+                }
+                writer.write(feature);
+                if (!isHead().test(feature) && !hasName(SosiDocument.ELEMENT_END).test(feature)) {
+                    featureCount++;
+                }
+            }
+
+            private void open() {
+                if (openTiles.size() >= maxOpenFiles) {
+                    openTiles.values().iterator().next().close();
+                }
+                OpenOption[] options = created
+                        ? new OpenOption[] {StandardOpenOption.APPEND}
+                        : new OpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE};
+                try {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path, options), charset), bufferSize);
+                    if (created) {
+                        // The layout formatter doesn't know that it continues a file
+                        out.write(lineEnding.getCharSequence());
+                    }
+                    writer = new SosiWriterImpl(out, new DefaultSosiValueFormatter(), new DefaultSosiLayoutFormatter(lineEnding));
+                } catch (IOException e) {
+                    throw new SosiException("Unable to open " + path, e);
+                }
+                openTiles.put(key, this);
+                if (!created) {
+                    created = true;
+                    writer.write(headOf(row, column));
+                }
+            }
+
+            private void close() {
+                if (nonNull(writer)) {
+                    openTiles.remove(key);
+                    SosiWriter closing = writer;
+                    writer = null;
+                    closing.close();
+                }
+            }
+        }
+    }
+
+    private SosiExtent areaOf(int row, int column) {
+        return SosiExtent.of(row * tileSize, column * tileSize, (row + 1) * tileSize, (column + 1) * tileSize);
+    }
+
+    private int tileIndexOf(double value) {
+        return (int)Math.floor(value / tileSize);
+    }
+
+    private static boolean isLine(SosiElement feature) {
+        return LINE_ELEMENTS.contains(feature.getName().toUpperCase());
+    }
+
+    private static SosiNumber number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < MAX_EXACT_DOUBLE
+                ? SosiValueFactory.number((long)value)
+                : SosiValueFactory.number(BigDecimal.valueOf(value));
+    }
+
+    /**
+     * Builds tilers.
+     */
+    public static final class Builder {
+        private double tileSize = DEFAULT_TILE_SIZE;
+        private Policy policy = Policy.ALL_TOUCHED;
+        private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private LineEnding lineEnding = LineEnding.WINDOWS;
+        private String fileNamePrefix = "tile_";
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the width and height of the tiles, in the units of the coordinate system.
+         */
+        public Builder tileSize(double tileSize) {
+            require(() -> tileSize > 0 && !Double.isInfinite(tileSize), "tileSize must be positive, was %s", tileSize);
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * Sets how features are placed in tiles.
+         */
+        public Builder policy(Policy policy) {
+            this.policy = requireNonNull(policy, "policy can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of tile files open at the same time.
+         */
+        public Builder maxOpenFiles(int maxOpenFiles) {
+            require(() -> maxOpenFiles > 0, "maxOpenFiles must be positive, was %d", maxOpenFiles);
+            this.maxOpenFiles = maxOpenFiles;
+            return this;
+        }
+
+        /**
+         * Sets the size of the buffer of each open tile file, in characters.
+         */
+        public Builder bufferSize(int bufferSize) {
+            require(() -> bufferSize > 0, "bufferSize must be positive, was %d", bufferSize);
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Sets the line ending of the tile files.
+         */
+        public Builder lineEnding(LineEnding lineEnding) {
+            this.lineEnding = requireNonNull(lineEnding, "lineEnding can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the prefix of the names of the tile files, which are followed by the row and column of the tile, e.g. tile_703_56.sos.
+         */
+        public Builder fileNamePrefix(String fileNamePrefix) {
+            this.fileNamePrefix = requireNonNull(fileNamePrefix, "fileNamePrefix can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiTiler build() {
+            return new SosiTiler(this);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.transform;
+
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The result of splitting a SOSI file into tiles with a {@link SosiTiler}.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiTilingResult {
+    private final List<Tile> tiles;
+    private final long featureCount;
+    private final long unplacedCount;
+
+    SosiTilingResult(List<Tile> tiles, long featureCount, long unplacedCount) {
+        this.tiles = Collections.unmodifiableList(requireNonNull(tiles, "tiles can't be null"));
+        this.featureCount = featureCount;
+        this.unplacedCount = unplacedCount;
+    }
+
+    /**
+     * @return the tiles written, ordered by row and column
+     */
+    public List<Tile> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * @return the number of features read, excluding the head
+     */
+    public long getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @return the number of features not written to any tile, having no coordinates nor references to features already placed
+     */
+    public long getUnplacedCount() {
+        return unplacedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiTilingResult(" + tiles.size() + " tile(s), " + featureCount + " feature(s), " + unplacedCount + " unplaced)";
+    }
+
+    /**
+     * A tile of the grid, written to its own SOSI file.
+     */
+    public static final class Tile {
+        private final int row;
+        private final int column;
+        private final Path path;
+        private final SosiExtent area;
+        private final long featureCount;
+
+        Tile(int row, int column, Path path, SosiExtent area, long featureCount) {
+            this.row = row;
+            this.column = column;
+            this.path = path;
+            this.area = area;
+            this.featureCount = featureCount;
+        }
+
+        /**
+         * @return the index of the tile along the north axis, i.e. the minimum northing divided by the tile size
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @return the index of the tile along the east axis, i.e. the minimum easting divided by the tile size
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the area of the tile, as written to OMRÅDE, in the units of the coordinate system
+         */
+        public SosiExtent getArea() {
+            return area;
+        }
+
+        public long getFeatureCount() {
+            return featureCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Tile(" + row + ", " + column + ": " + path + ", " + featureCount + " feature(s))";
+        }
+    }
+}
@@ -25,6 +25,8 @@
  */
 package no.vegvesen.nvdb.sosi.utils;
 
+import no.vegvesen.nvdb.sosi.metrics.SosiMetrics;
+
 import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -39,10 +41,36 @@ import static java.util.Objects.nonNull;
  * @author Tore Eide Andersen (Kantega AS)
  */
 public class BufferPoolImpl implements BufferPool {
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final int bufferSize;
+    private final SosiMetrics metrics;
 
     // volatile since multiple threads may access queue reference
     private volatile WeakReference<ConcurrentLinkedQueue<char[]>> queue;
 
+    public BufferPoolImpl() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a pool handing out buffers of the specified size.
+     * @param bufferSize the size of new buffers (in chars)
+     */
+    public BufferPoolImpl(int bufferSize) {
+        this(bufferSize, null);
+    }
+
+    /**
+     * Creates a pool handing out buffers of the specified size, reporting whether taken buffers were reused.
+     * @param bufferSize the size of new buffers (in chars)
+     * @param metrics the metrics to report to, or null
+     */
+    public BufferPoolImpl(int bufferSize, SosiMetrics metrics) {
+        this.bufferSize = bufferSize;
+        this.metrics = metrics;
+    }
+
     /**
      * Gets a new object from the pool.
      *
@@ -55,8 +83,11 @@ public class BufferPoolImpl implements BufferPool {
     @Override
     public final char[] take() {
         char[] t = getQueue().poll();
+        if (nonNull(metrics)) {
+            metrics.bufferTaken(nonNull(t));
+        }
         if (isNull(t))
-            return new char[4096];
+            return new char[bufferSize];
         return t;
     }
 
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.utils;
+
+import java.util.Arrays;
+
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+
+/**
+ * A set of longs, using open addressing in a primitive array. Values are never boxed, so
+ * a set of n values takes about 16n bytes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class LongHashSet {
+    private static final long EMPTY = 0;
+
+    private long[] values;
+    private int mask;
+    private int size;
+    private boolean hasEmptyValue;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of values to hold without resizing
+     */
+    public LongHashSet(int expectedSize) {
+        require(() -> expectedSize >= 0, "expectedSize can't be negative, was %d", expectedSize);
+        int capacity = Integer.highestOneBit(Math.max(2 * expectedSize, 8) - 1) << 1;
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return true if the value was added, false if already in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (hasEmptyValue) {
+                return false;
+            }
+            hasEmptyValue = true;
+            size++;
+            return true;
+        }
+        int slot = slotOf(value);
+        if (values[slot] == value) {
+            return false;
+        }
+        values[slot] = value;
+        if (++size > (mask + 1) / 2) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        return value == EMPTY ? hasEmptyValue : values[slotOf(value)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, EMPTY);
+        hasEmptyValue = false;
+        size = 0;
+    }
+
+    // Returns the slot of the value, or of the empty slot where it belongs
+    private int slotOf(long value) {
+        int slot = mix(value) & mask;
+        while (values[slot] != EMPTY && values[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldValues = values;
+        values = new long[2 * oldValues.length];
+        mask = values.length - 1;
+        for (long value : oldValues) {
+            if (value != EMPTY) {
+                values[slotOf(value)] = value;
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.validation;
+
+import no.vegvesen.nvdb.sosi.utils.LongHashSet;
+
+import java.util.BitSet;
+
+/**
+ * A set of serial numbers. Serial numbers are usually dense from 1, so those below a limit
+ * are held in a bitmap taking one bit per number, and only the others in a hash set.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+final class SerialNumberSet {
+    // Bounds the bitmap to 8 MB
+    private static final long DENSE_LIMIT = 1L << 26;
+
+    private final BitSet dense = new BitSet();
+    private final LongHashSet sparse = new LongHashSet();
+    private long size;
+
+    /**
+     * @return true if the serial number was added, false if already in the set
+     */
+    boolean add(long serialNumber) {
+        if (serialNumber >= 0 && serialNumber < DENSE_LIMIT) {
+            int index = (int)serialNumber;
+            if (dense.get(index)) {
+                return false;
+            }
+            dense.set(index);
+        } else if (!sparse.add(serialNumber)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    boolean contains(long serialNumber) {
+        return serialNumber >= 0 && serialNumber < DENSE_LIMIT
+                ? dense.get((int)serialNumber)
+                : sparse.contains(serialNumber);
+    }
+
+    long size() {
+        return size;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.validation;
+
+import no.vegvesen.nvdb.sosi.SosiLocation;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A problem found by {@link SosiValidator}.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiProblem {
+
+    public enum Type {
+        /** A feature has the serial number of an earlier feature */
+        DUPLICATE_SERIAL_NUMBER,
+        /** A REF refers to a serial number no feature has */
+        MISSING_REFERENCE,
+        /** A REF refers to a feature which is not a line (KURVE, BUE, BUEP or KLOTOIDE) */
+        NON_CURVE_REFERENCE,
+        /** The curves of a ring of a FLATE don't connect end to end */
+        UNCLOSED_RING,
+        /** A coordinate is outside the OMRÅDE of the head */
+        OUTSIDE_AREA,
+        /** The number of values of NØ, NØH or NØD is not a multiple of its dimension */
+        INVALID_COORDINATE_COUNT,
+        /** KOORDSYS is not a known coordinate system */
+        UNKNOWN_COORDSYS
+    }
+
+    private final Type type;
+    private final SosiLocation location;
+    private final String message;
+
+    SosiProblem(Type type, SosiLocation location, String message) {
+        this.type = requireNonNull(type, "type can't be null");
+        this.location = requireNonNull(location, "location can't be null");
+        this.message = requireNonNull(message, "message can't be null");
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public SosiLocation getLocation() {
+        return location;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return type + " at " + location + ": " + message;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.validation;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The problems found by {@link SosiValidator}.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiValidationResult {
+    private final long featureCount;
+    private final long[] problemCounts;
+    private final List<SosiProblem> problems;
+
+    SosiValidationResult(long featureCount, long[] problemCounts, List<SosiProblem> problems) {
+        this.featureCount = featureCount;
+        this.problemCounts = requireNonNull(problemCounts, "problemCounts can't be null");
+        this.problems = Collections.unmodifiableList(requireNonNull(problems, "problems can't be null"));
+    }
+
+    /**
+     * @return the number of features read, excluding the head
+     */
+    public long getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @return the number of problems found, including those not kept
+     */
+    public long getProblemCount() {
+        long count = 0;
+        for (long problemCount : problemCounts) {
+            count += problemCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of problems of a type found, including those not kept
+     */
+    public long getProblemCount(SosiProblem.Type type) {
+        requireNonNull(type, "type can't be null");
+        return problemCounts[type.ordinal()];
+    }
+
+    /**
+     * @return the first problems found, up to the maximum number kept
+     */
+    public List<SosiProblem> getProblems() {
+        return problems;
+    }
+
+    public boolean isValid() {
+        return getProblemCount() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SosiValidationResult(" + featureCount + " feature(s), " + getProblemCount() + " problem(s))";
+    }
+}
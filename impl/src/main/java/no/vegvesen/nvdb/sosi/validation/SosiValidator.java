@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.validation;
+
+import no.vegvesen.nvdb.sosi.CoordSys;
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.SosiLocation;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiNumber;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.utils.LongArrayList;
+import no.vegvesen.nvdb.sosi.utils.LongLongMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+import static no.vegvesen.nvdb.sosi.utils.Argument.require;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+
+/**
+ * Validates a SOSI file in one streaming pass, reporting the problems found with their location.
+ *
+ * <p>
+ * The checks are:
+ * <ul>
+ *     <li>KOORDSYS of the head is a known coordinate system</li>
+ *     <li>no two features have the same serial number</li>
+ *     <li>each REF refers to a line feature (KURVE, BUE, BUEP or KLOTOIDE) of the file</li>
+ *     <li>the curves of each ring of a FLATE connect end to end</li>
+ *     <li>the number of values of NØ, NØH and NØD is a multiple of 2, 3 and 3</li>
+ *     <li>all coordinates are within OMRÅDE of the head, if any</li>
+ * </ul>
+ *
+ * <p>
+ * Features are read one at a time, and only their serial numbers (in a bitmap, or a primitive hash set
+ * for sparse serial numbers) and the end points of lines are kept. References to features later in the
+ * file are deferred until the end, so their problems are reported after the others.
+ *
+ * <pre>
+ * <code>
+ * SosiValidationResult result = SosiValidator.builder().build().validate(sosiFile);
+ * result.getProblems().forEach(problem -&gt; LOGGER.warn("{}", problem));
+ * </code>
+ * </pre>
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public final class SosiValidator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SosiValidator.class);
+
+    public static final int DEFAULT_MAX_PROBLEMS = 1000;
+
+    private static final Set<String> LINE_FEATURES = new HashSet<>(Arrays.asList("KURVE", "BUE", "BUEP", "KLOTOIDE"));
+    private static final long NOT_FOUND = -1;
+
+    private final int maxProblems;
+    private final SosiParserConfig parserConfig;
+
+    private SosiValidator(Builder builder) {
+        this.maxProblems = builder.maxProblems;
+        this.parserConfig = builder.parserConfig;
+    }
+
+    /**
+     * @return a builder initialized with the default configuration, keeping the first 1000 problems
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Validates a SOSI file.
+     *
+     * @param sosiFile the file
+     * @return the problems found
+     * @throws SosiException if the file can't be read
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the file is malformed
+     */
+    public SosiValidationResult validate(Path sosiFile) {
+        requireNonNull(sosiFile, "sosiFile can't be null");
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return validate(in, null);
+        } catch (IOException e) {
+            throw new SosiException("Unable to read " + sosiFile, e);
+        }
+    }
+
+    /**
+     * Validates SOSI data, passing each problem to a consumer as it is found. The stream is closed.
+     *
+     * @param in the SOSI data
+     * @param problemConsumer receives each problem found, including those not kept in the result, or null
+     * @return the problems found
+     * @throws no.vegvesen.nvdb.sosi.parser.SosiParsingException if the data is malformed
+     */
+    public SosiValidationResult validate(InputStream in, Consumer<SosiProblem> problemConsumer) {
+        requireNonNull(in, "in can't be null");
+        Validation validation = new Validation(problemConsumer);
+        try (SosiReader reader = Sosi.createReader(in, parserConfig)) {
+            Optional<SosiElement> element;
+            while ((element = reader.readElement()).isPresent()) {
+                if (isHead().test(element.get())) {
+                    validation.checkHead(element.get());
+                } else {
+                    validation.checkFeature(element.get());
+                }
+            }
+        }
+        validation.finish();
+
+        SosiValidationResult result = new SosiValidationResult(validation.featureCount, validation.problemCounts, validation.problems);
+        LOGGER.debug("Validated {}", result);
+        return result;
+    }
+
+    // The state of one validation
+    private final class Validation {
+        private final Consumer<SosiProblem> problemConsumer;
+        private final long[] problemCounts = new long[SosiProblem.Type.values().length];
+        private final List<SosiProblem> problems = new ArrayList<>();
+        private long featureCount;
+
+        private SosiTranspar transpar = SosiTranspar.identity();
+        private SosiExtent area;
+
+        private final SerialNumberSet features = new SerialNumberSet();
+        private final SerialNumberSet lines = new SerialNumberSet();
+        // The serial numbers of lines, mapped to the index of their end points
+        private final LongLongMap lineIndexes = new LongLongMap();
+        private final LongArrayList lineStarts = new LongArrayList();
+        private final LongArrayList lineEnds = new LongArrayList();
+
+        // The serial number, line, column and offset of each reference to a feature not yet read
+        private final LongArrayList deferredReferences = new LongArrayList();
+        private final List<Ring> deferredRings = new ArrayList<>();
+
+        Validation(Consumer<SosiProblem> problemConsumer) {
+            this.problemConsumer = problemConsumer;
+        }
+
+        void checkHead(SosiElement head) {
+            SosiElement transparElement = head.findSubElement(hasName("TRANSPAR")).orElse(head);
+            transparElement.findSubElement(hasName("KOORDSYS")).ifPresent(coordSys -> {
+                if (!isKnownCoordSys(coordSys)) {
+                    report(SosiProblem.Type.UNKNOWN_COORDSYS, coordSys.getLocation(), "KOORDSYS %s is not a known coordinate system",
+                            coordSys.values().map(SosiValue::getString).findFirst().orElse(""));
+                }
+            });
+            try {
+                transpar = SosiTranspar.of(head);
+                area = SosiExtents.declaredAreaOf(head).orElse(null);
+            } catch (SosiException | ClassCastException | IllegalStateException e) {
+                LOGGER.warn("Coordinates are not checked against OMRÅDE, as TRANSPAR or OMRÅDE is malformed: {}", e.getMessage());
+            }
+        }
+
+        void checkFeature(SosiElement feature) {
+            featureCount++;
+            Optional<SosiSerialNumber> serialNumber = feature.values()
+                    .filter(SosiSerialNumber.class::isInstance)
+                    .map(SosiSerialNumber.class::cast)
+                    .findFirst();
+            boolean line = false;
+            if (serialNumber.isPresent()) {
+                long serialNo = serialNumber.get().longValue();
+                if (!features.add(serialNo)) {
+                    report(SosiProblem.Type.DUPLICATE_SERIAL_NUMBER, serialNumber.get().getLocation(), "%s %d: serial number is already used", feature.getName(), serialNo);
+                } else if (LINE_FEATURES.contains(feature.getName())) {
+                    lines.add(serialNo);
+                    line = true;
+                }
+            }
+            checkCoordinates(feature, line ? serialNumber.get().longValue() : NOT_FOUND);
+            checkReferences(feature);
+        }
+
+        private void checkCoordinates(SosiElement feature, long lineSerialNo) {
+            boolean hasPoint = false;
+            boolean outsideReported = false;
+            long start = 0;
+            long end = 0;
+
+            Iterator<SosiElement> subElements = feature.subElements().iterator();
+            while (subElements.hasNext()) {
+                SosiElement subElement = subElements.next();
+                int dimension = SosiExtent.coordinateDimensionOf(subElement.getName());
+                if (dimension == 0) {
+                    continue;
+                }
+                int count = 0;
+                double north = 0;
+                double east = 0;
+                Iterator<SosiValue> values = subElement.values().iterator();
+                while (values.hasNext()) {
+                    SosiValue value = values.next();
+                    int ordinate = count++ % dimension;
+                    if (!(value instanceof SosiNumber) || ordinate > 1) {
+                        continue;
+                    }
+                    if (ordinate == 0) {
+                        north = ((SosiNumber)value).doubleValue();
+                        continue;
+                    }
+                    east = ((SosiNumber)value).doubleValue();
+                    end = pointKey(north, east);
+                    if (!hasPoint) {
+                        start = end;
+                        hasPoint = true;
+                    }
+                    if (!outsideReported && !isWithinArea(north, east)) {
+                        report(SosiProblem.Type.OUTSIDE_AREA, value.getLocation(), "%s: point %s %s is outside OMRÅDE %s",
+                                feature.getName(), transpar.north(north), transpar.east(east), area);
+                        outsideReported = true;
+                    }
+                }
+                if (count % dimension != 0) {
+                    report(SosiProblem.Type.INVALID_COORDINATE_COUNT, subElement.getLocation(), "%s: %s has %d values, which is not a multiple of %d",
+                            feature.getName(), subElement.getName(), count, dimension);
+                }
+            }
+
+            if (lineSerialNo != NOT_FOUND && hasPoint) {
+                lineIndexes.put(lineSerialNo, lineStarts.size(), NOT_FOUND);
+                lineStarts.add(start);
+                lineEnds.add(end);
+            }
+        }
+
+        private boolean isWithinArea(double north, double east) {
+            if (isNull(area)) {
+                return true;
+            }
+            double n = transpar.north(north);
+            double e = transpar.east(east);
+            return n >= area.getMinNorth() && n <= area.getMaxNorth() && e >= area.getMinEast() && e <= area.getMaxEast();
+        }
+
+        private void checkReferences(SosiElement feature) {
+            LongArrayList outerRing = new LongArrayList();
+            List<LongArrayList> islands = new ArrayList<>();
+            SosiLocation location = null;
+            boolean deferred = false;
+
+            Iterator<SosiElement> refs = feature.findSubElements(hasName("REF")).iterator();
+            while (refs.hasNext()) {
+                SosiElement ref = refs.next();
+                location = isNull(location) ? ref.getLocation() : location;
+                Iterator<SosiValue> values = ref.values().iterator();
+                while (values.hasNext()) {
+                    SosiValue value = values.next();
+                    if (value instanceof SosiRefIsland) {
+                        LongArrayList island = new LongArrayList();
+                        Iterator<SosiRefNumber> refNumbers = ((SosiRefIsland)value).refNumbers().iterator();
+                        while (refNumbers.hasNext()) {
+                            deferred |= checkReference(refNumbers.next(), island);
+                        }
+                        islands.add(island);
+                    } else if (value instanceof SosiRefNumber) {
+                        deferred |= checkReference((SosiRefNumber)value, outerRing);
+                    }
+                }
+            }
+
+            if (isNull(location) || !feature.getName().equals("FLATE")) {
+                return;
+            }
+            List<LongArrayList> rings = new ArrayList<>(islands.size() + 1);
+            if (!outerRing.isEmpty()) {
+                rings.add(outerRing);
+            }
+            rings.addAll(islands);
+            for (LongArrayList ring : rings) {
+                Ring r = new Ring(ring.toArray(), location);
+                if (deferred) {
+                    deferredRings.add(r);
+                } else {
+                    checkRing(r);
+                }
+            }
+        }
+
+        // Returns true if the reference is deferred
+        private boolean checkReference(SosiRefNumber refNumber, LongArrayList ring) {
+            long serialNo = refNumber.longValue();
+            ring.add(refNumber.isReversedOrder() ? -serialNo : serialNo);
+            if (!features.contains(serialNo)) {
+                SosiLocation location = refNumber.getLocation();
+                deferredReferences.add(serialNo);
+                deferredReferences.add(isNull(location) ? 0 : location.getLineNumber());
+                deferredReferences.add(isNull(location) ? 0 : location.getColumnNumber());
+                deferredReferences.add(isNull(location) ? 0 : location.getStreamOffset());
+                return true;
+            }
+            if (!lines.contains(serialNo)) {
+                reportNonCurveReference(serialNo, refNumber.getLocation());
+            }
+            return false;
+        }
+
+        private void checkRing(Ring ring) {
+            long firstStart = 0;
+            long previousEnd = 0;
+            for (int i = 0; i < ring.refs.length; i++) {
+                long index = lineIndexes.get(Math.abs(ring.refs[i]), NOT_FOUND);
+                if (index == NOT_FOUND) {
+                    // Missing or not a line, which is reported as such, or without coordinates
+                    return;
+                }
+                boolean reversed = ring.refs[i] < 0;
+                long start = reversed ? lineEnds.get((int)index) : lineStarts.get((int)index);
+                long end = reversed ? lineStarts.get((int)index) : lineEnds.get((int)index);
+                if (i == 0) {
+                    firstStart = start;
+                } else if (start != previousEnd) {
+                    reportUnclosedRing(ring);
+                    return;
+                }
+                previousEnd = end;
+            }
+            if (ring.refs.length > 0 && previousEnd != firstStart) {
+                reportUnclosedRing(ring);
+            }
+        }
+
+        void finish() {
+            for (int i = 0; i < deferredReferences.size(); i += 4) {
+                long serialNo = deferredReferences.get(i);
+                SosiLocation location = SosiLocation.of(deferredReferences.get(i + 1), deferredReferences.get(i + 2), deferredReferences.get(i + 3));
+                if (!features.contains(serialNo)) {
+                    report(SosiProblem.Type.MISSING_REFERENCE, location, "REF :%d refers to no feature", serialNo);
+                } else if (!lines.contains(serialNo)) {
+                    reportNonCurveReference(serialNo, location);
+                }
+            }
+            deferredRings.forEach(this::checkRing);
+        }
+
+        private void reportNonCurveReference(long serialNo, SosiLocation location) {
+            report(SosiProblem.Type.NON_CURVE_REFERENCE, location, "REF :%d refers to a feature which is not a line", serialNo);
+        }
+
+        private void reportUnclosedRing(Ring ring) {
+            report(SosiProblem.Type.UNCLOSED_RING, ring.location, "Ring of %d curve(s) doesn't connect end to end", ring.refs.length);
+        }
+
+        private void report(SosiProblem.Type type, SosiLocation location, String message, Object... args) {
+            problemCounts[type.ordinal()]++;
+            SosiProblem problem = new SosiProblem(type, nonNull(location) ? location : SosiLocation.unknown(), String.format(message, args));
+            if (problems.size() < maxProblems) {
+                problems.add(problem);
+            }
+            if (nonNull(problemConsumer)) {
+                problemConsumer.accept(problem);
+            }
+        }
+    }
+
+    // The signed serial numbers of the curves of a ring, negative if reversed
+    private static final class Ring {
+        private final long[] refs;
+        private final SosiLocation location;
+
+        Ring(long[] refs, SosiLocation location) {
+            this.refs = refs;
+            this.location = location;
+        }
+    }
+
+    private static boolean isKnownCoordSys(SosiElement coordSys) {
+        try {
+            CoordSys.fromSosiValue(coordSys.getValueAs(SosiNumber.class).intValue());
+            return true;
+        } catch (SosiException | ClassCastException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    // A key of the point, equal for equal coordinates
+    private static long pointKey(double north, double east) {
+        long h = Double.doubleToLongBits(north + 0.0) * 0x9E3779B97F4A7C15L;
+        return (h ^ (h >>> 32)) * 31 + Double.doubleToLongBits(east + 0.0);
+    }
+
+    public static final class Builder {
+        private int maxProblems = DEFAULT_MAX_PROBLEMS;
+        private SosiParserConfig parserConfig = SosiParserConfig.defaults();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of problems kept in the result. All problems are still counted and passed to the consumer.
+         */
+        public Builder maxProblems(int maxProblems) {
+            require(() -> maxProblems >= 0, "maxProblems can't be negative, was %d", maxProblems);
+            this.maxProblems = maxProblems;
+            return this;
+        }
+
+        /**
+         * Sets the configuration of the parser.
+         */
+        public Builder parserConfig(SosiParserConfig parserConfig) {
+            this.parserConfig = requireNonNull(parserConfig, "parserConfig can't be null");
+            return this;
+        }
+
+        public SosiValidator build() {
+            return new SosiValidator(this);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.batch;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the SosiBatch class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiBatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadAllFilesAndReportErrorsPerFile() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        copyResource("valid_real_data.sos", dir.resolve("a.sos"));
+        copyResource("valid_with_island_refs.sos", dir.resolve("b.SOS"));
+        copyResource("valid_real_data.sos", dir.resolve("c.txt"));
+        Files.write(dir.resolve("d.sos"), ".HODE ..TEGNSETT UTF-8 .PUNKT 1: ....NØ 1 2 .SLUTT".getBytes("UTF-8"));
+
+        ConcurrentLinkedQueue<SosiElement> elements = new ConcurrentLinkedQueue<>();
+        SosiBatchResult result = SosiBatch.builder()
+                .virtualThreads(false)
+                .parallelism(2)
+                .maxOpenFiles(1)
+                .maxBytesInFlight(1024)
+                .build()
+                .read(dir, elements::add);
+
+        List<String> files = result.getFileResults().stream().map(r -> r.getFile().getFileName().toString()).collect(toList());
+        assertThat(files.toString(), is("[a.sos, b.SOS, d.sos]"));
+        assertThat(result.getFailures(), hasSize(1));
+        assertThat(result.getFailures().get(0).getFile().getFileName().toString(), is("d.sos"));
+        assertThat(result.getFailures().get(0).getError().isPresent(), is(true));
+        assertThat(result.getElementCount(), is((long)elements.size()));
+        assertThat(result.getFileResults().get(0).isSuccess(), is(true));
+    }
+
+    @Test
+    public void shouldReadAllFilesWithDefaultConfiguration() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        for (int i = 0; i < 10; i++) {
+            copyResource("valid_real_data.sos", dir.resolve("file" + i + ".sos"));
+        }
+
+        ConcurrentLinkedQueue<SosiElement> elements = new ConcurrentLinkedQueue<>();
+        SosiBatchResult result = SosiBatch.readAll(dir, elements::add);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getFileResults(), hasSize(10));
+        assertThat(result.getElementCount(), is((long)elements.size()));
+        assertThat(result.getElementCount() % 10, is(0L));
+    }
+
+    @Test
+    public void shouldStopReadingWhenConsumerThrowsError() throws IOException, InterruptedException {
+        Path dir = folder.getRoot().toPath();
+        for (int i = 0; i < 10; i++) {
+            copyResource("valid_real_data.sos", dir.resolve("file" + i + ".sos"));
+        }
+
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            SosiBatch.builder()
+                    .virtualThreads(false)
+                    .parallelism(2)
+                    .build()
+                    .read(dir, element -> {
+                        if (calls.incrementAndGet() == 1) {
+                            throw new AssertionError("Failing consumer");
+                        }
+                    });
+            fail("Expected the error of the consumer to fail the batch");
+        } catch (SosiException e) {
+            assertThat(e.getCause() instanceof AssertionError, is(true));
+        }
+
+        int callsAfterFailure = calls.get();
+        Thread.sleep(100);
+        assertThat(calls.get(), is(callsAfterFailure));
+    }
+
+    private void copyResource(String name, Path target) throws IOException {
+        try (InputStream in = getResource(name)) {
+            Files.copy(in, target);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.diff;
+
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the SosiDiff class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiDiffTest {
+    private static final String HEAD = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 22 ...ORIGO-NØ 0 0 ...ENHET 0.1\n";
+    private static final String OLD = HEAD +
+            ".PUNKT 1: ..OBJTYPE Kum ..IDENT ...LOKALID \"a\" ..NØ 10 20\n" +
+            ".PUNKT 2: ..OBJTYPE Kum ..IDENT ...LOKALID \"b\" ..NØ 30 40\n" +
+            ".PUNKT 3: ..OBJTYPE Kum ..IDENT ...LOKALID \"c\" ..NØ 50 60 ! comment\n" +
+            ".KURVE 4: ..OBJTYPE Kant ..NØ 10 20 30 40\n" +
+            ".SLUTT";
+    private static final String NEW = HEAD +
+            ".PUNKT 12: ..OBJTYPE Kum ..IDENT ...LOKALID \"b\" ..NØ 30 40\n" +
+            ".PUNKT 13: ..OBJTYPE Kum ..IDENT ...LOKALID \"c\" ..NØ 50 60\n" +
+            ".KURVE 4: ..OBJTYPE Kant ..NØ 10 20 30 41 ..NØ 50 60\n" +
+            ".PUNKT 5: ..OBJTYPE Kum ..IDENT ...LOKALID \"a\" ..NØ 11 20\n" +
+            ".PUNKT 6: ..OBJTYPE Kum ..NØ 70 80\n" +
+            ".SLUTT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldMatchFeaturesBySerialNumber() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        SosiDiffResult result = SosiDiff.builder().build().diff(write(OLD), write(NEW), listener);
+
+        assertThat(result.getAddedCount(), is(4L));
+        assertThat(result.getRemovedCount(), is(3L));
+        assertThat(result.getChangedCount(), is(1L));
+        assertThat(result.getUnchangedCount(), is(0L));
+        assertThat(listener.events, is(Arrays.asList(
+                "removed 1", "removed 2", "removed 3",
+                "added 12", "added 13",
+                "changed 4 [~NØ 10 20 30 40 -> 10 20 30 41, +NØ[2] 50 60]",
+                "added 5", "added 6")));
+    }
+
+    @Test
+    public void shouldMatchFeaturesByKeyAttribute() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        SosiDiffResult result = SosiDiff.builder().keyAttribute("IDENT.LOKALID").build().diff(write(OLD), write(NEW), listener);
+
+        assertThat(result.getAddedCount(), is(0L));
+        assertThat(result.getRemovedCount(), is(0L));
+        assertThat(result.getChangedCount(), is(1L));
+        assertThat(result.getUnchangedCount(), is(2L));
+        assertThat(result.getUnkeyedCount(), is(3L));
+        assertThat(listener.events, is(Arrays.asList("changed 5 [~NØ 10 20 -> 11 20]")));
+    }
+
+    @Test
+    public void shouldNotPassDuplicateKeysToListener() throws IOException {
+        String oldSosi = HEAD +
+                ".PUNKT 1: ..IDENT ...LOKALID \"a\" ..NØ 10 20\n" +
+                ".PUNKT 2: ..IDENT ...LOKALID \"a\" ..NØ 30 40\n" +
+                ".PUNKT 3: ..IDENT ...LOKALID \"b\" ..NØ 50 60\n" +
+                ".SLUTT";
+        String newSosi = HEAD +
+                ".PUNKT 3: ..IDENT ...LOKALID \"b\" ..NØ 50 61\n" +
+                ".PUNKT 4: ..IDENT ...LOKALID \"b\" ..NØ 70 80\n" +
+                ".PUNKT 5: ..IDENT ...LOKALID \"c\" ..NØ 10 20\n" +
+                ".PUNKT 6: ..IDENT ...LOKALID \"c\" ..NØ 30 40\n" +
+                ".SLUTT";
+        RecordingListener listener = new RecordingListener();
+        SosiDiffResult result = SosiDiff.builder().keyAttribute("IDENT.LOKALID").elementDiff(false).build().diff(write(oldSosi), write(newSosi), listener);
+
+        assertThat(result.getAddedCount(), is(1L));
+        assertThat(result.getRemovedCount(), is(1L));
+        assertThat(result.getChangedCount(), is(1L));
+        assertThat(result.getDuplicateCount(), is(3L));
+        assertThat(listener.events, is(Arrays.asList("removed 1", "changed 3 []", "added 5")));
+    }
+
+    @Test
+    public void shouldGiveSameResultWithPartitions() throws IOException {
+        Path oldFile = write(OLD);
+        Path newFile = write(NEW);
+        RecordingListener inMemory = new RecordingListener();
+        RecordingListener partitioned = new RecordingListener();
+        SosiDiffResult expected = SosiDiff.builder().build().diff(oldFile, newFile, inMemory);
+        SosiDiffResult result = SosiDiff.builder().partitions(3).tempDirectory(folder.newFolder().toPath()).build().diff(oldFile, newFile, partitioned);
+
+        assertThat(result.toString(), is(expected.toString()));
+        assertThat(partitioned.events, is(inMemory.events));
+    }
+
+    @Test
+    public void shouldDeleteTemporaryFilesWhenDiffFails() throws IOException {
+        Path tempDirectory = folder.newFolder().toPath();
+        Path oldFile = write(OLD);
+        Path newFile = write(HEAD + ".PUNKT 1: ..NØ 10 20 \"unterminated");
+        try {
+            SosiDiff.builder().partitions(3).tempDirectory(tempDirectory).build().diff(oldFile, newFile);
+            fail("Expected the malformed file to fail");
+        } catch (SosiException e) {
+            try (Stream<Path> files = Files.list(tempDirectory)) {
+                assertThat(files.count(), is(0L));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFindNoChangesBetweenEqualFiles() throws IOException {
+        SosiDiffResult result = SosiDiff.builder().build().diff(write(OLD), write(OLD));
+
+        assertThat(result.isUnchanged(), is(true));
+        assertThat(result.getUnchangedCount(), is(4L));
+    }
+
+    @Test
+    public void shouldNotMatchKeysWithDifferentChecks() {
+        SosiDiff.KeyHashes oldFeatures = new SosiDiff.KeyHashes();
+        oldFeatures.add(1, FeatureHasher.checkOf("a"), 10);
+        oldFeatures.add(2, FeatureHasher.checkOf("b"), 20);
+        SosiDiff.KeyHashes newFeatures = new SosiDiff.KeyHashes();
+        newFeatures.add(1, FeatureHasher.checkOf("c"), 10);
+        newFeatures.add(2, FeatureHasher.checkOf("b"), 20);
+
+        SosiDiff.Comparison comparison = new SosiDiff.Comparison();
+        comparison.compare(oldFeatures, newFeatures);
+
+        assertThat(comparison.removed.size(), is(1));
+        assertThat(comparison.removed.get(0), is(1L));
+        assertThat(comparison.added.size(), is(1));
+        assertThat(comparison.added.get(0), is(1L));
+        assertThat(comparison.changed.size(), is(0));
+        assertThat(comparison.unchangedCount, is(1L));
+    }
+
+    @Test
+    public void shouldCheckKeysIndependentlyOfTheirHash() {
+        assertThat(FeatureHasher.checkOf("a") == FeatureHasher.checkOf("b"), is(false));
+        assertThat(FeatureHasher.checkOf("ab") == FeatureHasher.checkOf("ba"), is(false));
+        assertThat(FeatureHasher.checkOf("a") == FeatureHasher.keyOf("a"), is(false));
+    }
+
+    private Path write(String sosi) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, sosi.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String serialNumberOf(SosiElement feature) {
+        return String.valueOf(feature.getValueAs(SosiSerialNumber.class).longValue());
+    }
+
+    private static class RecordingListener implements SosiDiffListener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void added(SosiElement newFeature) {
+            events.add("added " + serialNumberOf(newFeature));
+        }
+
+        @Override
+        public void removed(SosiElement oldFeature) {
+            events.add("removed " + serialNumberOf(oldFeature));
+        }
+
+        @Override
+        public void changed(SosiElement oldFeature, SosiElement newFeature, List<SosiElementChange> changes) {
+            events.add("changed " + serialNumberOf(newFeature) + " " + changes.stream().map(Object::toString).collect(toList()));
+        }
+    }
+}
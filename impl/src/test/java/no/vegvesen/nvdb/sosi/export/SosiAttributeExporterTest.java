@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.export.SosiAttributeExporter.Format;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.TestUtils.streamToBytes;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiAttributeExporter and SosiColumnarReader classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiAttributeExporterTest {
+    private static final String SIGNS = ".HODE ..TEGNSETT UTF-8\n" +
+            ".PUNKT 1: ..OBJTYPE Skiltplate ..SkiltnummerHB-050 \"362\" ..Størrelse \"Stor\" ..NØ 1 2\n" +
+            ".PUNKT 2: ..OBJTYPE Skiltplate ..SkiltnummerHB-050 \"362\" ..Høyde 2 ..NØ 1 2\n" +
+            ".PUNKT 3: ..OBJTYPE Skiltplate ..Størrelse \"Liten, \"\"rund\"\"\" ..Høyde 2.5 ..NØ 1 2\n" +
+            ".PUNKT 4: ..OBJTYPE Kum ..ADRESSE ...GATE \"Storgata\" ...NR 1 ...NR 2 ..NØ 1 2\n" +
+            ".SLUTT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldDiscoverSchemaPerObjType() {
+        AttributeSchema schema = SosiAttributeExporter.builder().build().discover(toStream(SIGNS));
+
+        assertThat(schema.getTables().stream().map(AttributeSchema.Table::getName).collect(toList()), is(Arrays.asList("Skiltplate", "Kum")));
+        AttributeSchema.Table signs = schema.getTable("Skiltplate").get();
+        assertThat(signs.getRowCount(), is(3L));
+        assertThat(signs.getColumns().toString(), is("[SERNO LONG, SkiltnummerHB-050 STRING, Størrelse STRING, Høyde DOUBLE]"));
+        assertThat(schema.getTable("Kum").get().getColumns().toString(), is("[SERNO LONG, ADRESSE.GATE STRING, ADRESSE.NR STRING]"));
+        assertThat(signs.indexOf("Høyde"), is(3));
+        assertThat(signs.indexOf("NØ"), is(-1));
+
+        AttributeSchema filtered = SosiAttributeExporter.builder().objTypes("Kum").build().discover(toStream(SIGNS));
+        assertThat(filtered.getTables().size(), is(1));
+        assertThat(filtered.getTable("Skiltplate"), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldExportCsv() throws IOException {
+        SosiAttributeExporter exporter = SosiAttributeExporter.builder().build();
+        AttributeSchema.Table signs = exporter.discover(toStream(SIGNS)).getTable("Skiltplate").get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(exporter.export(toStream(SIGNS), signs, out), is(3L));
+        assertThat(out.toString("UTF-8"), is("SERNO,SkiltnummerHB-050,Størrelse,Høyde\r\n" +
+                "1,362,Stor,\r\n" +
+                "2,362,,2.0\r\n" +
+                "3,,\"Liten, \"\"rund\"\"\",2.5\r\n"));
+    }
+
+    @Test
+    public void shouldGiveTablesUniqueFileNames() throws IOException {
+        Path sosiFile = folder.newFile("roads.sos").toPath();
+        Files.write(sosiFile, (".HODE ..TEGNSETT UTF-8\n" +
+                ".PUNKT 1: ..OBJTYPE \"Veg/Bru\" ..NØ 1 2\n" +
+                ".PUNKT 2: ..OBJTYPE Veg_Bru ..NØ 1 2\n" +
+                ".PUNKT 3: ..OBJTYPE veg_bru ..NØ 1 2\n" +
+                ".SLUTT").getBytes(StandardCharsets.UTF_8));
+        Path directory = folder.newFolder().toPath();
+
+        SosiAttributeExporter.builder().build().export(sosiFile, directory);
+
+        assertThat(new String(Files.readAllBytes(directory.resolve("Veg_Bru.csv")), StandardCharsets.UTF_8), is("SERNO\r\n1\r\n"));
+        assertThat(new String(Files.readAllBytes(directory.resolve("Veg_Bru-2.csv")), StandardCharsets.UTF_8), is("SERNO\r\n2\r\n"));
+        assertThat(new String(Files.readAllBytes(directory.resolve("veg_bru-3.csv")), StandardCharsets.UTF_8), is("SERNO\r\n3\r\n"));
+    }
+
+    @Test
+    public void shouldExportColumnarTables() throws IOException {
+        Path sosiFile = folder.newFile("real.sos").toPath();
+        Files.write(sosiFile, streamToBytes(getResource("valid_real_data.sos"), 4096));
+        Path directory = folder.newFolder().toPath();
+
+        AttributeSchema schema = SosiAttributeExporter.builder()
+                .format(Format.COLUMNAR)
+                .rowGroupSize(5)
+                .build()
+                .export(sosiFile, directory);
+        AttributeSchema.Table table = schema.getTable("NedsenkaKantstein_10").get();
+        assertThat(table.getColumns().toString(), is("[SERNO LONG, PTEMA LONG, DATAFANGSTDATO LONG, KVALITET STRING, Dybde_1656 DOUBLE, Lengde_1302 DOUBLE]"));
+
+        List<List<Object>> rows = new ArrayList<>();
+        try (SosiColumnarReader reader = new SosiColumnarReader(Files.newInputStream(directory.resolve("NedsenkaKantstein_10.sosc")))) {
+            assertThat(reader.getTable().getName(), is("NedsenkaKantstein_10"));
+            assertThat(reader.getTable().getColumns().toString(), is(table.getColumns().toString()));
+            Optional<SosiColumnarReader.RowGroup> rowGroup;
+            while ((rowGroup = reader.readRowGroup()).isPresent()) {
+                for (int row = 0; row < rowGroup.get().getRowCount(); row++) {
+                    List<Object> values = new ArrayList<>();
+                    for (int column = 0; column < table.getColumns().size(); column++) {
+                        values.add(rowGroup.get().getValue(column, row));
+                    }
+                    rows.add(values);
+                }
+            }
+        }
+        assertThat(rows.size(), is(14));
+        assertThat(rows.get(0), is(Arrays.<Object>asList(1L, 999L, 20131127L, "96 5 0 96 5", 0.11, 2.4)));
+        assertThat(rows.get(2).get(5), is(3.0));
+        assertThat(rows.get(13).get(0), is(14L));
+    }
+
+    @Test
+    public void shouldReadMissingValuesFromColumnarFormat() {
+        SosiAttributeExporter exporter = SosiAttributeExporter.builder().format(Format.COLUMNAR).build();
+        AttributeSchema.Table signs = exporter.discover(toStream(SIGNS)).getTable("Skiltplate").get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(toStream(SIGNS), signs, out);
+
+        try (SosiColumnarReader reader = new SosiColumnarReader(new ByteArrayInputStream(out.toByteArray()))) {
+            SosiColumnarReader.RowGroup rowGroup = reader.readRowGroup().get();
+            assertThat(rowGroup.getRowCount(), is(3));
+            assertThat(rowGroup.getString(1, 1), is("362"));
+            assertThat(rowGroup.isNull(1, 2), is(true));
+            assertThat(rowGroup.getString(1, 2), is((String)null));
+            assertThat(rowGroup.getString(2, 2), is("Liten, \"rund\""));
+            assertThat(rowGroup.isNull(3, 0), is(true));
+            assertThat(rowGroup.getDouble(3, 2), is(2.5));
+            assertThat(rowGroup.getDouble(0, 2), is(3.0));
+            assertThat(reader.readRowGroup().isPresent(), is(false));
+        }
+    }
+
+    private static InputStream toStream(String sosi) {
+        return new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.export;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.TestUtils.streamToBytes;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasSerialNumber;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiGeoJsonConverter class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiGeoJsonConverterTest {
+    private static final String SURFACES = ".HODE ..TEGNSETT UTF-8\n" +
+            ".KURVE 1: ..OBJTYPE Grense ..NØ 0 0 0 10 10 10 0 0\n" +
+            ".FLATE 2: ..OBJTYPE Teig ..NAVN \"Gård \"\"1\"\"\" ..REF :1 ..NØ 5 5\n" +
+            ".BUEP 3: ..OBJTYPE Bue ..NØ 0 0 1 1 2 0 ...KP 1\n" +
+            ".PUNKT 4: ..OBJTYPE Kum ..ADRESSE ...GATE \"Storgata\" ...NR 1 ...NR 2 ..NØ 1 2\n" +
+            ".SLUTT";
+
+    @Test
+    public void shouldWriteFeatureCollection() throws UnsupportedEncodingException {
+        String json = convert(SosiGeoJsonConverter.builder().build(), streamToBytes(getResource("valid_real_data.sos"), 4096));
+
+        assertThat(json.startsWith("{\"type\":\"FeatureCollection\"," +
+                "\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"urn:ogc:def:crs:EPSG::25832\"}},\"features\":[\n" +
+                "{\"type\":\"Feature\",\"id\":1,\"geometry\":{\"type\":\"Point\",\"coordinates\":[569386.66,7034313.66,9.34]}," +
+                "\"properties\":{\"OBJTYPE\":\"NedsenkaKantstein_10\",\"PTEMA\":999,\"DATAFANGSTDATO\":20131127," +
+                "\"KVALITET\":[96,5,0,96,5],\"Dybde_1656\":0.11,\"Lengde_1302\":2.4}},\n" +
+                "{\"type\":\"Feature\",\"id\":2,"), is(true));
+        assertThat(json.endsWith("}}\n]}\n"), is(true));
+    }
+
+    @Test
+    public void shouldMapSubElementsToProperties() throws UnsupportedEncodingException {
+        String json = convert(SosiGeoJsonConverter.builder().newlineDelimited(true).build(), SURFACES.getBytes(StandardCharsets.UTF_8));
+        String[] lines = json.split("\n");
+
+        assertThat(lines.length, is(4));
+        assertThat(lines[1], is("{\"type\":\"Feature\",\"id\":2,\"geometry\":null," +
+                "\"properties\":{\"OBJTYPE\":\"Teig\",\"NAVN\":\"Gård \\\"1\\\"\",\"REF\":1,\"NØ\":[5,5]}}"));
+        assertThat(lines[2], is("{\"type\":\"Feature\",\"id\":3,\"geometry\":null," +
+                "\"properties\":{\"OBJTYPE\":\"Bue\",\"NØ\":{\"_values\":[0,0,1,1,2,0],\"KP\":1}}}"));
+        assertThat(lines[3], is("{\"type\":\"Feature\",\"id\":4,\"geometry\":{\"type\":\"Point\",\"coordinates\":[2,1]}," +
+                "\"properties\":{\"OBJTYPE\":\"Kum\",\"ADRESSE\":{\"GATE\":\"Storgata\",\"NR\":[1,2]}}}"));
+    }
+
+    @Test
+    public void shouldResolveReferencesWhenGivenResolver() throws UnsupportedEncodingException {
+        byte[] sosi = SURFACES.getBytes(StandardCharsets.UTF_8);
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(sosi)).read();
+        SosiGeoJsonConverter converter = SosiGeoJsonConverter.builder()
+                .newlineDelimited(true)
+                .refResolver(serialNumber -> doc.findElement(hasSerialNumber(serialNumber)))
+                .build();
+
+        assertThat(convert(converter, sosi).split("\n")[1], is("{\"type\":\"Feature\",\"id\":2," +
+                "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,0]]]}," +
+                "\"properties\":{\"OBJTYPE\":\"Teig\",\"NAVN\":\"Gård \\\"1\\\"\"}}"));
+    }
+
+    @Test
+    public void shouldWriteSameOutputInParallel() throws UnsupportedEncodingException {
+        byte[] sosi = streamToBytes(getResource("valid_real_data.sos"), 4096);
+        for (boolean newlineDelimited : new boolean[]{false, true}) {
+            String expected = convert(SosiGeoJsonConverter.builder().newlineDelimited(newlineDelimited).build(), sosi);
+            String actual = convert(SosiGeoJsonConverter.builder()
+                    .newlineDelimited(newlineDelimited)
+                    .parallelism(3)
+                    .batchSize(2)
+                    .build(), sosi);
+            assertThat(actual, is(expected));
+        }
+    }
+
+    private static String convert(SosiGeoJsonConverter converter, byte[] sosi) throws UnsupportedEncodingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converter.convert(new ByteArrayInputStream(sosi), out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.geometry;
+
+import no.vegvesen.nvdb.sosi.CoordSys;
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasSerialNumber;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the SosiGeometryEncoder and SosiPgCopyWriter classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiGeometryEncoderTest {
+    private static final String SURFACES = ".HODE ..TEGNSETT UTF-8\n" +
+            "..TRANSPAR ...KOORDSYS 23 ...ORIGO-NØ 6600000 200000 ...ENHET 0.01\n" +
+            ".KURVE 1: ..OBJTYPE Grense ..NØ 0 0 0 1000 1000 1000\n" +
+            ".KURVE 2: ..OBJTYPE Grense ..NØ 0 0 1000 1000\n" +
+            ".KURVE 3: ..OBJTYPE Grense ..NØ 100 100 100 200 200 200 100 100\n" +
+            ".FLATE 10: ..OBJTYPE Teig ..REF :1 :-2 (:3) ..NØ 500 500\n" +
+            ".TEKST 11: ..OBJTYPE Navn ..NØ 10 20 30 40\n" +
+            ".SLUTT";
+
+    @Test
+    public void shouldApplyTransparToPoints() {
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc);
+        SosiElement point = doc.findElement(hasSerialNumber(1)).get();
+
+        assertThat(encoder.getTranspar().getCoordSys(), is(Optional.of(CoordSys.EUREF89_UTM32)));
+        assertThat(encoder.toWkt(point), is("POINT Z (569386.66 7034313.66 9.34)"));
+
+        ByteBuffer wkb = ByteBuffer.wrap(encoder.toWkb(point)).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(wkb.get(), is((byte)1));
+        assertThat(wkb.getInt(), is(1001));
+        assertThat(wkb.getDouble(), is(569386.66));
+        assertThat(wkb.getDouble(), is(7034313.66));
+        assertThat(wkb.getDouble(), is(9.34));
+        assertThat(wkb.remaining(), is(0));
+
+        ByteBuffer ewkb = encoder.encodeEwkb(point);
+        assertThat(ewkb.get(), is((byte)1));
+        assertThat(ewkb.getInt(), is(0x80000000 | 0x20000000 | 1));
+        assertThat(ewkb.getInt(), is(25832));
+        assertThat(ewkb.remaining(), is(24));
+    }
+
+    @Test
+    public void shouldBuildPolygonsFromReferencedCurves() {
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(SURFACES.getBytes(StandardCharsets.UTF_8))).read();
+        SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc);
+
+        assertThat(encoder.toWkt(doc.findElement(hasSerialNumber(1)).get()),
+                is("LINESTRING (200000 6600000, 200010 6600000, 200010 6600010)"));
+        assertThat(encoder.toWkt(doc.findElement(hasSerialNumber(10)).get()),
+                is("POLYGON ((200000 6600000, 200010 6600000, 200010 6600010, 200000 6600000), " +
+                        "(200001 6600001, 200002 6600001, 200002 6600002, 200001 6600001))"));
+        assertThat(encoder.toWkt(doc.findElement(hasSerialNumber(11)).get()), is("POINT (200000.2 6600000.1)"));
+
+        ByteBuffer wkb = encoder.encodeWkb(doc.findElement(hasSerialNumber(10)).get());
+        assertThat(wkb.remaining(), is(1 + 4 + 4 + 2 * 4 + 8 * 2 * 8));
+    }
+
+    @Test(expected = SosiException.class)
+    public void shouldRejectUnresolvedReferences() {
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(SURFACES.getBytes(StandardCharsets.UTF_8))).read();
+        SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc.getHead(), serialNumber -> Optional.empty());
+        encoder.toWkt(doc.findElement(hasName("FLATE")).get());
+    }
+
+    @Test
+    public void shouldWritePgCopyRows() throws IOException {
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(SURFACES.getBytes(StandardCharsets.UTF_8))).read();
+        SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SosiPgCopyWriter writer = new SosiPgCopyWriter(out, encoder)) {
+            doc.elements().filter(SosiGeometryEncoder::isSupported).forEach(writer::writeFeature);
+            assertThat(writer.getRowCount(), is(5L));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        byte[] signature = new byte[11];
+        in.readFully(signature);
+        assertThat(new String(signature, 0, 5, StandardCharsets.US_ASCII), is("PGCOP"));
+        assertThat(in.readInt(), is(0));
+        assertThat(in.readInt(), is(0));
+        for (int row = 0; row < 5; row++) {
+            assertThat(in.readShort(), is((short)3));
+            assertThat(in.readInt(), is(8));
+            long serialNumber = in.readLong();
+            byte[] objType = new byte[in.readInt()];
+            in.readFully(objType);
+            byte[] geometry = new byte[in.readInt()];
+            in.readFully(geometry);
+            SosiElement feature = doc.findElement(hasSerialNumber(serialNumber)).get();
+            assertThat(new String(objType, StandardCharsets.UTF_8), is(feature.findSubElement(hasName("OBJTYPE")).get().getValueAs(SosiValue.class).getString()));
+            assertThat(geometry, is(encoder.toEwkb(feature)));
+        }
+        assertThat(in.readShort(), is((short)-1));
+        assertThat(in.available(), is(0));
+    }
+
+    @Test
+    public void shouldNotWritePartOfRowWhenGeometryIsMalformed() throws IOException {
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(SURFACES.replace(":-2", ":-99").getBytes(StandardCharsets.UTF_8))).read();
+        SosiGeometryEncoder encoder = SosiGeometryEncoder.of(doc);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SosiPgCopyWriter writer = new SosiPgCopyWriter(out, encoder)) {
+            writer.writeFeature(doc.findElement(hasSerialNumber(1)).get());
+            try {
+                writer.writeFeature(doc.findElement(hasName("FLATE")).get());
+                fail("Expected the unresolvable reference to fail");
+            } catch (SosiException e) {
+                // skipped by the caller
+            }
+            writer.writeFeature(doc.findElement(hasSerialNumber(2)).get());
+            assertThat(writer.getRowCount(), is(2L));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        in.readFully(new byte[11 + 4 + 4]);
+        for (long serialNumber = 1; serialNumber <= 2; serialNumber++) {
+            assertThat(in.readShort(), is((short)3));
+            assertThat(in.readInt(), is(8));
+            assertThat(in.readLong(), is(serialNumber));
+            in.readFully(new byte[in.readInt()]);
+            byte[] geometry = new byte[in.readInt()];
+            in.readFully(geometry);
+            assertThat(geometry, is(encoder.toEwkb(doc.findElement(hasSerialNumber(serialNumber)).get())));
+        }
+        assertThat(in.readShort(), is((short)-1));
+        assertThat(in.available(), is(0));
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.index;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasNameOneOf;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the SosiIndex, SosiIndexWriter, SosiFollower and SosiSpatialIndex classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldIgnoreLevelMarkersInStringsAndComments() throws IOException {
+        String sosi = ".HODE ..TEGNSETT UTF-8 !. not a level\n" +
+                ".KURVE 12: ..OBJTYPE \"Veg .lenke\" ..NAVN '.X' ..NØ 1 2\n" +
+                ".PUNKT 7: ..NAVN .SLUTT";
+
+        List<SosiElementSpan> spans = new ArrayList<>();
+        new SosiStructureScanner(StandardCharsets.UTF_8).scan(new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8)), spans::add);
+
+        assertThat(spans, hasSize(4));
+        assertThat(spans.stream().map(SosiElementSpan::getName).collect(joining(",")), is("HODE,KURVE,PUNKT,SLUTT"));
+        assertThat(spans.get(1).getSerialNumber().getAsLong(), is(12L));
+        assertThat(spans.get(1).getObjType().get(), is("Veg .lenke"));
+        assertThat(spans.get(2).getSerialNumber().getAsLong(), is(7L));
+        assertThat(spans.get(2).getObjType().isPresent(), is(false));
+        assertThat(spans.get(0).getSerialNumber().isPresent(), is(false));
+        assertThat(spans.get(1).getOffset(), is(spans.get(0).getOffset() + spans.get(0).getLength()));
+    }
+
+    @Test
+    public void shouldReadFeaturesThroughIndex() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        List<SosiElement> features = doc.elements().filter(e -> e.hasValues() && e.values().findFirst().get() instanceof SosiSerialNumber).collect(toList());
+
+        SosiIndexWriter.write(sosiFile);
+        try (SosiIndex index = SosiIndex.open(sosiFile)) {
+            assertThat(index.size(), is(features.size()));
+            assertThat(describe(index.getHead()), is(describe(doc.getHead())));
+            for (SosiElement feature : features) {
+                long serialNumber = feature.getValueAs(SosiSerialNumber.class).longValue();
+                assertThat(describe(index.readFeature(serialNumber).get()), is(describe(feature)));
+                assertThat(index.find(serialNumber).get().getObjType(),
+                        is(feature.findSubElement(hasName("OBJTYPE")).map(e -> e.values().findFirst().get().getString())));
+            }
+            assertThat(index.readFeature(-1).isPresent(), is(false));
+
+            SosiDocument subset = index.readDocument(Arrays.asList(3L, 1L));
+            assertThat(subset.elements().map(SosiElement::getName).collect(joining(",")), is("HODE,PUNKT,PUNKT,SLUTT"));
+        }
+    }
+
+    @Test
+    public void shouldRejectOutdatedIndex() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        SosiIndexWriter.write(sosiFile);
+        Files.setLastModifiedTime(sosiFile, FileTime.fromMillis(Files.getLastModifiedTime(sosiFile).toMillis() + 2000));
+        try {
+            SosiIndex.open(sosiFile).close();
+            fail("Expected outdated index to be rejected");
+        } catch (SosiException e) {
+            assertThat(e.getMessage().contains("out of date"), is(true));
+        }
+    }
+
+    @Test
+    public void shouldParseLazyElementsOnFirstAccess() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+
+        try (LazySosiDocument lazyDoc = LazySosiDocument.read(sosiFile)) {
+            assertThat(lazyDoc.elements().map(SosiElement::getName).collect(joining(",")),
+                    is(doc.elements().map(SosiElement::getName).collect(joining(","))));
+            LazySosiElement feature = lazyDoc.lazyElements().filter(e -> e.getSerialNumber().isPresent()).findFirst().get();
+            assertThat(feature.getSerialNumber().getAsLong(), is(1L));
+            assertThat(lazyDoc.lazyElements().anyMatch(LazySosiElement::isMaterialized), is(false));
+            assertThat(feature.getFingerprint().isPresent(), is(false));
+            assertThat(feature.isMaterialized(), is(false));
+
+            assertThat(describe(feature), is(describe(doc.findElement(e -> e.getName().equals(feature.getName())
+                    && e.getValueAs(SosiSerialNumber.class).longValue() == 1L).get())));
+            assertThat(feature.isMaterialized(), is(true));
+            assertThat(lazyDoc.getEncoding(), is(doc.getEncoding()));
+            assertThat(lazyDoc.elements().map(this::describe).collect(joining("\n")),
+                    is(doc.elements().map(this::describe).collect(joining("\n"))));
+
+            feature.rename(name -> "RENAMED");
+            assertThat(feature.getName(), is("RENAMED"));
+        }
+    }
+
+    @Test
+    public void shouldCountFeaturesAndCoordinatesByScanning() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n" +
+                ".KURVE 12: ..OBJTYPE Veglenke ..NØ\n1 2\n3 4 !5 6\n..NØH 1 2 3\n" +
+                ".KURVE 7: ..OBJTYPE Veglenke ..NAVN \"..NØ 1 2\"\n" +
+                ".PUNKT 30: ..OBJTYPE Kum ...NØ 1 2 .SLUTT";
+
+        SosiScanStatistics stats = Sosi.scan(new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(stats.getFeatureCount(), is(3L));
+        assertThat(stats.getFeatureCount("KURVE"), is(2L));
+        assertThat(stats.getFeatureCount("FLATE"), is(0L));
+        assertThat(stats.getObjTypeCounts().get("Veglenke"), is(2L));
+        assertThat(stats.getObjTypeCounts().get("Kum"), is(1L));
+        assertThat(stats.getMinSerialNumber().getAsLong(), is(7L));
+        assertThat(stats.getMaxSerialNumber().getAsLong(), is(30L));
+        assertThat(stats.getCoordinateCount(), is(4L));
+    }
+
+    @Test
+    public void shouldCountSameCoordinatesAsParser() {
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        long coordinateCount = doc.elements()
+                .flatMap(SosiElement::subElements)
+                .filter(hasNameOneOf("NØ", "NØH"))
+                .mapToLong(e -> e.values().count() / (e.getName().length() == 2 ? 2 : 3))
+                .sum();
+
+        SosiScanStatistics stats = Sosi.scan(getResource("valid_real_data.sos"));
+
+        assertThat(coordinateCount > 0, is(true));
+        assertThat(stats.getCoordinateCount(), is(coordinateCount));
+        assertThat(stats.getFeatureCount(), is((long)doc.getElements().size() - 2));
+    }
+
+    @Test
+    public void shouldFollowAppendedElements() throws IOException {
+        Path sosiFile = folder.newFile("appended.sos").toPath();
+        List<String> read = new ArrayList<>();
+        boolean[] endReached = {false};
+        try (SosiFollower follower = new SosiFollower(sosiFile, new SosiFollowListener() {
+            @Override
+            public void elementRead(SosiElement element) {
+                read.add(describe(element));
+            }
+
+            @Override
+            public void endReached() {
+                endReached[0] = true;
+            }
+        })) {
+            assertThat(follower.poll(), is(0));
+
+            append(sosiFile, ".HODE ..TEGNSETT UTF-8\n.PUNKT 1: ..OBJTYPE Kum ..NØ 1 2\n.");
+            assertThat(follower.poll(), is(1));
+            assertThat(read, is(Arrays.asList("HODE[]{TEGNSETT[UTF-8]{}}")));
+            long offset = follower.getOffset();
+
+            append(sosiFile, ".NØH 3 4 5\n.PUN");
+            assertThat(follower.poll(), is(1));
+            assertThat(read.get(1), is("PUNKT[1:]{OBJTYPE[Kum]{},NØ[1 2]{},NØH[3 4 5]{}}"));
+            assertThat(follower.getOffset() > offset, is(true));
+
+            append(sosiFile, "KT 2: ..OBJTYPE Sluk ..NAVN \"Å\"\n");
+            assertThat(follower.poll(), is(0));
+
+            append(sosiFile, ".SLUTT\n");
+            assertThat(follower.poll(), is(1));
+            assertThat(read.get(2), is("PUNKT[2:]{OBJTYPE[Sluk]{},NAVN[Å]{}}"));
+            assertThat(follower.isEndReached(), is(true));
+            assertThat(endReached[0], is(true));
+            assertThat(follower.getOffset(), is(Files.size(sosiFile)));
+        }
+    }
+
+    @Test
+    public void shouldFollowCompleteFileToEnd() throws IOException, InterruptedException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        List<String> read = new ArrayList<>();
+        try (SosiFollower follower = new SosiFollower(sosiFile, element -> read.add(describe(element)))) {
+            follower.follow(10);
+            assertThat(follower.isEndReached(), is(true));
+        }
+        assertThat(read, is(doc.elements().filter(hasName("SLUTT").negate()).map(this::describe).collect(toList())));
+    }
+
+    @Test(expected = SosiException.class)
+    public void shouldRejectTruncatedFollowedFile() throws IOException {
+        Path sosiFile = folder.newFile("truncated.sos").toPath();
+        append(sosiFile, ".HODE ..TEGNSETT UTF-8\n.PUNKT 1: ..NØ 1 2\n");
+        try (SosiFollower follower = new SosiFollower(sosiFile, element -> {})) {
+            follower.poll();
+            Files.write(sosiFile, new byte[0]);
+            follower.poll();
+        }
+    }
+
+    @Test
+    public void shouldQuerySameFeaturesAsLinearScan() {
+        Random random = new Random(42);
+        double[][] boxes = new double[5000][];
+        SosiSpatialIndex.Builder builder = SosiSpatialIndex.builder(10).nodeCapacity(4);
+        for (int i = 0; i < boxes.length; i++) {
+            double north = random.nextDouble() * 1000;
+            double east = random.nextDouble() * 1000;
+            boxes[i] = new double[]{north, east, north + random.nextDouble() * 20, east + random.nextDouble() * 20};
+            builder.add(i, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3]);
+        }
+        SosiSpatialIndex index = builder.build();
+        assertThat(index.size(), is(boxes.length));
+
+        for (int query = 0; query < 100; query++) {
+            double minNorth = random.nextDouble() * 1000;
+            double minEast = random.nextDouble() * 1000;
+            double maxNorth = minNorth + random.nextDouble() * 100;
+            double maxEast = minEast + random.nextDouble() * 100;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxes[i][0] <= maxNorth && boxes[i][2] >= minNorth && boxes[i][1] <= maxEast && boxes[i][3] >= minEast) {
+                    expected.add(i);
+                }
+            }
+            assertThat(Arrays.stream(index.query(minNorth, minEast, maxNorth, maxEast)).boxed().collect(toList()), is(expected));
+        }
+    }
+
+    @Test
+    public void shouldIndexFeaturesOfDocument() {
+        String sosi = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...ORIGO-NØ 1000 2000 ...ENHET 0.1\n" +
+                ".KURVE 1: ..NØ 0 0 100 100\n" +
+                ".KURVE 2: ..NØ 100 100 100 200 0 0\n" +
+                ".FLATE 3: ..REF :1 :2 ..NØ 50 50\n" +
+                ".PUNKT 4: ..NØH 500 500 10\n" +
+                ".SLUTT";
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8))).read();
+        SosiSpatialIndex index = SosiSpatialIndex.of(doc);
+
+        assertThat(index.size(), is(4));
+        assertThat(index.getMinNorth(), is(1000.0));
+        assertThat(index.getMaxEast(), is(2050.0));
+        assertThat(index.query(1005, 2015, 1006, 2016), is(new int[]{2, 3}));
+        assertThat(index.query(1049, 2049, 1051, 2051), is(new int[]{4}));
+        assertThat(index.query(1003, 2003, 1004, 2004), is(new int[]{1, 2, 3}));
+        assertThat(index.query(0, 0, 1, 1), is(new int[0]));
+        assertThat(SosiSpatialIndex.builder(0).build().query(0, 0, 1, 1), is(new int[0]));
+    }
+
+    private static void append(Path file, String sosi) throws IOException {
+        Files.write(file, sosi.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private Path copyResource(String name) throws IOException {
+        Path target = folder.getRoot().toPath().resolve(name);
+        try (InputStream in = getResource(name)) {
+            Files.copy(in, target);
+        }
+        return target;
+    }
+
+    private String describe(SosiElement element) {
+        return element.getName()
+                + element.values().map(SosiValue::getString).collect(joining(" ", "[", "]"))
+                + element.subElements().map(this::describe).collect(joining(",", "{", "}"));
+    }
+}
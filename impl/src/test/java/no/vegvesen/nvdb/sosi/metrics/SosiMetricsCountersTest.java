@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.metrics;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.utils.BufferPoolImpl;
+import org.junit.Test;
+
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SosiMetricsCountersTest {
+
+    @Test
+    public void shouldMeasureReading() {
+        SosiMetricsCounters metrics = new SosiMetricsCounters();
+        SosiParserConfig config = SosiParserConfig.builder()
+                .bufferSize(256)
+                .metrics(metrics)
+                .build();
+        SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"), config);
+        SosiDocument doc = reader.read();
+
+        // The elements include the head and the end
+        long features = doc.elements().count() - 2;
+        assertThat(metrics.getFeatures(), is(features));
+        assertThat(metrics.getElementsBuilt(), is(features + 1));
+        assertTrue(metrics.getCharsRead() > 0);
+        assertTrue(metrics.getBufferFills() > 1);
+        assertTrue(metrics.getTokens() > features);
+        assertTrue(metrics.getEvents() > features);
+        assertTrue(metrics.getFeaturesPerSecond() > 0);
+    }
+
+    @Test
+    public void shouldReuseBuffersOfClosedReaders() throws Exception {
+        SosiMetricsCounters metrics = new SosiMetricsCounters();
+        SosiParserConfig config = SosiParserConfig.builder()
+                .metrics(metrics)
+                .build();
+        for (int i = 0; i < 3; i++) {
+            try (SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"), config)) {
+                reader.read();
+            }
+        }
+
+        assertThat(metrics.getBufferPoolHits() + metrics.getBufferPoolMisses(), is(3L));
+        assertTrue(metrics.getBufferPoolHits() >= 2);
+    }
+
+    @Test
+    public void shouldMeasureBufferPoolHits() {
+        SosiMetricsCounters metrics = new SosiMetricsCounters();
+        BufferPoolImpl bufferPool = new BufferPoolImpl(16, metrics);
+        bufferPool.recycle(bufferPool.take());
+        bufferPool.take();
+
+        assertThat(metrics.getBufferPoolHits(), is(1L));
+        assertThat(metrics.getBufferPoolMisses(), is(1L));
+        assertThat(metrics.getBufferPoolHitRate(), is(0.5));
+    }
+}
@@ -30,11 +30,18 @@ import no.vegvesen.nvdb.sosi.Sosi;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static java.util.Objects.nonNull;
@@ -420,6 +427,486 @@ public class SosiParserImplTest {
         assertParsingException(invalidDoubleQuoteStrings, "expecting '\"'");
     }
 
+    @Test
+    public void shouldProduceSameEventsRegardlessOfBufferConfiguration() {
+        SosiParserConfig config = SosiParserConfig.builder()
+                .bufferSize(16)
+                .readAheadSize(100)
+                .prefetch(true)
+                .build();
+
+        for (String file : new String[]{"valid_real_data.sos", "valid_with_island_refs.sos", "valid_utf8_with_bom.sos"}) {
+            List<String> expected = eventsAndValues(Sosi.createParser(getResource(file)));
+            List<String> actual = eventsAndValues(Sosi.createParser(getResource(file), config));
+            assertThat("Events differ for " + file, actual, is(expected));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRethrowUncheckedErrorsOfPrefetchedInput() {
+        Reader failing = new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                throw new IllegalArgumentException("Broken source");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SosiParser parser = Sosi.createParser(failing, SosiParserConfig.builder().prefetch(true).build());
+        try {
+            parser.next();
+            fail("Expected the error of the source");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Broken source"));
+        }
+    }
+
+    @Test
+    public void shouldProduceSameEventsWhenInputIsFedInChunks() throws IOException {
+        for (String file : new String[]{"valid_real_data.sos", "valid_with_island_refs.sos", "valid_utf8_with_bom.sos",
+                "valid_string_concat_on_different_lines.sos", "valid_varying_strings_and_numbers.sos"}) {
+            List<String> expected = eventsAndValues(Sosi.createParser(getResource(file)));
+            byte[] sosi = readAll(getResource(file));
+            for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+                List<String> actual = eventsAndValues(Sosi.createNonBlockingParser(), sosi, chunkSize);
+                assertThat("Events differ for " + file + " fed in chunks of " + chunkSize, actual, is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldSkipElementsLikeSkippingEvents() throws IOException {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n" +
+                ".KURVE 1: ..NAVN \"Ikke .nivå\" ..NØH !.kommentar\r\n1 2 3\n4 5 6 ...X 'a''.b' * ..NAVN \"\"\n" +
+                ".PUNKT 2: ..NØH 1 2 3 ..NAVN 'brutt .streng\n..KP 1\n" +
+                ".SLUTT";
+        byte[] bytes = sosi.getBytes(StandardCharsets.UTF_8);
+        for (String name : new String[]{"NØH", "KURVE", "HODE", "NAVN"}) {
+            List<String> expected = eventsSkipping(Sosi.createParser(new ByteArrayInputStream(bytes)), name, false);
+            List<String> actual = eventsSkipping(Sosi.createParser(new ByteArrayInputStream(bytes),
+                    SosiParserConfig.builder().bufferSize(8).build()), name, true);
+            assertThat("Events differ when skipping " + name, actual, is(expected));
+            for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+                assertThat("Events differ when skipping " + name + " in chunks of " + chunkSize,
+                        eventsSkipping(Sosi.createNonBlockingParser(), bytes, chunkSize, name), is(expected));
+            }
+        }
+
+        List<String> expected = eventsSkipping(Sosi.createParser(getResource("valid_real_data.sos")), "NØH", false);
+        List<String> actual = eventsSkipping(Sosi.createParser(getResource("valid_real_data.sos")), "NØH", true);
+        assertThat(actual, is(expected));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectSkipOutsideElementStart() {
+        SosiParser parser = Sosi.createParser(getResource("valid_real_data.sos"));
+        parser.next();
+        parser.next();
+        assertThat(parser.next(), is(VALUE_STRING));
+        parser.skipElement();
+    }
+
+    @Test
+    public void shouldReadCoordinatesLikeReadingEvents() {
+        List<String> expected = eventsReadingCoordinates(Sosi.createParser(getResource("valid_real_data.sos")), false);
+        List<String> actual = eventsReadingCoordinates(Sosi.createParser(getResource("valid_real_data.sos")), true);
+        assertThat(actual, is(expected));
+        actual = eventsReadingCoordinates(Sosi.createParser(getResource("valid_real_data.sos"),
+                SosiParserConfig.builder().bufferSize(8).build()), true);
+        assertThat(actual, is(expected));
+        assertThat(actual.stream().anyMatch(event -> event.startsWith("START_ELEMENT(NØH)")), is(true));
+    }
+
+    @Test
+    public void shouldStopReadingCoordinatesAtOtherTokens() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n" +
+                ".KURVE 1: ..NØ\n1 2\n-3 +4 !kommentar\n5 6 ..NØ 7 8 9.5 10\n" +
+                ".PUNKT 2: ..NØ 11 12 13 14 15 16 17 18 ..KP 1\n" +
+                ".SLUTT";
+        SosiParser parser = Sosi.createParser(new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8)));
+        advanceTo(parser, "NØ");
+        List<String> points = new ArrayList<>();
+        assertThat(parser.readCoordinates(2, p -> points.add(p[0] + "," + p[1])), is(2));
+        assertThat(points, is(Arrays.asList("1,2", "-3,4")));
+        assertThat(parser.getInt(), is(4));
+        assertThat(parser.getString(), is("+4"));
+        assertThat(parser.next(), is(COMMENT));
+        assertThat(parser.next(), is(VALUE_NUMBER));
+        assertThat(parser.getInt(), is(5));
+        assertThat(parser.next(), is(VALUE_NUMBER));
+        assertThat(parser.readCoordinates(2, p -> points.add(p[0] + "," + p[1])), is(0));
+        assertThat(parser.next(), is(END_ELEMENT));
+
+        assertThat(parser.next(), is(START_ELEMENT));
+        assertThat(parser.readCoordinates(2, p -> points.add(p[0] + "," + p[1])), is(1));
+        assertThat(parser.next(), is(VALUE_NUMBER));
+        assertThat(parser.getBigDecimal(), is(new BigDecimal("9.5")));
+
+        advanceTo(parser, "NØ");
+        long[] dest = new long[5];
+        assertThat(parser.readCoordinates(2, dest), is(2));
+        assertThat(Arrays.copyOf(dest, 4), is(new long[]{11, 12, 13, 14}));
+        assertThat(parser.readCoordinates(2, dest), is(2));
+        assertThat(Arrays.copyOf(dest, 4), is(new long[]{15, 16, 17, 18}));
+        assertThat(parser.readCoordinates(2, dest), is(0));
+        assertThat(parser.next(), is(END_ELEMENT));
+        assertThat(parser.next(), is(START_ELEMENT));
+        assertThat(parser.getString(), is("KP"));
+        parser.close();
+    }
+
+    @Test
+    public void shouldLeaveIncompletePointsUnread() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n.PUNKT 1: ..NØ 1 2 3 ..KP 1\n.SLUTT";
+        SosiParser parser = Sosi.createParser(new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8)));
+        advanceTo(parser, "NØ");
+        assertThat(parser.readCoordinates(2, new long[6]), is(1));
+        assertThat(parser.getString(), is("2"));
+        assertThat(parser.next(), is(VALUE_NUMBER));
+        assertThat(parser.getInt(), is(3));
+        assertThat(parser.next(), is(END_ELEMENT));
+    }
+
+    @Test
+    public void shouldLeavePointsWithCommentsUnread() {
+        assertThat(valuesAfterReadingCoordinates("..NØH\n1 2 3\n6650000 250000 !c\n12"),
+                is(Arrays.asList("1 2 3", "6650000", "250000", "!c", "12")));
+    }
+
+    @Test
+    public void shouldLeavePointsWithDecimalsUnread() {
+        assertThat(valuesAfterReadingCoordinates("..NØH\n1 2 3\n6650000 250000 12.5"),
+                is(Arrays.asList("1 2 3", "6650000", "250000", "12.5")));
+    }
+
+    @Test
+    public void shouldLeavePointsWithValuesOutsideIntRangeUnread() {
+        assertThat(valuesAfterReadingCoordinates("..NØH\n6650000 250000 3000000000"),
+                is(Arrays.asList("", "6650000", "250000", "3000000000")));
+    }
+
+    @Test
+    public void shouldLeavePointsSpanningBufferRefillsUnread() {
+        StringBuilder sosi = new StringBuilder(".HODE ..TEGNSETT UTF-8\n.KURVE 1: ..NØH\n");
+        for (int i = 0; i < 100; i++) {
+            sosi.append(i).append(" 250000 ").append(i).append('\n');
+        }
+        sosi.append("1 2 3.5\n.SLUTT");
+        SosiParserConfig config = SosiParserConfig.builder().bufferSize(16).build();
+        SosiParser parser = Sosi.createParser(new StringReader(sosi.toString()), config);
+        advanceTo(parser, "NØH");
+        List<Integer> values = new ArrayList<>();
+        assertThat(parser.readCoordinates(3, p -> values.add(p[0])), is(100));
+        assertThat(values.get(99), is(99));
+        assertThat(parser.getString(), is("99"));
+        assertThat(parser.next(), is(VALUE_NUMBER));
+        assertThat(parser.getString(), is("1"));
+        assertThat(parser.getLocation().getLineNumber(), is(103L));
+    }
+
+    @Test
+    public void shouldKeepTextOfCoordinateValues() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n.PUNKT 1: ..NØ 007 +4\n.SLUTT";
+        SosiParser parser = Sosi.createParser(new StringReader(sosi));
+        advanceTo(parser, "NØ");
+        assertThat(parser.readCoordinates(2, new long[2]), is(1));
+        assertThat(parser.getString(), is("+4"));
+        assertThat(parser.getInt(), is(4));
+    }
+
+    // Reads the coordinates of the element, giving the points read followed by the values left to read
+    private List<String> valuesAfterReadingCoordinates(String element) {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n.PUNKT 1: " + element + "\n.SLUTT";
+        SosiParser parser = Sosi.createParser(new StringReader(sosi));
+        advanceTo(parser, "NØH");
+        StringBuilder read = new StringBuilder();
+        parser.readCoordinates(3, p -> read.append(read.length() > 0 ? " " : "").append(p[0]).append(' ').append(p[1]).append(' ').append(p[2]));
+        List<String> result = new ArrayList<>();
+        result.add(read.toString());
+        Event event;
+        while ((event = parser.next()) != END_ELEMENT) {
+            result.add(event == COMMENT ? "!" + parser.getString().trim() : parser.getString());
+        }
+        return result;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectReadingCoordinatesOutsideElement() {
+        SosiParser parser = Sosi.createParser(getResource("valid_real_data.sos"));
+        parser.next();
+        parser.readCoordinates(2, new long[6]);
+    }
+
+    @Test
+    public void shouldRecoverFromErrorsAtNextTopLevelElement() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n" +
+                ".PUNKT 1: ..NØ 1 2\n" +
+                ".KURVE 2: ..NØ 3 4 ....KP 1\n" +
+                ".PUNKT 3: ..NØ\n" +
+                ".PUNKT 4: ..NØ 5 6\n" +
+                ".SLUTT";
+        SosiParser parser = Sosi.createParser(new StringReader(sosi));
+        parser.enable(SosiParser.Feature.RECOVER_FROM_ERRORS);
+
+        List<String> topLevelElements = new ArrayList<>();
+        int depth = 0;
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (event.isOneOf(START_HEAD, START_ELEMENT)) {
+                if (depth++ == 0) {
+                    topLevelElements.add(parser.getString());
+                }
+            } else if (event.isOneOf(END_HEAD, END_ELEMENT)) {
+                depth--;
+            } else if (event == VALUE_SERNO && depth == 1) {
+                topLevelElements.add(parser.getString());
+            }
+        }
+
+        assertThat(depth, is(0));
+        assertThat(topLevelElements, is(Arrays.asList("HODE", "PUNKT", "1", "KURVE", "2", "PUNKT", "3", "PUNKT", "4")));
+        List<SosiParsingError> errors = parser.getErrors();
+        assertThat(errors.size(), is(2));
+        assertThat(errors.get(0).getLocation().getLineNumber(), is(3L));
+        assertThat(errors.get(0).getStartOffset(), is((long)sosi.indexOf(".KURVE")));
+        assertThat(errors.get(0).getEndOffset(), is((long)sosi.indexOf(".PUNKT 3")));
+        assertThat(errors.get(1).getStartOffset(), is((long)sosi.indexOf(".PUNKT 3")));
+        assertThat(errors.get(1).getEndOffset(), is((long)sosi.indexOf(".PUNKT 4")));
+    }
+
+    @Test
+    public void shouldCloseOpenElementsWhenRecoveringFromInputEndingInsideElement() {
+        String sosi = ".HODE ..TEGNSETT UTF-8\n" +
+                ".KURVE 1: ..NØ 1 2 ....KP 1\n" +
+                ".KURVE 2: ..NØ 3 4";
+        SosiParser parser = Sosi.createParser(new StringReader(sosi));
+        parser.enable(SosiParser.Feature.RECOVER_FROM_ERRORS);
+
+        List<Event> events = new ArrayList<>();
+        while (parser.hasNext()) {
+            events.add(parser.next());
+        }
+
+        assertThat(events.subList(events.size() - 3, events.size()), is(Arrays.asList(END_ELEMENT, END_ELEMENT, END)));
+        assertThat(parser.getString(), is("SLUTT"));
+        assertThat(parser.getErrors().size(), is(2));
+        assertThat(parser.getErrors().get(1).getStartOffset(), is((long)sosi.indexOf(".KURVE 2")));
+    }
+
+    @Test(expected = SosiParsingException.class)
+    public void shouldNotRecoverFromErrorsByDefault() {
+        SosiParser parser = Sosi.createParser(new StringReader(".HODE ..TEGNSETT UTF-8 .KURVE 2: ..NØ 3 4 ....KP 1 .SLUTT"));
+        while (parser.hasNext()) {
+            parser.next();
+        }
+    }
+
+    @Test
+    public void shouldReportProgressWhileParsing() {
+        List<long[]> reports = new ArrayList<>();
+        SosiParserConfig config = SosiParserConfig.builder()
+                .bufferSize(256)
+                .progressIntervalMillis(0)
+                .progressListener((chars, features, millis) -> reports.add(new long[] { chars, features, millis }))
+                .build();
+        SosiParser parser = Sosi.createParser(getResource("valid_real_data.sos"), config);
+        int features = 0;
+        int depth = 0;
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (event == START_ELEMENT && depth++ == 0) {
+                features++;
+            } else if (event == START_HEAD) {
+                depth++;
+            } else if (event.isOneOf(END_HEAD, END_ELEMENT)) {
+                depth--;
+            }
+        }
+
+        assertTrue(reports.size() > 2);
+        for (int i = 1; i < reports.size(); i++) {
+            assertTrue(reports.get(i)[0] >= reports.get(i - 1)[0]);
+            assertTrue(reports.get(i)[1] >= reports.get(i - 1)[1]);
+        }
+        long[] last = reports.get(reports.size() - 1);
+        assertThat(last[0], is(parser.getLocation().getStreamOffset()));
+        assertThat(last[1], is((long)features));
+    }
+
+    @Test
+    public void shouldStopParsingWhenCancelled() {
+        SosiCancellationToken cancellationToken = new SosiCancellationToken();
+        SosiParserConfig config = SosiParserConfig.builder()
+                .bufferSize(256)
+                .cancellationToken(cancellationToken)
+                .build();
+        SosiParser parser = Sosi.createParser(getResource("valid_real_data.sos"), config);
+        int events = 0;
+        try {
+            while (parser.hasNext()) {
+                parser.next();
+                if (++events == 100) {
+                    cancellationToken.cancel();
+                }
+            }
+            fail("Expected parsing to be cancelled");
+        } catch (SosiCancelledException e) {
+            assertTrue(events >= 100);
+        }
+    }
+
+    private void advanceTo(SosiParser parser, String name) {
+        while (!(parser.next() == START_ELEMENT && parser.getString().equals(name))) {
+            // keep reading
+        }
+    }
+
+    private List<String> eventsReadingCoordinates(SosiParser parser, boolean useReadCoordinates) {
+        List<String> result = new ArrayList<>();
+        boolean readingCoordinates = false;
+        String lastCoordinate = null;
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (readingCoordinates && event == VALUE_NUMBER) {
+                result.add(parser.getString());
+                lastCoordinate = parser.getString() + parser.getLocation();
+                continue;
+            } else if (readingCoordinates) {
+                result.add(lastCoordinate);
+                readingCoordinates = false;
+            }
+            result.add(describeEvent(parser, event));
+            if (event == START_ELEMENT && parser.getString().equals("NØH")) {
+                if (useReadCoordinates) {
+                    parser.readCoordinates(3, p -> {
+                        for (int value : p) {
+                            result.add(Integer.toString(value));
+                        }
+                    });
+                    result.add(parser.getString() + parser.getLocation());
+                } else {
+                    readingCoordinates = true;
+                }
+            }
+        }
+        parser.close();
+        return result;
+    }
+
+    private List<String> eventsSkipping(SosiParser parser, String name, boolean useSkipElement) {
+        List<String> result = new ArrayList<>();
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            result.add(describeEvent(parser, event));
+            if (event.isOneOf(START_HEAD, START_ELEMENT) && parser.getString().equals(name)) {
+                if (useSkipElement) {
+                    event = parser.skipElement();
+                } else {
+                    int levels = 1;
+                    do {
+                        event = parser.next();
+                        if (event.isOneOf(START_HEAD, START_ELEMENT)) {
+                            levels++;
+                        } else if (event.isOneOf(END_HEAD, END_ELEMENT)) {
+                            levels--;
+                        }
+                    } while (levels > 0);
+                }
+                result.add(event.name() + parser.getLocation());
+            }
+        }
+        parser.close();
+        return result;
+    }
+
+    private List<String> eventsSkipping(SosiNonBlockingParser parser, byte[] sosi, int chunkSize, String name) {
+        List<String> result = new ArrayList<>();
+        int offset = 0;
+        boolean skipping = false;
+        while (parser.hasNext()) {
+            if (parser.needMoreInput()) {
+                if (offset < sosi.length) {
+                    int len = Math.min(chunkSize, sosi.length - offset);
+                    parser.feedInput(ByteBuffer.wrap(sosi, offset, len));
+                    offset += len;
+                } else {
+                    parser.endOfInput();
+                }
+            }
+            Event event = skipping ? parser.skipElement() : parser.next();
+            if (event == Event.NOT_AVAILABLE) {
+                continue;
+            }
+            if (skipping) {
+                result.add(event.name() + parser.getLocation());
+                skipping = false;
+            } else {
+                result.add(describeEvent(parser, event));
+                skipping = event.isOneOf(START_HEAD, START_ELEMENT) && parser.getString().equals(name);
+            }
+        }
+        parser.close();
+        return result;
+    }
+
+    private String describeEvent(SosiParser parser, Event event) {
+        return event.isOneOf(VALUE_STRING, VALUE_NUMBER, VALUE_SERNO, VALUE_REF, START_HEAD, START_ELEMENT, COMMENT)
+                ? event + "(" + parser.getString() + ")" + parser.getLocation()
+                : event.name() + parser.getLocation();
+    }
+
+    private List<String> eventsAndValues(SosiNonBlockingParser parser, byte[] sosi, int chunkSize) {
+        List<String> result = new ArrayList<>();
+        int offset = 0;
+        while (parser.hasNext()) {
+            if (parser.needMoreInput()) {
+                if (offset < sosi.length) {
+                    int len = Math.min(chunkSize, sosi.length - offset);
+                    parser.feedInput(ByteBuffer.wrap(sosi, offset, len));
+                    offset += len;
+                } else {
+                    parser.endOfInput();
+                }
+            }
+            Event event = parser.next();
+            if (event != Event.NOT_AVAILABLE) {
+                result.add(event.isOneOf(VALUE_STRING, VALUE_NUMBER, VALUE_SERNO, VALUE_REF, START_ELEMENT, COMMENT)
+                        ? event + "(" + parser.getString() + ")" + parser.getLocation()
+                        : event.name());
+            }
+        }
+        parser.close();
+        return result;
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private List<String> eventsAndValues(SosiParser parser) {
+        List<String> result = new ArrayList<>();
+        try {
+            while (parser.hasNext()) {
+                Event event = parser.next();
+                result.add(event.isOneOf(VALUE_STRING, VALUE_NUMBER, VALUE_SERNO, VALUE_REF, START_ELEMENT, COMMENT)
+                        ? event + "(" + parser.getString() + ")" + parser.getLocation()
+                        : event.name());
+            }
+        } finally {
+            parser.close();
+        }
+        return result;
+    }
+
     private byte[] asByteArray(int... values) {
         byte[] bytes = new byte[values.length];
         for (int i = 0; i < values.length; i++) {
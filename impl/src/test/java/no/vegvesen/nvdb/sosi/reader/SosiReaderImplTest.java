@@ -29,6 +29,7 @@ package no.vegvesen.nvdb.sosi.reader;
 import no.vegvesen.nvdb.sosi.Sosi;
 import no.vegvesen.nvdb.sosi.document.SosiDocument;
 import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
 import no.vegvesen.nvdb.sosi.document.SosiNumber;
 import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
 import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
@@ -36,10 +37,15 @@ import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
 import no.vegvesen.nvdb.sosi.document.SosiString;
 import no.vegvesen.nvdb.sosi.document.SosiValue;
 import no.vegvesen.nvdb.sosi.encoding.SosiEncoding;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import no.vegvesen.nvdb.sosi.parser.SosiParser;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
 import org.junit.Test;
 
 import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -49,6 +55,7 @@ import static no.vegvesen.nvdb.sosi.TestUtils.streamToBytes;
 import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
 import static no.vegvesen.nvdb.sosi.utils.Predicates.hasSerialNumber;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
@@ -196,4 +203,169 @@ public class SosiReaderImplTest {
         SosiDocument doc = reader.read();
         assertThat(doc.findElementRecursively(hasName("ORIGO-NØ")).isPresent(), is(true));
     }
+
+    @Test
+    public void shouldReadElementByElement() {
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        List<String> expected = doc.elements()
+                .filter(hasName("SLUTT").negate())
+                .map(e -> e.getName() + e.getLocation())
+                .collect(toList());
+
+        SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"));
+        List<String> actual = new ArrayList<>();
+        Optional<SosiElement> element;
+        while ((element = reader.readElement()).isPresent()) {
+            actual.add(element.get().getName() + element.get().getLocation());
+        }
+        reader.close();
+
+        assertThat(actual, is(expected));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReadDocumentAfterReadingElements() {
+        SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"));
+        reader.readElement();
+        reader.read();
+    }
+
+    @Test
+    public void shouldComputeExtentsWhileReading() {
+        final String sosi = ".HODE ..TEGNSETT UTF-8 " +
+                ".PUNKT 1: ..OBJTYPE Kum ..NØH 100 200 7 " +
+                ".KURVE 2: ..OBJTYPE Kant ..NØ 110 190 105.5 230 ...KP 1 " +
+                ".FLATE 3: ..OBJTYPE Areal ..REF :2 " +
+                ".SLUTT";
+
+        SosiDocument doc = Sosi.createReader(new StringReader(sosi)).read();
+
+        assertThat(doc.getHead().getExtent().isPresent(), is(false));
+        assertThat(doc.findElement(hasSerialNumber(1)).get().getExtent().get(), is(SosiExtent.of(100, 200, 100, 200, 7, 7, 1)));
+        SosiElement curve = doc.findElement(hasSerialNumber(2)).get();
+        assertThat(curve.getExtent().get(), is(SosiExtent.of(105.5, 190, 110, 230, Double.NaN, Double.NaN, 2)));
+        assertThat(curve.getExtent(), is(SosiExtent.of(curve)));
+        assertThat(doc.findElement(hasSerialNumber(3)).get().getExtent().isPresent(), is(false));
+        assertThat(doc.getExtent().get(), is(SosiExtent.of(100, 190, 110, 230, 7, 7, 3)));
+    }
+
+    @Test
+    public void shouldCheckExtentAgainstDeclaredArea() {
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        SosiExtent extent = SosiExtents.extentOf(doc).get();
+        assertThat(extent.hasHeight(), is(true));
+        assertThat(SosiExtents.declaredAreaOf(doc.getHead()).get().contains(extent), is(true));
+        assertThat(SosiExtents.isWithinDeclaredArea(doc), is(true));
+
+        final String sosi = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...ORIGO-NØ 1000 2000 ...ENHET 0.1 " +
+                "..OMRÅDE ...MIN-NØ 1000 2000 ...MAX-NØ 1010 2010 " +
+                ".PUNKT 1: ..NØ 50 50 " +
+                ".PUNKT 2: ..NØ 101 50 " +
+                ".SLUTT";
+        SosiDocument outside = Sosi.createReader(new StringReader(sosi)).read();
+        assertThat(SosiExtents.extentOf(outside).get(), is(SosiExtent.of(1005, 2005, 1010.1, 2005, Double.NaN, Double.NaN, 2)));
+        assertThat(SosiExtents.isWithinDeclaredArea(outside), is(false));
+    }
+
+    @Test
+    public void shouldComputeFingerprintsWhileReading() {
+        final String sosi = ".HODE ..TEGNSETT UTF-8 " +
+                ".PUNKT 1: ..OBJTYPE Kum ..NAVN \"Ola Nordmann\" ..HØYDE 2.40 ..REF :1 (:2) " +
+                ".PUNKT 2: ..OBJTYPE Kum ..NØ 1 2 " +
+                ".SLUTT";
+        final String reformatted = ".HODE\r\n..TEGNSETT UTF-8\r\n" +
+                ".PUNKT 7:\r\n..OBJTYPE   Kum ! Renumbered\r\n..NAVN 'Ola ' & 'Nordmann'\r\n..HØYDE 2.4\r\n..REF :1\r\n(:2)\r\n" +
+                ".PUNKT 2:\r\n..OBJTYPE Kum\r\n..NØ 1 3\r\n" +
+                ".SLUTT";
+        SosiParserConfig config = SosiParserConfig.builder().fingerprint(true).build();
+
+        SosiDocument doc = Sosi.createReader(new StringReader(sosi), config).read();
+        SosiDocument other = Sosi.createReader(new StringReader(reformatted), config).read();
+
+        assertThat(doc.getHead().getFingerprint().isPresent(), is(true));
+        assertThat(doc.findElement(hasSerialNumber(1)).get().getFingerprint(), is(other.findElement(hasSerialNumber(7)).get().getFingerprint()));
+        assertThat(doc.findElement(hasSerialNumber(2)).get().getFingerprint(), is(not(other.findElement(hasSerialNumber(2)).get().getFingerprint())));
+        assertThat(Sosi.createReader(new StringReader(sosi)).read().getHead().getFingerprint().isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldFingerprintIntegersByValue() {
+        final String sosi = ".HODE ..TEGNSETT UTF-8 " +
+                ".PUNKT 1: ..ANTALL 7 ..NØ 7 2 " +
+                ".PUNKT 2: ..ANTALL 007 ..NØ +7 2.0 " +
+                ".PUNKT 3: ..ANTALL +7 ..NØ 007 -0 " +
+                ".PUNKT 4: ..ANTALL 7.5 ..NØ 7 2 " +
+                ".SLUTT";
+        SosiDocument doc = Sosi.createReader(new StringReader(sosi), SosiParserConfig.builder().fingerprint(true).build()).read();
+
+        assertThat(doc.findElement(hasSerialNumber(2)).get().getFingerprint(), is(doc.findElement(hasSerialNumber(1)).get().getFingerprint()));
+        assertThat(doc.findElement(hasSerialNumber(3)).get().getFingerprint(), is(not(doc.findElement(hasSerialNumber(1)).get().getFingerprint())));
+        assertThat(doc.findElement(hasSerialNumber(4)).get().getFingerprint(), is(not(doc.findElement(hasSerialNumber(1)).get().getFingerprint())));
+    }
+
+    @Test
+    public void shouldCompareRefIslandsByRefNumbers() {
+        SosiDocument doc = Sosi.createReader(new StringReader(".HODE ..TEGNSETT UTF-8 .FLATE 1: ..REF (:2 :-3) (:2 :-3) (:2 :3) .SLUTT")).read();
+        List<SosiRefIsland> islands = doc.findElement(hasSerialNumber(1)).get()
+                .findSubElement(hasName("REF")).get()
+                .getValuesAs(SosiRefIsland.class);
+
+        assertThat(islands.get(0), is(islands.get(1)));
+        assertThat(islands.get(0).hashCode(), is(islands.get(1).hashCode()));
+        assertThat(islands.get(0), is(not(islands.get(2))));
+    }
+
+    @Test
+    public void shouldSkipElementsWithErrorsWhenRecovering() {
+        final String sosi = ".HODE ..TEGNSETT UTF-8 " +
+                ".PUNKT 1: ..NØ 1 2 " +
+                ".FLATE 2: ..REF (:1 :2 " +
+                ".PUNKT 3: ..NØ 5 6 " +
+                ".SLUTT";
+        SosiReader reader = Sosi.createReader(new StringReader(sosi));
+        reader.getParser().enable(SosiParser.Feature.RECOVER_FROM_ERRORS);
+
+        SosiDocument doc = reader.read();
+
+        assertThat(doc.elements().map(SosiElement::getName).collect(toList()), is(Arrays.asList("HODE", "PUNKT", "PUNKT", "SLUTT")));
+        assertThat(reader.getParser().getErrors().size(), is(1));
+    }
+
+    @Test
+    public void shouldReadDocumentWithoutHeadWhenRecoveringFromErrorInHead() {
+        final String sosi = ".HODE\n..TEGNSETT UTF-8\n..OMRÅDE\n....MIN-NØ 1 2\n.KURVE 1:\n..NØ 1 2\n.SLUTT\n";
+        SosiReader reader = Sosi.createReader(new StringReader(sosi));
+        reader.getParser().enable(SosiParser.Feature.RECOVER_FROM_ERRORS);
+
+        SosiDocument doc = reader.read();
+
+        assertThat(doc.elements().map(SosiElement::getName).collect(toList()), is(Arrays.asList("KURVE", "SLUTT")));
+        assertThat(reader.getParser().getErrors().size(), is(1));
+    }
+
+    @Test
+    public void shouldReadDocumentWithMissingHeadWhenAllowed() {
+        SosiReader reader = Sosi.createReader(new StringReader(".KURVE 1: ..NØ 1 2 .SLUTT"));
+        reader.getParser().enable(SosiParser.Feature.ALLOW_MISSING_OR_INVALID_CHARSET);
+        reader.getParser().enable(SosiParser.Feature.ALLOW_MISSING_HEAD);
+
+        SosiDocument doc = reader.read();
+
+        assertThat(doc.elements().map(SosiElement::getName).collect(toList()), is(Arrays.asList("KURVE", "SLUTT")));
+    }
+
+    @Test
+    public void shouldEndDocumentWhenRecoveringFromInputEndingInsideFeature() {
+        final String sosi = ".HODE ..TEGNSETT UTF-8 " +
+                ".PUNKT 1: ..NØ 1 2 " +
+                ".PUNKT 2: ..NØ 3";
+        SosiReader reader = Sosi.createReader(new StringReader(sosi));
+        reader.getParser().enable(SosiParser.Feature.RECOVER_FROM_ERRORS);
+
+        SosiDocument doc = reader.read();
+
+        assertThat(doc.elements().map(SosiElement::getName).collect(toList()), is(Arrays.asList("HODE", "PUNKT", "SLUTT")));
+        assertThat(reader.getParser().getErrors().size(), is(1));
+        assertThat(reader.getParser().getErrors().get(0).getStartOffset(), is((long)sosi.indexOf(".PUNKT 2")));
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.reader.SosiReader;
+import no.vegvesen.nvdb.sosi.writer.SosiWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.util.stream.Collectors.joining;
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.hasName;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the OffHeapSosiDocument class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class OffHeapSosiDocumentTest {
+    private static final String[] FILES = {"valid_real_data.sos", "valid_with_island_refs.sos", "valid_with_special_values.sos",
+            "valid_varying_strings_and_numbers.sos", "valid_utf8_with_bom.sos"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldHoldSameDocumentInDirectBuffers() {
+        for (String file : FILES) {
+            SosiDocument doc = Sosi.createReader(getResource(file)).read();
+            try (SosiReader reader = Sosi.createReader(getResource(file));
+                 OffHeapSosiDocument offHeapDoc = OffHeapSosiDocument.read(reader)) {
+                assertThat("Off-heap document differs for " + file, describe(offHeapDoc), is(describe(doc)));
+                assertThat(offHeapDoc.getElements().size(), is(doc.getElements().size()));
+                assertThat(offHeapDoc.getEncoding(), is(doc.getEncoding()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldHoldSameDocumentInSmallSegmentsOfScratchFile() throws Exception {
+        for (String file : FILES) {
+            SosiDocument doc = Sosi.createReader(getResource(file)).read();
+            Path scratchFile = folder.getRoot().toPath().resolve(file + ".scratch");
+            try (SosiReader reader = Sosi.createReader(getResource(file));
+                 OffHeapSosiDocument offHeapDoc = OffHeapSosiDocument.read(reader, new OffHeapSosiDocument.MappedStorage(scratchFile), 256)) {
+                assertThat("Off-heap document differs for " + file, describe(offHeapDoc), is(describe(doc)));
+                assertThat(Files.exists(scratchFile), is(true));
+            }
+            assertThat(Files.exists(scratchFile), is(false));
+        }
+    }
+
+    @Test
+    public void shouldWriteSameOutputAsParsedDocument() {
+        SosiDocument doc = Sosi.createReader(getResource("valid_real_data.sos")).read();
+        try (SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"));
+             OffHeapSosiDocument offHeapDoc = OffHeapSosiDocument.read(reader)) {
+            assertThat(write(offHeapDoc), is(write(doc)));
+            assertThat(offHeapDoc.findElementRecursively(hasName("NØ")).map(SosiElement::getLocation),
+                    is(doc.findElementRecursively(hasName("NØ")).map(SosiElement::getLocation)));
+            assertThat(offHeapDoc.getEnd().getName(), is(SosiDocument.ELEMENT_END));
+        }
+    }
+
+    @Test
+    public void shouldRejectAccessAfterClose() {
+        SosiElement head;
+        try (SosiReader reader = Sosi.createReader(getResource("valid_real_data.sos"));
+             OffHeapSosiDocument offHeapDoc = OffHeapSosiDocument.read(reader)) {
+            head = offHeapDoc.getHead();
+            offHeapDoc.close();
+            try {
+                offHeapDoc.elements();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        try {
+            head.values();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private String write(SosiDocument doc) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SosiWriter writer = Sosi.createWriter(out, doc.getEncoding())) {
+            writer.write(doc);
+        }
+        return new String(out.toByteArray(), doc.getEncoding());
+    }
+
+    private String describe(SosiDocument doc) {
+        return doc.elements().map(this::describe).collect(joining("\n"));
+    }
+
+    private String describe(SosiElement element) {
+        return element.getName() + element.getLocation().toString() + element.hasValues() + element.hasSubElements()
+                + element.values().map(this::describe).collect(joining(" ", "[", "]"))
+                + element.subElements().map(this::describe).collect(joining(",", "{", "}"));
+    }
+
+    private String describe(SosiValue value) {
+        String description = value.getValueType() + ":" + value.getString() + ":" + value.getClass().getSimpleName()
+                + value.getLocation().toString();
+        if (value instanceof SosiRefIsland) {
+            description += ((SosiRefIsland)value).refNumbers()
+                    .map(r -> r.isInsideIsland() + ":" + r.isReversedOrder() + r.getLocation().toString())
+                    .collect(joining(",", "(", ")"));
+        } else if (value instanceof SosiRefNumber) {
+            description += ((SosiRefNumber)value).isInsideIsland() + ":" + ((SosiRefNumber)value).isReversedOrder();
+        }
+        return description;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.snapshot;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiRefIsland;
+import no.vegvesen.nvdb.sosi.document.SosiRefNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.parser.SosiParserConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiSnapshot and SosiSnapshotWriter classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadSameDocumentFromSnapshot() throws IOException {
+        for (String file : new String[]{"valid_real_data.sos", "valid_with_island_refs.sos", "valid_with_special_values.sos",
+                "valid_varying_strings_and_numbers.sos", "valid_utf8_with_bom.sos"}) {
+            Path sosiFile = copyResource(file);
+            SosiDocument doc = Sosi.createReader(getResource(file)).read();
+
+            Path withLocations = folder.getRoot().toPath().resolve(file + ".loc.snap");
+            SosiSnapshotWriter.write(doc, sosiFile, withLocations, true);
+            assertThat("Snapshot with locations differs for " + file, describe(SosiSnapshot.read(withLocations), true), is(describe(doc, true)));
+
+            Path withoutLocations = folder.getRoot().toPath().resolve(file + ".snap");
+            SosiSnapshotWriter.write(doc, sosiFile, withoutLocations, false);
+            assertThat("Snapshot without locations differs for " + file, describe(SosiSnapshot.read(withoutLocations), false), is(describe(doc, false)));
+        }
+    }
+
+    @Test
+    public void shouldUseSnapshotAsCacheUntilSourceChanges() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        Path snapshotFile = SosiSnapshotWriter.snapshotFileOf(sosiFile);
+        assertThat(SosiSnapshot.isUpToDate(snapshotFile, sosiFile, false), is(false));
+
+        SosiDocument parsed = SosiSnapshot.readCached(sosiFile);
+        assertThat(SosiSnapshot.isUpToDate(snapshotFile, sosiFile, true), is(true));
+        assertThat(describe(SosiSnapshot.readCached(sosiFile), true), is(describe(parsed, true)));
+
+        Files.setLastModifiedTime(sosiFile, FileTime.fromMillis(Files.getLastModifiedTime(sosiFile).toMillis() + 2000));
+        assertThat(SosiSnapshot.isUpToDate(snapshotFile, sosiFile, false), is(false));
+    }
+
+    @Test
+    public void shouldNotWriteSnapshotWhenSourceChangesWhileParsing() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        Path snapshotFile = SosiSnapshotWriter.snapshotFileOf(sosiFile);
+        long modified = Files.getLastModifiedTime(sosiFile).toMillis();
+        SosiParserConfig config = SosiParserConfig.builder()
+                .bufferSize(256)
+                .progressIntervalMillis(0)
+                .progressListener((chars, features, millis) -> {
+                    try {
+                        Files.setLastModifiedTime(sosiFile, FileTime.fromMillis(modified + 2000));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .build();
+
+        SosiDocument parsed = SosiSnapshot.readCached(sosiFile, config);
+        assertThat(parsed.elements().count() > 2, is(true));
+        assertThat(Files.exists(snapshotFile), is(false));
+
+        SosiSnapshot.readCached(sosiFile);
+        assertThat(SosiSnapshot.isUpToDate(snapshotFile, sosiFile, true), is(true));
+    }
+
+    @Test
+    public void shouldParseAgainWhenSnapshotIsTruncated() throws IOException {
+        Path sosiFile = copyResource("valid_real_data.sos");
+        Path snapshotFile = SosiSnapshotWriter.snapshotFileOf(sosiFile);
+        SosiDocument parsed = SosiSnapshot.readCached(sosiFile);
+
+        byte[] snapshot = Files.readAllBytes(snapshotFile);
+        Files.write(snapshotFile, Arrays.copyOf(snapshot, snapshot.length / 2));
+        assertThat(SosiSnapshot.isUpToDate(snapshotFile, sosiFile, false), is(true));
+
+        assertThat(describe(SosiSnapshot.readCached(sosiFile), true), is(describe(parsed, true)));
+        assertThat(Files.readAllBytes(snapshotFile), is(snapshot));
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertThat(files.filter(file -> file.toString().endsWith(".tmp")).count(), is(0L));
+        }
+    }
+
+    private Path copyResource(String name) throws IOException {
+        Path target = folder.getRoot().toPath().resolve(name);
+        try (InputStream in = getResource(name)) {
+            Files.copy(in, target);
+        }
+        return target;
+    }
+
+    private String describe(SosiDocument doc, boolean withLocations) {
+        return doc.elements().map(e -> describe(e, withLocations)).collect(joining("\n"));
+    }
+
+    private String describe(SosiElement element, boolean withLocations) {
+        return element.getName() + (withLocations ? element.getLocation().toString() : "")
+                + element.values().map(v -> describe(v, withLocations)).collect(joining(" ", "[", "]"))
+                + element.subElements().map(e -> describe(e, withLocations)).collect(joining(",", "{", "}"));
+    }
+
+    private String describe(SosiValue value, boolean withLocations) {
+        String description = value.getValueType() + ":" + value.getString() + ":" + value.getClass().getSimpleName()
+                + (withLocations ? value.getLocation().toString() : "");
+        if (value instanceof SosiRefIsland) {
+            description += ((SosiRefIsland)value).refNumbers()
+                    .map(r -> r.isInsideIsland() + ":" + r.isReversedOrder() + (withLocations ? r.getLocation().toString() : ""))
+                    .collect(joining(",", "(", ")"));
+        } else if (value instanceof SosiRefNumber) {
+            description += ((SosiRefNumber)value).isInsideIsland() + ":" + ((SosiRefNumber)value).isReversedOrder();
+        }
+        return description;
+    }
+}
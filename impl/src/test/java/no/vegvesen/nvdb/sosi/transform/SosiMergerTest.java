@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.transform;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.SosiException;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import no.vegvesen.nvdb.sosi.geometry.SosiTranspar;
+import no.vegvesen.nvdb.sosi.utils.LongLongMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isEnd;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiMerger and LongLongMap classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiMergerTest {
+    private static final String FIRST = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 22 ...ORIGO-NØ 0 0 ...ENHET 0.1 " +
+            "..OMRÅDE ...MIN-NØ 0 0 ...MAX-NØ 10 10\n" +
+            ".FLATE 7: ..OBJTYPE Areal ..REF :1 :-3 (:5)\n" +
+            ".KURVE 1: ..OBJTYPE Kant ..NØ 10 20 30 40\n" +
+            ".KURVE 3: ..OBJTYPE Kant ..NØ 30 40 10 20\n" +
+            ".KURVE 5: ..OBJTYPE Kant ..NØ 11 21 12 22\n" +
+            ".SLUTT";
+    private static final String SECOND = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 22 ...ORIGO-NØ 0 0 ...ENHET 0.1 " +
+            "..OMRÅDE ...MIN-NØ 5 -5 ...MAX-NØ 20 8\n" +
+            ".KURVE 1: ..OBJTYPE Kant ..NØ 50 60 70 80\n" +
+            ".FLATE 2: ..OBJTYPE Areal ..REF :-1\n" +
+            ".SLUTT";
+    private static final String FINER = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 22 ...ORIGO-NØ 100 0 ...ENHET 0.01 ...ENHET-H 0.001 " +
+            "..OMRÅDE ...MIN-NØ 100 0 ...MAX-NØ 110 10\n" +
+            ".PUNKT 1: ..OBJTYPE Kum ..NØH 5 15 1234\n" +
+            ".SLUTT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRenumberFeaturesAndRewriteReferences() throws IOException {
+        Path merged = folder.getRoot().toPath().resolve("merged.sos");
+        long featureCount = SosiMerger.builder().build().merge(Arrays.asList(write(FIRST), write(SECOND)), merged);
+
+        assertThat(featureCount, is(6L));
+        SosiDocument doc = Sosi.createReader(Files.newInputStream(merged)).read();
+        assertThat(describe(doc), is(Arrays.asList(
+                "FLATE 1: REF :2 :-3 (:4)",
+                "KURVE 2: NØ 10 20 30 40",
+                "KURVE 3: NØ 30 40 10 20",
+                "KURVE 4: NØ 11 21 12 22",
+                "KURVE 5: NØ 50 60 70 80",
+                "FLATE 6: REF :-5")));
+        assertThat(SosiExtents.declaredAreaOf(doc.getHead()).get(), is(SosiExtent.of(0, -5, 20, 10)));
+        assertThat(SosiTranspar.of(doc.getHead()).getUnit(), is(new BigDecimal("0.1")));
+    }
+
+    @Test
+    public void shouldRescaleCoordinatesToFinestUnit() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SosiMerger.builder().firstSerialNumber(100).build().merge(Arrays.asList(write(SECOND), write(FINER)), out);
+
+        SosiDocument doc = Sosi.createReader(new ByteArrayInputStream(out.toByteArray())).read();
+        SosiTranspar transpar = SosiTranspar.of(doc.getHead());
+        assertThat(transpar.getOriginNorth().compareTo(BigDecimal.ZERO), is(0));
+        assertThat(transpar.getUnit().compareTo(new BigDecimal("0.01")), is(0));
+        assertThat(transpar.getHeightUnit().compareTo(new BigDecimal("0.001")), is(0));
+        assertThat(describe(doc), is(Arrays.asList(
+                "KURVE 100: NØ 500 600 700 800",
+                "FLATE 101: REF :-100",
+                "PUNKT 102: NØH 10005 15 1234")));
+    }
+
+    @Test(expected = SosiException.class)
+    public void shouldNotMergeDifferentUnitsWithoutRescaling() throws IOException {
+        SosiMerger.builder().rescale(false).build().merge(Arrays.asList(write(SECOND), write(FINER)), new ByteArrayOutputStream());
+    }
+
+    @Test(expected = SosiException.class)
+    public void shouldNotMergeDifferentCoordinateSystems() throws IOException {
+        SosiMerger.builder().build().merge(Arrays.asList(write(SECOND), write(SECOND.replace("KOORDSYS 22", "KOORDSYS 23"))), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void shouldMapLongsToLongs() {
+        LongLongMap map = new LongLongMap(2);
+        for (long key = -1000; key <= 1000; key++) {
+            assertThat(map.put(key * 7919, key, -1), is(-1L));
+        }
+        assertThat(map.size(), is(2001));
+        assertThat(map.get(0, -1), is(0L));
+        assertThat(map.get(-7919, -1), is(-1L));
+        assertThat(map.get(1000L * 7919, -1), is(1000L));
+        assertThat(map.get(1, -2), is(-2L));
+        assertThat(map.put(0, 42, -1), is(0L));
+        assertThat(map.get(0, -1), is(42L));
+        assertThat(map.containsKey(7919), is(true));
+        assertThat(map.containsKey(7918), is(false));
+        map.clear();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.containsKey(0), is(false));
+    }
+
+    private Path write(String sosi) throws IOException {
+        Path sosiFile = folder.newFile().toPath();
+        Files.write(sosiFile, sosi.getBytes(StandardCharsets.UTF_8));
+        return sosiFile;
+    }
+
+    private static List<String> describe(SosiDocument doc) {
+        return doc.elements()
+                .filter(isHead().negate().and(isEnd().negate()))
+                .map(e -> e.getName() + " " + e.values().map(SosiValue::getString).collect(joining(" ")) + " " +
+                        e.subElements().filter(s -> !s.getName().equals("OBJTYPE"))
+                                .map(s -> s.getName() + " " + s.values().map(SosiValue::getString).collect(joining(" ")))
+                                .collect(joining(" ")))
+                .collect(toList());
+    }
+}
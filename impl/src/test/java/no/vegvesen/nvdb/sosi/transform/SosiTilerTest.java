@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.transform;
+
+import no.vegvesen.nvdb.sosi.Sosi;
+import no.vegvesen.nvdb.sosi.document.SosiDocument;
+import no.vegvesen.nvdb.sosi.document.SosiElement;
+import no.vegvesen.nvdb.sosi.document.SosiExtent;
+import no.vegvesen.nvdb.sosi.document.SosiSerialNumber;
+import no.vegvesen.nvdb.sosi.document.SosiValue;
+import no.vegvesen.nvdb.sosi.geometry.SosiExtents;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isEnd;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isHead;
+import static no.vegvesen.nvdb.sosi.utils.Predicates.isType;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiTiler class.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiTilerTest {
+    private static final String FEATURES = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 22 ...ORIGO-NØ 0 0 ...ENHET 0.1 " +
+            "..OMRÅDE ...MIN-NØ 0 0 ...MAX-NØ 1000 1000 ..EIER \"Ærlig\"\n" +
+            ".PUNKT 1: ..OBJTYPE Kum ..NØ 500 500\n" +
+            ".PUNKT 2: ..OBJTYPE Kum ..NØ 1500 500\n" +
+            ".KURVE 3: ..OBJTYPE Kant ..NØ 500 500 500 2500\n" +
+            ".FLATE 4: ..OBJTYPE Areal ..REF :3\n" +
+            ".TEKST 5: ..OBJTYPE Navn ..STRENG \"Uten koordinater\"\n" +
+            ".KURVE 6: ..OBJTYPE Kant ..NØ 100 100 1900 2900\n" +
+            ".SLUTT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteFeaturesToAllTouchedTiles() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        SosiTilingResult result = SosiTiler.builder()
+                .tileSize(100)
+                .maxOpenFiles(1)
+                .build()
+                .split(toStream(FEATURES), directory);
+
+        assertThat(result.getFeatureCount(), is(6L));
+        assertThat(result.getUnplacedCount(), is(1L));
+        assertThat(describe(result), is(Arrays.asList(
+                "0,0 [1, 3, 4, 6]", "0,1 [3, 4, 6]", "0,2 [3, 4]", "1,0 [2]", "1,1 [6]", "1,2 [6]")));
+
+        SosiTilingResult.Tile tile = result.getTiles().get(1);
+        assertThat(tile.getPath(), is(directory.resolve("tile_0_1.sos")));
+        assertThat(tile.getFeatureCount(), is(3L));
+        SosiDocument doc = read(tile.getPath());
+        assertThat(SosiExtents.declaredAreaOf(doc.getHead()).get(), is(SosiExtent.of(0, 100, 100, 200)));
+        assertThat(tile.getArea(), is(SosiExtent.of(0, 100, 100, 200)));
+        assertThat(doc.getHead().subElements().map(SosiElement::getName).collect(toList()),
+                is(Arrays.asList("TEGNSETT", "TRANSPAR", "OMRÅDE", "EIER")));
+        assertThat(SosiExtents.isWithinDeclaredArea(doc), is(false));
+    }
+
+    @Test
+    public void shouldWriteFeaturesToTileOfFirstPoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        SosiTilingResult result = SosiTiler.builder()
+                .tileSize(100)
+                .policy(SosiTiler.Policy.FIRST_POINT)
+                .fileNamePrefix("rute")
+                .build()
+                .split(toStream(FEATURES), directory);
+
+        assertThat(describe(result), is(Arrays.asList("0,0 [1, 3, 4, 6]", "1,0 [2]")));
+        assertThat(Files.exists(directory.resolve("rute1_0.sos")), is(true));
+        assertThat(SosiExtents.isWithinDeclaredArea(read(directory.resolve("rute1_0.sos"))), is(true));
+    }
+
+    private static List<String> describe(SosiTilingResult result) {
+        return result.getTiles().stream()
+                .map(tile -> tile.getRow() + "," + tile.getColumn() + " " + serialNumbersOf(read(tile.getPath())))
+                .collect(toList());
+    }
+
+    private static List<Long> serialNumbersOf(SosiDocument doc) {
+        return doc.elements()
+                .filter(isHead().negate().and(isEnd().negate()))
+                .map(e -> ((SosiSerialNumber)e.values().filter(isType(SosiValue.ValueType.SERNO)).findFirst().get()).longValue())
+                .collect(toList());
+    }
+
+    private static SosiDocument read(Path sosiFile) {
+        try (InputStream in = Files.newInputStream(sosiFile)) {
+            return Sosi.createReader(in).read();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static InputStream toStream(String sosi) {
+        return new ByteArrayInputStream(sosi.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015-2016, Statens vegvesen
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package no.vegvesen.nvdb.sosi.validation;
+
+import no.vegvesen.nvdb.sosi.utils.LongArrayList;
+import no.vegvesen.nvdb.sosi.utils.LongHashSet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.vegvesen.nvdb.sosi.TestUtils.getResource;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.DUPLICATE_SERIAL_NUMBER;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.INVALID_COORDINATE_COUNT;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.MISSING_REFERENCE;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.NON_CURVE_REFERENCE;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.OUTSIDE_AREA;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.UNCLOSED_RING;
+import static no.vegvesen.nvdb.sosi.validation.SosiProblem.Type.UNKNOWN_COORDSYS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the SosiValidator, LongHashSet and LongArrayList classes.
+ *
+ * @author Tore Eide Andersen (Kantega AS)
+ */
+public class SosiValidatorTest {
+    private static final String INVALID = ".HODE ..TEGNSETT UTF-8 ..TRANSPAR ...KOORDSYS 999 ...ORIGO-NØ 0 0 ...ENHET 1 " +
+            "..OMRÅDE ...MIN-NØ 0 0 ...MAX-NØ 100 100\n" +
+            ".KURVE 1: ..NØ 0 0 10 0 10 10\n" +
+            ".KURVE 2: ..NØ 10 10 0 0\n" +
+            ".FLATE 3: ..REF :1 :2\n" +
+            ".FLATE 4: ..REF :1 :-2\n" +
+            ".FLATE 5: ..REF :6 :3 :99\n" +
+            ".KURVE 6: ..NØH 1 2 3 4\n" +
+            ".PUNKT 1: ..NØ 200 5\n" +
+            ".SLUTT";
+
+    @Test
+    public void shouldFindNoProblemsInValidFile() {
+        SosiValidationResult result = SosiValidator.builder().build().validate(getResource("valid_real_data.sos"), null);
+
+        assertThat(result.getProblems().toString(), result.isValid(), is(true));
+        assertThat(result.getFeatureCount() > 0, is(true));
+    }
+
+    @Test
+    public void shouldFindProblemsInOnePass() {
+        List<SosiProblem> consumed = new ArrayList<>();
+        SosiValidationResult result = SosiValidator.builder().build()
+                .validate(new ByteArrayInputStream(INVALID.getBytes(StandardCharsets.UTF_8)), consumed::add);
+
+        assertThat(result.getFeatureCount(), is(7L));
+        assertThat(result.getProblemCount(), is(7L));
+        for (SosiProblem.Type type : new SosiProblem.Type[] {UNKNOWN_COORDSYS, DUPLICATE_SERIAL_NUMBER, NON_CURVE_REFERENCE,
+                MISSING_REFERENCE, UNCLOSED_RING, INVALID_COORDINATE_COUNT, OUTSIDE_AREA}) {
+            assertThat(type.name(), result.getProblemCount(type), is(1L));
+        }
+        assertThat(consumed, is(result.getProblems()));
+
+        SosiProblem missing = problemOf(result, MISSING_REFERENCE);
+        assertThat(missing.getLocation().getLineNumber(), is(6L));
+        assertThat(missing.getMessage(), is("REF :99 refers to no feature"));
+        assertThat(problemOf(result, UNCLOSED_RING).getLocation().getLineNumber(), is(5L));
+        assertThat(problemOf(result, DUPLICATE_SERIAL_NUMBER).getLocation().getLineNumber(), is(8L));
+    }
+
+    @Test
+    public void shouldKeepMaxProblems() {
+        SosiValidationResult result = SosiValidator.builder().maxProblems(2).build()
+                .validate(new ByteArrayInputStream(INVALID.getBytes(StandardCharsets.UTF_8)), null);
+
+        assertThat(result.getProblems().size(), is(2));
+        assertThat(result.getProblemCount(), is(7L));
+    }
+
+    @Test
+    public void shouldHoldLongsInPrimitiveCollections() {
+        LongHashSet set = new LongHashSet(2);
+        for (long value = -500; value < 500; value++) {
+            assertThat(set.add(value * 7919), is(true));
+        }
+        assertThat(set.add(0), is(false));
+        assertThat(set.size(), is(1000));
+        assertThat(set.contains(7919), is(true));
+        assertThat(set.contains(7920), is(false));
+
+        LongArrayList list = new LongArrayList(1);
+        list.add(3);
+        list.add(-1);
+        list.add(2);
+        list.sort();
+        assertThat(list.get(0), is(-1L));
+        assertThat(list.binarySearch(2) >= 0, is(true));
+        assertThat(list.binarySearch(4) < 0, is(true));
+    }
+
+    private static SosiProblem problemOf(SosiValidationResult result, SosiProblem.Type type) {
+        return result.getProblems().stream().filter(p -> p.getType() == type).findFirst().get();
+    }
+}